@@ -7,11 +7,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import com.aific.finances.util.StaxUtils;
 import com.aific.finances.util.Utils;
 
 
@@ -237,6 +242,28 @@ public class Account {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		out.writeAttribute("id", id);
+		
+		StaxUtils.writeTextElement(out, "institution", institution);
+		for (String n : numberHashes) {
+			StaxUtils.writeTextElement(out, "number_sha3", n);
+		}
+		StaxUtils.writeTextElement(out, "type", type.name());
+		StaxUtils.writeTextElement(out, "name", name);
+		StaxUtils.writeTextElement(out, "short_name", shortName);
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML
 	 * 
@@ -268,6 +295,42 @@ public class Account {
 	}
 
 
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static Account fromXMLStream(XMLStreamReader in) throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		String id = StaxUtils.getAttribute(in, "id");
+		String institution = null;
+		String sType = null;
+		String name = null;
+		String shortName = null;
+		ArrayList<String> numberHashes = new ArrayList<String>();
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case "institution": institution = in.getElementText(); break;
+			case "type": sType = in.getElementText(); break;
+			case "name": name = in.getElementText(); break;
+			case "short_name": shortName = in.getElementText(); break;
+			case "number_sha3": numberHashes.add(in.getElementText()); break;
+			default: StaxUtils.skipElement(in);
+			}
+		}
+		
+		AccountType type = Enum.valueOf(AccountType.class, sType);
+		
+		return new Account(id, institution, numberHashes, type, name, shortName);
+	}
+
+
 	/**
 	 * Create a hash of the account number
 	 * 
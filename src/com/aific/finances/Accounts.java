@@ -4,11 +4,17 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.aific.finances.util.StaxUtils;
+
 
 /**
  * The collection of all accounts
@@ -84,6 +90,23 @@ public class Accounts {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		for (Account a : accounts.values()) {
+			a.toXMLStream(out);
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -112,4 +135,32 @@ public class Accounts {
 		
 		return accounts;
 	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static Accounts fromXMLStream(XMLStreamReader in) throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		Accounts accounts = new Accounts();
+		
+		while (StaxUtils.nextChildElement(in)) {
+			if (in.getLocalName().equals(Account.XML_ELEMENT)) {
+				Account a = Account.fromXMLStream(in);
+				accounts.accounts.put(a.getId(), a);
+			}
+			else {
+				StaxUtils.skipElement(in);
+			}
+		}
+		
+		return accounts;
+	}
 }
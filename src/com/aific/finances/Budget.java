@@ -4,12 +4,17 @@ import java.text.ParseException;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.aific.finances.util.SharedList;
 import com.aific.finances.util.SharedListListener;
+import com.aific.finances.util.StaxUtils;
 
 
 /**
@@ -89,6 +94,52 @@ public class Budget {
 	}
 
 
+	/**
+	 * Create an instance of {@link Budget}
+	 * 
+	 * @param in the XML stream reader positioned at the start of the element
+	 * @param document the parent document
+	 * @throws XMLStreamException on read error
+	 */
+	private Budget(XMLStreamReader in, Document document) throws XMLStreamException
+	{
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case BudgetItemList.XML_ELEMENT_INCOME:
+				if (income != null) {
+					throw new RuntimeException("The budget must have one <" + BudgetItemList.XML_ELEMENT_INCOME + "> element");
+				}
+				income = BudgetItemList.fromXMLStream(in, document);
+				break;
+			case BudgetItemList.XML_ELEMENT_EXPENSES:
+				if (expenses != null) {
+					throw new RuntimeException("The budget must have one <" + BudgetItemList.XML_ELEMENT_EXPENSES + "> element");
+				}
+				expenses = BudgetItemList.fromXMLStream(in, document);
+				break;
+			default:
+				StaxUtils.skipElement(in);
+			}
+		}
+		
+		if (income == null) {
+			throw new RuntimeException("The budget must have one <" + BudgetItemList.XML_ELEMENT_INCOME + "> element");
+		}
+		if (expenses == null) {
+			throw new RuntimeException("The budget must have one <" + BudgetItemList.XML_ELEMENT_EXPENSES + "> element");
+		}
+
+		
+		// Finalize
+		
+		handler = new Handler();
+		income.addSharedListListener(handler);
+		expenses.addSharedListListener(handler);
+	}
+
+
 	/**
 	 * Get the income items
 	 * 
@@ -169,6 +220,22 @@ public class Budget {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+
+		income.toXMLStream(out);
+		expenses.toXMLStream(out);
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -185,6 +252,22 @@ public class Budget {
 	}
 	
 	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static Budget fromXMLStream(XMLStreamReader in,
+			Document document) throws XMLStreamException {
+
+		return new Budget(in, document);
+	}
+	
+	
 	/**
 	 * An event handler
 	 */
@@ -2,10 +2,15 @@ package com.aific.finances;
 
 import java.text.ParseException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Element;
 
 import com.aific.finances.util.DateFrequencyUnit;
 import com.aific.finances.util.DateUnit;
+import com.aific.finances.util.StaxUtils;
 
 
 /**
@@ -307,6 +312,26 @@ public class BudgetItem {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		if (category != null) StaxUtils.writeTextElement(out, "category", category.getId());
+		StaxUtils.writeTextElement(out, "cents", "" + cents);
+		StaxUtils.writeTextElement(out, "frequency", "" + frequency);
+		StaxUtils.writeTextElement(out, "frequency-unit", frequencyUnit.getValueForXml());
+		if (description != null) StaxUtils.writeTextElement(out, "description", description);
+		if (note != null) StaxUtils.writeTextElement(out, "note", note);
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML
 	 * 
@@ -348,4 +373,49 @@ public class BudgetItem {
 		
 		return b;
 	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static BudgetItem fromXMLStream(XMLStreamReader in, Document document)
+			throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		String s_category = null;
+		String s_cents = null;
+		String s_frequency = null;
+		String s_frequencyUnit = null;
+		String description = null;
+		String note = null;
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case "category": s_category = in.getElementText(); break;
+			case "cents": s_cents = in.getElementText(); break;
+			case "frequency": s_frequency = in.getElementText(); break;
+			case "frequency-unit": s_frequencyUnit = in.getElementText(); break;
+			case "description": description = in.getElementText(); break;
+			case "note": note = in.getElementText(); break;
+			default: StaxUtils.skipElement(in);
+			}
+		}
+		
+		BudgetItem b = new BudgetItem();
+		b.category = s_category != null ? document.getCategories().get(s_category) : null;
+		b.cents = Integer.parseInt(s_cents);
+		b.frequency = Integer.parseInt(s_frequency);
+		b.frequencyUnit = DateFrequencyUnit.parseXmlValue(s_frequencyUnit);
+		b.description = description;
+		b.note = note;
+		
+		return b;
+	}
 }
@@ -2,11 +2,16 @@ package com.aific.finances;
 
 import java.text.ParseException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.aific.finances.util.SharedArrayList;
+import com.aific.finances.util.StaxUtils;
 
 
 /**
@@ -117,6 +122,33 @@ public class BudgetItemList extends SharedArrayList<BudgetItem> {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		
+		switch (type) {
+		case EXPENSES:
+			out.writeStartElement(XML_ELEMENT_EXPENSES);
+			break;
+		case INCOME:
+			out.writeStartElement(XML_ELEMENT_INCOME);
+			break;
+		default:
+			throw new IllegalStateException("Illegal budget list type");
+		}
+		
+		for (BudgetItem item : this) {
+			item.toXMLStream(out);
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -151,4 +183,41 @@ public class BudgetItemList extends SharedArrayList<BudgetItem> {
 		
 		return l;
 	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static BudgetItemList fromXMLStream(XMLStreamReader in,
+			Document document) throws XMLStreamException {
+		
+		BudgetItemList l;
+		
+		if (in.getLocalName().equals(XML_ELEMENT_EXPENSES)) {
+			l = new BudgetItemList(Type.EXPENSES);
+		}
+		else if (in.getLocalName().equals(XML_ELEMENT_INCOME)) {
+			l = new BudgetItemList(Type.INCOME);
+		}
+		else {
+			throw new IllegalArgumentException();
+		}
+		
+		while (StaxUtils.nextChildElement(in)) {
+			if (in.getLocalName().equals(BudgetItem.XML_ELEMENT)) {
+				l.add(BudgetItem.fromXMLStream(in, document));
+			}
+			else {
+				StaxUtils.skipElement(in);
+			}
+		}
+		
+		return l;
+	}
 }
@@ -2,11 +2,16 @@ package com.aific.finances;
 
 import java.text.ParseException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.aific.finances.util.SharedArrayList;
+import com.aific.finances.util.StaxUtils;
 
 
 /**
@@ -60,6 +65,23 @@ public class Budgets {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+
+		for (Budget b : budgets) {
+			b.toXMLStream(out);
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -88,4 +110,33 @@ public class Budgets {
 		
 		return l;
 	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static Budgets fromXMLStream(XMLStreamReader in,
+			Document document) throws XMLStreamException {
+
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		Budgets l = new Budgets();
+		
+		while (StaxUtils.nextChildElement(in)) {
+			if (in.getLocalName().equals(Budget.XML_ELEMENT)) {
+				l.budgets.add(Budget.fromXMLStream(in, document));
+			}
+			else {
+				StaxUtils.skipElement(in);
+			}
+		}
+		
+		return l;
+	}
 }
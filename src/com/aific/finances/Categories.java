@@ -6,13 +6,19 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -20,6 +26,10 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXParseException;
 
+import com.aific.finances.util.MultiPatternMatcher;
+import com.aific.finances.util.RequiredLiteralIndex;
+import com.aific.finances.util.StaxUtils;
+
 
 /**
  * The collection of all categories
@@ -34,10 +44,71 @@ public class Categories extends AbstractList<Category> {
 
 	private static Categories builtinCategories = fromBuiltin();
 	
+	private static final int MAX_DETECTION_ATTEMPTS = 3;
+	
+	
+	/**
+	 * When to detect the categories of the transactions of a document that
+	 * is being loaded
+	 */
+	public enum DetectionMode {
+		
+		/**
+		 * Detect the categories of each transaction as it is read
+		 */
+		IMMEDIATE,
+		
+		/**
+		 * Restore the stored category detectors first, and then detect the
+		 * categories of all transactions in one batch once the list is built
+		 */
+		DEFERRED,
+		
+		/**
+		 * Restore the stored category detectors first, and then detect the
+		 * categories of all transactions in one batch on the first access
+		 * to the detectors or the matching transaction of any of them
+		 */
+		LAZY
+	}
+	
+	
+	/**
+	 * How the detected categories are assigned to the transactions. The
+	 * detectors are tried in the order of their priority: in the order of
+	 * the categories, and within each category in the order in which the
+	 * detectors were added. The first detector that accepts a transaction
+	 * determines its category.
+	 */
+	public enum AssignmentMode {
+		
+		/**
+		 * Evaluate all detectors against each transaction to determine its
+		 * candidate detectors right away
+		 */
+		EAGER,
+		
+		/**
+		 * Stop at the first detector that accepts the transaction, and find
+		 * the candidate detectors only on the first access to them
+		 */
+		LAZY
+	}
+	
 	ArrayList<Category> categories;
 	HashMap<String, CategoryDetector> detectors;
 	
 	private List<CategoriesListener> listeners;
+	private ForkJoinPool detectionPool;
+	
+	private ArrayList<CategoryDetector> detectorsByOrdinal;
+	private MultiPatternMatcher patternMatcher;
+	private RequiredLiteralIndex literalIndex;
+	private int rulesVersion;
+	private DetectionCache detectionCache;
+	private volatile CategoryDetectionEngine detectionEngine;
+	private volatile boolean profilingEnabled;
+	private volatile AssignmentMode assignmentMode;
 
 	
 	/**
@@ -48,6 +119,16 @@ public class Categories extends AbstractList<Category> {
 		this.categories = new ArrayList<Category>();
 		this.detectors = new HashMap<String, CategoryDetector>();
 		this.listeners = null;
+		this.detectionPool = ForkJoinPool.commonPool();
+		
+		this.detectorsByOrdinal = new ArrayList<CategoryDetector>();
+		this.patternMatcher = new MultiPatternMatcher();
+		this.literalIndex = new RequiredLiteralIndex();
+		this.rulesVersion = 0;
+		this.detectionCache = new DetectionCache();
+		this.detectionEngine = null;
+		this.profilingEnabled = false;
+		this.assignmentMode = AssignmentMode.LAZY;
 	}
 	
 	
@@ -128,29 +209,40 @@ public class Categories extends AbstractList<Category> {
 	 */
 	public boolean detectCategories(Transaction transaction,
 			TransactionList existingTransactions) {
+		return detectCategories(transaction, existingTransactions, Integer.MAX_VALUE);
+	}
+	
+	
+	/**
+	 * Attempt to detect possible categories for the given transaction,
+	 * considering only the first few existing transactions when looking
+	 * for matching transactions
+	 * 
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions
+	 * @param limit the number of existing transactions to consider
+	 * @return true if at least one category was found
+	 */
+	boolean detectCategories(Transaction transaction,
+			TransactionList existingTransactions, int limit) {
 		
-		HashSet<CategoryDetector> matches = new HashSet<CategoryDetector>();
-		CategoryDetector firstMatch = null;
-		
-		for (Category c : categories) {
-			for (CategoryDetector d : c.getDetectors()) {
-				if (d.accepts(transaction, existingTransactions)) {
-					matches.add(d);
-					if (firstMatch == null) {
-						firstMatch = d;
-					}
-				}
-			}
-		}
-		
-		transaction.setCandidateDetectors(matches);
-		
-		if (firstMatch != null
-				&& transaction.getCategoryDetector() == NULL_DETECTOR) {
-			transaction.setCategoryDetector(firstMatch);
-		}
-		
-		return !matches.isEmpty();
+		return detect(Collections.singletonList(transaction),
+				existingTransactions, new int[] { limit }, false) > 0;
+	}
+	
+	
+	/**
+	 * Find all detectors that accept a transaction, without changing it or
+	 * any other transaction
+	 * 
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions to search
+	 *                             for matching transactions, or null if none
+	 * @return the set of the candidate detectors
+	 */
+	CategoryDetectorSet findCandidateDetectors(Transaction transaction,
+			TransactionList existingTransactions) {
+		return getDetectionEngine().findCandidates(transaction, existingTransactions);
 	}
 	
 	
@@ -162,7 +254,7 @@ public class Categories extends AbstractList<Category> {
 	 */
 	public void detectCategoriesAll(Collection<Transaction> transactions,
 			TransactionList existingTransactions) {
-		for (Transaction t : transactions) detectCategories(t, existingTransactions);
+		detect(new ArrayList<Transaction>(transactions), existingTransactions, null, false);
 	}
 	
 	
@@ -172,8 +264,395 @@ public class Categories extends AbstractList<Category> {
 	 * @param transactionList the transaction list
 	 */
 	public void detectCategoriesForUncategorized(TransactionList transactionList) {
-		for (Transaction t : transactionList.getList())
-			if (t.getCategory() == null) detectCategories(t, transactionList);
+		
+		ArrayList<Transaction> l = new ArrayList<Transaction>();
+		synchronized (transactionList) {
+			for (Transaction t : transactionList.getList())
+				if (t.getCategory() == null) l.add(t);
+		}
+		
+		detect(l, transactionList, null, true);
+	}
+	
+	
+	/**
+	 * Detect the categories of the given transactions using a snapshot of the
+	 * rules. If the rules change while the detectors are being evaluated, the
+	 * results are stale, so evaluate the detectors again using a new snapshot,
+	 * up to a few times, before applying the results.
+	 * 
+	 * @param transactions the transactions in the order in which they would be detected one at a time
+	 * @param existingTransactions the list of existing transactions
+	 * @param limits the number of existing transactions to consider for each transaction when
+	 *               looking for matching transactions, or null to consider all of them
+	 * @param onlyUncategorized true to apply the results only to the transactions that do not
+	 *                          have a category by the time their results are applied
+	 * @return the number of transactions accepted by at least one detector
+	 */
+	int detect(List<Transaction> transactions, TransactionList existingTransactions,
+			int[] limits, boolean onlyUncategorized) {
+		return evaluate(transactions, existingTransactions, limits, false, null).apply(onlyUncategorized);
+	}
+	
+	
+	/**
+	 * Evaluate the detectors against the given transactions using a snapshot
+	 * of the rules without applying the results, so that the slow part of the
+	 * detection can run on another thread than the one that changes the
+	 * transactions. If the rules change in the meantime, evaluate the
+	 * detectors again using a new snapshot, up to a few times.
+	 * 
+	 * @param transactions the transactions in the order in which they would be detected one at a time
+	 * @param existingTransactions the list of existing transactions
+	 * @param limits the number of existing transactions to consider for each transaction when
+	 *               looking for matching transactions, or null to consider all of them
+	 * @param appended true if the transactions will be appended to the list in order before the
+	 *                 results are applied, in which case the limits are required; the list is
+	 *                 then locked only while the candidate matching transactions are copied, so
+	 *                 the caller needs to check that the list did not change before applying
+	 *                 the results
+	 * @param canceled the check whether the evaluation was canceled, or null if it cannot be
+	 * @return the evaluation, which is stale if its version of the rules is no longer current
+	 * @throws CancellationException if the evaluation was canceled
+	 */
+	CategoryDetectionEngine.Evaluation evaluate(List<Transaction> transactions,
+			TransactionList existingTransactions, int[] limits, boolean appended,
+			BooleanSupplier canceled) {
+		
+		CategoryDetectionEngine.Evaluation e = getDetectionEngine().evaluate(transactions,
+				existingTransactions, limits, appended, canceled);
+		
+		for (int attempt = 1; attempt < MAX_DETECTION_ATTEMPTS
+				&& e.getRulesVersion() != getRulesVersion(); attempt++) {
+			e = getDetectionEngine().evaluate(transactions, existingTransactions, limits,
+					appended, canceled);
+		}
+		
+		return e;
+	}
+	
+	
+	/**
+	 * Evaluate all detectors against all transactions in a list to collect
+	 * their profiling statistics, without changing the transactions. The
+	 * previous statistics are reset first.
+	 * 
+	 * @param transactionList the transaction list
+	 */
+	public void profileDetectors(TransactionList transactionList) {
+		
+		ArrayList<Transaction> l;
+		synchronized (transactionList) {
+			l = new ArrayList<Transaction>(transactionList.getList());
+		}
+		
+		resetStatistics();
+		getDetectionEngine().profile(l, transactionList);
+	}
+	
+	
+	/**
+	 * Get the mode of assigning the detected categories to the transactions
+	 * 
+	 * @return the mode
+	 */
+	public AssignmentMode getAssignmentMode() {
+		return assignmentMode;
+	}
+	
+	
+	/**
+	 * Set the mode of assigning the detected categories to the transactions.
+	 * This affects only the detections that start afterwards.
+	 * 
+	 * @param assignmentMode the mode
+	 */
+	public void setAssignmentMode(AssignmentMode assignmentMode) {
+		if (assignmentMode == null) throw new IllegalArgumentException("The mode cannot be null");
+		this.assignmentMode = assignmentMode;
+	}
+	
+	
+	/**
+	 * Get the fork/join pool used to detect the categories of many transactions at once
+	 * 
+	 * @return the pool
+	 */
+	public ForkJoinPool getDetectionPool() {
+		return detectionPool;
+	}
+	
+	
+	/**
+	 * Set the fork/join pool used to detect the categories of many transactions at once
+	 * 
+	 * @param detectionPool the pool
+	 */
+	public void setDetectionPool(ForkJoinPool detectionPool) {
+		this.detectionPool = detectionPool;
+		this.detectionEngine = null;
+	}
+	
+	
+	/**
+	 * Get the engine for detecting categories using the current detectors,
+	 * which is an immutable snapshot of their rules. A new snapshot is created
+	 * on the first use after the rules change.
+	 * 
+	 * @return the engine
+	 */
+	CategoryDetectionEngine getDetectionEngine() {
+		
+		CategoryDetectionEngine e = detectionEngine;
+		if (e == null) {
+			synchronized (this) {
+				if (detectionEngine == null) {
+					detectionEngine = new CategoryDetectionEngine(this, detectionPool);
+				}
+				e = detectionEngine;
+			}
+		}
+		
+		return e;
+	}
+	
+	
+	/**
+	 * Get a detector by its ordinal, which is a dense index assigned to each
+	 * detector when it is added to one of the categories
+	 *
+	 * @param ordinal the ordinal
+	 * @return the detector
+	 */
+	synchronized CategoryDetector getDetectorByOrdinal(int ordinal) {
+		return detectorsByOrdinal.get(ordinal);
+	}
+
+
+	/**
+	 * Get the matcher that matches the descriptions of transactions against
+	 * the patterns of all detectors at once. The patterns are indexed by
+	 * the ordinals of the detectors. The matcher is updated in place when
+	 * the rules change, so the detection engine uses a copy of it.
+	 * 
+	 * @return the matcher
+	 */
+	MultiPatternMatcher getPatternMatcher() {
+		return patternMatcher;
+	}
+	
+	
+	/**
+	 * Get the index of the literals required by the patterns that the pattern
+	 * matcher does not support. The patterns are indexed by the ordinals of
+	 * the detectors. The index is updated in place when the rules change, so
+	 * the detection engine uses a copy of it.
+	 * 
+	 * @return the index
+	 */
+	RequiredLiteralIndex getLiteralIndex() {
+		return literalIndex;
+	}
+	
+	
+	/**
+	 * Get the cache of the detectors that match the transactions
+	 * 
+	 * @return the cache
+	 */
+	DetectionCache getDetectionCache() {
+		return detectionCache;
+	}
+	
+	
+	/**
+	 * Get the number of transactions whose matching detectors were found in
+	 * the detection cache
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getDetectionCacheHits() {
+		return detectionCache.getHits();
+	}
+	
+	
+	/**
+	 * Get the number of transactions whose matching detectors had to be
+	 * determined by evaluating the detectors
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getDetectionCacheMisses() {
+		return detectionCache.getMisses();
+	}
+	
+	
+	/**
+	 * Determine whether the profiling statistics of the detectors are collected
+	 * 
+	 * @return true if profiling is enabled
+	 */
+	public boolean isProfilingEnabled() {
+		return profilingEnabled;
+	}
+	
+	
+	/**
+	 * Enable or disable collecting the profiling statistics of the detectors.
+	 * While profiling is enabled, the detection evaluates the pattern of each
+	 * detector whose range of amounts contains the amount of the transaction
+	 * on its own, bypassing the shared pattern matcher and the detection cache,
+	 * so that the time spent by each detector can be measured. This makes the
+	 * detection considerably slower.
+	 * 
+	 * @param enabled true to enable profiling
+	 */
+	public void setProfilingEnabled(boolean enabled) {
+		this.profilingEnabled = enabled;
+	}
+	
+	
+	/**
+	 * Reset the profiling statistics of all detectors
+	 */
+	public void resetStatistics() {
+		for (CategoryDetector d : getAllDetectors()) d.getStatistics().reset();
+	}
+	
+	
+	/**
+	 * Get all detectors of all categories, ordered by the total time spent
+	 * evaluating them while profiling was enabled, the slowest first
+	 * 
+	 * @return the list of detectors
+	 */
+	public List<CategoryDetector> getDetectorsByTime() {
+		
+		List<CategoryDetector> l = getAllDetectors();
+		l.sort(new Comparator<CategoryDetector>() {
+
+			@Override
+			public int compare(CategoryDetector a, CategoryDetector b) {
+				return Long.compare(b.getStatistics().getNanoseconds(),
+						a.getStatistics().getNanoseconds());
+			}
+		});
+		
+		return l;
+	}
+	
+	
+	/**
+	 * Get all detectors of all categories
+	 * 
+	 * @return a new list of the detectors
+	 */
+	private synchronized List<CategoryDetector> getAllDetectors() {
+		
+		ArrayList<CategoryDetector> l = new ArrayList<CategoryDetector>();
+		for (Category c : categories) l.addAll(c.getDetectors());
+		
+		return l;
+	}
+	
+	
+	/**
+	 * Get the version of the categories and their detectors, which changes
+	 * every time that a category or a detector is added or a rule is changed
+	 * 
+	 * @return the version
+	 */
+	synchronized int getRulesVersion() {
+		return rulesVersion;
+	}
+	
+	
+	/**
+	 * A detector was added to one of the categories
+	 * 
+	 * @param detector the detector
+	 * @param replaced the detector with the same ID that it replaced, or null if none
+	 */
+	synchronized void detectorAdded(CategoryDetector detector, CategoryDetector replaced) {
+		
+		if (replaced != null && replaced != detector && replaced.ordinal >= 0
+				&& replaced.getCategory().getContainer() == this) {
+			patternMatcher.remove(replaced.ordinal);
+			literalIndex.remove(replaced.ordinal);
+		}
+		
+		if (detector.ordinal < 0) {
+			detector.ordinal = detectorsByOrdinal.size();
+			detectorsByOrdinal.add(detector);
+		}
+		
+		detectorChanged(detector);
+	}
+	
+	
+	/**
+	 * The rule of a detector has changed
+	 * 
+	 * @param detector the detector
+	 */
+	synchronized void detectorChanged(CategoryDetector detector) {
+		
+		if (detector.ordinal >= 0 && detector.isDisabled()) {
+			patternMatcher.remove(detector.ordinal);
+			literalIndex.remove(detector.ordinal);
+		}
+		else if (detector.ordinal >= 0 && detector != detector.getCategory().getNullDetector()) {
+			if (patternMatcher.put(detector.ordinal, detector.getPattern())) {
+				literalIndex.remove(detector.ordinal);
+			}
+			else {
+				literalIndex.put(detector.ordinal, detector.getPattern());
+			}
+		}
+		
+		rulesChanged();
+	}
+	
+	
+	/**
+	 * A detector and its matching detector were disabled, because one of
+	 * their patterns took too long to match
+	 * 
+	 * @param detector the detector
+	 */
+	synchronized void detectorDisabled(CategoryDetector detector) {
+		
+		detectorChanged(detector);
+		if (detector.getMatchingDetector() != null) detectorChanged(detector.getMatchingDetector());
+		
+		if (listeners != null) {
+			for (CategoriesListener l : listeners)
+				l.categoryDetectorDisabled(this, detector);
+		}
+	}
+	
+	
+	/**
+	 * Get the detectors that were disabled, because their patterns took too
+	 * long to match
+	 * 
+	 * @return a new list of the disabled detectors
+	 */
+	public List<CategoryDetector> getDisabledDetectors() {
+		
+		List<CategoryDetector> l = getAllDetectors();
+		l.removeIf(d -> !d.isDisabled());
+		
+		return l;
+	}
+	
+	
+	/**
+	 * The categories or the rules of their detectors have changed
+	 */
+	synchronized void rulesChanged() {
+		rulesVersion++;
+		detectionEngine = null;
 	}
 	
 	
@@ -278,6 +757,42 @@ public class Categories extends AbstractList<Category> {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		for (Category c : categories) {
+			c.toXMLStream(out);
+		}
+		
+		out.writeEndElement();
+	}
+
+	
+	/**
+	 * Write the updates to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void updatesToXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		for (Category c : categories) {
+			if (!c.isSameAsBuiltin()) {
+				c.updatesToXMLStream(out);
+			}
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML and update the contents of the current object
 	 * 
@@ -300,6 +815,29 @@ public class Categories extends AbstractList<Category> {
 	}
 	
 	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element and update the contents of the current object, leaving the
+	 * reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @throws XMLStreamException on read error
+	 */
+	public void updateFromXMLStream(XMLStreamReader in) throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		while (StaxUtils.nextChildElement(in)) {
+			if (in.getLocalName().equals(Category.XML_ELEMENT)) {
+				Category.fromXMLStream(in, this);
+			}
+			else {
+				StaxUtils.skipElement(in);
+			}
+		}
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -32,4 +32,13 @@ public interface CategoriesListener {
 	 * @param list the category list that triggered this event
 	 */
 	public void categoriesDataChanged(Categories list);
+
+	/**
+	 * A detector was disabled, because its pattern took too long to match.
+	 * This can be called from any thread.
+	 * 
+	 * @param list the category list that triggered this event
+	 * @param detector the detector
+	 */
+	public default void categoryDetectorDisabled(Categories list, CategoryDetector detector) {}
 }
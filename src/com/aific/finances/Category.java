@@ -4,12 +4,16 @@ import java.awt.Color;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -17,6 +21,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.aific.finances.plot.ChartSeries;
+import com.aific.finances.util.StaxUtils;
 
 
 /**
@@ -36,7 +41,7 @@ public class Category implements ChartSeries, Comparable<Category> {
 	private CategoryType type;
 	private Color color;
 	
-	private HashMap<String, CategoryDetector> detectors;
+	private LinkedHashMap<String, CategoryDetector> detectors;
 	private CategoryDetector nullDetector;
 	
 	private List<CategoryListener> listeners;
@@ -61,7 +66,7 @@ public class Category implements ChartSeries, Comparable<Category> {
 		this.color = color;
 		
 		this.listeners = null;
-		this.detectors = new HashMap<String, CategoryDetector>();
+		this.detectors = new LinkedHashMap<String, CategoryDetector>();
 		this.nullDetector = new CategoryDetector(id, this, null, null, ".*", 0, 0, null, null);
 		
 		if (categories != null) {
@@ -72,6 +77,7 @@ public class Category implements ChartSeries, Comparable<Category> {
 			synchronized (categories) {
 				int c = categories.categories.size();
 				categories.categories.add(this);
+				categories.rulesChanged();
 				categories.fireCategoriesAdded(c, c);
 			}
 		}
@@ -94,9 +100,14 @@ public class Category implements ChartSeries, Comparable<Category> {
 	 * @param detector the detector
 	 */
 	public void add(CategoryDetector detector) {
-		categories.detectors.put(detector.getId(), detector);
+		synchronized (categories) {
+			CategoryDetector replaced = categories.detectors.put(detector.getId(), detector);
+			if (detector != nullDetector) {
+				detectors.put(detector.getId(), detector);
+			}
+			categories.detectorAdded(detector, replaced);
+		}
 		if (detector != nullDetector) {
-			detectors.put(detector.getId(), detector);
 			fireCategoryDetectorAdded(detector);
 		}
 	}
@@ -183,7 +194,9 @@ public class Category implements ChartSeries, Comparable<Category> {
 	
 	
 	/**
-	 * Get all detectors
+	 * Get all detectors in the order in which they were added, which is also
+	 * the order of their priority within this category when more than one
+	 * detector matches a transaction
 	 * 
 	 * @return the set of all detectors
 	 */
@@ -344,6 +357,65 @@ public class Category implements ChartSeries, Comparable<Category> {
 	}
 	
 	
+	/**
+	 * Write the start of the element and the properties other than the
+	 * detectors to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	private void startXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		out.writeAttribute("id", id);
+		
+		StaxUtils.writeTextElement(out, "name", name);
+		StaxUtils.writeTextElement(out, "color_red", "" + color.getRed());
+		StaxUtils.writeTextElement(out, "color_green", "" + color.getGreen());
+		StaxUtils.writeTextElement(out, "color_blue", "" + color.getBlue());
+		StaxUtils.writeTextElement(out, "type", type.name());
+	}
+
+	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		startXMLStream(out);
+		
+		out.writeStartElement("detectors");
+		for (CategoryDetector d : detectors.values()) {
+			if (d.isDerived()) continue;
+			d.toXMLStream(out);
+		}
+		out.writeEndElement();
+		
+		out.writeEndElement();
+	}
+
+	
+	/**
+	 * Write updates to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void updatesToXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		startXMLStream(out);
+		
+		out.writeStartElement("detectors");
+		for (CategoryDetector d : detectors.values()) {
+			if (d.isDerived() || d.isSameAsBuiltin()) continue;
+			d.toXMLStream(out);
+		}
+		out.writeEndElement();
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML
 	 * 
@@ -364,6 +436,94 @@ public class Category implements ChartSeries, Comparable<Category> {
 		String cb = element.getElementsByTagName("color_blue").item(0).getTextContent();
 		String sType = element.getElementsByTagName("type").item(0).getTextContent();
 		
+		Category category = createOrUpdate(categories, id, name, cr, cg, cb, sType);
+		
+		Node detectorsNode = element.getElementsByTagName("detectors").item(0);
+		if (detectorsNode.getNodeType() != Node.ELEMENT_NODE) throw new IllegalArgumentException();
+		Element detectorsElement = (Element) detectorsNode;
+		
+		NodeList detectorsList = detectorsElement.getElementsByTagName(CategoryDetector.XML_ELEMENT);
+		for (int i = 0; i < detectorsList.getLength(); i++) {
+			Node n = detectorsList.item(i);
+			if (n.getNodeType() != Node.ELEMENT_NODE) throw new IllegalArgumentException();
+			
+			CategoryDetector.fromXMLElement(category, (Element) n);
+		}
+		
+		return category;
+	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param in the XML stream reader
+	 * @param categories the parent collection of categories
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static Category fromXMLStream(XMLStreamReader in, Categories categories)
+			throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		String id = StaxUtils.getAttribute(in, "id");
+		String name = null;
+		String cr = null;
+		String cg = null;
+		String cb = null;
+		String sType = null;
+		Category category = null;
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case "name": name = in.getElementText(); break;
+			case "color_red": cr = in.getElementText(); break;
+			case "color_green": cg = in.getElementText(); break;
+			case "color_blue": cb = in.getElementText(); break;
+			case "type": sType = in.getElementText(); break;
+			case "detectors":
+				
+				// The detectors are always written after the other properties
+				
+				if (category == null) category = createOrUpdate(categories, id, name, cr, cg, cb, sType);
+				
+				while (StaxUtils.nextChildElement(in)) {
+					if (in.getLocalName().equals(CategoryDetector.XML_ELEMENT)) {
+						CategoryDetector.fromXMLStream(category, in);
+					}
+					else {
+						StaxUtils.skipElement(in);
+					}
+				}
+				break;
+			default: StaxUtils.skipElement(in);
+			}
+		}
+		
+		if (category == null) category = createOrUpdate(categories, id, name, cr, cg, cb, sType);
+		
+		return category;
+	}
+	
+	
+	/**
+	 * Create a new category from the values read from a file, or update the
+	 * category with the same ID if it already exists
+	 * 
+	 * @param categories the parent collection of categories
+	 * @param id the unique ID
+	 * @param name the name
+	 * @param cr the red color component
+	 * @param cg the green color component
+	 * @param cb the blue color component
+	 * @param sType the category type
+	 * @return the category
+	 */
+	private static Category createOrUpdate(Categories categories, String id, String name,
+			String cr, String cg, String cb, String sType) {
+		
 		int r = Integer.parseInt(cr);
 		int g = Integer.parseInt(cg);
 		int b = Integer.parseInt(cb);
@@ -389,18 +549,6 @@ public class Category implements ChartSeries, Comparable<Category> {
 			category.setColor(color);
 		}
 		
-		Node detectorsNode = element.getElementsByTagName("detectors").item(0);
-		if (detectorsNode.getNodeType() != Node.ELEMENT_NODE) throw new IllegalArgumentException();
-		Element detectorsElement = (Element) detectorsNode;
-		
-		NodeList detectorsList = detectorsElement.getElementsByTagName(CategoryDetector.XML_ELEMENT);
-		for (int i = 0; i < detectorsList.getLength(); i++) {
-			Node n = detectorsList.item(i);
-			if (n.getNodeType() != Node.ELEMENT_NODE) throw new IllegalArgumentException();
-			
-			CategoryDetector.fromXMLElement(category, (Element) n);
-		}
-		
 		return category;
 	}
 	
@@ -0,0 +1,832 @@
+package com.aific.finances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+import com.aific.finances.util.EpochDays;
+import com.aific.finances.util.GuardedPattern;
+import com.aific.finances.util.IntervalIndex;
+import com.aific.finances.util.MultiPatternMatcher;
+import com.aific.finances.util.RequiredLiteralIndex;
+
+
+/**
+ * Detects the categories of many transactions at once using a fork/join pool.
+ * The detection runs in two phases: First, the detectors are evaluated against
+ * all transactions in parallel without modifying any shared state. Then the
+ * results, including the links between the matching transactions of the
+ * BALANCED categories, are applied sequentially in the order of the
+ * transactions, so that the outcome is the same as detecting the categories
+ * one transaction at a time.
+ * <p>
+ * Only a handful of detectors are evaluated against each transaction: an
+ * interval index over the ranges of amounts selects the detectors whose range
+ * contains the amount of the transaction, the description is matched against
+ * the supported patterns of all detectors at once, and the remaining patterns
+ * are evaluated only if the description contains the literals that they
+ * require. The detectors that match are cached by the description and the
+ * amount, since the same descriptions repeat many times.
+ * <p>
+ * The detectors are ordered by their priority, so the first detector that
+ * accepts a transaction determines its category. In the lazy assignment mode,
+ * the evaluation stops there, and the candidate detectors of the transaction
+ * are found only when they are first needed.
+ * <p>
+ * While profiling is enabled, the pattern of each detector in the range is
+ * instead evaluated on its own and timed, together with the search for the
+ * matching transaction, to collect the statistics of the detectors.
+ * <p>
+ * The engine is an immutable snapshot of the rules of all detectors at one
+ * version of the categories: the compiled patterns, the ranges of amounts,
+ * and the matching patterns are copied when the engine is created, so the
+ * detection is not affected by the changes to the rules that are made while
+ * it is running. The results of an evaluation remember the version of the
+ * rules, so that the caller can tell whether they are stale before applying
+ * them.
+ *
+ * @author Peter Macko
+ */
+class CategoryDetectionEngine {
+
+	private static final int SEQUENTIAL_THRESHOLD = 256;
+
+	private Categories categories;
+	private ForkJoinPool pool;
+
+	private Rule[] rules;
+	private int[] positionByOrdinal;
+	private IntervalIndex amountIndex;
+	private MultiPatternMatcher patternMatcher;
+	private boolean[] matchedByAutomaton;
+	private boolean useAutomaton;
+	private RequiredLiteralIndex literalIndex;
+	private boolean[] filteredByLiterals;
+	private boolean useLiterals;
+	private BitSet alwaysEvaluated;
+	private DetectionCache cache;
+	private int rulesVersion;
+
+
+	/**
+	 * Create an instance of {@link CategoryDetectionEngine} for the current
+	 * detectors of the given categories. The caller must hold the lock of the
+	 * categories, which also guards the changes to the rules, so that the
+	 * snapshot is consistent.
+	 *
+	 * @param categories the categories
+	 * @param pool the fork/join pool
+	 */
+	CategoryDetectionEngine(Categories categories, ForkJoinPool pool) {
+
+		this.categories = categories;
+		this.pool = pool;
+
+		ArrayList<Rule> l = new ArrayList<Rule>();
+		for (Category c : categories) {
+			for (CategoryDetector d : c.getDetectors()) l.add(new Rule(d));
+		}
+		this.rules = l.toArray(new Rule[l.size()]);
+
+		int ordinals = 0;
+		for (Rule r : rules) ordinals = Math.max(ordinals, r.detector.ordinal + 1);
+		this.positionByOrdinal = new int[ordinals];
+		Arrays.fill(positionByOrdinal, -1);
+
+		this.cache = categories.getDetectionCache();
+		this.rulesVersion = categories.getRulesVersion();
+
+		this.patternMatcher = categories.getPatternMatcher().copy();
+		this.matchedByAutomaton = new boolean[rules.length];
+		this.useAutomaton = false;
+		this.literalIndex = categories.getLiteralIndex().copy();
+		this.filteredByLiterals = new boolean[rules.length];
+		this.useLiterals = false;
+		this.alwaysEvaluated = new BitSet(rules.length);
+		this.amountIndex = new IntervalIndex();
+
+		for (int i = 0; i < rules.length; i++) {
+			CategoryDetector d = rules[i].detector;
+			if (d.hasCentsRange()) {
+				amountIndex.put(i, Math.min(d.getCentsMin(), d.getCentsMax()),
+						Math.max(d.getCentsMin(), d.getCentsMax()));
+			}
+			else {
+				amountIndex.putUnbounded(i);
+			}
+
+			int ordinal = d.ordinal;
+			if (ordinal >= 0) {
+				positionByOrdinal[ordinal] = i;
+				matchedByAutomaton[i] = patternMatcher.isMatched(ordinal);
+				filteredByLiterals[i] = !matchedByAutomaton[i] && literalIndex.isFiltered(ordinal);
+			}
+			useAutomaton |= matchedByAutomaton[i];
+			useLiterals |= filteredByLiterals[i];
+			if (!matchedByAutomaton[i] && !filteredByLiterals[i]) alwaysEvaluated.set(i);
+		}
+	}
+
+
+	/**
+	 * Get the version of the rules captured by this engine
+	 *
+	 * @return the version
+	 */
+	int getRulesVersion() {
+		return rulesVersion;
+	}
+
+
+	/**
+	 * Evaluate the detectors against the given transactions without applying
+	 * the results
+	 *
+	 * @param transactions the transactions in the order in which they would be detected one at a time
+	 * @param existingTransactions the list of existing transactions
+	 * @param limits the number of existing transactions to consider for each transaction when
+	 *               looking for matching transactions, or null to consider all of them
+	 * @param appended true if the transactions are not yet in the list, but they will be appended
+	 *                 to it in order before the results are applied, so that a limit past the end
+	 *                 of the list also covers the transactions before it in the given list;
+	 *                 the limits are then required, and they must not be less than the size
+	 *                 of the list
+	 * @param canceled the check whether the evaluation was canceled, or null if it cannot be
+	 * @return the evaluation, which can be then applied to the transactions
+	 * @throws CancellationException if the evaluation was canceled
+	 */
+	Evaluation evaluate(List<Transaction> transactions, TransactionList existingTransactions,
+			int[] limits, boolean appended, BooleanSupplier canceled) {
+
+		if (appended && limits == null) {
+			throw new IllegalArgumentException("The limits are required for the appended transactions");
+		}
+
+		boolean lazy = categories.getAssignmentMode() == Categories.AssignmentMode.LAZY;
+		Result[] results = evaluateAll(transactions, existingTransactions, limits, appended,
+				categories.isProfilingEnabled(), lazy, canceled);
+
+		return new Evaluation(transactions, results, lazy);
+	}
+
+
+	/**
+	 * Find all detectors that accept a transaction without modifying any state
+	 *
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions, or null if none
+	 * @return the set of the detectors
+	 */
+	CategoryDetectorSet findCandidates(Transaction transaction, TransactionList existingTransactions) {
+
+		CategoryDetectorSet candidates = new CategoryDetectorSet();
+
+		BitSet matches = match(transaction);
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			Rule r = rules[i];
+
+			if (r.matchingPattern != null) {
+				if (existingTransactions == null) continue;
+				synchronized (existingTransactions) {
+					if (r.findMatchingTransaction(transaction, existingTransactions, null,
+							Integer.MAX_VALUE) == null) continue;
+				}
+			}
+
+			candidates.add(r.detector);
+		}
+
+		return candidates;
+	}
+
+
+	/**
+	 * Evaluate the detectors against the given transactions to collect the
+	 * profiling statistics of the detectors, without applying the results
+	 *
+	 * @param transactions the transactions
+	 * @param existingTransactions the list of existing transactions
+	 */
+	void profile(List<Transaction> transactions, TransactionList existingTransactions) {
+		evaluateAll(transactions, existingTransactions, null, false, true, false, null);
+	}
+
+
+	/**
+	 * Evaluate the detectors against the given transactions in parallel
+	 * without modifying any state other than the profiling statistics
+	 *
+	 * @param transactions the transactions
+	 * @param existingTransactions the list of existing transactions
+	 * @param limits the number of existing transactions to consider for each transaction when
+	 *               looking for matching transactions, or null to consider all of them
+	 * @param appended true if the transactions will be appended to the list
+	 * @param profile true to collect the profiling statistics
+	 * @param firstOnly true to stop at the first detector that accepts each transaction
+	 * @param canceled the check whether the evaluation was canceled, or null if it cannot be
+	 * @return the results
+	 * @throws CancellationException if the evaluation was canceled
+	 */
+	private Result[] evaluateAll(List<Transaction> transactions, TransactionList existingTransactions,
+			int[] limits, boolean appended, boolean profile, boolean firstOnly, BooleanSupplier canceled) {
+
+		Result[] results = new Result[transactions.size()];
+
+		if (appended) {
+
+			// Copy the existing transactions that the new transactions can
+			// match while holding the lock of the list, and then evaluate the
+			// detectors without it, so that the list can be read and changed
+			// in the meantime. The caller needs to check that the list did not
+			// change before applying the results.
+
+			PendingTransactions pending;
+			synchronized (existingTransactions) {
+				pending = new PendingTransactions(transactions, existingTransactions);
+			}
+
+			run(new EvaluationTask(transactions, null, pending, limits, profile, firstOnly,
+					canceled, results, 0, transactions.size()));
+		}
+		else {
+
+			// The workers look up the matching transactions without locking the
+			// list, so hold its lock to keep it from changing in the meantime.
+
+			synchronized (existingTransactions) {
+				run(new EvaluationTask(transactions, existingTransactions, null, limits, profile,
+						firstOnly, canceled, results, 0, transactions.size()));
+			}
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Run an evaluation task, using the pool only if the task is large enough
+	 *
+	 * @param task the task
+	 */
+	private void run(EvaluationTask task) {
+
+		if (task.to - task.from <= SEQUENTIAL_THRESHOLD) {
+			task.compute();
+		}
+		else {
+			pool.invoke(task);
+		}
+	}
+
+
+	/**
+	 * Evaluate the detectors against a transaction without modifying any state
+	 *
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions, or null if pending
+	 * @param pending the transactions that will be appended to the list, or null if none
+	 * @param limit the number of existing transactions to consider
+	 * @param firstOnly true to stop at the first detector that accepts the transaction
+	 * @return the result, or null if no detector accepts the transaction
+	 */
+	private Result evaluate(Transaction transaction, TransactionList existingTransactions,
+			PendingTransactions pending, int limit, boolean firstOnly) {
+
+		Result r = null;
+
+		BitSet matches = match(transaction);
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			Rule rule = rules[i];
+
+			Transaction m = null;
+			if (rule.matchingPattern != null) {
+				m = rule.findMatchingTransaction(transaction, existingTransactions, pending, limit);
+				if (m == null) continue;
+			}
+
+			if (r == null) r = new Result();
+			r.detectors.add(rule.detector);
+			r.matchingTransactions.add(m);
+			if (firstOnly) break;
+		}
+
+		return r;
+	}
+
+
+	/**
+	 * Evaluate the detectors against a transaction without modifying any state
+	 * other than the profiling statistics of the detectors. Evaluate the pattern
+	 * of each detector in the range of amounts on its own, so that its time can
+	 * be measured, with the same result as
+	 * {@link #evaluate(Transaction, TransactionList, PendingTransactions, int, boolean)}.
+	 *
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions, or null if pending
+	 * @param pending the transactions that will be appended to the list, or null if none
+	 * @param limit the number of existing transactions to consider
+	 * @param firstOnly true to stop at the first detector that accepts the transaction
+	 * @return the result, or null if no detector accepts the transaction
+	 */
+	private Result evaluateProfiled(Transaction transaction, TransactionList existingTransactions,
+			PendingTransactions pending, int limit, boolean firstOnly) {
+
+		Result r = null;
+
+		BitSet inRange = amountIndex.containing(transaction.getCents());
+		for (int i = inRange.nextSetBit(0); i >= 0; i = inRange.nextSetBit(i + 1)) {
+			Rule rule = rules[i];
+
+			long start = System.nanoTime();
+			boolean accepted = rule.matchesDescription(transaction);
+			Transaction m = null;
+			if (accepted && rule.matchingPattern != null) {
+				m = rule.findMatchingTransaction(transaction, existingTransactions, pending, limit);
+				accepted = m != null;
+			}
+			rule.detector.getStatistics().record(accepted, System.nanoTime() - start);
+
+			if (!accepted) continue;
+
+			if (r == null) r = new Result();
+			r.detectors.add(rule.detector);
+			r.matchingTransactions.add(m);
+			if (firstOnly) break;
+		}
+
+		return r;
+	}
+
+
+	/**
+	 * Find the detectors whose range of amounts and pattern match a transaction,
+	 * using the cache if possible. This does not look for matching transactions.
+	 *
+	 * @param transaction the transaction
+	 * @return the positions of the detectors, which must not be modified
+	 */
+	private BitSet match(Transaction transaction) {
+
+		String description = transaction.getDescription();
+		if (description == null) return computeMatches(transaction);
+
+		DetectionCache.Key key = new DetectionCache.Key(description,
+				amountIndex.segmentOf(transaction.getCents()), transaction.getAccount());
+
+		BitSet matches = cache.get(rulesVersion, key);
+		if (matches == null) {
+			matches = computeMatches(transaction);
+			cache.put(rulesVersion, key, matches);
+		}
+
+		return matches;
+	}
+
+
+	/**
+	 * Find the detectors whose range of amounts and pattern match a transaction
+	 *
+	 * @param transaction the transaction
+	 * @return the positions of the detectors
+	 */
+	private BitSet computeMatches(Transaction transaction) {
+
+		BitSet inRange = amountIndex.containing(transaction.getCents());
+		if (inRange.isEmpty()) return inRange;
+
+		String description = transaction.getDescription();
+		BitSet matched = null;
+		BitSet candidates;
+
+		if (description == null) {
+			candidates = inRange;
+		}
+		else {
+			candidates = (BitSet) alwaysEvaluated.clone();
+
+			if (useAutomaton) {
+				matched = patternMatcher.match(description);
+				if (matched == null) {
+					for (int i = 0; i < rules.length; i++) {
+						if (matchedByAutomaton[i]) candidates.set(i);
+					}
+				}
+				else {
+					addCandidates(candidates, matched, matchedByAutomaton);
+				}
+			}
+
+			if (useLiterals) {
+				addCandidates(candidates, literalIndex.candidates(description), filteredByLiterals);
+			}
+
+			candidates.and(inRange);
+		}
+
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (matched == null || !matchedByAutomaton[i]) {
+				if (!rules[i].matchesDescription(transaction)) candidates.clear(i);
+			}
+		}
+
+		return candidates;
+	}
+
+
+	/**
+	 * Add the positions of the detectors with the given ordinals to the candidates
+	 *
+	 * @param candidates the positions of the candidate detectors
+	 * @param ordinals the ordinals of the detectors to add
+	 * @param eligible whether the detector at each position can be added this way
+	 */
+	private void addCandidates(BitSet candidates, BitSet ordinals, boolean[] eligible) {
+
+		for (int o = ordinals.nextSetBit(0); o >= 0 && o < positionByOrdinal.length;
+				o = ordinals.nextSetBit(o + 1)) {
+			int i = positionByOrdinal[o];
+			if (i >= 0 && eligible[i]) candidates.set(i);
+		}
+	}
+
+
+	/**
+	 * Apply the result of the evaluation to a transaction
+	 *
+	 * @param transaction the transaction
+	 * @param r the result, or null if no detector accepted the transaction
+	 */
+	private void apply(Transaction transaction, Result r) {
+
+		CategoryDetectorSet matches = new CategoryDetectorSet();
+		CategoryDetector firstMatch = null;
+
+		if (r != null) {
+			for (int i = 0; i < r.detectors.size(); i++) {
+				CategoryDetector d = r.detectors.get(i);
+				Transaction m = r.matchingTransactions.get(i);
+
+				if (m != null) d.linkMatchingTransaction(transaction, m);
+
+				matches.add(d);
+				if (firstMatch == null) {
+					firstMatch = d;
+				}
+			}
+		}
+
+		transaction.setCandidateDetectors(matches);
+
+		if (firstMatch != null
+				&& transaction.getCategoryDetector() == Categories.NULL_DETECTOR) {
+			transaction.setCategoryDetector(firstMatch);
+		}
+	}
+
+
+	/**
+	 * Apply the result of the evaluation that stopped at the first detector
+	 * that accepted a transaction, leaving its candidate detectors to be found
+	 * when they are first needed
+	 *
+	 * @param transaction the transaction
+	 * @param r the result, or null if no detector accepted the transaction
+	 */
+	private void applyFirst(Transaction transaction, Result r) {
+
+		CategoryDetector firstMatch = null;
+
+		if (r != null) {
+			firstMatch = r.detectors.get(0);
+			Transaction m = r.matchingTransactions.get(0);
+			if (m != null) firstMatch.linkMatchingTransaction(transaction, m);
+		}
+
+		transaction.setCandidateDetectorsLazily(categories);
+
+		if (firstMatch != null
+				&& transaction.getCategoryDetector() == Categories.NULL_DETECTOR) {
+			transaction.setCategoryDetector(firstMatch);
+		}
+	}
+
+
+	/**
+	 * The rule of a detector as of the version of the snapshot
+	 */
+	private static class Rule {
+
+		final CategoryDetector detector;
+		final GuardedPattern pattern;
+		final GuardedPattern matchingPattern;
+
+
+		/**
+		 * Capture the current rule of a detector
+		 *
+		 * @param detector the detector
+		 */
+		Rule(CategoryDetector detector) {
+
+			this.detector = detector;
+			this.pattern = detector.getCompiledPattern();
+			this.matchingPattern = detector.requiresMatchingTransaction()
+					? detector.getCompiledMatchingPattern() : null;
+		}
+
+
+		/**
+		 * Does the description of the given transaction match the pattern?
+		 *
+		 * @param transaction the transaction
+		 * @return true if it matches
+		 */
+		boolean matchesDescription(Transaction transaction) {
+			return detector.matchesDescription(pattern, transaction);
+		}
+
+
+		/**
+		 * Find the matching opposite transaction using the matching pattern,
+		 * either in the list or, if the transaction will be appended to it,
+		 * among the copied candidates
+		 *
+		 * @param transaction the transaction
+		 * @param existingTransactions the list of existing transactions, or null if pending
+		 * @param pending the transactions that will be appended to the list, or null if none
+		 * @param limit the number of existing transactions to consider
+		 * @return the matching transaction, or null if not found
+		 */
+		Transaction findMatchingTransaction(Transaction transaction,
+				TransactionList existingTransactions, PendingTransactions pending, int limit) {
+
+			if (pending != null) {
+				return detector.findMatchingTransaction(matchingPattern,
+						pending.getMatchCandidates(transaction, limit));
+			}
+
+			return detector.findMatchingTransaction(matchingPattern, transaction,
+					existingTransactions, limit);
+		}
+	}
+
+
+	/**
+	 * The results of evaluating the detectors against a list of transactions,
+	 * which have not been applied yet
+	 */
+	class Evaluation {
+
+		private List<Transaction> transactions;
+		private Result[] results;
+		private boolean lazy;
+
+
+		/**
+		 * Create an instance of {@link Evaluation}
+		 *
+		 * @param transactions the transactions
+		 * @param results the results for the transactions
+		 * @param lazy true if the evaluation stopped at the first detector
+		 *             that accepted each transaction
+		 */
+		private Evaluation(List<Transaction> transactions, Result[] results, boolean lazy) {
+			this.transactions = transactions;
+			this.results = results;
+			this.lazy = lazy;
+		}
+
+
+		/**
+		 * Get the version of the rules used for the evaluation
+		 *
+		 * @return the version
+		 */
+		int getRulesVersion() {
+			return rulesVersion;
+		}
+
+
+		/**
+		 * Apply the results to the transactions in order
+		 *
+		 * @param onlyUncategorized true to apply the results only to the transactions that do not
+		 *                          have a category by the time their results are applied
+		 * @return the number of transactions accepted by at least one detector
+		 */
+		int apply(boolean onlyUncategorized) {
+
+			int accepted = 0;
+			for (int i = 0; i < results.length; i++) {
+				Transaction t = transactions.get(i);
+				if (results[i] != null) accepted++;
+				if (onlyUncategorized && t.getCategory() != null) continue;
+				if (lazy) {
+					applyFirst(t, results[i]);
+				}
+				else {
+					CategoryDetectionEngine.this.apply(t, results[i]);
+				}
+			}
+
+			return accepted;
+		}
+	}
+
+
+	/**
+	 * The detectors that accepted a transaction, in the order in which they
+	 * were evaluated, together with the corresponding matching transactions
+	 */
+	private static class Result {
+		ArrayList<CategoryDetector> detectors = new ArrayList<CategoryDetector>(2);
+		ArrayList<Transaction> matchingTransactions = new ArrayList<Transaction>(2);
+	}
+
+
+	/**
+	 * The transactions that will be appended to the list of existing
+	 * transactions in order, indexed by their amounts, together with the
+	 * existing transactions that they can match, so that they can be searched
+	 * for matching transactions as if they were already in the list, but
+	 * without locking it
+	 */
+	private static class PendingTransactions {
+
+		private List<Transaction> transactions;
+		private int start;
+		private HashMap<Integer, ArrayList<Integer>> positionsByCents;
+		private HashMap<Integer, List<Transaction>> existingByCents;
+
+
+		/**
+		 * Create an instance of {@link PendingTransactions}. The caller must
+		 * hold the lock of the list.
+		 *
+		 * @param transactions the transactions in the order in which they will be appended
+		 * @param existingTransactions the list of existing transactions
+		 */
+		PendingTransactions(List<Transaction> transactions, TransactionList existingTransactions) {
+
+			this.transactions = transactions;
+			this.start = existingTransactions.size();
+			this.positionsByCents = new HashMap<Integer, ArrayList<Integer>>();
+			this.existingByCents = new HashMap<Integer, List<Transaction>>();
+
+			for (int i = 0; i < transactions.size(); i++) {
+				positionsByCents.computeIfAbsent(transactions.get(i).getCents(),
+						k -> new ArrayList<Integer>(2)).add(i);
+			}
+
+
+			// Copy the existing transactions with the opposite amounts within
+			// the range of the dates of the transactions with each amount
+
+			for (Map.Entry<Integer, ArrayList<Integer>> e : positionsByCents.entrySet()) {
+
+				int from = Integer.MAX_VALUE;
+				int to = Integer.MIN_VALUE;
+				for (int i : e.getValue()) {
+					int d = transactions.get(i).getEpochDay();
+					if (d == EpochDays.NONE) continue;
+					from = Math.min(from, d);
+					to = Math.max(to, d);
+				}
+				if (from > to) continue;
+
+				List<Transaction> c = existingTransactions.getByCents(-e.getKey(),
+						from - CategoryDetector.MAX_MATCHING_DAYS_DELTA,
+						to + CategoryDetector.MAX_MATCHING_DAYS_DELTA, start);
+				if (c != null) existingByCents.put(-e.getKey(), c);
+			}
+		}
+
+
+		/**
+		 * Get the transactions that can be the matching opposite transaction
+		 * for the given transaction, the same way as
+		 * {@link TransactionList#getByCents(int, int, int, int)}
+		 *
+		 * @param transaction the transaction
+		 * @param limit the number of transactions from the start of the list
+		 *              to consider, including all existing transactions
+		 * @return the transactions in the order in which they were or will be
+		 *         added, or null if none
+		 */
+		List<Transaction> getMatchCandidates(Transaction transaction, int limit) {
+
+			int day = transaction.getEpochDay();
+			if (day == EpochDays.NONE) return null;
+
+			ArrayList<Transaction> l = null;
+
+			List<Transaction> existing = existingByCents.get(-transaction.getCents());
+			if (existing != null) {
+				for (Transaction t : existing) {
+					if (Math.abs(t.getEpochDay() - day) > CategoryDetector.MAX_MATCHING_DAYS_DELTA) continue;
+					if (l == null) l = new ArrayList<Transaction>(2);
+					l.add(t);
+				}
+			}
+
+			ArrayList<Integer> positions = positionsByCents.get(-transaction.getCents());
+			if (positions != null) {
+				for (int i : positions) {
+					if (start + i >= limit) break;
+					int d = transactions.get(i).getEpochDay();
+					if (d == EpochDays.NONE) continue;
+					if (Math.abs(d - day) > CategoryDetector.MAX_MATCHING_DAYS_DELTA) continue;
+					if (l == null) l = new ArrayList<Transaction>(2);
+					l.add(transactions.get(i));
+				}
+			}
+
+			return l;
+		}
+	}
+
+
+	/**
+	 * The task that evaluates the detectors against a range of transactions
+	 */
+	private class EvaluationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<Transaction> transactions;
+		private TransactionList existingTransactions;
+		private PendingTransactions pending;
+		private int[] limits;
+		private boolean profile;
+		private boolean firstOnly;
+		private BooleanSupplier canceled;
+		private Result[] results;
+		private int from;
+		private int to;
+
+
+		/**
+		 * Create an instance of {@link EvaluationTask}
+		 *
+		 * @param transactions the transactions
+		 * @param existingTransactions the list of existing transactions, or null if pending
+		 * @param pending the transactions that will be appended to the list, or null if none
+		 * @param limits the limits, or null if none
+		 * @param profile true to collect the profiling statistics
+		 * @param firstOnly true to stop at the first detector that accepts each transaction
+		 * @param canceled the check whether the evaluation was canceled, or null if none
+		 * @param results the array for the results
+		 * @param from the index of the first transaction
+		 * @param to the index past the last transaction
+		 */
+		EvaluationTask(List<Transaction> transactions, TransactionList existingTransactions,
+				PendingTransactions pending, int[] limits, boolean profile, boolean firstOnly,
+				BooleanSupplier canceled, Result[] results, int from, int to) {
+
+			this.transactions = transactions;
+			this.existingTransactions = existingTransactions;
+			this.pending = pending;
+			this.limits = limits;
+			this.profile = profile;
+			this.firstOnly = firstOnly;
+			this.canceled = canceled;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		/**
+		 * Evaluate the detectors, splitting the range if it is too large
+		 *
+		 * @throws CancellationException if the evaluation was canceled
+		 */
+		@Override
+		protected void compute() {
+
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new EvaluationTask(transactions, existingTransactions, pending, limits,
+								profile, firstOnly, canceled, results, from, mid),
+						new EvaluationTask(transactions, existingTransactions, pending, limits,
+								profile, firstOnly, canceled, results, mid, to));
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				if (canceled != null && canceled.getAsBoolean()) throw new CancellationException();
+				int limit = limits == null ? Integer.MAX_VALUE : limits[i];
+				results[i] = profile
+						? evaluateProfiled(transactions.get(i), existingTransactions, pending, limit, firstOnly)
+						: evaluate(transactions.get(i), existingTransactions, pending, limit, firstOnly);
+			}
+		}
+	}
+}
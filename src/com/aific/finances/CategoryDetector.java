@@ -1,12 +1,19 @@
 package com.aific.finances;
 
-import java.util.Collection;
-import java.util.regex.Pattern;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.aific.finances.util.EpochDays;
+import com.aific.finances.util.GuardedPattern;
+import com.aific.finances.util.StaxUtils;
+
 
 /**
  * An automatic detector for transaction categories 
@@ -24,14 +31,18 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	private String description;
 	
 	private String pattern;
-	private Pattern compiledPattern;
+	private GuardedPattern compiledPattern;
 	private int centsMin;
 	private int centsMax;
 	
 	private String matchingPattern;
-	private Pattern compiledMatchingPattern;
+	private GuardedPattern compiledMatchingPattern;
 	private CategoryDetector matchingDetector;
 	
+	int ordinal;
+	private DetectorStatistics statistics;
+	private volatile String disabledReason;
+	
 	
 	/**
 	 * Create an object of type {@link CategoryDetector} and add it to the set
@@ -56,14 +67,18 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 		this.description = description;
 		
 		this.pattern = pattern;
-		this.compiledPattern = Pattern.compile(pattern);
+		this.compiledPattern = new GuardedPattern(pattern);
 		this.centsMin = min;
 		this.centsMax = max;
 		
 		this.matchingPattern = matchingPattern;
-		this.compiledMatchingPattern = matchingPattern == null ? null : Pattern.compile(matchingPattern);
+		this.compiledMatchingPattern = matchingPattern == null ? null : new GuardedPattern(matchingPattern);
 		this.matchingDetector = matchingDetector;
 		if (this.matchingDetector != null) this.matchingDetector.matchingDetector = this; 
+		
+		this.ordinal = -1;
+		this.statistics = new DetectorStatistics();
+		this.disabledReason = null;
 	}
 	
 	
@@ -145,6 +160,16 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	public String getPattern() {
 		return pattern;
 	}
+	
+	
+	/**
+	 * Get the compiled regular expression pattern
+	 * 
+	 * @return the compiled pattern
+	 */
+	GuardedPattern getCompiledPattern() {
+		return compiledPattern;
+	}
 
 
 	/**
@@ -153,12 +178,21 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	 * @param pattern the pattern to set
 	 */
 	public void setPattern(String pattern) {
-		this.compiledPattern = Pattern.compile(pattern);
-		this.pattern = pattern;
 		
-		if (matchingDetector != null) {
-			matchingDetector.matchingPattern = this.pattern;
-			matchingDetector.compiledMatchingPattern = this.compiledPattern;
+		GuardedPattern compiled = new GuardedPattern(pattern);
+		
+		synchronized (ruleLock()) {
+			this.compiledPattern = compiled;
+			this.pattern = pattern;
+			this.disabledReason = null;
+			
+			if (matchingDetector != null) {
+				matchingDetector.matchingPattern = this.pattern;
+				matchingDetector.compiledMatchingPattern = this.compiledPattern;
+				matchingDetector.disabledReason = null;
+			}
+			
+			fireRuleChanged();
 		}
 	}
 
@@ -199,12 +233,16 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 			min = t;
 		}
 		
-		this.centsMin = min;
-		this.centsMax = max;
-		
-		if (matchingDetector != null) {
-			matchingDetector.centsMin = -max;
-			matchingDetector.centsMax = -min;
+		synchronized (ruleLock()) {
+			this.centsMin = min;
+			this.centsMax = max;
+			
+			if (matchingDetector != null) {
+				matchingDetector.centsMin = -max;
+				matchingDetector.centsMax = -min;
+			}
+			
+			fireRuleChanged();
 		}
 	}
 
@@ -217,6 +255,16 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	public String getMatchingPattern() {
 		return matchingPattern;
 	}
+	
+	
+	/**
+	 * Get the compiled regular expression pattern for matching transactions
+	 * 
+	 * @return the compiled pattern, or null if none
+	 */
+	GuardedPattern getCompiledMatchingPattern() {
+		return compiledMatchingPattern;
+	}
 
 
 	/**
@@ -230,16 +278,62 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 			throw new IllegalArgumentException();
 		}
 		
-		this.matchingPattern = pattern;
-		this.compiledMatchingPattern = matchingPattern == null ? null : Pattern.compile(matchingPattern);
-
-		if (matchingDetector != null) {
-			matchingDetector.pattern = this.matchingPattern;
-			matchingDetector.compiledPattern = this.compiledMatchingPattern;
+		GuardedPattern compiled = pattern == null ? null : new GuardedPattern(pattern);
+		
+		synchronized (ruleLock()) {
+			this.matchingPattern = pattern;
+			this.compiledMatchingPattern = compiled;
+			this.disabledReason = null;
+			
+			if (matchingDetector != null) {
+				matchingDetector.pattern = this.matchingPattern;
+				matchingDetector.compiledPattern = this.compiledMatchingPattern;
+				matchingDetector.disabledReason = null;
+			}
+			
+			fireRuleChanged();
 		}
 	}
 	
 	
+	/**
+	 * Get the lock that guards the changes to the rules. This is the parent
+	 * collection of categories, so that the detection engine always takes
+	 * a consistent snapshot of the rules of all detectors.
+	 * 
+	 * @return the lock
+	 */
+	private Object ruleLock() {
+		Categories c = category == null ? null : category.getContainer();
+		return c == null ? this : c;
+	}
+	
+	
+	/**
+	 * Notify the parent collection of categories that the rule of this
+	 * detector, and thus also of its matching detector, has changed
+	 */
+	private void fireRuleChanged() {
+		
+		Categories c = category == null ? null : category.getContainer();
+		if (c == null) return;
+		
+		c.detectorChanged(this);
+		if (matchingDetector != null) c.detectorChanged(matchingDetector);
+	}
+	
+	
+	/**
+	 * Get the profiling statistics, which are collected only while profiling
+	 * is enabled in the parent collection of categories
+	 * 
+	 * @return the statistics
+	 */
+	public DetectorStatistics getStatistics() {
+		return statistics;
+	}
+	
+	
 	/**
 	 * Get the corresponding matching detector
 	 * 
@@ -270,38 +364,293 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	 * @return true if it accepts it
 	 */
 	public boolean accepts(Transaction transaction, TransactionList existingTransactions) {
+		return accepts(transaction, existingTransactions, Integer.MAX_VALUE);
+	}
+	
+	
+	/**
+	 * Does this detector accept the given transaction? Consider only the
+	 * first few existing transactions when looking for a matching transaction.
+	 * 
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions
+	 * @param limit the number of existing transactions to consider
+	 * @return true if it accepts it
+	 */
+	boolean accepts(Transaction transaction, TransactionList existingTransactions, int limit) {
+		
+		Categories c = category == null ? null : category.getContainer();
+		if (c == null || !c.isProfilingEnabled()) {
+			return acceptsUnprofiled(transaction, existingTransactions, limit);
+		}
+		
+		long start = System.nanoTime();
+		boolean r = acceptsUnprofiled(transaction, existingTransactions, limit);
+		statistics.record(r, System.nanoTime() - start);
+		
+		return r;
+	}
+	
+	
+	/**
+	 * Does this detector accept the given transaction? Consider only the
+	 * first few existing transactions when looking for a matching transaction.
+	 * Do not collect the profiling statistics.
+	 * 
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions
+	 * @param limit the number of existing transactions to consider
+	 * @return true if it accepts it
+	 */
+	private boolean acceptsUnprofiled(Transaction transaction, TransactionList existingTransactions, int limit) {
+		
+		if (!matches(transaction)) return false;
+		if (!requiresMatchingTransaction()) return true;
+		
+		Transaction t;
+		synchronized (existingTransactions) {
+			t = findMatchingTransaction(transaction, existingTransactions, limit);
+		}
+		if (t == null) return false;
+		
+		linkMatchingTransaction(transaction, t);
+		return true;
+	}
+	
+	
+	/**
+	 * Does the amount and the description of the given transaction match
+	 * this detector? This does not look for a matching transaction, and it
+	 * does not modify any state, so it can be called concurrently.
+	 * 
+	 * @param transaction the transaction
+	 * @return true if it matches
+	 */
+	boolean matches(Transaction transaction) {
+		return matchesAmount(transaction) && matchesDescription(transaction);
+	}
+	
+	
+	/**
+	 * Does the description of the given transaction match the pattern of this detector?
+	 * 
+	 * @param transaction the transaction
+	 * @return true if it matches
+	 */
+	boolean matchesDescription(Transaction transaction) {
+		return matchesDescription(compiledPattern, transaction);
+	}
+	
+	
+	/**
+	 * Does the description of the given transaction match the given version
+	 * of the pattern of this detector?
+	 * 
+	 * @param compiledPattern the compiled pattern
+	 * @param transaction the transaction
+	 * @return true if it matches
+	 */
+	boolean matchesDescription(GuardedPattern compiledPattern, Transaction transaction) {
 		
-		if (centsMin != 0 && centsMax != 0) {
+		if (disabledReason != null) return false;
+		
+		try {
+			return compiledPattern.matches(transaction.getDescription());
+		}
+		catch (GuardedPattern.BudgetExceededException e) {
+			disable("The pattern \"" + compiledPattern.getRegex() + "\" took too long to match \""
+					+ transaction.getDescription() + "\"");
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Is the amount of the given transaction within the range of this detector?
+	 * 
+	 * @param transaction the transaction
+	 * @return true if it matches
+	 */
+	boolean matchesAmount(Transaction transaction) {
+		
+		if (hasCentsRange()) {
 			int min = Math.min(centsMin, centsMax);
 			int max = Math.max(centsMin, centsMax);
 			if (transaction.getCents() < min || transaction.getCents() > max) {
 				return false;
 			}
 		}
-
-		if (!compiledPattern.matcher(transaction.getDescription()).matches()) return false;
 		
-		if (compiledMatchingPattern != null && matchingDetector != null) {
-			Collection<Transaction> c = existingTransactions.getByCents(-transaction.getCents());
-			if (c == null) return false;
-			
-			for (Transaction t : c) {
-				if (Math.abs(transaction.getDate().getTime() - t.getDate().getTime())
-						<= MAX_MATCHING_DAYS_DELTA * 24l * 3600l * 1000l) {
-					if (compiledMatchingPattern.matcher(t.getDescription()).matches()) {
-						t.getCandidateDetectors().add(matchingDetector);
-						t.setCategoryDetector(matchingDetector);
-						t.setMatchingTransaction(transaction);
-						transaction.setMatchingTransaction(t);
-						return true;
-					}
+		return true;
+	}
+	
+	
+	/**
+	 * Determine whether the detector restricts the amounts of the transactions,
+	 * which it does unless the min or the max of the range is 0
+	 * 
+	 * @return true if it has a range of cents
+	 */
+	boolean hasCentsRange() {
+		return centsMin != 0 && centsMax != 0;
+	}
+	
+	
+	/**
+	 * Determine whether the detector accepts only transactions with a matching
+	 * opposite transaction
+	 * 
+	 * @return true if it requires a matching transaction
+	 */
+	boolean requiresMatchingTransaction() {
+		return compiledMatchingPattern != null && matchingDetector != null;
+	}
+	
+	
+	/**
+	 * Find the matching opposite transaction for the given transaction among
+	 * the first few existing transactions. This does not modify any state,
+	 * so it can be called concurrently, but the list of existing transactions
+	 * must not change in the meantime, e.g. by holding its lock.
+	 * 
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions
+	 * @param limit the number of existing transactions to consider
+	 * @return the matching transaction, or null if not found
+	 */
+	Transaction findMatchingTransaction(Transaction transaction,
+			TransactionList existingTransactions, int limit) {
+		return findMatchingTransaction(compiledMatchingPattern, transaction, existingTransactions, limit);
+	}
+	
+	
+	/**
+	 * Find the matching opposite transaction for the given transaction among
+	 * the first few existing transactions using the given version of the
+	 * matching pattern of this detector. This does not modify any state, so
+	 * it can be called concurrently, but the list of existing transactions
+	 * must not change in the meantime, e.g. by holding its lock.
+	 * 
+	 * @param compiledMatchingPattern the compiled matching pattern
+	 * @param transaction the transaction
+	 * @param existingTransactions the list of existing transactions
+	 * @param limit the number of existing transactions to consider
+	 * @return the matching transaction, or null if not found
+	 */
+	Transaction findMatchingTransaction(GuardedPattern compiledMatchingPattern, Transaction transaction,
+			TransactionList existingTransactions, int limit) {
+		
+		int day = transaction.getEpochDay();
+		if (day == EpochDays.NONE) return null;
+		
+		List<Transaction> c = existingTransactions.getByCents(-transaction.getCents(),
+				day - MAX_MATCHING_DAYS_DELTA, day + MAX_MATCHING_DAYS_DELTA, limit);
+		return findMatchingTransaction(compiledMatchingPattern, c);
+	}
+	
+	
+	/**
+	 * Find the first of the candidate transactions whose description matches
+	 * the given version of the matching pattern of this detector. This does
+	 * not modify any state, so it can be called concurrently.
+	 * 
+	 * @param compiledMatchingPattern the compiled matching pattern
+	 * @param candidates the candidates with the opposite amount and a close
+	 *                   enough date, in order, or null if none
+	 * @return the matching transaction, or null if not found
+	 */
+	Transaction findMatchingTransaction(GuardedPattern compiledMatchingPattern,
+			List<Transaction> candidates) {
+		
+		if (candidates == null) return null;
+		
+		for (Transaction t : candidates) {
+			if (disabledReason != null) return null;
+			try {
+				if (compiledMatchingPattern.matches(t.getDescription())) {
+					return t;
 				}
 			}
-			
-			return false;
+			catch (GuardedPattern.BudgetExceededException e) {
+				disable("The matching pattern \"" + compiledMatchingPattern.getRegex() + "\" took too long to match \""
+						+ t.getDescription() + "\"");
+				return null;
+			}
 		}
 		
-		return true;
+		return null;
+	}
+	
+	
+	/**
+	 * Disable this detector and its matching detector, because one of their
+	 * patterns took too long to match, and notify the parent collection of
+	 * categories. A disabled detector does not match any transaction until
+	 * its pattern or its matching pattern is changed.
+	 * 
+	 * @param reason the reason
+	 */
+	private void disable(String reason) {
+		
+		synchronized (this) {
+			if (disabledReason != null) return;
+			disabledReason = reason;
+		}
+		if (matchingDetector != null && matchingDetector.disabledReason == null) {
+			matchingDetector.disabledReason = reason;
+		}
+		
+		Categories c = category == null ? null : category.getContainer();
+		if (c != null) c.detectorDisabled(this);
+	}
+	
+	
+	/**
+	 * Determine whether the detector was disabled, because its pattern or
+	 * its matching pattern took too long to match
+	 * 
+	 * @return true if it is disabled
+	 */
+	public boolean isDisabled() {
+		return disabledReason != null;
+	}
+	
+	
+	/**
+	 * Get the reason why the detector was disabled
+	 * 
+	 * @return the reason, or null if it is not disabled
+	 */
+	public String getDisabledReason() {
+		return disabledReason;
+	}
+	
+	
+	/**
+	 * Determine whether the pattern or the matching pattern of this detector
+	 * can potentially take exponential time to match, so that the matches
+	 * are limited by a budget of steps
+	 * 
+	 * @return true if one of the patterns is guarded
+	 */
+	public boolean isGuarded() {
+		return compiledPattern.isGuarded()
+				|| (compiledMatchingPattern != null && compiledMatchingPattern.isGuarded());
+	}
+	
+	
+	/**
+	 * Link a transaction accepted by this detector with its matching
+	 * opposite transaction, which gets assigned the matching detector
+	 * 
+	 * @param transaction the transaction
+	 * @param t the matching transaction
+	 */
+	void linkMatchingTransaction(Transaction transaction, Transaction t) {
+		t.addCandidateDetector(matchingDetector);
+		t.setCategoryDetector(matchingDetector);
+		t.setMatchingTransaction(transaction);
+		transaction.setMatchingTransaction(t);
 	}
 	
 	
@@ -358,6 +707,27 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		out.writeAttribute("id", id);
+		
+		StaxUtils.writeTextElement(out, "vendor", vendor);
+		StaxUtils.writeTextElement(out, "description", description);
+		StaxUtils.writeTextElement(out, "pattern", pattern);
+		StaxUtils.writeTextElement(out, "cents_min", "" + centsMin);
+		StaxUtils.writeTextElement(out, "cents_max", "" + centsMax);
+		if (matchingPattern != null) StaxUtils.writeTextElement(out, "matches", matchingPattern);
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML
 	 * 
@@ -391,8 +761,69 @@ public class CategoryDetector implements Comparable<CategoryDetector> {
 			centsMax = Integer.parseInt(element.getElementsByTagName("cents_max").item(0).getTextContent());
 		
 		String matches = null;
-		if (element.getElementsByTagName("matches").getLength() > 0) {
+		if (element.getElementsByTagName("matches").getLength() > 0)
 			matches = element.getElementsByTagName("matches").item(0).getTextContent();
+		
+		return createOrUpdate(category, id, vendor, description, pattern, centsMin, centsMax, matches);
+	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element
+	 * 
+	 * @param category the parent category
+	 * @param in the XML stream reader
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 */
+	public static CategoryDetector fromXMLStream(Category category, XMLStreamReader in)
+			throws XMLStreamException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		String id = StaxUtils.getAttribute(in, "id");
+		String pattern = null;
+		String vendor = "";
+		String description = "";
+		int centsMin = 0;
+		int centsMax = 0;
+		String matches = null;
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case "pattern": pattern = in.getElementText(); break;
+			case "vendor": vendor = in.getElementText(); break;
+			case "description": description = in.getElementText(); break;
+			case "cents_min": centsMin = Integer.parseInt(in.getElementText()); break;
+			case "cents_max": centsMax = Integer.parseInt(in.getElementText()); break;
+			case "matches": matches = in.getElementText(); break;
+			default: StaxUtils.skipElement(in);
+			}
+		}
+		
+		return createOrUpdate(category, id, vendor, description, pattern, centsMin, centsMax, matches);
+	}
+	
+	
+	/**
+	 * Create a new detector from the values read from a file, or update the
+	 * detector with the same ID if it already exists in the category
+	 * 
+	 * @param category the parent category
+	 * @param id the unique ID
+	 * @param vendor the vendor
+	 * @param description the description
+	 * @param pattern the regular expression pattern
+	 * @param centsMin the min value of signed cents
+	 * @param centsMax the max value of signed cents
+	 * @param matches the regular expression pattern for matching opposite transactions, or null
+	 * @return the detector
+	 */
+	private static CategoryDetector createOrUpdate(Category category, String id, String vendor,
+			String description, String pattern, int centsMin, int centsMax, String matches) {
+		
+		if (matches != null) {
 			if (category.getType() != CategoryType.BALANCED) {
 				throw new RuntimeException("Invalid category detector: \"matches\" supported only "
 						+ "for balanced categories");
@@ -0,0 +1,193 @@
+package com.aific.finances;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A compact set of category detectors from the same collection of categories,
+ * stored as a sorted array of their ordinals. A transaction typically has only
+ * a few candidate detectors, so this takes a fraction of the memory of a hash
+ * set, and it does not depend on the hash codes of the detectors, which change
+ * when their rules are edited.
+ * <p>
+ * The set is not thread-safe. Its iterators work on the contents of the set
+ * at the time they were created, so the set can be modified while iterating.
+ *
+ * @author Peter Macko
+ */
+class CategoryDetectorSet extends AbstractSet<CategoryDetector> {
+
+	private static final int[] EMPTY = new int[0];
+
+	private Categories categories;
+	private int[] ordinals;
+
+
+	/**
+	 * Create an empty instance of {@link CategoryDetectorSet}
+	 */
+	CategoryDetectorSet() {
+		this.categories = null;
+		this.ordinals = EMPTY;
+	}
+
+
+	/**
+	 * Get the ordinal of a detector in this set
+	 *
+	 * @param detector the detector
+	 * @return the position of the ordinal in the array if found, or a negative
+	 *         value as returned by {@link Arrays#binarySearch(int[], int)}
+	 *         if not found or if the detector cannot belong to this set
+	 */
+	private int find(Object detector) {
+
+		if (!(detector instanceof CategoryDetector)) return -1;
+		CategoryDetector d = (CategoryDetector) detector;
+		if (d.ordinal < 0 || categories == null || d.getCategory().getContainer() != categories) return -1;
+
+		return Arrays.binarySearch(ordinals, d.ordinal);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(Object o) {
+		return find(o) >= 0;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(CategoryDetector detector) {
+
+		Category c = detector.getCategory();
+		if (detector.ordinal < 0 || c == null) {
+			throw new IllegalArgumentException("The detector does not belong to any categories");
+		}
+		if (categories == null) {
+			categories = c.getContainer();
+		}
+		else if (c.getContainer() != categories) {
+			throw new IllegalArgumentException("The detector belongs to a different collection of categories");
+		}
+
+		int k = Arrays.binarySearch(ordinals, detector.ordinal);
+		if (k >= 0) return false;
+
+		int p = -k - 1;
+		int[] a = new int[ordinals.length + 1];
+		System.arraycopy(ordinals, 0, a, 0, p);
+		a[p] = detector.ordinal;
+		System.arraycopy(ordinals, p, a, p + 1, ordinals.length - p);
+		ordinals = a;
+
+		return true;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object o) {
+
+		int k = find(o);
+		if (k < 0) return false;
+
+		removeAt(k);
+		return true;
+	}
+
+
+	/**
+	 * Remove the ordinal at the given position
+	 *
+	 * @param k the position in the array of ordinals
+	 */
+	private void removeAt(int k) {
+
+		if (ordinals.length == 1) {
+			ordinals = EMPTY;
+			return;
+		}
+
+		int[] a = new int[ordinals.length - 1];
+		System.arraycopy(ordinals, 0, a, 0, k);
+		System.arraycopy(ordinals, k + 1, a, k, a.length - k);
+		ordinals = a;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#clear()
+	 */
+	@Override
+	public void clear() {
+		ordinals = EMPTY;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return ordinals.length;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return ordinals.length == 0;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<CategoryDetector> iterator() {
+
+		final int[] a = ordinals;
+
+		return new Iterator<CategoryDetector>() {
+
+			private int next = 0;
+			private int last = -1;
+
+
+			@Override
+			public boolean hasNext() {
+				return next < a.length;
+			}
+
+
+			@Override
+			public CategoryDetector next() {
+				if (next >= a.length) throw new NoSuchElementException();
+				last = a[next++];
+				return categories.getDetectorByOrdinal(last);
+			}
+
+
+			@Override
+			public void remove() {
+				if (last < 0) throw new IllegalStateException();
+				int k = Arrays.binarySearch(ordinals, last);
+				if (k >= 0) removeAt(k);
+				last = -1;
+			}
+		};
+	}
+}
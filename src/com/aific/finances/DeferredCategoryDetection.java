@@ -0,0 +1,63 @@
+package com.aific.finances;
+
+import java.util.List;
+
+
+/**
+ * The detection of the categories of the transactions loaded from a file,
+ * performed as one batch after the transaction list is built. Each transaction
+ * is matched only against the transactions that preceded it in the file, so
+ * that the result, including the pairing of matching transactions, is the
+ * same as if the categories were detected while reading the file.
+ * 
+ * @author Peter Macko
+ */
+class DeferredCategoryDetection {
+	
+	private Categories categories;
+	private TransactionList transactionList;
+	
+	private List<Transaction> transactions;
+	private int[] limits;
+	
+	private boolean started;
+	
+	
+	/**
+	 * Create an instance of {@link DeferredCategoryDetection}
+	 * 
+	 * @param categories the categories
+	 * @param transactionList the transaction list
+	 * @param transactions the loaded transactions in the order in which they were read
+	 * @param limits the number of transactions in the list preceding each loaded transaction
+	 */
+	DeferredCategoryDetection(Categories categories, TransactionList transactionList,
+			List<Transaction> transactions, int[] limits) {
+		
+		this.categories = categories;
+		this.transactionList = transactionList;
+		
+		this.transactions = transactions;
+		this.limits = limits;
+		
+		this.started = false;
+	}
+	
+	
+	/**
+	 * Detect the categories, unless they were already detected. A nested
+	 * call from within the detection returns immediately.
+	 */
+	public synchronized void run() {
+		
+		if (started) return;
+		started = true;
+		
+		categories.detect(transactions, transactionList, limits, false);
+		
+		for (Transaction t : transactions) t.setDeferredDetection(null);
+		
+		transactions = null;
+		limits = null;
+	}
+}
@@ -0,0 +1,205 @@
+package com.aific.finances;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A cache of the detectors that match a transaction, keyed by its description,
+ * the bucket of its amount, and its account. The buckets are chosen so that
+ * all amounts in the same bucket are within the ranges of the same detectors,
+ * so the transactions with the same key are matched by the same detectors.
+ * <p>
+ * The cached results are valid only for the version of the rules that they
+ * were computed for, which is stored with each of them, since an engine with
+ * an older version of the rules can still be running; a result for a newer
+ * version discards the whole cache.
+ * The matching opposite transactions of the BALANCED detectors depend on the
+ * other transactions, so they are not cached, only whether the amount and the
+ * description match.
+ * <p>
+ * The cache is thread-safe.
+ *
+ * @author Peter Macko
+ */
+class DetectionCache {
+
+	private static final int MAX_ENTRIES = 100000;
+
+	private ConcurrentHashMap<Key, Entry> entries;
+	private volatile int version;
+
+	private LongAdder hits;
+	private LongAdder misses;
+
+
+	/**
+	 * Create an empty instance of {@link DetectionCache}
+	 */
+	DetectionCache() {
+
+		this.entries = new ConcurrentHashMap<Key, Entry>();
+		this.version = 0;
+
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+
+	/**
+	 * Get the cached result
+	 *
+	 * @param version the version of the rules
+	 * @param key the key
+	 * @return the detectors that match the transaction, which must not be
+	 *         modified, or null if not cached
+	 */
+	BitSet get(int version, Key key) {
+
+		Entry e = entries.get(key);
+		BitSet result = e != null && e.version == version ? e.result : null;
+		if (result == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Cache a result
+	 *
+	 * @param version the version of the rules
+	 * @param key the key
+	 * @param result the detectors that match the transaction, which must not
+	 *               be modified afterwards
+	 */
+	void put(int version, Key key, BitSet result) {
+
+		if (version != this.version || entries.size() >= MAX_ENTRIES) {
+			synchronized (this) {
+				if (version < this.version) return;
+				if (version > this.version || entries.size() >= MAX_ENTRIES) {
+					entries.clear();
+					this.version = version;
+				}
+			}
+		}
+
+		// Keep the result for the newer version if another engine put one
+
+		entries.merge(key, new Entry(version, result), (a, b) -> a.version >= b.version ? a : b);
+	}
+
+
+	/**
+	 * Get the number of lookups that found a cached result
+	 *
+	 * @return the number of hits
+	 */
+	long getHits() {
+		return hits.sum();
+	}
+
+
+	/**
+	 * Get the number of lookups that did not find a cached result
+	 *
+	 * @return the number of misses
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+
+
+	/**
+	 * Get the number of cached results
+	 *
+	 * @return the number of entries
+	 */
+	int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * A cached result together with the version of the rules that it was
+	 * computed for
+	 */
+	private static class Entry {
+
+		final int version;
+		final BitSet result;
+
+
+		/**
+		 * Create an instance of {@link Entry}
+		 *
+		 * @param version the version of the rules
+		 * @param result the detectors that match the transaction
+		 */
+		Entry(int version, BitSet result) {
+			this.version = version;
+			this.result = result;
+		}
+	}
+
+
+	/**
+	 * The key of a cached result
+	 */
+	static class Key {
+
+		private String description;
+		private int bucket;
+		private Account account;
+		private int hash;
+
+
+		/**
+		 * Create an instance of {@link Key}
+		 *
+		 * @param description the description of the transaction
+		 * @param bucket the bucket of its amount
+		 * @param account the account, or null
+		 */
+		Key(String description, int bucket, Account account) {
+
+			this.description = description;
+			this.bucket = bucket;
+			this.account = account;
+
+			this.hash = (description.hashCode() * 31 + bucket) * 31
+					+ (account == null ? 0 : account.hashCode());
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+
+			Key other = (Key) obj;
+			return hash == other.hash && bucket == other.bucket
+					&& description.equals(other.description)
+					&& (account == null ? other.account == null : account.equals(other.account));
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.aific.finances;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * The profiling statistics of a category detector: how many times it was
+ * evaluated against a transaction, how many of those transactions it accepted,
+ * and how much time it took, including the time spent looking for the matching
+ * opposite transactions of BALANCED categories. The statistics are collected
+ * only while profiling is enabled in {@link Categories}.
+ * <p>
+ * The statistics are thread-safe.
+ *
+ * @author Peter Macko
+ */
+public class DetectorStatistics {
+
+	private LongAdder evaluations;
+	private LongAdder matches;
+	private LongAdder nanoseconds;
+
+
+	/**
+	 * Create an empty instance of {@link DetectorStatistics}
+	 */
+	DetectorStatistics() {
+
+		this.evaluations = new LongAdder();
+		this.matches = new LongAdder();
+		this.nanoseconds = new LongAdder();
+	}
+
+
+	/**
+	 * Record one evaluation of the detector
+	 *
+	 * @param matched true if the detector accepted the transaction
+	 * @param nanoseconds the time that the evaluation took
+	 */
+	void record(boolean matched, long nanoseconds) {
+
+		this.evaluations.increment();
+		if (matched) this.matches.increment();
+		this.nanoseconds.add(nanoseconds);
+	}
+
+
+	/**
+	 * Reset the statistics
+	 */
+	void reset() {
+
+		evaluations.reset();
+		matches.reset();
+		nanoseconds.reset();
+	}
+
+
+	/**
+	 * Get the number of evaluations
+	 *
+	 * @return the number of transactions that the detector was evaluated against
+	 */
+	public long getEvaluations() {
+		return evaluations.sum();
+	}
+
+
+	/**
+	 * Get the number of matches
+	 *
+	 * @return the number of transactions that the detector accepted
+	 */
+	public long getMatches() {
+		return matches.sum();
+	}
+
+
+	/**
+	 * Get the fraction of the evaluations that resulted in a match
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if there were no evaluations
+	 */
+	public double getHitRate() {
+		long n = getEvaluations();
+		return n == 0 ? 0 : getMatches() / (double) n;
+	}
+
+
+	/**
+	 * Get the total time spent evaluating the detector
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getNanoseconds() {
+		return nanoseconds.sum();
+	}
+
+
+	/**
+	 * Get the average time of one evaluation
+	 *
+	 * @return the time in nanoseconds, or 0 if there were no evaluations
+	 */
+	public double getAverageNanoseconds() {
+		long n = getEvaluations();
+		return n == 0 ? 0 : getNanoseconds() / (double) n;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getEvaluations() + " evaluations, " + getMatches() + " matches, "
+				+ getNanoseconds() + " ns";
+	}
+}
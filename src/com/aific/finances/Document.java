@@ -1,28 +1,37 @@
 package com.aific.finances;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.aific.finances.util.IndentingXMLStreamWriter;
+import com.aific.finances.util.StaxUtils;
 import com.aific.finances.util.Utils;
 
 
@@ -43,6 +52,9 @@ public class Document {
 	private TransactionList transactions;
 	private Budgets budgets;
 	
+	private boolean savingIncrementally;
+	private DocumentJournal journal;
+	
 	
 	/**
 	 * Create a blank document
@@ -55,6 +67,9 @@ public class Document {
 		categories = Categories.fromBuiltin();
 		transactions = new TransactionList();
 		budgets = new Budgets();
+		
+		savingIncrementally = false;
+		journal = null;
 	}
 	
 	
@@ -125,6 +140,89 @@ public class Document {
 	}
 	
 	
+	/**
+	 * Create a document from a streaming XML reader in a single pass
+	 * 
+	 * @param in the XML stream reader positioned at the start of the element
+	 * @param mode when to detect the categories of the transactions
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on parse error
+	 */
+	private Document(XMLStreamReader in, Categories.DetectionMode mode)
+			throws XMLStreamException, ParseException {
+		
+		file = null;
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		categories = Categories.fromBuiltin();
+		
+		ArrayList<Transaction> loadedTransactions = null;
+		ArrayList<String> loadedDetectorIds = null;
+		boolean loadedCategories = false;
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			
+			case Accounts.XML_ELEMENT:
+				if (accounts != null) {
+					throw new RuntimeException("The document must have one <" + Accounts.XML_ELEMENT + "> element");
+				}
+				accounts = Accounts.fromXMLStream(in);
+				break;
+				
+			case Categories.XML_ELEMENT:
+				if (loadedCategories) {
+					throw new RuntimeException("The document must have one <" + Categories.XML_ELEMENT + "> element");
+				}
+				categories.updateFromXMLStream(in);
+				loadedCategories = true;
+				break;
+				
+			case TransactionList.XML_ELEMENT:
+				if (loadedTransactions != null) {
+					throw new RuntimeException("The document must have one <" + TransactionList.XML_ELEMENT + "> element");
+				}
+				if (accounts == null) {
+					throw new RuntimeException("The <" + Accounts.XML_ELEMENT + "> element must precede the <"
+							+ TransactionList.XML_ELEMENT + "> element");
+				}
+				loadedTransactions = new ArrayList<>();
+				loadedDetectorIds = new ArrayList<>();
+				TransactionList.readXMLStream(in, this, loadedTransactions, loadedDetectorIds);
+				break;
+				
+			case Budgets.XML_ELEMENT:
+				if (budgets != null) {
+					throw new RuntimeException("The document must have no more than one <" + Budgets.XML_ELEMENT + "> element");
+				}
+				budgets = Budgets.fromXMLStream(in, this);
+				break;
+				
+			default:
+				StaxUtils.skipElement(in);
+			}
+		}
+		
+		if (accounts == null) {
+			throw new RuntimeException("The document must have one <" + Accounts.XML_ELEMENT + "> element");
+		}
+		if (loadedTransactions == null) {
+			throw new RuntimeException("The document must have one <" + TransactionList.XML_ELEMENT + "> element");
+		}
+		if (budgets == null) {
+			budgets = new Budgets();
+		}
+		
+		
+		// The category updates follow the transactions in the file, so detect
+		// the categories only after everything has been read
+		
+		transactions = TransactionList.fromLoadedTransactions(this, loadedTransactions,
+				loadedDetectorIds, mode);
+	}
+	
+	
 	/**
 	 * Get the file
 	 * 
@@ -173,6 +271,47 @@ public class Document {
 	public Budgets getBudgets() {
 		return budgets;
 	}
+	
+	
+	/**
+	 * Replace the list of transactions
+	 * 
+	 * @param transactions the transactions
+	 */
+	void setTransactions(TransactionList transactions) {
+		this.transactions = transactions;
+	}
+	
+	
+	/**
+	 * Replace the collection of budgets
+	 * 
+	 * @param budgets the budgets
+	 */
+	void setBudgets(Budgets budgets) {
+		this.budgets = budgets;
+	}
+	
+	
+	/**
+	 * Determine whether the document is saved incrementally using a journal
+	 * 
+	 * @return true if the document is saved incrementally
+	 */
+	public boolean isSavingIncrementally() {
+		return savingIncrementally;
+	}
+	
+	
+	/**
+	 * Set whether the document should be saved incrementally using a journal.
+	 * The journal is started by the next save, which writes the full document.
+	 * 
+	 * @param savingIncrementally true to save the document incrementally
+	 */
+	public void setSavingIncrementally(boolean savingIncrementally) {
+		this.savingIncrementally = savingIncrementally;
+	}
 
 	
 	/**
@@ -206,22 +345,95 @@ public class Document {
 
 	
 	/**
-	 * Load a document from file
+	 * Read the object from a streaming XML reader in a single pass, without
+	 * building the DOM tree of the entire document
+	 * 
+	 * @param in the XML stream reader positioned at the start of the element
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on parse error
+	 */
+	public static Document fromXMLStream(XMLStreamReader in) throws XMLStreamException, ParseException {
+		return new Document(in, Categories.DetectionMode.DEFERRED);
+	}
+
+	
+	/**
+	 * Read the object from a streaming XML reader in a single pass, without
+	 * building the DOM tree of the entire document
+	 * 
+	 * @param in the XML stream reader positioned at the start of the element
+	 * @param mode when to detect the categories of the transactions
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on parse error
+	 */
+	public static Document fromXMLStream(XMLStreamReader in, Categories.DetectionMode mode)
+			throws XMLStreamException, ParseException {
+		return new Document(in, mode);
+	}
+
+	
+	/**
+	 * Load a document from file, replaying its journal if there is one
 	 * 
 	 * @param file the file
 	 */
 	public static Document fromFile(File file) {
+		return fromFile(file, Categories.DetectionMode.DEFERRED);
+	}
+
+	
+	/**
+	 * Load a document from file, replaying its journal if there is one
+	 * 
+	 * @param file the file
+	 * @param mode when to detect the categories of the transactions
+	 */
+	public static Document fromFile(File file, Categories.DetectionMode mode) {
 
+		Document d = fromFileWithoutJournal(file, mode);
+		
 		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			org.w3c.dom.Document doc = dBuilder.parse(file);
-			doc.getDocumentElement().normalize();
+			long journalLength = DocumentJournal.replay(d, file, Long.MAX_VALUE);
+			if (journalLength > 0) {
+				d.savingIncrementally = true;
+				d.journal = new DocumentJournal(d, file, journalLength);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 		
-			Document d = fromXMLElement(doc.getDocumentElement());
+		return d;
+	}
+
+	
+	/**
+	 * Load a document from file without its journal
+	 * 
+	 * @param file the file
+	 * @param mode when to detect the categories of the transactions
+	 */
+	static Document fromFileWithoutJournal(File file, Categories.DetectionMode mode) {
+
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
 			
-			d.file = file;
-			return d;
+			XMLStreamReader in = factory.createXMLStreamReader(stream);
+			try {
+				in.nextTag();
+				
+				Document d = fromXMLStream(in, mode);
+				
+				d.file = file;
+				return d;
+			}
+			finally {
+				in.close();
+			}
 		}
 		catch (RuntimeException e) {
 			throw e;
@@ -233,30 +445,82 @@ public class Document {
 	
 	
 	/**
-	 * Save the document to a file (and update the file field of the document)
+	 * Load a document from a binary snapshot written by {@link #toSnapshot(File)}.
+	 * The file of the returned document is not set, since the snapshot is not
+	 * the interchange format.
+	 * 
+	 * @param file the snapshot file
+	 */
+	public static Document fromSnapshot(File file) {
+		return fromSnapshot(file, Categories.DetectionMode.DEFERRED);
+	}
+	
+	
+	/**
+	 * Load a document from a binary snapshot written by {@link #toSnapshot(File)}.
+	 * The file of the returned document is not set, since the snapshot is not
+	 * the interchange format.
+	 * 
+	 * @param file the snapshot file
+	 * @param mode when to detect the categories of the transactions
+	 */
+	public static Document fromSnapshot(File file, Categories.DetectionMode mode) {
+
+		try {
+			return DocumentSnapshot.read(file, mode);
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+
+		accounts.toXMLStream(out);
+		transactions.toXMLStream(out);
+		categories.updatesToXMLStream(out);
+		budgets.toXMLStream(out);
+		
+		out.writeEndElement();
+	}
+
+	
+	/**
+	 * Save the document to a file (and update the file field of the document).
+	 * The document is streamed directly to the file without first building
+	 * its DOM tree.
 	 * 
 	 * @param file the file
 	 */
 	public void toFile(File file) {
 
 		try {
-			DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-			org.w3c.dom.Document d = docBuilder.newDocument();
-			
-			d.appendChild(toXMLElement(d));
-
-			TransformerFactory transformerFactory = TransformerFactory.newInstance();
-			Transformer transformer = transformerFactory.newTransformer();
-			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-			DOMSource source = new DOMSource(d);
-			
-			FileOutputStream out = new FileOutputStream(file);
-			StreamResult result = new StreamResult(out);
-			transformer.transform(source, result);
-			out.close();
+			DocumentJournal oldJournal = journal;
+			if (oldJournal != null) {
+				synchronized (oldJournal) {
+					writeFile(file);
+					if (oldJournal.getBaseFile().equals(file)) oldJournal.invalidate();
+				}
+			}
+			else {
+				writeFile(file);
+			}
 			
 			this.file = file;
+			
+			Files.deleteIfExists(DocumentJournal.getJournalFile(file).toPath());
+			journal = savingIncrementally ? new DocumentJournal(this, file, 0) : null;
 		}
 		catch (RuntimeException e) {
 			throw e;
@@ -267,6 +531,73 @@ public class Document {
 	}
 	
 	
+	/**
+	 * Save the document to a binary snapshot that can be loaded using
+	 * {@link #fromSnapshot(File)}. This does not change the file of the document.
+	 * 
+	 * @param file the snapshot file
+	 */
+	public void toSnapshot(File file) {
+
+		try {
+			DocumentSnapshot.write(this, file);
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	/**
+	 * Save the document to its file, appending just the changes to the journal
+	 * if the document is saved incrementally and the changes can be journaled
+	 */
+	public void save() {
+		
+		if (file == null) throw new IllegalStateException("The file must be set");
+		
+		if (savingIncrementally && journal != null && journal.canCommit()) {
+			try {
+				journal.commit();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			toFile(file);
+		}
+	}
+	
+	
+	/**
+	 * Write the document to a file
+	 * 
+	 * @param file the file
+	 * @throws IOException on I/O error
+	 * @throws XMLStreamException on write error
+	 */
+	void writeFile(File file) throws IOException, XMLStreamException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				Writer writer = new BufferedWriter(new OutputStreamWriter(
+						Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16)) {
+			
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+			
+			XMLStreamWriter out = new IndentingXMLStreamWriter(
+					XMLOutputFactory.newInstance().createXMLStreamWriter(writer));
+			toXMLStream(out);
+			out.writeEndDocument();
+			out.close();
+		}
+	}
+	
+	
 	/**
 	 * Export the document to CSV
 	 * 
@@ -288,50 +619,57 @@ public class Document {
 			out.write("Note");
 			out.newLine();
 			
-			ArrayList<Transaction> l = new ArrayList<>(transactions);
-			Collections.sort(l, (a, b) -> {
-				return b.getDate().compareTo(a.getDate());
-			});
+			// Write the newest transactions first, but keep the transactions
+			// from the same day in the order in which they were added
 			
-			for (Transaction t : l) {
+			List<Transaction> byDate = transactions.getByDate();
+			for (int end = byDate.size(); end > 0; ) {
+				int day = byDate.get(end - 1).getEpochDay();
+				int start = end - 1;
+				while (start > 0 && byDate.get(start - 1).getEpochDay() == day) start--;
 				
-				if (predicate != null) {
-					if (!predicate.test(t)) continue;
-				}
-				
-				out.write(dateFormat.format(t.getDate()));
-				out.write(",");
-				
-				CategoryDetector detector = t.getCategoryDetector();
-				if (detector != null && detector.getCategory() != null) {
-					out.write(Utils.escapeCsv(detector.getCategory().getName()));
-				}
-				out.write(",");
-				
-				if (detector != null && ((detector.getVendor() != null && !detector.getVendor().isEmpty())
-						|| (detector.getDescription() != null && !detector.getDescription().isEmpty()))) {
-					String s = detector.getVendor() != null && !detector.getVendor().isEmpty() ? detector.getVendor() : "";
-					if (detector.getDescription() != null && !detector.getDescription().isEmpty()) {
-						if (!s.isEmpty()) s += " - ";
-						s += detector.getDescription();
+				for (Transaction t : byDate.subList(start, end)) {
+					
+					if (predicate != null) {
+						if (!predicate.test(t)) continue;
+					}
+					
+					out.write(dateFormat.format(t.getDate()));
+					out.write(",");
+					
+					CategoryDetector detector = t.getCategoryDetector();
+					if (detector != null && detector.getCategory() != null) {
+						out.write(Utils.escapeCsv(detector.getCategory().getName()));
 					}
-					out.write(Utils.escapeCsv(s));
+					out.write(",");
+					
+					if (detector != null && ((detector.getVendor() != null && !detector.getVendor().isEmpty())
+							|| (detector.getDescription() != null && !detector.getDescription().isEmpty()))) {
+						String s = detector.getVendor() != null && !detector.getVendor().isEmpty() ? detector.getVendor() : "";
+						if (detector.getDescription() != null && !detector.getDescription().isEmpty()) {
+							if (!s.isEmpty()) s += " - ";
+							s += detector.getDescription();
+						}
+						out.write(Utils.escapeCsv(s));
+					}
+					out.write(",");
+					
+					out.write(Utils.NUMBER_FORMAT.format(t.getCents() / 100));
+					out.write(",");
+					
+					out.write(Utils.escapeCsv(t.getDescription()));
+					out.write(",");
+					
+					out.write(Utils.escapeCsv(t.getAccount().getShortName()));
+					out.write(",");
+					
+					out.write(Utils.escapeCsv(t.getNote()));
+					out.write(",");
+					
+					out.newLine();
 				}
-				out.write(",");
-				
-				out.write(Utils.NUMBER_FORMAT.format(t.getCents() / 100));
-				out.write(",");
-				
-				out.write(Utils.escapeCsv(t.getDescription()));
-				out.write(",");
-				
-				out.write(Utils.escapeCsv(t.getAccount().getShortName()));
-				out.write(",");
-				
-				out.write(Utils.escapeCsv(t.getNote()));
-				out.write(",");
 				
-				out.newLine();
+				end = start;
 			}
 		}
 	}
@@ -0,0 +1,817 @@
+package com.aific.finances;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+
+
+/**
+ * An append-only journal of the changes made to a document since its file
+ * was last written in full. The journal is stored next to the document file,
+ * and it records added transactions, changes of category detectors and notes,
+ * account changes, and budget changes. Saving a document then costs only as
+ * much as the size of the change, and opening the document replays the
+ * journal on top of the file. Once the journal grows large, it is folded
+ * back into the document file in the background.
+ * <p>
+ * The changes are found by comparing the document to a snapshot of its state
+ * at the last save. Changes to the categories and their detectors are not
+ * journaled, and they require the full document to be written.
+ * <p>
+ * The header binds the journal to up to two versions of the document file,
+ * identified by their length and modification time, each with the offset
+ * of the first record that is not yet in that version. While the journal is
+ * being folded into the document file, it is valid for both the old and the
+ * new version, so that a crash while the files are being replaced does not
+ * lose any records.
+ *
+ * @author Peter Macko
+ */
+public class DocumentJournal {
+
+	public static final String FILE_SUFFIX = ".journal";
+
+	private static final int MAGIC = 0x47464A32;	// "GFJ2"
+	private static final int BINDINGS = 2;
+	private static final int HEADER_SIZE = 4 + BINDINGS * (8 + 8 + 8);
+
+	private static final byte RECORD_ACCOUNT = 'A';
+	private static final byte RECORD_TRANSACTION_ADDED = 'T';
+	private static final byte RECORD_TRANSACTION_UPDATED = 'U';
+	private static final byte RECORD_BUDGETS = 'B';
+
+	private static final long MIN_COMPACTION_SIZE = 1 << 20;
+
+	private Document document;
+	private File baseFile;
+	private File journalFile;
+
+	private long validLength;
+	private int generation;
+	private boolean compacting;
+	private boolean compactionFailed;
+
+	private int savedCount;
+	private ArrayList<CategoryDetector> savedDetectors;
+	private ArrayList<String> savedNotes;
+	private HashMap<String, String> savedAccounts;
+	private String savedCategories;
+	private String savedBudgets;
+
+
+	/**
+	 * Create an instance of {@link DocumentJournal} for a document whose current
+	 * state corresponds to its file together with the given number of bytes of
+	 * the existing journal
+	 *
+	 * @param document the document
+	 * @param baseFile the document file
+	 * @param validLength the length of the valid part of the existing journal, or 0 if none
+	 */
+	DocumentJournal(Document document, File baseFile, long validLength) {
+
+		this.document = document;
+		this.baseFile = baseFile;
+		this.journalFile = getJournalFile(baseFile);
+
+		this.validLength = validLength;
+		this.generation = 0;
+		this.compacting = false;
+		this.compactionFailed = false;
+
+		takeSnapshot();
+	}
+
+
+	/**
+	 * Get the journal file for the given document file
+	 *
+	 * @param baseFile the document file
+	 * @return the journal file
+	 */
+	public static File getJournalFile(File baseFile) {
+		return new File(baseFile.getPath() + FILE_SUFFIX);
+	}
+
+
+	/**
+	 * Get the journal file
+	 *
+	 * @return the journal file
+	 */
+	public File getFile() {
+		return journalFile;
+	}
+
+
+	/**
+	 * Record the current state of the document as the saved state
+	 */
+	private void takeSnapshot() {
+
+		TransactionList transactions = document.getTransactions();
+
+		synchronized (transactions) {
+			savedCount = transactions.size();
+			savedDetectors = new ArrayList<>(savedCount);
+			savedNotes = new ArrayList<>(savedCount);
+			for (Transaction t : transactions.getList()) {
+				savedDetectors.add(t.getCategoryDetector());
+				savedNotes.add(t.getNote());
+			}
+		}
+
+		savedAccounts = new HashMap<>();
+		for (Account a : document.getAccounts().getAll()) {
+			savedAccounts.put(a.getId(), toXMLString(a::toXMLStream));
+		}
+
+		savedCategories = toXMLString(document.getCategories()::updatesToXMLStream);
+		savedBudgets = toXMLString(document.getBudgets()::toXMLStream);
+	}
+
+
+	/**
+	 * Get the document file
+	 *
+	 * @return the document file
+	 */
+	public File getBaseFile() {
+		return baseFile;
+	}
+
+
+	/**
+	 * The document file was written in full, so discard the journal and stop
+	 * any compaction that is in progress. The caller must hold the lock of
+	 * this object while writing the document file.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	synchronized void invalidate() throws IOException {
+
+		Files.deleteIfExists(journalFile.toPath());
+
+		validLength = 0;
+		generation++;
+	}
+
+
+	/**
+	 * Determine whether the changes since the last save can be written to
+	 * the journal
+	 *
+	 * @return true if the document can be saved incrementally
+	 */
+	public boolean canCommit() {
+
+		if (document.getTransactions().size() < savedCount) return false;
+
+		return savedCategories.equals(toXMLString(document.getCategories()::updatesToXMLStream));
+	}
+
+
+	/**
+	 * Append the changes since the last save to the journal
+	 *
+	 * @throws IOException on I/O error
+	 * @throws IllegalStateException if the changes cannot be journaled
+	 */
+	public synchronized void commit() throws IOException {
+
+		if (!canCommit()) {
+			throw new IllegalStateException("The changes to the document cannot be journaled");
+		}
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+
+		// Accounts
+
+		for (Account a : document.getAccounts().getAll()) {
+			String xml = toXMLString(a::toXMLStream);
+			if (!xml.equals(savedAccounts.get(a.getId()))) {
+				writeRecord(records, RECORD_ACCOUNT, out -> writeString(out, xml));
+				savedAccounts.put(a.getId(), xml);
+			}
+		}
+
+
+		// Transactions
+
+		TransactionList transactions = document.getTransactions();
+		synchronized (transactions) {
+
+			for (int i = 0; i < savedCount; i++) {
+				Transaction t = transactions.get(i);
+				if (t.getCategoryDetector() != savedDetectors.get(i)
+						|| !equal(t.getNote(), savedNotes.get(i))) {
+					writeRecord(records, RECORD_TRANSACTION_UPDATED, out -> {
+						writeString(out, t.getAccount() == null ? null : t.getAccount().getId());
+						writeString(out, t.getId());
+						writeString(out, t.getCategoryDetector() == null ? null : t.getCategoryDetector().getId());
+						writeString(out, t.getNote());
+					});
+					savedDetectors.set(i, t.getCategoryDetector());
+					savedNotes.set(i, t.getNote());
+				}
+			}
+
+			for (int i = savedCount; i < transactions.size(); i++) {
+				Transaction t = transactions.get(i);
+				writeRecord(records, RECORD_TRANSACTION_ADDED, out -> {
+					writeString(out, t.getAccount() == null ? null : t.getAccount().getId());
+					writeString(out, t.getId());
+					out.writeInt(t.getEpochDay());
+					writeString(out, t.getDescription());
+					writeString(out, t.getAddress());
+					out.writeInt(t.getCents());
+					writeString(out, t.getCategoryDetector() == null ? null : t.getCategoryDetector().getId());
+					writeString(out, t.getNote());
+				});
+				savedDetectors.add(t.getCategoryDetector());
+				savedNotes.add(t.getNote());
+			}
+
+			savedCount = transactions.size();
+		}
+
+
+		// Budgets
+
+		String budgets = toXMLString(document.getBudgets()::toXMLStream);
+		if (!budgets.equals(savedBudgets)) {
+			writeRecord(records, RECORD_BUDGETS, out -> writeString(out, budgets));
+			savedBudgets = budgets;
+		}
+
+
+		// Append the records
+
+		if (records.size() == 0) return;
+
+		try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+			if (validLength < HEADER_SIZE) {
+				channel.truncate(0);
+				writeFully(channel, ByteBuffer.wrap(createHeader(baseFile, HEADER_SIZE, null, 0)), 0);
+				validLength = HEADER_SIZE;
+			}
+			else {
+
+				// Drop a partially written record left behind by a crash
+
+				channel.truncate(validLength);
+			}
+
+			writeFully(channel, ByteBuffer.wrap(records.toByteArray()), validLength);
+			channel.force(false);
+			validLength += records.size();
+		}
+
+
+		// Fold the journal into the document file if it got large, or try
+		// again if the last attempt failed
+
+		if (compactionFailed || validLength > Math.max(MIN_COMPACTION_SIZE, baseFile.length() / 4)) {
+			compactInBackground();
+		}
+	}
+
+
+	/**
+	 * Replay the journal of the given document file, if there is one
+	 *
+	 * @param document the document loaded from the file
+	 * @param baseFile the document file
+	 * @param limit the maximum number of bytes of the journal to replay
+	 * @return the number of valid bytes in the journal, or 0 if there is no
+	 *         valid journal for the file
+	 * @throws IOException on I/O error
+	 */
+	static long replay(Document document, File baseFile, long limit) throws IOException {
+
+		File journalFile = getJournalFile(baseFile);
+		if (!journalFile.exists()) return 0;
+
+		byte[] journal = Files.readAllBytes(journalFile.toPath());
+		if (journal.length < HEADER_SIZE) return 0;
+
+		long start = findStart(journal, baseFile);
+		if (start < 0) {
+			System.err.println("Ignoring the journal " + journalFile + ", which was written "
+					+ "for a different version of the document");
+			return 0;
+		}
+		if (start < HEADER_SIZE || start > journal.length) {
+			throw new IOException("Invalid journal file: " + journalFile);
+		}
+
+
+		// Read the records until the end or until the first damaged record
+
+		int end = (int) Math.min(limit, journal.length);
+		int position = (int) start;
+
+		while (position + 4 <= end) {
+
+			int length = ByteBuffer.wrap(journal, position, 4).getInt();
+			if (length <= 0 || position + 4 + length + 4 > end) break;
+
+			CRC32 crc = new CRC32();
+			crc.update(journal, position + 4, length);
+			if ((int) crc.getValue() != ByteBuffer.wrap(journal, position + 4 + length, 4).getInt()) break;
+
+			try {
+				replayRecord(document, new DataInputStream(
+						new ByteArrayInputStream(journal, position + 4, length)));
+			}
+			catch (XMLStreamException | ParseException e) {
+				throw new IOException("Cannot replay the journal " + journalFile, e);
+			}
+
+			position += 4 + length + 4;
+		}
+
+		return position;
+	}
+
+
+	/**
+	 * Replay a journal record
+	 *
+	 * @param document the document
+	 * @param in the record
+	 * @throws IOException on I/O error
+	 * @throws XMLStreamException on XML parse error
+	 * @throws ParseException on parse error
+	 */
+	private static void replayRecord(Document document, DataInputStream in)
+			throws IOException, XMLStreamException, ParseException {
+
+		Accounts accounts = document.getAccounts();
+		Categories categories = document.getCategories();
+		TransactionList transactions = document.getTransactions();
+
+		byte type = in.readByte();
+		switch (type) {
+
+		case RECORD_ACCOUNT: {
+			XMLStreamReader xml = createXMLReader(readString(in));
+			Account a = Account.fromXMLStream(xml);
+			Account existing = null;
+			for (Account x : accounts.getAll()) {
+				if (x.getId().equals(a.getId())) existing = x;
+			}
+			if (existing == null) {
+				accounts.add(a);
+			}
+			else {
+				existing.setInstitution(a.getInstitution());
+				existing.setType(a.getType());
+				existing.setName(a.getName());
+				existing.setShortName(a.getShortName());
+			}
+			break;
+		}
+
+		case RECORD_TRANSACTION_ADDED: {
+			String s_account = readString(in);
+			String id = readString(in);
+			int day = in.readInt();
+			String description = readString(in);
+			String address = readString(in);
+			int cents = in.readInt();
+			String s_cd = readString(in);
+			String note = readString(in);
+
+			Account account = s_account != null ? accounts.get(s_account) : null;
+			CategoryDetector cd = s_cd != null ? categories.detectors.get(s_cd) : null;
+
+			Transaction t = new Transaction(account, id, day, description, address, cents);
+			categories.detectCategories(t, transactions);
+			if (cd != null) t.setCategoryDetector(cd);
+			t.setNote(note);
+			transactions.add(t);
+			break;
+		}
+
+		case RECORD_TRANSACTION_UPDATED: {
+			String s_account = readString(in);
+			String id = readString(in);
+			String s_cd = readString(in);
+			String note = readString(in);
+
+			Account account = s_account != null ? accounts.get(s_account) : null;
+			Transaction t = transactions.find(account, id);
+			if (t == null) {
+				throw new IOException("The journal refers to a nonexistent transaction " + id);
+			}
+
+			CategoryDetector cd = s_cd != null ? categories.detectors.get(s_cd) : null;
+			t.setCategoryDetector(cd != null ? cd : Categories.NULL_DETECTOR);
+			t.setNote(note);
+			break;
+		}
+
+		case RECORD_BUDGETS: {
+			XMLStreamReader xml = createXMLReader(readString(in));
+			document.setBudgets(Budgets.fromXMLStream(xml, document));
+			break;
+		}
+
+		default:
+			throw new IOException("Invalid journal record type: " + type);
+		}
+	}
+
+
+	/**
+	 * Fold the journal into the document file in a background thread. The
+	 * document file and the journal are loaded into a separate document, so
+	 * that the document that is being edited is not touched. If this fails,
+	 * the journal stays valid, and the compaction is tried again on the next
+	 * save.
+	 */
+	public synchronized void compactInBackground() {
+
+		if (compacting) return;
+		compacting = true;
+		compactionFailed = false;
+
+		final long limit = validLength;
+		final int startGeneration = generation;
+
+		Thread thread = new Thread(() -> {
+			try {
+				compact(limit, startGeneration);
+			}
+			catch (Exception e) {
+				System.err.println("Failed to fold the journal " + journalFile
+						+ " into the document file; will try again on the next save");
+				e.printStackTrace(System.err);
+				synchronized (DocumentJournal.this) {
+					compactionFailed = true;
+				}
+			}
+			finally {
+				synchronized (DocumentJournal.this) {
+					compacting = false;
+				}
+			}
+		}, "Journal compaction");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Fold the given prefix of the journal into the document file, keeping
+	 * the records appended since in the journal. The files are replaced in
+	 * three steps, so that the document can be loaded after a crash at any
+	 * point: First, the journal is replaced by one that is valid for both the
+	 * old and the new document file, then the document file is replaced, and
+	 * finally the records that were folded into it are dropped.
+	 *
+	 * @param limit the length of the prefix of the journal
+	 * @param startGeneration the generation of the journal when the compaction started
+	 * @throws IOException on I/O error
+	 * @throws XMLStreamException on write error
+	 */
+	private void compact(long limit, int startGeneration) throws IOException, XMLStreamException {
+
+		Document d = Document.fromFileWithoutJournal(baseFile, Categories.DetectionMode.DEFERRED);
+		replay(d, baseFile, limit);
+
+		File compacted = new File(baseFile.getPath() + ".compacting");
+		try {
+			d.writeFile(compacted);
+			sync(compacted);
+		}
+		catch (IOException | XMLStreamException | RuntimeException e) {
+			Files.deleteIfExists(compacted.toPath());
+			throw e;
+		}
+
+		synchronized (this) {
+
+			// Give up if the document was written in full in the meantime
+
+			if (generation != startGeneration) {
+				Files.deleteIfExists(compacted.toPath());
+				return;
+			}
+
+
+			// Read the records of the current document file, including those
+			// appended after the compaction started
+
+			byte[] journal = new byte[(int) validLength];
+			try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer b = ByteBuffer.wrap(journal);
+				while (b.hasRemaining()) {
+					if (channel.read(b, b.position()) < 0) throw new EOFException();
+				}
+			}
+
+			long start = findStart(journal, baseFile);
+			if (start < HEADER_SIZE || start > limit) {
+				Files.deleteIfExists(compacted.toPath());
+				throw new IOException("The journal " + journalFile + " changed during the compaction");
+			}
+
+			int records = (int) (validLength - start);
+			int tail = (int) (validLength - limit);
+
+
+			// Make the journal valid for both versions of the document file
+
+			replaceJournal(createHeader(baseFile, HEADER_SIZE, compacted, HEADER_SIZE + limit - start),
+					journal, (int) start, records);
+			validLength = HEADER_SIZE + records;
+
+
+			// Replace the document file, and then drop the records that were
+			// folded into it
+
+			Files.move(compacted.toPath(), baseFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			replaceJournal(createHeader(baseFile, HEADER_SIZE, null, 0), journal, (int) limit, tail);
+			validLength = HEADER_SIZE + tail;
+		}
+	}
+
+
+	/**
+	 * Atomically replace the journal file by a new one, which is written to
+	 * the disk first
+	 *
+	 * @param header the header of the new journal
+	 * @param records the buffer with the records
+	 * @param offset the offset of the records in the buffer
+	 * @param length the length of the records
+	 * @throws IOException on I/O error
+	 */
+	private void replaceJournal(byte[] header, byte[] records, int offset, int length) throws IOException {
+
+		File newJournal = new File(journalFile.getPath() + ".compacting");
+		try (FileChannel channel = FileChannel.open(newJournal.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, ByteBuffer.wrap(header), 0);
+			writeFully(channel, ByteBuffer.wrap(records, offset, length), HEADER_SIZE);
+			channel.force(false);
+		}
+
+		Files.move(newJournal.toPath(), journalFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Write the contents of a file to the disk
+	 *
+	 * @param file the file
+	 * @throws IOException on I/O error
+	 */
+	private static void sync(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+
+	/**
+	 * Create the journal header that binds the journal to one or two
+	 * versions of the document file
+	 *
+	 * @param baseFile the document file
+	 * @param start the offset of the first record that is not in the document file
+	 * @param otherBaseFile the other version of the document file, or null if none
+	 * @param otherStart the offset of the first record that is not in the other version
+	 * @return the header
+	 * @throws IOException on I/O error
+	 */
+	private static byte[] createHeader(File baseFile, long start, File otherBaseFile, long otherStart)
+			throws IOException {
+
+		ByteArrayOutputStream b = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream out = new DataOutputStream(b);
+
+		out.writeInt(MAGIC);
+
+		out.writeLong(baseFile.length());
+		out.writeLong(baseFile.lastModified());
+		out.writeLong(start);
+
+		out.writeLong(otherBaseFile == null ? -1 : otherBaseFile.length());
+		out.writeLong(otherBaseFile == null ? -1 : otherBaseFile.lastModified());
+		out.writeLong(otherBaseFile == null ? -1 : otherStart);
+
+		return b.toByteArray();
+	}
+
+
+	/**
+	 * Find the offset of the first record of the journal that is not in the
+	 * given version of the document file
+	 *
+	 * @param journal the journal, starting with its header
+	 * @param baseFile the document file
+	 * @return the offset, or -1 if the journal was written for a different
+	 *         version of the document file
+	 * @throws IOException if the journal is not valid
+	 */
+	private static long findStart(byte[] journal, File baseFile) throws IOException {
+
+		if (journal.length < HEADER_SIZE) return -1;
+
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(journal, 0, HEADER_SIZE));
+		if (header.readInt() != MAGIC) {
+			throw new IOException("Invalid journal file: " + getJournalFile(baseFile));
+		}
+
+		long length = baseFile.length();
+		long lastModified = baseFile.lastModified();
+
+		for (int i = 0; i < BINDINGS; i++) {
+			long l = header.readLong();
+			long m = header.readLong();
+			long start = header.readLong();
+			if (l == length && m == lastModified) return start;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * The writer of the contents of a record
+	 */
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+
+	/**
+	 * Write a record, which consists of its length, the type, the contents,
+	 * and a CRC-32 checksum
+	 *
+	 * @param records the output
+	 * @param type the record type
+	 * @param writer the writer of the record contents
+	 * @throws IOException on I/O error
+	 */
+	private static void writeRecord(ByteArrayOutputStream records, byte type, RecordWriter writer)
+			throws IOException {
+
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeByte(type);
+		writer.write(out);
+		out.flush();
+
+		byte[] data = b.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		DataOutputStream r = new DataOutputStream(records);
+		r.writeInt(data.length);
+		r.write(data);
+		r.writeInt((int) crc.getValue());
+		r.flush();
+	}
+
+
+	/**
+	 * Write a nullable string
+	 *
+	 * @param out the output
+	 * @param s the string, or null
+	 * @throws IOException on I/O error
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+
+		if (s == null) {
+			out.writeInt(-1);
+		}
+		else {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+
+	/**
+	 * Read a nullable string
+	 *
+	 * @param in the input
+	 * @return the string, or null
+	 * @throws IOException on I/O error
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+
+		int length = in.readInt();
+		if (length < 0) return null;
+
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Write the entire buffer to the channel
+	 *
+	 * @param channel the file channel
+	 * @param buffer the buffer
+	 * @param position the file position
+	 * @throws IOException on I/O error
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+
+	/**
+	 * The writer of an XML fragment
+	 */
+	private interface XMLWriter {
+		void write(XMLStreamWriter out) throws XMLStreamException;
+	}
+
+
+	/**
+	 * Write an XML fragment to a string
+	 *
+	 * @param writer the writer of the fragment
+	 * @return the string
+	 */
+	private static String toXMLString(XMLWriter writer) {
+
+		try {
+			StringWriter s = new StringWriter();
+			XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(s);
+			writer.write(out);
+			out.close();
+			return s.toString();
+		}
+		catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	/**
+	 * Create a streaming XML reader positioned at the root element of a fragment
+	 *
+	 * @param xml the XML fragment
+	 * @return the reader
+	 * @throws XMLStreamException on error
+	 */
+	private static XMLStreamReader createXMLReader(String xml) throws XMLStreamException {
+		XMLStreamReader in = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml));
+		in.nextTag();
+		return in;
+	}
+
+
+	/**
+	 * Compare two nullable strings
+	 *
+	 * @param a the first string
+	 * @param b the second string
+	 * @return true if they are equal
+	 */
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
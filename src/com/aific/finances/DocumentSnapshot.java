@@ -0,0 +1,376 @@
+package com.aific.finances;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * A compact binary snapshot of a document. The accounts, the category
+ * updates, and the budgets are stored as XML, while the transactions are
+ * stored column by column: the amounts as cents, the dates as epoch days,
+ * the descriptions, addresses, and notes as indexes to a string dictionary,
+ * and the accounts and the category detectors as ordinals. The snapshot is
+ * read through a memory-mapped file.
+ * <p>
+ * The XML document file remains the interchange format; the snapshot is meant
+ * only for opening large documents quickly.
+ * <p>
+ * All sections are in the big-endian order:
+ * <pre>
+ * int magic, int version
+ * int length, byte[length] metadata XML (UTF-8)
+ * string table dictionary, string table account IDs, string table detector IDs
+ * int count
+ * int[count] cents, int[count] epoch days, int[count] accounts,
+ * int[count] descriptions, int[count] addresses, int[count] notes,
+ * int[count] detectors
+ * string[count] transaction IDs
+ * </pre>
+ * A string table is an int count followed by the strings, and a string is
+ * an int length followed by its UTF-8 bytes. An ordinal or index of -1
+ * stands for null.
+ *
+ * @author Peter Macko
+ */
+class DocumentSnapshot {
+
+	private static final int MAGIC = 0x47465331;	// "GFS1"
+	private static final int VERSION = 1;
+
+	private static final int NULL_INDEX = -1;
+
+
+	/**
+	 * Write a document to a snapshot file
+	 *
+	 * @param document the document
+	 * @param file the file
+	 * @throws IOException on I/O error
+	 * @throws XMLStreamException on write error
+	 */
+	static void write(Document document, File file) throws IOException, XMLStreamException {
+
+		TransactionList transactions = document.getTransactions();
+
+		synchronized (transactions) {
+			int count = transactions.size();
+
+			int[] cents = new int[count];
+			int[] days = new int[count];
+			int[] accounts = new int[count];
+			int[] descriptions = new int[count];
+			int[] addresses = new int[count];
+			int[] notes = new int[count];
+			int[] detectors = new int[count];
+
+			Dictionary dictionary = new Dictionary();
+			Dictionary accountIds = new Dictionary();
+			Dictionary detectorIds = new Dictionary();
+
+			for (int i = 0; i < count; i++) {
+				Transaction t = transactions.get(i);
+
+				cents[i] = t.getCents();
+				days[i] = t.getEpochDay();
+				accounts[i] = accountIds.indexOf(t.getAccount() == null ? null : t.getAccount().getId());
+				descriptions[i] = dictionary.indexOf(t.getDescription());
+				addresses[i] = dictionary.indexOf(t.getAddress());
+				notes[i] = dictionary.indexOf(t.getNote());
+				detectors[i] = detectorIds.indexOf(t.getCategoryDetector() == null
+						? null : t.getCategoryDetector().getId());
+			}
+
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+							Channels.newOutputStream(channel), 1 << 16))) {
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+
+				byte[] metadata = writeMetadata(document);
+				out.writeInt(metadata.length);
+				out.write(metadata);
+
+				dictionary.write(out);
+				accountIds.write(out);
+				detectorIds.write(out);
+
+				out.writeInt(count);
+				for (int[] column : new int[][] { cents, days, accounts,
+						descriptions, addresses, notes, detectors }) {
+					for (int v : column) out.writeInt(v);
+				}
+				for (int i = 0; i < count; i++) {
+					writeString(out, transactions.get(i).getId());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Read a document from a snapshot file
+	 *
+	 * @param file the file
+	 * @param mode when to detect the categories of the transactions
+	 * @return the document
+	 * @throws IOException on I/O error
+	 * @throws XMLStreamException on XML read error
+	 * @throws ParseException on parse error
+	 */
+	static Document read(File file, Categories.DetectionMode mode) throws IOException, XMLStreamException, ParseException {
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a document snapshot: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported document snapshot version " + version + ": " + file);
+		}
+
+
+		// Accounts, categories, and budgets
+
+		byte[] metadata = new byte[buffer.getInt()];
+		buffer.get(metadata);
+		Document document = readMetadata(metadata);
+
+
+		// Dictionaries
+
+		String[] dictionary = readStringTable(buffer);
+
+		String[] accountIds = readStringTable(buffer);
+		Account[] accounts = new Account[accountIds.length];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = accountIds[i] == null ? null : document.getAccounts().get(accountIds[i]);
+		}
+
+		String[] detectorIds = readStringTable(buffer);
+
+
+		// Transactions
+
+		int count = buffer.getInt();
+		int cents = buffer.position();
+		int days = cents + 4 * count;
+		int accountOrdinals = days + 4 * count;
+		int descriptions = accountOrdinals + 4 * count;
+		int addresses = descriptions + 4 * count;
+		int notes = addresses + 4 * count;
+		int detectors = notes + 4 * count;
+		buffer.position(detectors + 4 * count);
+
+		ArrayList<Transaction> loadedTransactions = new ArrayList<>(count);
+		List<String> loadedDetectorIds = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			Transaction t = new Transaction(
+					lookup(accounts, buffer.getInt(accountOrdinals + 4 * i)),
+					readString(buffer),
+					buffer.getInt(days + 4 * i),
+					lookup(dictionary, buffer.getInt(descriptions + 4 * i)),
+					lookup(dictionary, buffer.getInt(addresses + 4 * i)),
+					buffer.getInt(cents + 4 * i));
+
+			String note = lookup(dictionary, buffer.getInt(notes + 4 * i));
+			if (note != null) t.setNote(note);
+
+			loadedTransactions.add(t);
+			loadedDetectorIds.add(lookup(detectorIds, buffer.getInt(detectors + 4 * i)));
+		}
+
+		document.setTransactions(TransactionList.fromLoadedTransactions(
+				document, loadedTransactions, loadedDetectorIds, mode));
+		return document;
+	}
+
+
+	/**
+	 * Write the accounts, the category updates, and the budgets as XML
+	 *
+	 * @param document the document
+	 * @return the UTF-8 encoded XML
+	 * @throws XMLStreamException on write error
+	 * @throws IOException on I/O error
+	 */
+	private static byte[] writeMetadata(Document document) throws XMLStreamException, IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+			XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+			out.writeStartElement(Document.XML_ELEMENT);
+
+			document.getAccounts().toXMLStream(out);
+			out.writeEmptyElement(TransactionList.XML_ELEMENT);
+			document.getCategories().updatesToXMLStream(out);
+			document.getBudgets().toXMLStream(out);
+
+			out.writeEndElement();
+			out.writeEndDocument();
+			out.close();
+		}
+
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * Read the accounts, the category updates, and the budgets
+	 *
+	 * @param metadata the UTF-8 encoded XML
+	 * @return the document without any transactions
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on parse error
+	 */
+	private static Document readMetadata(byte[] metadata) throws XMLStreamException, ParseException {
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+		XMLStreamReader in = factory.createXMLStreamReader(new ByteArrayInputStream(metadata), "UTF-8");
+		try {
+			in.nextTag();
+			return Document.fromXMLStream(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Look up an element by its index
+	 *
+	 * @param array the array
+	 * @param index the index, or -1 for null
+	 * @return the element, or null
+	 */
+	private static <T> T lookup(T[] array, int index) {
+		return index == NULL_INDEX ? null : array[index];
+	}
+
+
+	/**
+	 * Write a string
+	 *
+	 * @param out the output
+	 * @param s the string, or null
+	 * @throws IOException on I/O error
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+
+		if (s == null) {
+			out.writeInt(NULL_INDEX);
+			return;
+		}
+
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 * Read a string
+	 *
+	 * @param buffer the buffer
+	 * @return the string, or null
+	 */
+	private static String readString(ByteBuffer buffer) {
+
+		int length = buffer.getInt();
+		if (length == NULL_INDEX) return null;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Read a string table
+	 *
+	 * @param buffer the buffer
+	 * @return the strings
+	 */
+	private static String[] readStringTable(ByteBuffer buffer) {
+
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(buffer);
+		}
+		return strings;
+	}
+
+
+	/**
+	 * A dictionary that assigns consecutive indexes to distinct strings
+	 */
+	private static class Dictionary {
+
+		private HashMap<String, Integer> indexes = new HashMap<>();
+		private ArrayList<String> strings = new ArrayList<>();
+
+
+		/**
+		 * Get the index of a string, adding it if necessary
+		 *
+		 * @param s the string
+		 * @return the index, or -1 if the string is null
+		 */
+		public int indexOf(String s) {
+
+			if (s == null) return NULL_INDEX;
+
+			Integer index = indexes.get(s);
+			if (index == null) {
+				index = strings.size();
+				indexes.put(s, index);
+				strings.add(s);
+			}
+			return index;
+		}
+
+
+		/**
+		 * Write the dictionary as a string table
+		 *
+		 * @param out the output
+		 * @throws IOException on I/O error
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			out.writeInt(strings.size());
+			for (String s : strings) writeString(out, s);
+		}
+	}
+}
@@ -1,43 +1,53 @@
 package com.aific.finances;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 
+import com.aific.finances.util.EpochDays;
 import com.aific.finances.util.Month;
+import com.aific.finances.util.StaxUtils;
+import com.aific.finances.util.Week;
 
 
 /**
- * A transaction
+ * A transaction. Once the transaction is added to a {@link TransactionList},
+ * its account, ID, date, description, address, amount, and category detector
+ * are moved to the columnar store of the list, and the object becomes a view
+ * of its row in the store. Until then, the object holds the values itself.
  * 
  * @author Peter Macko
  */
 public class Transaction {
 	
 	public static final String XML_ELEMENT = "transaction";
-	private static final DateFormat XML_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
-
-	private Account account;
-	private String id;
+	private static final DateTimeFormatter XML_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
-	private Date date;
-	private String description;
-	private String address;
-	private int cents;
+	private volatile TransactionStore store;
+	private int row;
+	private Values values;
 	
-	private CategoryDetector categoryDetector;
 	private String note;
 	
 	private Set<CategoryDetector> candidateDetectors;
+	private Categories lazyCandidateCategories;
 	
 	private Transaction matchingTransaction;
 	
+	private DeferredCategoryDetection deferredDetection;
+	
 	
 	/**
 	 * Create an object of type {@link Transaction}
@@ -53,19 +63,34 @@ public class Transaction {
 	 */
 	public Transaction(Account account, String id, Date date,
 			String description, String address, int cents) {
+		this(account, id, EpochDays.fromDate(date), description, address, cents);
+	}
+	
+	
+	/**
+	 * Create an object of type {@link Transaction}
+	 * 
+	 * @param account the account
+	 * @param id the transaction ID, unique within the account
+	 * @param day the transaction date as an epoch day, or {@link EpochDays#NONE}
+	 * @param description the description 
+	 * @param address the address or payee type information
+	 * @param cents the signed amount as cents, negative for debits, positive for credits
+	 */
+	public Transaction(Account account, String id, int day,
+			String description, String address, int cents) {
 		
-		this.account = account;
-		this.id = id;
-		this.date = date;
-		this.description = description;
-		this.address = address;
-		this.cents = cents;
+		this.store = null;
+		this.row = -1;
+		this.values = new Values(account, id, day, description, address, cents);
 		
-		this.categoryDetector = Categories.NULL_DETECTOR;
 		this.note = "";
 		this.candidateDetectors = Collections.emptySet();
+		this.lazyCandidateCategories = null;
 		
 		this.matchingTransaction = null;
+		
+		this.deferredDetection = null;
 	}
 
 
@@ -75,7 +100,8 @@ public class Transaction {
 	 * @return the account
 	 */
 	public Account getAccount() {
-		return account;
+		TransactionStore s = store;
+		return s == null ? values.account : s.getAccount(row);
 	}
 
 
@@ -85,27 +111,61 @@ public class Transaction {
 	 * @return the ID, unique within the account
 	 */
 	public String getId() {
-		return id;
+		TransactionStore s = store;
+		return s == null ? values.id : s.getId(row);
 	}
 
 	
 	/**
 	 * Get the transaction date
 	 * 
-	 * @return the date
+	 * @return a new instance of the date, at the start of the day
 	 */
 	public Date getDate() {
-		return date;
+		return EpochDays.toDate(getEpochDay());
+	}
+
+	
+	/**
+	 * Get the transaction date as the number of days since the epoch
+	 * 
+	 * @return the epoch day, or {@link EpochDays#NONE} if none
+	 */
+	public int getEpochDay() {
+		TransactionStore s = store;
+		return s == null ? values.day : s.getEpochDay(row);
 	}
 
 	
 	/**
 	 * Get the transaction month
 	 * 
-	 * @return the date
+	 * @return the shared instance of the month, or null if there is no date
 	 */
 	public Month getMonth() {
-		return new Month(date);
+		TransactionStore s = store;
+		int r = row;
+		if (s != null) {
+			return s.getEpochDay(r) == EpochDays.NONE ? null : Month.ofOrdinal(s.getMonthOrdinal(r));
+		}
+		int day = getEpochDay();
+		return day == EpochDays.NONE ? null : Month.ofOrdinal(Month.ordinalOf(day));
+	}
+
+	
+	/**
+	 * Get the transaction week
+	 * 
+	 * @return the shared instance of the week, or null if there is no date
+	 */
+	public Week getWeek() {
+		TransactionStore s = store;
+		int r = row;
+		if (s != null) {
+			return s.getEpochDay(r) == EpochDays.NONE ? null : Week.ofOrdinal(s.getWeekOrdinal(r));
+		}
+		int day = getEpochDay();
+		return day == EpochDays.NONE ? null : Week.ofOrdinal(Week.ordinalOf(day));
 	}
 
 
@@ -115,7 +175,8 @@ public class Transaction {
 	 * @return the description
 	 */
 	public String getDescription() {
-		return description;
+		TransactionStore s = store;
+		return s == null ? values.description : s.getDescription(row);
 	}
 
 
@@ -125,7 +186,8 @@ public class Transaction {
 	 * @return the address
 	 */
 	public String getAddress() {
-		return address;
+		TransactionStore s = store;
+		return s == null ? values.address : s.getAddress(row);
 	}
 
 
@@ -135,7 +197,8 @@ public class Transaction {
 	 * @return the cents, negative for debits, positive for credits
 	 */
 	public int getCents() {
-		return cents;
+		TransactionStore s = store;
+		return s == null ? values.cents : s.getCents(row);
 	}
 
 
@@ -145,7 +208,8 @@ public class Transaction {
 	 * @return the category
 	 */
 	public Category getCategory() {
-		return categoryDetector.getCategory();
+		completeDetection();
+		return detector().getCategory();
 	}
 
 
@@ -155,7 +219,20 @@ public class Transaction {
 	 * @return the detector, or null for manual entry
 	 */
 	public CategoryDetector getCategoryDetector() {
-		return categoryDetector;
+		completeDetection();
+		return detector();
+	}
+	
+	
+	/**
+	 * Get the detector that detected the category without completing the
+	 * deferred category detection
+	 * 
+	 * @return the detector
+	 */
+	private CategoryDetector detector() {
+		TransactionStore s = store;
+		return s == null ? values.detector : s.getDetector(row);
 	}
 
 
@@ -175,7 +252,17 @@ public class Transaction {
 	 * @param detector the detector
 	 */
 	public void setCategoryDetector(CategoryDetector detector) {
-		this.categoryDetector = detector;
+		completeDetection();
+		
+		TransactionStore s = store;
+		if (s == null) {
+			values.detector = detector;
+			return;
+		}
+		s.setDetector(row, detector);
+		
+		TransactionList l = s.getList();
+		if (l != null) l.detectorsAssigned(this, Collections.singleton(detector));
 	}
 
 
@@ -195,7 +282,39 @@ public class Transaction {
 	 * @param candidateDetectors the new set of candidate detectors
 	 */
 	public void setCandidateDetectors(Set<CategoryDetector> candidateDetectors) {
+		completeDetection();
 		this.candidateDetectors = candidateDetectors;
+		this.lazyCandidateCategories = null;
+		
+		TransactionList l = getContainer();
+		if (l != null) l.detectorsAssigned(this, candidateDetectors);
+	}
+
+
+	/**
+	 * Add a candidate detector
+	 * 
+	 * @param detector the detector
+	 */
+	void addCandidateDetector(CategoryDetector detector) {
+		completeDetection();
+		if (lazyCandidateCategories != null) {
+			
+			// The detector will be included when the candidates are found
+			
+			TransactionList l = getContainer();
+			if (l != null) l.detectorsAssigned(this, Collections.singleton(detector));
+			return;
+		}
+		if (!(candidateDetectors instanceof CategoryDetectorSet)) {
+			CategoryDetectorSet s = new CategoryDetectorSet();
+			s.addAll(candidateDetectors);
+			candidateDetectors = s;
+		}
+		if (!candidateDetectors.add(detector)) return;
+		
+		TransactionList l = getContainer();
+		if (l != null) l.detectorsAssigned(this, Collections.singleton(detector));
 	}
 
 
@@ -205,6 +324,7 @@ public class Transaction {
 	 * @return the matching transaction
 	 */
 	public Transaction getMatchingTransaction() {
+		completeDetection();
 		return matchingTransaction;
 	}
 
@@ -215,18 +335,158 @@ public class Transaction {
 	 * @param matchingTransaction the new matching transaction
 	 */
 	public void setMatchingTransaction(Transaction matchingTransaction) {
+		completeDetection();
 		this.matchingTransaction = matchingTransaction;
 	}
 
 
 	/**
-	 * Return the set of candidate detectors
+	 * Return the set of candidate detectors, finding them first if they
+	 * were left to be found on demand
 	 * 
 	 * @return the candidate detectors
 	 */
 	public Set<CategoryDetector> getCandidateDetectors() {
+		completeDetection();
+		
+		Categories c = lazyCandidateCategories;
+		if (c != null) {
+			TransactionList l = getContainer();
+			CategoryDetectorSet s = c.findCandidateDetectors(this, l);
+			
+			// Include the detector assigned through a matching transaction
+			
+			CategoryDetector d = detector();
+			Transaction m = matchingTransaction;
+			if (m != null && d.getMatchingDetector() != null
+					&& m.getCategoryDetector() == d.getMatchingDetector()
+					&& d.getCategory().getContainer() == c) {
+				s.add(d);
+			}
+			
+			synchronized (this) {
+				if (lazyCandidateCategories != c) return candidateDetectors;
+				candidateDetectors = s;
+				lazyCandidateCategories = null;
+			}
+			if (l != null) l.detectorsAssigned(this, s);
+		}
+		
 		return candidateDetectors;
 	}
+	
+	
+	/**
+	 * Return the set of candidate detectors if they were already found,
+	 * without finding them
+	 * 
+	 * @return the candidate detectors, or an empty set if they were left
+	 *         to be found on demand
+	 */
+	Set<CategoryDetector> getFoundCandidateDetectors() {
+		completeDetection();
+		return lazyCandidateCategories == null ? candidateDetectors
+				: Collections.<CategoryDetector>emptySet();
+	}
+	
+	
+	/**
+	 * Leave the candidate detectors to be found on the first access to them
+	 * 
+	 * @param categories the categories whose detectors to use
+	 */
+	void setCandidateDetectorsLazily(Categories categories) {
+		completeDetection();
+		synchronized (this) {
+			this.candidateDetectors = Collections.emptySet();
+			this.lazyCandidateCategories = categories;
+		}
+	}
+
+
+	/**
+	 * Set the deferred category detection that needs to complete before the
+	 * category detectors and the matching transaction of this transaction can
+	 * be accessed
+	 * 
+	 * @param deferredDetection the deferred detection, or null if none
+	 */
+	void setDeferredDetection(DeferredCategoryDetection deferredDetection) {
+		this.deferredDetection = deferredDetection;
+	}
+
+
+	/**
+	 * Move the values of this transaction to a new row in the store of the
+	 * list that now contains it, which is then notified when its category
+	 * detector or its candidate detectors change. The caller must hold the
+	 * lock of the list.
+	 * 
+	 * @param store the store
+	 * @return the index of the row
+	 */
+	int attach(TransactionStore store) {
+		
+		int r = store.add(getAccount(), getId(), getEpochDay(), getDescription(),
+				getAddress(), getCents(), detector());
+		
+		detach();
+		this.row = r;
+		this.store = store;
+		this.values = null;
+		
+		return r;
+	}
+	
+	
+	/**
+	 * Move the values of this transaction out of the store of its list back
+	 * to this object, because the transaction is no longer in the list
+	 */
+	void detach() {
+		
+		TransactionStore s = store;
+		if (s == null) return;
+		
+		Values v = new Values(s.getAccount(row), s.getId(row), s.getEpochDay(row),
+				s.getDescription(row), s.getAddress(row), s.getCents(row));
+		v.detector = s.getDetector(row);
+		
+		this.values = v;
+		this.store = null;
+		this.row = -1;
+	}
+	
+	
+	/**
+	 * Get the index of the row of this transaction in the given store
+	 * 
+	 * @param store the store
+	 * @return the index of the row, or -1 if the transaction is not in the store
+	 */
+	int getRow(TransactionStore store) {
+		return this.store == store && store != null ? row : -1;
+	}
+	
+	
+	/**
+	 * Get the list that contains this transaction
+	 * 
+	 * @return the list, or null if none
+	 */
+	TransactionList getContainer() {
+		TransactionStore s = store;
+		return s == null ? null : s.getList();
+	}
+
+
+	/**
+	 * Complete the deferred category detection, if any
+	 */
+	private void completeDetection() {
+		DeferredCategoryDetection d = deferredDetection;
+		if (d != null) d.run();
+	}
 
 
 	/* (non-Javadoc)
@@ -236,6 +496,8 @@ public class Transaction {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		Account account = getAccount();
+		String id = getId();
 		result = prime * result + ((account == null) ? 0 : account.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
 		return result;
@@ -254,15 +516,17 @@ public class Transaction {
 		if (getClass() != obj.getClass())
 			return false;
 		Transaction other = (Transaction) obj;
+		Account account = getAccount();
+		String id = getId();
 		if (account == null) {
-			if (other.account != null)
+			if (other.getAccount() != null)
 				return false;
-		} else if (!account.equals(other.account))
+		} else if (!account.equals(other.getAccount()))
 			return false;
 		if (id == null) {
-			if (other.id != null)
+			if (other.getId() != null)
 				return false;
-		} else if (!id.equals(other.id))
+		} else if (!id.equals(other.getId()))
 			return false;
 		return true;
 	}
@@ -273,8 +537,8 @@ public class Transaction {
 	 */
 	@Override
 	public String toString() {
-		return "Transaction [id=" + id + ", date=" + date + ", description="
-				+ description + ", cents=" + cents + "]";
+		return "Transaction [id=" + getId() + ", date=" + getDate() + ", description="
+				+ getDescription() + ", cents=" + getCents() + "]";
 	}
 
 
@@ -287,6 +551,11 @@ public class Transaction {
 	public Element toXMLElement(org.w3c.dom.Document document) {
 		Element me = document.createElement(XML_ELEMENT);
 		
+		Account account = getAccount();
+		String id = getId();
+		String description = getDescription();
+		String address = getAddress();
+		
 		Attr attr = document.createAttribute("id");
 		attr.setValue(id);
 		me.setAttributeNode(attr);
@@ -298,7 +567,7 @@ public class Transaction {
 		}
 			
 		Element xmlDate = document.createElement("date");
-		xmlDate.appendChild(document.createTextNode(XML_DATE_FORMAT.format(date)));
+		xmlDate.appendChild(document.createTextNode(EpochDays.toLocalDate(getEpochDay()).format(XML_DATE_FORMAT)));
 		me.appendChild(xmlDate);
 		
 		if (description != null) {
@@ -314,7 +583,7 @@ public class Transaction {
 		}
 		
 		Element xmlCents = document.createElement("cents");
-		xmlCents.appendChild(document.createTextNode("" + cents));
+		xmlCents.appendChild(document.createTextNode("" + getCents()));
 		me.appendChild(xmlCents);
 		
 		if (note != null) {
@@ -323,9 +592,10 @@ public class Transaction {
 			me.appendChild(xmlNote);
 		}
 		
-		if (categoryDetector != null) {
+		CategoryDetector cd = getCategoryDetector();
+		if (cd != null) {
 			Element xmlDetector = document.createElement("category_detector");
-			xmlDetector.appendChild(document.createTextNode(categoryDetector.getId()));
+			xmlDetector.appendChild(document.createTextNode(cd.getId()));
 			me.appendChild(xmlDetector);
 		}
 		
@@ -333,6 +603,36 @@ public class Transaction {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		Account account = getAccount();
+		String description = getDescription();
+		String address = getAddress();
+		
+		if (account != null) out.writeAttribute("account", account.getId());
+		out.writeAttribute("id", getId());
+		
+		StaxUtils.writeTextElement(out, "date", EpochDays.toLocalDate(getEpochDay()).format(XML_DATE_FORMAT));
+		if (description != null) StaxUtils.writeTextElement(out, "description", description);
+		if (address != null) StaxUtils.writeTextElement(out, "address", address);
+		StaxUtils.writeTextElement(out, "cents", "" + getCents());
+		if (note != null) StaxUtils.writeTextElement(out, "note", note);
+		CategoryDetector cd = getCategoryDetector();
+		if (cd != null) {
+			StaxUtils.writeTextElement(out, "category_detector", cd.getId());
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML
 	 * 
@@ -366,14 +666,125 @@ public class Transaction {
 		
 		int cents = Integer.parseInt(s_cents);
 		Account account = s_account != null ? document.getAccounts().get(s_account) : null;
-		Date date = XML_DATE_FORMAT.parse(s_date);
+		int day = parseXMLDate(s_date);
 		CategoryDetector cd = s_cd != null ? document.getCategories().detectors.get(s_cd) : null;
 		
-		Transaction transaction = new Transaction(account, id, date, description, address, cents);
+		Transaction transaction = new Transaction(account, id, day, description, address, cents);
 		document.getCategories().detectCategories(transaction, transactions);
 		if (cd != null) transaction.setCategoryDetector(cd);
 		if (note != null) transaction.setNote(note);
 		
 		return transaction;
 	}
+	
+	
+	/**
+	 * Read the object from a streaming XML reader positioned at the start of
+	 * its element, leaving the reader at the end of the element. The category
+	 * detector is not resolved here, since the category updates are stored
+	 * after the transactions; its ID is instead appended to the given list.
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @param detectorIds the list for the ID of the stored category detector (null if none)
+	 * @return the object
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on date parse error
+	 */
+	public static Transaction fromXMLStream(XMLStreamReader in, Document document,
+			List<String> detectorIds) throws XMLStreamException, ParseException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		String id = StaxUtils.getAttribute(in, "id");
+		String s_account = in.getAttributeValue(null, "account");
+		String s_date = null;
+		String description = null;
+		String address = null;
+		String s_cents = null;
+		String note = null;
+		String s_cd = null;
+		
+		while (StaxUtils.nextChildElement(in)) {
+			switch (in.getLocalName()) {
+			case "date": s_date = in.getElementText(); break;
+			case "description": description = in.getElementText(); break;
+			case "address": address = in.getElementText(); break;
+			case "cents": s_cents = in.getElementText(); break;
+			case "note": note = in.getElementText(); break;
+			case "category_detector": s_cd = in.getElementText(); break;
+			default: StaxUtils.skipElement(in);
+			}
+		}
+		
+		if (s_date == null || s_cents == null) {
+			throw new ParseException("The transaction " + id + " must have a date and an amount", 0);
+		}
+		
+		int cents = Integer.parseInt(s_cents);
+		Account account = s_account != null ? document.getAccounts().get(s_account) : null;
+		int day = parseXMLDate(s_date);
+		
+		Transaction transaction = new Transaction(account, id, day, description, address, cents);
+		if (note != null) transaction.setNote(note);
+		detectorIds.add(s_cd);
+		
+		return transaction;
+	}
+	
+	
+	/**
+	 * Parse a date stored in an XML. Unlike a shared {@link java.text.DateFormat},
+	 * this is safe to call from several threads at once, such as while the
+	 * journal is compacted in the background.
+	 * 
+	 * @param str the date in the format "yyyy-MM-dd"
+	 * @return the epoch day
+	 * @throws ParseException if the date is not valid
+	 */
+	private static int parseXMLDate(String str) throws ParseException {
+		try {
+			return (int) LocalDate.parse(str.trim(), XML_DATE_FORMAT).toEpochDay();
+		}
+		catch (DateTimeParseException e) {
+			throw new ParseException("Unparseable date: \"" + str + "\"", e.getErrorIndex());
+		}
+	}
+	
+	
+	/**
+	 * The values of a transaction that is not in any list
+	 */
+	private static class Values {
+		
+		Account account;
+		String id;
+		int day;
+		String description;
+		String address;
+		int cents;
+		CategoryDetector detector;
+		
+		
+		/**
+		 * Create an instance of {@link Values}
+		 * 
+		 * @param account the account
+		 * @param id the transaction ID
+		 * @param day the epoch day
+		 * @param description the description
+		 * @param address the address
+		 * @param cents the signed amount as cents
+		 */
+		Values(Account account, String id, int day, String description, String address, int cents) {
+			
+			this.account = account;
+			this.id = id;
+			this.day = day;
+			this.description = description;
+			this.address = address;
+			this.cents = cents;
+			this.detector = Categories.NULL_DETECTOR;
+		}
+	}
 }
@@ -0,0 +1,231 @@
+package com.aific.finances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * An import of the transactions from one or more files into a document as
+ * one batch. The transactions of the files can be added from several threads
+ * at once, as the files are read, and the document does not change until the
+ * import is committed. The new transactions are first found and their
+ * categories detected together in the background, each against the
+ * transactions that preceded its file, so that the result is the same as if
+ * the files were imported one at a time in order. The commit then only adds
+ * them to the transaction list as one change and applies the results.
+ *
+ * @author Peter Macko
+ */
+public class TransactionImport {
+
+	private Document document;
+
+	private ArrayList<Account> newAccounts;
+	private TreeMap<Integer, List<Transaction>> files;
+
+	private ArrayList<Transaction> added;
+	private int start;
+	private CategoryDetectionEngine.Evaluation evaluation;
+
+	private boolean committed;
+
+
+	/**
+	 * Create an instance of {@link TransactionImport}
+	 *
+	 * @param document the document to import to
+	 */
+	public TransactionImport(Document document) {
+
+		this.document = document;
+
+		this.newAccounts = new ArrayList<Account>();
+		this.files = new TreeMap<Integer, List<Transaction>>();
+
+		this.added = null;
+		this.start = 0;
+		this.evaluation = null;
+
+		this.committed = false;
+	}
+
+
+	/**
+	 * Get the document
+	 *
+	 * @return the document to import to
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+
+	/**
+	 * Add an account that is not yet in the document
+	 *
+	 * @param account the account to add on commit
+	 */
+	public synchronized void addAccount(Account account) {
+		newAccounts.add(account);
+	}
+
+
+	/**
+	 * Get the accounts that will be added to the document on commit
+	 *
+	 * @return a copy of the collection of the new accounts
+	 */
+	public synchronized Collection<Account> getNewAccounts() {
+		return new ArrayList<Account>(newAccounts);
+	}
+
+
+	/**
+	 * Add the transactions read from a file
+	 *
+	 * @param file the index of the file, which determines the order in which
+	 *             the files are imported
+	 * @param transactions the transactions in the order in which they were read
+	 */
+	public synchronized void add(int file, List<Transaction> transactions) {
+
+		if (committed) throw new IllegalStateException("The import was already committed");
+
+		if (files.putIfAbsent(file, transactions) != null) {
+			throw new IllegalArgumentException("The transactions of file " + file + " were already added");
+		}
+
+		added = null;
+		evaluation = null;
+	}
+
+
+	/**
+	 * Get the number of transactions read so far
+	 *
+	 * @return the number of transactions, including the duplicates
+	 */
+	public synchronized int size() {
+
+		int n = 0;
+		for (List<Transaction> l : files.values()) n += l.size();
+		return n;
+	}
+
+
+	/**
+	 * Find the new transactions, skipping those that are already in the
+	 * document or that were already read from an earlier file, and evaluate
+	 * the category detectors against them without changing the document.
+	 * This is the slow part of the import, so it should be called from a
+	 * background thread after the transactions of all files were added, so
+	 * that the commit has only the results left to apply. The transaction
+	 * list is locked only briefly, so that it can be displayed and changed
+	 * in the meantime; the commit then finds the changes.
+	 *
+	 * @param canceled the check whether the import was canceled
+	 * @throws CancellationException if the import was canceled
+	 */
+	public synchronized void prepare(BooleanSupplier canceled) {
+
+		if (committed) throw new IllegalStateException("The import was already committed");
+
+		evaluate(document.getTransactions(), canceled);
+	}
+
+
+	/**
+	 * Find the new transactions in the order of the files, remembering how
+	 * many transactions will precede each file, and evaluate the detectors
+	 * against them as if they were appended to the transaction list. The
+	 * caller must hold the lock of this import.
+	 *
+	 * @param transactionList the transaction list of the document
+	 * @param canceled the check whether the import was canceled, or null if it cannot be
+	 * @throws CancellationException if the import was canceled
+	 */
+	private void evaluate(TransactionList transactionList, BooleanSupplier canceled) {
+
+		added = null;
+		evaluation = null;
+
+		ArrayList<Transaction> l = new ArrayList<Transaction>();
+		int[] limits = new int[size()];
+		int n;
+
+		synchronized (transactionList) {
+
+			HashSet<Transaction> seen = new HashSet<Transaction>();
+			n = transactionList.size();
+
+			for (List<Transaction> f : files.values()) {
+				int limit = n + l.size();
+				for (Transaction t : f) {
+					if (transactionList.find(t.getAccount(), t.getId()) != null) continue;
+					if (!seen.add(t)) continue;
+					limits[l.size()] = limit;
+					l.add(t);
+				}
+			}
+		}
+
+		evaluation = l.isEmpty() ? null : document.getCategories().evaluate(l,
+				transactionList, Arrays.copyOf(limits, l.size()), true, canceled);
+		added = l;
+		start = n;
+	}
+
+
+	/**
+	 * Add the new accounts and the new transactions to the document, and
+	 * apply the detected categories to the transactions. The transactions
+	 * and the categories are found again if the document changed since
+	 * {@link #prepare(BooleanSupplier)}, or if it was not called. This notifies the
+	 * listeners of the transaction list, so it should be called from the
+	 * same thread as any other change to the document.
+	 *
+	 * @return the list of the transactions that were added
+	 */
+	public synchronized List<Transaction> commit() {
+
+		if (committed) throw new IllegalStateException("The import was already committed");
+		committed = true;
+
+		Accounts accounts = document.getAccounts();
+		for (Account a : newAccounts) accounts.add(a);
+
+
+		// Add the transactions as one change, unless they became stale
+
+		TransactionList transactionList = document.getTransactions();
+		Categories categories = document.getCategories();
+
+		synchronized (transactionList) {
+			if (added == null || transactionList.size() != start
+					|| (evaluation != null && evaluation.getRulesVersion() != categories.getRulesVersion())) {
+				evaluate(transactionList, null);
+			}
+
+			transactionList.addAll(added);
+		}
+
+		files = null;
+		if (added.isEmpty()) return Collections.emptyList();
+
+
+		// Apply the detected categories to all new transactions at once
+
+		evaluation.apply(false);
+		evaluation = null;
+		transactionList.fireTransactionsDataChanged();
+
+		return added;
+	}
+}
@@ -1,22 +1,36 @@
 package com.aific.finances;
 
 import java.text.ParseException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.aific.finances.util.AbstractSharedList;
+import com.aific.finances.util.EpochDays;
+import com.aific.finances.util.StaxUtils;
+import com.aific.finances.util.TimePeriod;
 
 
 /**
- * A list of transactions
+ * A list of transactions. The values of the transactions are kept in a
+ * columnar {@link TransactionStore}, with one row for each transaction at
+ * the same index as in the list.
  * 
  * @author Peter Macko
  */
@@ -25,8 +39,12 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	public static final String XML_ELEMENT = "transactions";
 
 	private ArrayList<Transaction> transactions;
-	private HashMap<Transaction, Integer> transactionsMap;
-	private HashMap<Integer, Collection<Transaction>> transactionsAmountMap;
+	private TransactionStore store;
+	private HashMap<Integer, AmountBucket> transactionsAmountMap;
+	private DateIndex dateIndex;
+	
+	private IdentityHashMap<CategoryDetector, HashSet<Transaction>> transactionsByDetector;
+	private Object transactionsByDetectorLock;
 	
 	private List<TransactionListListener> listeners;
 	
@@ -37,8 +55,11 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	public TransactionList() {
 
 		transactions = new ArrayList<Transaction>();
-		transactionsMap = new HashMap<Transaction, Integer>();
-		transactionsAmountMap = new HashMap<Integer, Collection<Transaction>>();
+		store = new TransactionStore(this);
+		transactionsAmountMap = new HashMap<Integer, AmountBucket>();
+		dateIndex = new DateIndex();
+		transactionsByDetector = null;
+		transactionsByDetectorLock = new Object();
 		listeners = null;
 	}
 	
@@ -61,7 +82,7 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	 */
 	@Override
 	public synchronized boolean contains(Object transaction) {
-		return transactionsMap.containsKey(transaction);
+		return indexOf(transaction) >= 0;
 	}
 
 
@@ -74,17 +95,7 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	@Override
 	public synchronized boolean add(Transaction transaction) {
 		
-		if (transactionsMap.containsKey(transaction)) return false;
-		
-		transactions.add(transaction);
-		transactionsMap.put(transaction, transactions.size() - 1);
-		
-		Collection<Transaction> c = transactionsAmountMap.get(transaction.getCents());
-		if (c == null) {
-			c = new ArrayList<Transaction>();
-			transactionsAmountMap.put(transaction.getCents(), c);
-		}
-		c.add(transaction);
+		if (!append(transaction)) return false;
 		
 		fireTransactionsAdded(transactions.size() - 1, transactions.size() - 1);
 		
@@ -94,7 +105,7 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 
 	/**
 	 * Add a collection of transactions, but only those that are not already
-	 * in the table
+	 * in the table, notifying the listeners once about all of them
 	 *
 	 * @param newTransactions the transactions to add
 	 * @return true if any elements were added
@@ -102,12 +113,69 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	@Override
 	public synchronized boolean addAll(Collection<? extends Transaction> newTransactions) {
 		
-		int numAdded = 0;
+		int from = transactions.size();
 		for (Transaction t : newTransactions) {
-			if (add(t)) numAdded++;
+			append(t);
 		}
-
-		return numAdded > 0;
+		
+		if (transactions.size() == from) return false;
+		
+		fireTransactionsAdded(from, transactions.size() - 1);
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Append a transaction and index it, if it is not already there, without
+	 * notifying the listeners. The caller must hold the lock of the list.
+	 *
+	 * @param transaction the transaction to add
+	 * @return true if the transaction was actually added
+	 */
+	private boolean append(Transaction transaction) {
+		
+		if (store.find(transaction.getAccount(), transaction.getId()) >= 0) return false;
+		
+		int row = transaction.attach(store);
+		transactions.add(transaction);
+		
+		AmountBucket c = transactionsAmountMap.get(transaction.getCents());
+		if (c == null) {
+			c = new AmountBucket();
+			transactionsAmountMap.put(transaction.getCents(), c);
+		}
+		c.add(row, transaction.getEpochDay());
+		
+		if (transaction.getEpochDay() != EpochDays.NONE) {
+			dateIndex.add(row, transaction.getEpochDay());
+		}
+		
+		synchronized (transactionsByDetectorLock) {
+			if (transactionsByDetector != null) {
+				indexDetector(transaction, transaction.getCategoryDetector());
+				for (CategoryDetector d : transaction.getFoundCandidateDetectors()) indexDetector(transaction, d);
+			}
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Get the index of a transaction
+	 * 
+	 * @param transaction the transaction
+	 * @return the index, or -1 if not found
+	 */
+	@Override
+	public synchronized int indexOf(Object transaction) {
+		
+		if (!(transaction instanceof Transaction)) return -1;
+		Transaction t = (Transaction) transaction;
+		
+		int row = t.getRow(store);
+		return row >= 0 ? row : store.find(t.getAccount(), t.getId());
 	}
 	
 	
@@ -119,8 +187,21 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 		
 		int n = transactions.size();
 		
-		transactions.clear();
-		transactionsMap.clear();
+		for (Transaction t : transactions) {
+			if (t.getRow(store) >= 0) t.detach();
+		}
+		
+		// Replace the list rather than clearing it, so that the views
+		// returned by getByDate() remain valid
+		
+		transactions = new ArrayList<Transaction>();
+		store = new TransactionStore(this);
+		transactionsAmountMap.clear();
+		dateIndex = new DateIndex();
+		
+		synchronized (transactionsByDetectorLock) {
+			transactionsByDetector = null;
+		}
 		
 		if (n > 0) fireTransactionsRemoved(0, n-1);
 	}
@@ -138,6 +219,19 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	}
 
 	
+	/**
+	 * Find a transaction by its account and ID
+	 * 
+	 * @param account the account
+	 * @param id the transaction ID
+	 * @return the transaction, or null if not found
+	 */
+	public synchronized Transaction find(Account account, String id) {
+		int row = store.find(account, id);
+		return row < 0 ? null : transactions.get(row);
+	}
+
+	
 	/**
 	 * Get the list of transactions
 	 * 
@@ -155,7 +249,125 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	 * @return the collection of transactions, or null if not found
 	 */
 	public synchronized Collection<Transaction> getByCents(int cents) {
-		return transactionsAmountMap.get(cents);
+		
+		AmountBucket c = transactionsAmountMap.get(cents);
+		if (c == null) return null;
+		
+		int[] rows = Arrays.copyOf(c.rows, c.size);
+		Arrays.sort(rows);
+		
+		ArrayList<Transaction> l = new ArrayList<Transaction>(rows.length);
+		for (int row : rows) l.add(transactions.get(row));
+		return l;
+	}
+	
+	
+	/**
+	 * Get the transactions with dates within the given range, in the order of
+	 * their dates, and in the order in which they were added for the same
+	 * date. The result is a read-only view of the list at the time of the
+	 * call, so that it does not copy the transactions.
+	 * 
+	 * @param from the first epoch day (inclusive)
+	 * @param to the last epoch day (inclusive)
+	 * @return the read-only list of the transactions
+	 */
+	public synchronized List<Transaction> getByDate(int from, int to) {
+		DateIndex d = dateIndex;
+		d.merge();
+		int start = d.firstAtOrAfter(from);
+		int end = to == Integer.MAX_VALUE ? d.size : d.firstAtOrAfter(to + 1);
+		return new DateSlice(transactions, d.keys, start, Math.max(start, end));
+	}
+
+	
+	/**
+	 * Get the transactions with dates within the given time period, such as
+	 * a month, in the order of their dates
+	 * 
+	 * @param period the time period
+	 * @return the read-only list of the transactions
+	 * @see #getByDate(int, int)
+	 */
+	public List<Transaction> getByDate(TimePeriod period) {
+		return getByDate(period.getFirstDay(), period.getLastDay());
+	}
+
+	
+	/**
+	 * Get all transactions that have a date in the order of their dates
+	 * 
+	 * @return the read-only list of the transactions
+	 * @see #getByDate(int, int)
+	 */
+	public List<Transaction> getByDate() {
+		return getByDate(Integer.MIN_VALUE + 1, Integer.MAX_VALUE);
+	}
+
+	
+	/**
+	 * Get the earliest transaction, which was added first among the
+	 * transactions with the same date
+	 * 
+	 * @return the transaction, or null if there are no transactions with a date
+	 */
+	public synchronized Transaction getFirstByDate() {
+		DateIndex d = dateIndex;
+		d.merge();
+		return d.size == 0 ? null : transactions.get(DateIndex.row(d.keys[0]));
+	}
+
+	
+	/**
+	 * Get the latest transaction, which was added last among the
+	 * transactions with the same date
+	 * 
+	 * @return the transaction, or null if there are no transactions with a date
+	 */
+	public synchronized Transaction getLastByDate() {
+		DateIndex d = dateIndex;
+		d.merge();
+		return d.size == 0 ? null : transactions.get(DateIndex.row(d.keys[d.size - 1]));
+	}
+
+	
+	/**
+	 * Get the transactions with the given amount and with a date within the
+	 * given window among the first few transactions in the list, in the order
+	 * in which they were added. This does not lock the list, so that it can be
+	 * called from several threads at once while another thread holds the lock
+	 * to prevent concurrent modifications.
+	 * 
+	 * @param cents the cents
+	 * @param from the first epoch day of the window (inclusive)
+	 * @param to the last epoch day of the window (inclusive)
+	 * @param limit the number of transactions from the start of the list to consider
+	 * @return the transactions, or null if none
+	 */
+	List<Transaction> getByCents(int cents, int from, int to, int limit) {
+		
+		AmountBucket c = transactionsAmountMap.get(cents);
+		if (c == null) return null;
+		
+		
+		// Find the window in the transactions sorted by their dates, and keep
+		// only the rows before the limit, which are the first transactions
+		
+		int start = c.firstAtOrAfter(from);
+		int end = c.firstAtOrAfter(to == Integer.MAX_VALUE ? to : to + 1);
+		
+		int[] rows = new int[end - start];
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			if (c.rows[i] < limit) rows[n++] = c.rows[i];
+		}
+		if (n == 0) return null;
+		
+		Arrays.sort(rows, 0, n);
+		
+		ArrayList<Transaction> l = new ArrayList<Transaction>(n);
+		for (int i = 0; i < n; i++) l.add(transactions.get(rows[i]));
+		return l;
 	}
 	
 	
@@ -171,7 +383,11 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	
 	
 	/**
-	 * The category detector was updated
+	 * The category detector was updated. Only the transactions that the change
+	 * can affect are evaluated again: the transactions assigned to the detector
+	 * or to its matching detector, the transactions that have either of them
+	 * as a candidate, and the uncategorized transactions that either of them
+	 * can now match.
 	 * 
 	 * @param detector the detector
 	 */
@@ -183,8 +399,10 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 		boolean updated = false;
 		Categories c = detector.getCategory().getContainer();
 		
+		List<Transaction> affected = getAffectedTransactions(detector);
+		
 		if (detector.getMatchingDetector() != null) {
-			for (Transaction t : transactions) {
+			for (Transaction t : affected) {
 				if (t.getCategoryDetector() == detector.getMatchingDetector()) {
 					if (!detector.accepts(t, this)) {
 						t.setCategoryDetector(Categories.NULL_DETECTOR);
@@ -194,7 +412,7 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 			}
 		}
 		
-		for (Transaction t : transactions) {
+		for (Transaction t : affected) {
 			
 			if (t.getCategoryDetector() == detector) {
 				if (!detector.accepts(t, this)) {
@@ -213,6 +431,171 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	}
 	
 	
+	/**
+	 * Get the transactions that can be affected by a change of a detector,
+	 * in the order in which they appear in the list
+	 * 
+	 * @param detector the detector
+	 * @return the list of transactions
+	 */
+	private List<Transaction> getAffectedTransactions(CategoryDetector detector) {
+		
+		CategoryDetector matchingDetector = detector.getMatchingDetector();
+		buildDetectorIndex();
+		
+		ArrayList<Transaction> related = new ArrayList<Transaction>();
+		ArrayList<Transaction> uncategorized = new ArrayList<Transaction>();
+		
+		synchronized (transactionsByDetectorLock) {
+			collectIndexed(related, detector);
+			if (matchingDetector != null) collectIndexed(related, matchingDetector);
+			collectIndexed(uncategorized, Categories.NULL_DETECTOR);
+		}
+		
+		
+		// Keep only the uncategorized transactions that the detectors can match,
+		// matching each distinct description only once
+		
+		HashMap<String, Boolean> matchedDescriptions = new HashMap<String, Boolean>();
+		for (Transaction t : uncategorized) {
+			if (t.getDescription() == null) continue;
+			if (!detector.matchesAmount(t)
+					&& (matchingDetector == null || !matchingDetector.matchesAmount(t))) continue;
+			
+			Boolean matched = matchedDescriptions.get(t.getDescription());
+			if (matched == null) {
+				matched = detector.matchesDescription(t)
+						|| (matchingDetector != null && matchingDetector.matchesDescription(t));
+				matchedDescriptions.put(t.getDescription(), matched);
+			}
+			if (matched) related.add(t);
+		}
+		
+		
+		// Order the transactions as in the list
+		
+		synchronized (this) {
+			int[] indexes = new int[related.size()];
+			int n = 0;
+			for (Transaction t : related) {
+				int index = t.getRow(store);
+				if (index >= 0) indexes[n++] = index;
+			}
+			
+			Arrays.sort(indexes, 0, n);
+			
+			ArrayList<Transaction> l = new ArrayList<Transaction>(n);
+			for (int i = 0; i < n; i++) {
+				if (i == 0 || indexes[i] != indexes[i - 1]) l.add(transactions.get(indexes[i]));
+			}
+			return l;
+		}
+	}
+	
+	
+	/**
+	 * Build the index of the transactions by their category detectors and
+	 * candidate detectors if it does not already exist. The index is built on
+	 * the first change of a detector and then maintained as the detectors of
+	 * the transactions change.
+	 */
+	private void buildDetectorIndex() {
+		
+		synchronized (transactionsByDetectorLock) {
+			if (transactionsByDetector != null) return;
+		}
+		
+		
+		// Complete any deferred category detection first, so that it does
+		// not need to run while holding the locks
+		
+		for (Transaction t : this) t.getCategoryDetector();
+		
+		synchronized (this) {
+			synchronized (transactionsByDetectorLock) {
+				if (transactionsByDetector != null) return;
+				
+				transactionsByDetector = new IdentityHashMap<CategoryDetector, HashSet<Transaction>>();
+				for (Transaction t : transactions) {
+					indexDetector(t, t.getCategoryDetector());
+					for (CategoryDetector d : t.getFoundCandidateDetectors()) indexDetector(t, d);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Add the transactions indexed under the given detector that still have it
+	 * as their category detector or as a candidate to a list, and remove the
+	 * others from the index. The caller must hold the index lock.
+	 * 
+	 * @param l the list to add to
+	 * @param detector the detector
+	 */
+	private void collectIndexed(List<Transaction> l, CategoryDetector detector) {
+		
+		HashSet<Transaction> s = transactionsByDetector.get(detector);
+		if (s == null) return;
+		
+		for (Iterator<Transaction> i = s.iterator(); i.hasNext(); ) {
+			Transaction t = i.next();
+			boolean current = t.getCategoryDetector() == detector;
+			if (!current) {
+				for (CategoryDetector d : t.getFoundCandidateDetectors()) {
+					if (d == detector) {
+						current = true;
+						break;
+					}
+				}
+			}
+			
+			if (current) {
+				l.add(t);
+			}
+			else {
+				i.remove();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Add a transaction to the index under the given detector. The caller
+	 * must hold the index lock, and the index must exist.
+	 * 
+	 * @param transaction the transaction
+	 * @param detector the detector
+	 */
+	private void indexDetector(Transaction transaction, CategoryDetector detector) {
+		
+		if (detector == null) return;
+		
+		HashSet<Transaction> s = transactionsByDetector.get(detector);
+		if (s == null) {
+			s = new HashSet<Transaction>();
+			transactionsByDetector.put(detector, s);
+		}
+		s.add(transaction);
+	}
+	
+	
+	/**
+	 * Record that a transaction in this list was assigned a category detector
+	 * or a set of candidate detectors
+	 * 
+	 * @param transaction the transaction
+	 * @param detectors the detectors
+	 */
+	void detectorsAssigned(Transaction transaction, Collection<CategoryDetector> detectors) {
+		
+		synchronized (transactionsByDetectorLock) {
+			if (transactionsByDetector == null) return;
+			for (CategoryDetector d : detectors) indexDetector(transaction, d);
+		}
+	}
+	
+	
 	/**
 	 * Add a listener
 	 * 
@@ -298,6 +681,23 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	}
 	
 	
+	/**
+	 * Write the object to a streaming XML writer
+	 * 
+	 * @param out the XML stream writer
+	 * @throws XMLStreamException on write error
+	 */
+	public void toXMLStream(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(XML_ELEMENT);
+		
+		for (Transaction t : transactions) {
+			t.toXMLStream(out);
+		}
+		
+		out.writeEndElement();
+	}
+	
+	
 	/**
 	 * Read the object from an XML. Note that this will clear and reload the shared
 	 * global collection of the categories!
@@ -328,6 +728,332 @@ public class TransactionList extends AbstractSharedList<Transaction> {
 	}
 	
 	
+	/**
+	 * Read the transactions from a streaming XML reader positioned at the start
+	 * of the element, leaving the reader at the end of the element. Use
+	 * {@link #fromLoadedTransactions(Document, List, List)} to create the
+	 * list once the categories are loaded.
+	 * 
+	 * @param in the XML stream reader
+	 * @param document the parent document
+	 * @param transactions the list to which to add the transactions
+	 * @param detectorIds the list to which to add the IDs of the stored category detectors
+	 * @throws XMLStreamException on read error
+	 * @throws ParseException on parse error
+	 */
+	static void readXMLStream(XMLStreamReader in, Document document,
+			List<Transaction> transactions, List<String> detectorIds)
+			throws XMLStreamException, ParseException {
+		
+		StaxUtils.requireStartElement(in, XML_ELEMENT);
+		
+		while (StaxUtils.nextChildElement(in)) {
+			if (in.getLocalName().equals(Transaction.XML_ELEMENT)) {
+				transactions.add(Transaction.fromXMLStream(in, document, detectorIds));
+			}
+			else {
+				StaxUtils.skipElement(in);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Create the list from transactions read using
+	 * {@link #readXMLStream(XMLStreamReader, Document, List, List)}, detecting
+	 * their categories and restoring the stored category detectors
+	 * 
+	 * @param document the parent document
+	 * @param transactions the loaded transactions
+	 * @param detectorIds the IDs of the stored category detectors (null if none)
+	 * @param mode when to detect the categories
+	 * @return the object
+	 */
+	static TransactionList fromLoadedTransactions(Document document,
+			List<Transaction> transactions, List<String> detectorIds,
+			Categories.DetectionMode mode) {
+		
+		TransactionList l = new TransactionList();
+		Categories categories = document.getCategories();
+		
+		if (mode == Categories.DetectionMode.IMMEDIATE) {
+			for (int i = 0; i < transactions.size(); i++) {
+				Transaction t = transactions.get(i);
+				String s_cd = detectorIds.get(i);
+				CategoryDetector cd = s_cd != null ? categories.detectors.get(s_cd) : null;
+				
+				categories.detectCategories(t, l);
+				if (cd != null) t.setCategoryDetector(cd);
+				
+				l.add(t);
+			}
+			
+			return l;
+		}
+		
+		
+		// Restore the stored detectors first, and then detect the categories
+		// of each transaction against the transactions that preceded it
+		
+		int[] limits = new int[transactions.size()];
+		for (int i = 0; i < transactions.size(); i++) {
+			Transaction t = transactions.get(i);
+			String s_cd = detectorIds.get(i);
+			CategoryDetector cd = s_cd != null ? categories.detectors.get(s_cd) : null;
+			
+			if (cd != null) t.setCategoryDetector(cd);
+			
+			limits[i] = l.size();
+			l.add(t);
+		}
+		
+		DeferredCategoryDetection detection
+			= new DeferredCategoryDetection(categories, l, transactions, limits);
+		if (mode == Categories.DetectionMode.LAZY) {
+			for (Transaction t : transactions) t.setDeferredDetection(detection);
+		}
+		else {
+			detection.run();
+		}
+		
+		return l;
+	}
+	
+	
+	/**
+	 * The rows of the transactions with the same amount, sorted by their dates
+	 */
+	private static class AmountBucket {
+		
+		private int[] days = new int[1];
+		private int[] rows = new int[1];
+		private int size = 0;
+		
+		
+		/**
+		 * Add a transaction
+		 * 
+		 * @param row the row of the transaction
+		 * @param day the epoch day of the transaction
+		 */
+		public void add(int row, int day) {
+			
+			int n = size;
+			
+			if (n == days.length) {
+				days = Arrays.copyOf(days, 2 * n);
+				rows = Arrays.copyOf(rows, 2 * n);
+			}
+			
+			
+			// Transactions are usually added in the order of their dates,
+			// so this rarely needs to shift any elements
+			
+			int i = day == Integer.MAX_VALUE ? n : firstAtOrAfter(day + 1);
+			System.arraycopy(days, i, days, i + 1, n - i);
+			System.arraycopy(rows, i, rows, i + 1, n - i);
+			days[i] = day;
+			rows[i] = row;
+			
+			size = n + 1;
+		}
+		
+		
+		/**
+		 * Find the first transaction in the order of dates with the date on or
+		 * after the given day
+		 * 
+		 * @param day the epoch day
+		 * @return the index in the date order, or the number of transactions if none
+		 */
+		public int firstAtOrAfter(int day) {
+			
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (days[mid] < day) {
+					low = mid + 1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			
+			return low;
+		}
+	}
+	
+	
+	/**
+	 * The rows of the transactions sorted by their dates. The rows are kept
+	 * as keys that combine the epoch day with the row, so that sorting the
+	 * keys orders the rows with the same date in the order in which they
+	 * were added. Transactions are usually added in the order of their
+	 * dates, so their keys are simply appended. The others are collected
+	 * separately and merged in before the next query, so that adding them in
+	 * the reverse order, as many banks export them, does not take quadratic
+	 * time. The merge always creates a new array, so the arrays given out to
+	 * the views are never modified except past their ends.
+	 */
+	private static class DateIndex {
+		
+		private long[] keys = new long[16];
+		private int size = 0;
+		
+		private long[] pending = new long[16];
+		private int pendingSize = 0;
+		
+		
+		/**
+		 * Create a key
+		 * 
+		 * @param row the row of the transaction
+		 * @param day the epoch day of the transaction
+		 * @return the key
+		 */
+		private static long key(int row, int day) {
+			return ((long) day << 32) | (row & 0xffffffffL);
+		}
+		
+		
+		/**
+		 * Get the row of a key
+		 * 
+		 * @param key the key
+		 * @return the row
+		 */
+		static int row(long key) {
+			return (int) key;
+		}
+		
+		
+		/**
+		 * Add a transaction
+		 * 
+		 * @param row the row of the transaction
+		 * @param day the epoch day of the transaction
+		 */
+		public void add(int row, int day) {
+			
+			long key = key(row, day);
+			
+			if (pendingSize == 0 && (size == 0 || keys[size - 1] < key)) {
+				if (size == keys.length) keys = Arrays.copyOf(keys, 2 * size);
+				keys[size++] = key;
+			}
+			else {
+				if (pendingSize == pending.length) pending = Arrays.copyOf(pending, 2 * pendingSize);
+				pending[pendingSize++] = key;
+			}
+		}
+		
+		
+		/**
+		 * Merge the transactions that were added out of order
+		 */
+		public void merge() {
+			
+			if (pendingSize == 0) return;
+			
+			Arrays.sort(pending, 0, pendingSize);
+			
+			long[] k = new long[Math.max(16, Integer.highestOneBit(size + pendingSize) * 2)];
+			int i = 0;
+			int j = 0;
+			int n = 0;
+			while (i < size && j < pendingSize) {
+				k[n++] = keys[i] < pending[j] ? keys[i++] : pending[j++];
+			}
+			while (i < size) k[n++] = keys[i++];
+			while (j < pendingSize) k[n++] = pending[j++];
+			
+			keys = k;
+			size = n;
+			pendingSize = 0;
+			if (pending.length > 1024) pending = new long[16];
+		}
+		
+		
+		/**
+		 * Find the first transaction in the order of dates with the date on or
+		 * after the given day. The pending transactions must be merged first.
+		 * 
+		 * @param day the epoch day
+		 * @return the index in the date order, or the number of transactions if none
+		 */
+		public int firstAtOrAfter(int day) {
+			
+			long key = key(0, day);
+			
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] < key) {
+					low = mid + 1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			
+			return low;
+		}
+	}
+	
+	
+	/**
+	 * A read-only view of a range of the transactions in the order of dates
+	 */
+	private class DateSlice extends AbstractList<Transaction> implements RandomAccess {
+		
+		private final ArrayList<Transaction> transactions;
+		private final long[] keys;
+		private final int start;
+		private final int end;
+		
+		
+		/**
+		 * Create an instance of {@link DateSlice}
+		 * 
+		 * @param transactions the transactions in the order of rows
+		 * @param keys the keys of the date index
+		 * @param start the start index in the keys (inclusive)
+		 * @param end the end index in the keys (exclusive)
+		 */
+		DateSlice(ArrayList<Transaction> transactions, long[] keys, int start, int end) {
+			this.transactions = transactions;
+			this.keys = keys;
+			this.start = start;
+			this.end = end;
+		}
+		
+		
+		/* (non-Javadoc)
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public Transaction get(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - start));
+			}
+			synchronized (TransactionList.this) {
+				return transactions.get(DateIndex.row(keys[start + index]));
+			}
+		}
+		
+		
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+	
+	
 	/**
 	 * The iterator
 	 */
@@ -0,0 +1,394 @@
+package com.aific.finances;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.aific.finances.util.EpochDays;
+import com.aific.finances.util.Month;
+import com.aific.finances.util.Week;
+
+
+/**
+ * The columnar store of the transactions in a {@link TransactionList}. Each
+ * transaction occupies one row, at the same index as in the list, and its
+ * fields are stored in parallel arrays: the amounts as cents, the dates as
+ * epoch days together with the ordinals of their months and weeks, the
+ * descriptions and the addresses as codes in a dictionary of
+ * strings, and the accounts and the category detectors as ordinals. The
+ * {@link Transaction} objects in the list are then only lightweight views of
+ * their rows, holding just the state that changes independently of the
+ * store, such as the note and the candidate detectors.
+ * <p>
+ * The rows are appended in chunks that are never reallocated, so that they
+ * can be read without locking while other rows are being added. Adding rows
+ * requires the lock of the list.
+ *
+ * @author Peter Macko
+ */
+class TransactionStore {
+
+	private static final int NULL_INDEX = -1;
+
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private TransactionList list;
+
+	private volatile Chunk[] chunks;
+	private int size;
+	private int[] slots;
+
+	private Dictionary<String> strings;
+	private Dictionary<Account> accounts;
+	private Dictionary<CategoryDetector> detectors;
+
+
+	/**
+	 * Create an empty instance of {@link TransactionStore}
+	 *
+	 * @param list the list that owns the store
+	 */
+	TransactionStore(TransactionList list) {
+
+		this.list = list;
+
+		this.chunks = new Chunk[0];
+		this.size = 0;
+		this.slots = new int[16];
+
+		this.strings = new Dictionary<String>(new HashMap<String, Integer>());
+		this.accounts = new Dictionary<Account>(new IdentityHashMap<Account, Integer>());
+		this.detectors = new Dictionary<CategoryDetector>(new IdentityHashMap<CategoryDetector, Integer>());
+	}
+
+
+	/**
+	 * Get the list that owns the store
+	 *
+	 * @return the list
+	 */
+	TransactionList getList() {
+		return list;
+	}
+
+
+	/**
+	 * Get the number of rows
+	 *
+	 * @return the number of rows
+	 */
+	int size() {
+		return size;
+	}
+
+
+	/**
+	 * Append a row. The caller must hold the lock of the list.
+	 *
+	 * @param account the account
+	 * @param id the transaction ID
+	 * @param day the epoch day, or {@link EpochDays#NONE}
+	 * @param description the description
+	 * @param address the address
+	 * @param cents the signed amount as cents
+	 * @param detector the category detector
+	 * @return the index of the row
+	 */
+	int add(Account account, String id, int day, String description, String address, int cents,
+			CategoryDetector detector) {
+
+		int row = size;
+		Chunk[] c = chunks;
+		if ((row >>> CHUNK_BITS) == c.length) {
+			c = Arrays.copyOf(c, c.length + 1);
+			c[c.length - 1] = new Chunk();
+		}
+
+		Chunk chunk = c[row >>> CHUNK_BITS];
+		int i = row & CHUNK_MASK;
+		chunk.accounts[i] = accounts.indexOf(account);
+		chunk.ids[i] = id;
+		chunk.days[i] = day;
+		chunk.months[i] = day == EpochDays.NONE ? 0 : Month.ordinalOf(day);
+		chunk.weeks[i] = day == EpochDays.NONE ? 0 : Week.ordinalOf(day);
+		chunk.descriptions[i] = strings.indexOf(description);
+		chunk.addresses[i] = strings.indexOf(address);
+		chunk.cents[i] = cents;
+		chunk.detectors[i] = detectors.indexOf(detector);
+
+		chunks = c;
+		size = row + 1;
+
+		if (2 * size > slots.length) {
+			rehash(2 * slots.length);
+		}
+		else {
+			insertSlot(row);
+		}
+
+		return row;
+	}
+
+
+	/**
+	 * Find the row of the transaction with the given account and ID. The
+	 * caller must hold the lock of the list.
+	 *
+	 * @param account the account
+	 * @param id the transaction ID
+	 * @return the index of the row, or -1 if not found
+	 */
+	int find(Account account, String id) {
+
+		int mask = slots.length - 1;
+		for (int s = hash(account, id) & mask; slots[s] != 0; s = (s + 1) & mask) {
+			int row = slots[s] - 1;
+			Account a = getAccount(row);
+			String i = getId(row);
+			if ((account == null ? a == null : account.equals(a))
+					&& (id == null ? i == null : id.equals(i))) {
+				return row;
+			}
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Get the account of a row
+	 *
+	 * @param row the row
+	 * @return the account
+	 */
+	Account getAccount(int row) {
+		return accounts.get(chunks[row >>> CHUNK_BITS].accounts[row & CHUNK_MASK]);
+	}
+
+
+	/**
+	 * Get the transaction ID of a row
+	 *
+	 * @param row the row
+	 * @return the ID
+	 */
+	String getId(int row) {
+		return chunks[row >>> CHUNK_BITS].ids[row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the date of a row
+	 *
+	 * @param row the row
+	 * @return the epoch day, or {@link EpochDays#NONE}
+	 */
+	int getEpochDay(int row) {
+		return chunks[row >>> CHUNK_BITS].days[row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the ordinal of the month of a row
+	 *
+	 * @param row the row
+	 * @return the ordinal, as in {@link Month#getOrdinal()}, or 0 if the row
+	 *         has no date
+	 */
+	int getMonthOrdinal(int row) {
+		return chunks[row >>> CHUNK_BITS].months[row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the ordinal of the week of a row
+	 *
+	 * @param row the row
+	 * @return the ordinal, as in {@link Week#getOrdinal()}, or 0 if the row
+	 *         has no date
+	 */
+	int getWeekOrdinal(int row) {
+		return chunks[row >>> CHUNK_BITS].weeks[row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the description of a row
+	 *
+	 * @param row the row
+	 * @return the description
+	 */
+	String getDescription(int row) {
+		return strings.get(chunks[row >>> CHUNK_BITS].descriptions[row & CHUNK_MASK]);
+	}
+
+
+	/**
+	 * Get the address of a row
+	 *
+	 * @param row the row
+	 * @return the address
+	 */
+	String getAddress(int row) {
+		return strings.get(chunks[row >>> CHUNK_BITS].addresses[row & CHUNK_MASK]);
+	}
+
+
+	/**
+	 * Get the amount of a row
+	 *
+	 * @param row the row
+	 * @return the signed amount as cents
+	 */
+	int getCents(int row) {
+		return chunks[row >>> CHUNK_BITS].cents[row & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Get the category detector of a row
+	 *
+	 * @param row the row
+	 * @return the detector
+	 */
+	CategoryDetector getDetector(int row) {
+		return detectors.get(chunks[row >>> CHUNK_BITS].detectors[row & CHUNK_MASK]);
+	}
+
+
+	/**
+	 * Set the category detector of a row
+	 *
+	 * @param row the row
+	 * @param detector the detector
+	 */
+	void setDetector(int row, CategoryDetector detector) {
+		chunks[row >>> CHUNK_BITS].detectors[row & CHUNK_MASK] = detectors.indexOf(detector);
+	}
+
+
+	/**
+	 * Compute the hash of the key of a transaction, which consists of the
+	 * same fields as in {@link Transaction#equals(Object)}
+	 *
+	 * @param account the account
+	 * @param id the transaction ID
+	 * @return the hash
+	 */
+	private static int hash(Account account, String id) {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((account == null) ? 0 : account.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		return result ^ (result >>> 16);
+	}
+
+
+	/**
+	 * Add a row to the hash slots
+	 *
+	 * @param row the row
+	 */
+	private void insertSlot(int row) {
+
+		int mask = slots.length - 1;
+		int s = hash(getAccount(row), getId(row)) & mask;
+		while (slots[s] != 0) s = (s + 1) & mask;
+		slots[s] = row + 1;
+	}
+
+
+	/**
+	 * Rebuild the hash slots with the given capacity
+	 *
+	 * @param capacity the new capacity, a power of two
+	 */
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int row = 0; row < size; row++) insertSlot(row);
+	}
+
+
+	/**
+	 * A chunk of rows
+	 */
+	private static class Chunk {
+
+		final int[] accounts = new int[CHUNK_SIZE];
+		final String[] ids = new String[CHUNK_SIZE];
+		final int[] days = new int[CHUNK_SIZE];
+		final int[] months = new int[CHUNK_SIZE];
+		final int[] weeks = new int[CHUNK_SIZE];
+		final int[] descriptions = new int[CHUNK_SIZE];
+		final int[] addresses = new int[CHUNK_SIZE];
+		final int[] cents = new int[CHUNK_SIZE];
+		final int[] detectors = new int[CHUNK_SIZE];
+	}
+
+
+	/**
+	 * A dictionary that assigns dense codes to distinct values. The values
+	 * can be looked up by their codes without locking.
+	 *
+	 * @param <T> the type of the values
+	 */
+	private static class Dictionary<T> {
+
+		private Map<T, Integer> codes;
+		private volatile Object[] values;
+		private int size;
+
+
+		/**
+		 * Create an empty instance of {@link Dictionary}
+		 *
+		 * @param codes the empty map of the values to their codes, which
+		 *              determines whether the values are compared by
+		 *              equality or by identity
+		 */
+		Dictionary(Map<T, Integer> codes) {
+			this.codes = codes;
+			this.values = new Object[4];
+			this.size = 0;
+		}
+
+
+		/**
+		 * Get the code of a value, adding it if necessary
+		 *
+		 * @param value the value
+		 * @return the code, or -1 if the value is null
+		 */
+		synchronized int indexOf(T value) {
+
+			if (value == null) return NULL_INDEX;
+
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = size;
+				Object[] v = values;
+				if (size == v.length) v = Arrays.copyOf(v, 2 * size);
+				v[size++] = value;
+				values = v;
+				codes.put(value, code);
+			}
+
+			return code;
+		}
+
+
+		/**
+		 * Get a value by its code
+		 *
+		 * @param code the code
+		 * @return the value, or null if the code is -1
+		 */
+		@SuppressWarnings("unchecked")
+		T get(int code) {
+			return code == NULL_INDEX ? null : (T) values[code];
+		}
+	}
+}
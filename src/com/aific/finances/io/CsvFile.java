@@ -0,0 +1,409 @@
+package com.aific.finances.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import com.aific.finances.Account;
+import com.aific.finances.Transaction;
+import com.aific.finances.util.CsvReader;
+import com.aific.finances.util.Utils;
+
+
+/**
+ * A CSV statement, which is read as a stream, so that its size is not
+ * limited by the available memory. The columns are mapped to the values of
+ * the transactions by the first {@link CsvProfile} that matches the header
+ * row, which may be preceded by a few rows of a summary.
+ * <p>
+ * If the profile has no ID column, the ID of a transaction is derived from
+ * its date, amount, description, and the number of the identical
+ * transactions before it in the file, so that importing the same
+ * transactions again does not create duplicates. Similarly, if the file has
+ * no account number, it matches the only account of the same institution
+ * and type.
+ *
+ * @author Peter Macko
+ */
+public class CsvFile implements TransactionFile {
+
+	private static final long INVALID_AMOUNT = Long.MIN_VALUE;
+	private static final int MAX_HEADER_LINE = 20;
+	private static final int ID_HASH_LENGTH = 16;
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private File file;
+	private CsvProfile profile;
+	private int headerLine;
+
+	private int dateColumn;
+	private int amountColumn;
+	private int debitColumn;
+	private int creditColumn;
+	private int descriptionColumn;
+	private int idColumn;
+	private int columns;
+
+	private String accountNumber;
+
+
+	/**
+	 * Create an instance of class CsvFile using the built-in profiles. This
+	 * reads only the header and the first transaction, which has the account
+	 * number, and the transactions are then read from the file one at a time
+	 * by {@link #readTransactions(Account, Consumer)}.
+	 *
+	 * @param file the file
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error or if no profile matches
+	 */
+	public CsvFile(File file) throws IOException, ParseException {
+		this(file, CsvProfile.getBuiltin());
+	}
+
+
+	/**
+	 * Create an instance of class CsvFile
+	 *
+	 * @param file the file
+	 * @param profiles the profiles to try, in order
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error or if no profile matches
+	 */
+	public CsvFile(File file, List<CsvProfile> profiles) throws IOException, ParseException {
+
+		this.file = file;
+
+
+		// Find the header row, assuming that its charset is compatible with
+		// that of the profile
+
+		String[] header = null;
+
+		try (CsvReader in = CsvReader.open(file, StandardCharsets.UTF_8)) {
+			String[] r;
+			while (profile == null && (r = in.next()) != null && in.getLine() <= MAX_HEADER_LINE) {
+				for (CsvProfile p : profiles) {
+					if (p.matches(r)) {
+						profile = p;
+						header = r;
+						headerLine = in.getLine();
+						break;
+					}
+				}
+			}
+		}
+
+		if (profile == null) {
+			throw new ParseException("Cannot find the columns of the transactions", 0);
+		}
+
+		dateColumn = CsvProfile.indexOf(header, profile.getDateColumn());
+		amountColumn = CsvProfile.indexOf(header, profile.getAmountColumn());
+		debitColumn = CsvProfile.indexOf(header, profile.getDebitColumn());
+		creditColumn = CsvProfile.indexOf(header, profile.getCreditColumn());
+		descriptionColumn = CsvProfile.indexOf(header, profile.getDescriptionColumn());
+		idColumn = CsvProfile.indexOf(header, profile.getIdColumn());
+		int accountNumberColumn = CsvProfile.indexOf(header, profile.getAccountNumberColumn());
+
+		columns = 0;
+		for (int c : new int[] { dateColumn, amountColumn, debitColumn, creditColumn,
+				descriptionColumn, idColumn }) {
+			columns = Math.max(columns, c + 1);
+		}
+
+
+		// Get the account number from the first transaction
+
+		accountNumber = null;
+
+		if (accountNumberColumn >= 0) {
+			try (CsvReader in = open()) {
+				String[] r;
+				while ((r = in.next()) != null) {
+					if (isEmpty(r)) continue;
+					if (accountNumberColumn < r.length) accountNumber = r[accountNumberColumn].trim();
+					break;
+				}
+			}
+			if (accountNumber != null && accountNumber.isEmpty()) accountNumber = null;
+		}
+	}
+
+
+	/**
+	 * Open the file for reading, skipping past the header row
+	 *
+	 * @return the reader positioned at the first transaction
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error
+	 */
+	private CsvReader open() throws IOException, ParseException {
+
+		CsvReader in = CsvReader.open(file, profile.getCharset());
+		try {
+			while (in.getLine() < headerLine && in.next() != null);
+			return in;
+		}
+		catch (IOException | ParseException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Get the profile that matched the header row
+	 *
+	 * @return the profile
+	 */
+	public CsvProfile getProfile() {
+		return profile;
+	}
+
+
+	/**
+	 * Try to match with one of the given accounts. Without an account number,
+	 * this matches the account of the same institution and type if there is
+	 * exactly one.
+	 *
+	 * @param accounts the accounts
+	 * @return the matched account, or null if none
+	 */
+	@Override
+	public Account matchAccount(Collection<Account> accounts) {
+
+		String numberHash = accountNumber == null ? null : Account.hashNumber(accountNumber);
+		Account r = null;
+
+		for (Account a : accounts) {
+			if (!a.getInstitution().equals(profile.getInstitution())) continue;
+			if (!a.getType().equals(profile.getType())) continue;
+
+			if (numberHash != null) {
+				if (a.getNumberHashes().contains(numberHash)) return a;
+			}
+			else {
+				if (r != null) return null;
+				r = a;
+			}
+		}
+
+		return r;
+	}
+
+
+	/**
+	 * Create an account from the provided information
+	 *
+	 * @return the account
+	 */
+	@Override
+	public Account getAccount() {
+		String id = UUID.randomUUID().toString();
+		String institution = profile.getInstitution();
+
+		if (accountNumber == null) {
+			String accountName = institution + " " + profile.getType();
+			return new Account(id, institution, Collections.emptyList(),
+					profile.getType(), accountName, accountName);
+		}
+
+		String shortNumber = accountNumber;
+		if (shortNumber.length() > 4) {
+			shortNumber = shortNumber.substring(shortNumber.length() - 4);
+		}
+
+		String accountName = institution + " " + shortNumber;
+		String numberHash = Account.hashNumber(accountNumber);
+		return new Account(id, institution, Collections.singletonList(numberHash),
+				profile.getType(), accountName, accountName);
+	}
+
+
+	/**
+	 * Get the currency
+	 *
+	 * @return the currency
+	 */
+	@Override
+	public String getCurrency() {
+		return profile.getCurrency();
+	}
+
+
+	/**
+	 * Read the transactions from the file and pass them to the consumer one
+	 * at a time, as soon as each is read
+	 *
+	 * @param account the account to use
+	 * @param consumer the consumer of the transactions
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error
+	 */
+	@Override
+	public void readTransactions(Account account, Consumer<Transaction> consumer)
+			throws IOException, ParseException {
+
+		// The number of the identical transactions read so far, for those
+		// without an ID
+
+		HashMap<String, Integer> occurrences = new HashMap<String, Integer>();
+		MessageDigest digest = null;
+
+		try (CsvReader in = open()) {
+			String[] r;
+			while ((r = in.next()) != null) {
+
+				if (isEmpty(r)) continue;
+				if (r.length < columns) {
+					throw new ParseException("Missing columns on line " + in.getLine(), 0);
+				}
+
+
+				// Get the values
+
+				int day;
+				try {
+					day = (int) LocalDate.parse(r[dateColumn].trim(), profile.getDateFormat()).toEpochDay();
+				}
+				catch (DateTimeParseException e) {
+					throw new ParseException("Cannot determine the date of the transaction on line "
+							+ in.getLine(), 0);
+				}
+
+				String description = WHITESPACE.matcher(r[descriptionColumn].trim()).replaceAll(" ");
+				if (description.isEmpty()) {
+					throw new ParseException("Cannot determine the transaction name on line "
+							+ in.getLine(), 0);
+				}
+
+				long cents;
+				if (amountColumn >= 0) {
+					cents = parseCents(r[amountColumn]);
+				}
+				else {
+					long debit = debitColumn < 0 ? 0 : parseCents(r[debitColumn], 0);
+					long credit = creditColumn < 0 ? 0 : parseCents(r[creditColumn], 0);
+					cents = debit == INVALID_AMOUNT || credit == INVALID_AMOUNT
+							? INVALID_AMOUNT : Math.abs(credit) - Math.abs(debit);
+				}
+				if (profile.isNegateAmounts() && cents != INVALID_AMOUNT) cents = -cents;
+				if (cents == INVALID_AMOUNT || cents < Integer.MIN_VALUE || cents > Integer.MAX_VALUE) {
+					throw new ParseException("Cannot determine the transaction amount on line "
+							+ in.getLine(), 0);
+				}
+
+
+				// Get the ID
+
+				String id = idColumn < 0 ? "" : r[idColumn].trim();
+				if (id.isEmpty()) {
+					String key = day + "|" + cents + "|" + description;
+					int n = occurrences.merge(key, 1, Integer::sum);
+					if (digest == null) digest = createDigest();
+					byte[] hash = digest.digest((key + "|" + n).getBytes(StandardCharsets.UTF_8));
+					id = "csv:" + Utils.bytesToHex(Arrays.copyOf(hash, ID_HASH_LENGTH));
+				}
+
+				consumer.accept(new Transaction(account, account.getId() + ":" + id,
+						day, description, "", (int) cents));
+			}
+		}
+	}
+
+
+	/**
+	 * Determine whether a record has no values, such as an empty row at the
+	 * end of a spreadsheet
+	 *
+	 * @param record the record
+	 * @return true if all fields are empty
+	 */
+	private static boolean isEmpty(String[] record) {
+
+		for (String s : record) {
+			if (!s.trim().isEmpty()) return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Parse an amount that may be empty
+	 *
+	 * @param str the amount
+	 * @param empty the value of an empty amount
+	 * @return the signed amount as cents, or {@link #INVALID_AMOUNT} if the
+	 *         amount is not valid
+	 */
+	private static long parseCents(String str, long empty) {
+		return str.trim().isEmpty() ? empty : parseCents(str);
+	}
+
+
+	/**
+	 * Parse an amount with at most two decimal places, which may have a
+	 * currency symbol, thousands separators, and a sign or parentheses for
+	 * negative amounts
+	 *
+	 * @param str the amount
+	 * @return the signed amount as cents, or {@link #INVALID_AMOUNT} if the
+	 *         amount is not valid
+	 */
+	private static long parseCents(String str) {
+
+		String s = str.trim();
+		boolean negative = false;
+		if (s.length() > 2 && s.startsWith("(") && s.endsWith(")")) {
+			negative = true;
+			s = s.substring(1, s.length() - 1);
+		}
+
+		StringBuilder b = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c != '$' && c != ',' && !Character.isWhitespace(c)) b.append(c);
+		}
+		if (b.length() == 0) return INVALID_AMOUNT;
+
+		try {
+			long cents = new BigDecimal(b.toString()).setScale(2).movePointRight(2).longValueExact();
+			return negative ? -cents : cents;
+		}
+		catch (NumberFormatException | ArithmeticException e) {
+			return INVALID_AMOUNT;
+		}
+	}
+
+
+	/**
+	 * Create the digest for the hashes of the values of the transactions
+	 * that have no ID
+	 *
+	 * @return the digest
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA3-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new InternalError("SHA3-256 is not supported");
+		}
+	}
+}
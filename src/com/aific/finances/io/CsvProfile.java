@@ -0,0 +1,437 @@
+package com.aific.finances.io;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXParseException;
+
+import com.aific.finances.AccountType;
+import com.aific.finances.Main;
+
+
+/**
+ * A mapping of the columns of the CSV statements of an institution to the
+ * values of the transactions. The columns are identified by their names in
+ * the header row, ignoring the case and the surrounding whitespace. The
+ * amount is either in one column, or split into a debit and a credit
+ * column, in which case the transaction amount is the credit minus the
+ * debit. The ID and the account number columns are optional, and they are
+ * used only if the file has them.
+ *
+ * @author Peter Macko
+ */
+public class CsvProfile {
+
+	public static final String XML_ELEMENT = "csv_profile";
+	public static final String XML_ELEMENT_LIST = "csv_profiles";
+
+	private static List<CsvProfile> builtinProfiles = null;
+
+	private String id;
+
+	private String institution;
+	private AccountType type;
+	private String currency;
+	private Charset charset;
+
+	private String dateColumn;
+	private String datePattern;
+	private DateTimeFormatter dateFormat;
+	private String amountColumn;
+	private String debitColumn;
+	private String creditColumn;
+	private boolean negateAmounts;
+	private String descriptionColumn;
+	private String idColumn;
+	private String accountNumberColumn;
+
+
+	/**
+	 * Create an instance of {@link CsvProfile}
+	 *
+	 * @param id the unique ID of the profile
+	 * @param institution the institution
+	 * @param type the account type
+	 * @param currency the currency
+	 * @param charset the charset of the files
+	 * @param dateColumn the name of the date column
+	 * @param datePattern the pattern of the dates for {@link DateTimeFormatter}
+	 * @param amountColumn the name of the amount column, or null if the
+	 *                     amount is split into the debit and credit columns
+	 * @param debitColumn the name of the debit column, or null if none
+	 * @param creditColumn the name of the credit column, or null if none
+	 * @param negateAmounts true if the amounts are positive for the charges
+	 *                      and negative for the payments
+	 * @param descriptionColumn the name of the description column
+	 * @param idColumn the name of the transaction ID column, or null if none
+	 * @param accountNumberColumn the name of the account number column, or
+	 *                            null if none
+	 * @throws IllegalArgumentException if a required column or the date
+	 *                                  pattern is missing, or if the date
+	 *                                  pattern is not valid
+	 */
+	public CsvProfile(String id, String institution, AccountType type,
+			String currency, Charset charset, String dateColumn, String datePattern,
+			String amountColumn, String debitColumn, String creditColumn,
+			boolean negateAmounts, String descriptionColumn, String idColumn,
+			String accountNumberColumn) {
+
+		if (dateColumn == null || datePattern == null || descriptionColumn == null) {
+			throw new IllegalArgumentException("The date, the date format, and the description "
+					+ "columns are required");
+		}
+		if ((amountColumn == null) == (debitColumn == null && creditColumn == null)) {
+			throw new IllegalArgumentException("Either the amount column or the debit and credit "
+					+ "columns are required");
+		}
+
+		this.id = id;
+
+		this.institution = institution;
+		this.type = type;
+		this.currency = currency;
+		this.charset = charset;
+
+		this.dateColumn = dateColumn;
+		this.datePattern = datePattern;
+		this.dateFormat = DateTimeFormatter.ofPattern(datePattern);
+		this.amountColumn = amountColumn;
+		this.debitColumn = debitColumn;
+		this.creditColumn = creditColumn;
+		this.negateAmounts = negateAmounts;
+		this.descriptionColumn = descriptionColumn;
+		this.idColumn = idColumn;
+		this.accountNumberColumn = accountNumberColumn;
+	}
+
+
+	/**
+	 * Get the profile ID
+	 *
+	 * @return the unique ID
+	 */
+	public String getId() {
+		return id;
+	}
+
+
+	/**
+	 * Get the institution
+	 *
+	 * @return the institution
+	 */
+	public String getInstitution() {
+		return institution;
+	}
+
+
+	/**
+	 * Get the account type
+	 *
+	 * @return the type
+	 */
+	public AccountType getType() {
+		return type;
+	}
+
+
+	/**
+	 * Get the currency
+	 *
+	 * @return the currency
+	 */
+	public String getCurrency() {
+		return currency;
+	}
+
+
+	/**
+	 * Get the charset of the files
+	 *
+	 * @return the charset
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+
+	/**
+	 * Get the name of the date column
+	 *
+	 * @return the column name
+	 */
+	public String getDateColumn() {
+		return dateColumn;
+	}
+
+
+	/**
+	 * Get the pattern of the dates
+	 *
+	 * @return the pattern for {@link DateTimeFormatter}
+	 */
+	public String getDatePattern() {
+		return datePattern;
+	}
+
+
+	/**
+	 * Get the format of the dates
+	 *
+	 * @return the formatter
+	 */
+	public DateTimeFormatter getDateFormat() {
+		return dateFormat;
+	}
+
+
+	/**
+	 * Get the name of the amount column
+	 *
+	 * @return the column name, or null if the amount is split into the debit
+	 *         and credit columns
+	 */
+	public String getAmountColumn() {
+		return amountColumn;
+	}
+
+
+	/**
+	 * Get the name of the debit column
+	 *
+	 * @return the column name, or null if none
+	 */
+	public String getDebitColumn() {
+		return debitColumn;
+	}
+
+
+	/**
+	 * Get the name of the credit column
+	 *
+	 * @return the column name, or null if none
+	 */
+	public String getCreditColumn() {
+		return creditColumn;
+	}
+
+
+	/**
+	 * Determine whether the amounts need to be negated
+	 *
+	 * @return true if the amounts in the file are positive for the charges
+	 *         and negative for the payments
+	 */
+	public boolean isNegateAmounts() {
+		return negateAmounts;
+	}
+
+
+	/**
+	 * Get the name of the description column
+	 *
+	 * @return the column name
+	 */
+	public String getDescriptionColumn() {
+		return descriptionColumn;
+	}
+
+
+	/**
+	 * Get the name of the transaction ID column
+	 *
+	 * @return the column name, or null if none
+	 */
+	public String getIdColumn() {
+		return idColumn;
+	}
+
+
+	/**
+	 * Get the name of the account number column
+	 *
+	 * @return the column name, or null if none
+	 */
+	public String getAccountNumberColumn() {
+		return accountNumberColumn;
+	}
+
+
+	/**
+	 * Determine whether a header row has all columns that the profile
+	 * requires
+	 *
+	 * @param header the header row
+	 * @return true if the profile can be used for the file
+	 */
+	public boolean matches(String[] header) {
+
+		if (indexOf(header, dateColumn) < 0) return false;
+		if (indexOf(header, descriptionColumn) < 0) return false;
+
+		if (amountColumn != null) {
+			if (indexOf(header, amountColumn) < 0) return false;
+		}
+		else {
+			if (debitColumn != null && indexOf(header, debitColumn) < 0) return false;
+			if (creditColumn != null && indexOf(header, creditColumn) < 0) return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Find a column in a header row
+	 *
+	 * @param header the header row
+	 * @param column the column name, or null
+	 * @return the index of the column, or -1 if not found
+	 */
+	static int indexOf(String[] header, String column) {
+
+		if (column == null) return -1;
+
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].trim().equalsIgnoreCase(column)) return i;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Read the object from an XML
+	 *
+	 * @param element the XML element
+	 * @return the object
+	 */
+	public static CsvProfile fromXMLElement(Element element) {
+
+		if (!element.getNodeName().equals(XML_ELEMENT)) {
+			throw new IllegalArgumentException();
+		}
+
+		String id = element.getAttribute("id");
+		String institution = getChildText(element, "institution");
+		String sType = getChildText(element, "type");
+		String currency = getChildText(element, "currency");
+		String sCharset = getChildText(element, "charset");
+		String sNegateAmounts = getChildText(element, "negate_amounts");
+
+		AccountType type = Enum.valueOf(AccountType.class, sType);
+		if (currency == null) currency = "USD";
+		Charset charset = sCharset == null ? StandardCharsets.UTF_8 : Charset.forName(sCharset);
+
+		return new CsvProfile(id, institution, type, currency, charset,
+				getChildText(element, "date_column"),
+				getChildText(element, "date_format"),
+				getChildText(element, "amount_column"),
+				getChildText(element, "debit_column"),
+				getChildText(element, "credit_column"),
+				Boolean.parseBoolean(sNegateAmounts),
+				getChildText(element, "description_column"),
+				getChildText(element, "id_column"),
+				getChildText(element, "account_number_column"));
+	}
+
+
+	/**
+	 * Get the text of a child element
+	 *
+	 * @param element the parent XML element
+	 * @param name the name of the child
+	 * @return the trimmed text, or null if there is no such child
+	 */
+	private static String getChildText(Element element, String name) {
+
+		Node n = element.getElementsByTagName(name).item(0);
+		return n == null ? null : n.getTextContent().trim();
+	}
+
+
+	/**
+	 * Read the profiles from an XML
+	 *
+	 * @param element the XML element
+	 * @return the list of the profiles, in order
+	 */
+	public static List<CsvProfile> listFromXMLElement(Element element) {
+
+		if (!element.getNodeName().equals(XML_ELEMENT_LIST)) {
+			throw new IllegalArgumentException();
+		}
+
+		ArrayList<CsvProfile> profiles = new ArrayList<CsvProfile>();
+
+		NodeList profileList = element.getElementsByTagName(XML_ELEMENT);
+		for (int i = 0; i < profileList.getLength(); i++) {
+			Node n = profileList.item(i);
+			if (n.getNodeType() != Node.ELEMENT_NODE) throw new IllegalArgumentException();
+
+			profiles.add(fromXMLElement((Element) n));
+		}
+
+		return profiles;
+	}
+
+
+	/**
+	 * Get the built-in profiles, loading them from the bundled XML file on
+	 * the first call
+	 *
+	 * @return the unmodifiable list of the profiles, in the order in which
+	 *         they should be tried
+	 */
+	public static synchronized List<CsvProfile> getBuiltin() {
+
+		if (builtinProfiles == null) {
+			builtinProfiles = Collections.unmodifiableList(fromBuiltin());
+		}
+
+		return builtinProfiles;
+	}
+
+
+	/**
+	 * Load the built-in profiles from the bundled XML file
+	 *
+	 * @return the list of the profiles, in order
+	 */
+	public static List<CsvProfile> fromBuiltin() {
+
+		// Allow private builds with a different pre-defined profiles file
+		URL profilesURL = Main.class.getResource("/resources/csv-profiles-private.xml");
+		if (profilesURL == null) profilesURL = Main.class.getResource("/resources/csv-profiles.xml");
+
+		try (InputStream profilesURLStream = profilesURL.openStream()) {
+			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+
+			Document doc = dBuilder.parse(profilesURLStream);
+			doc.getDocumentElement().normalize();
+
+			return listFromXMLElement(doc.getDocumentElement());
+		}
+		catch (SAXParseException e) {
+			System.err.println("Error at line " + e.getLineNumber() + ": " + e.toString());
+			throw new RuntimeException("Cannot load the built-in CSV profiles", e);
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Cannot load the built-in CSV profiles", e);
+		}
+	}
+}
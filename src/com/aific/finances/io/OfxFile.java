@@ -1,53 +1,140 @@
 package com.aific.finances.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import com.aific.finances.Account;
 import com.aific.finances.AccountType;
 import com.aific.finances.Accounts;
 import com.aific.finances.Transaction;
-import com.aific.finances.util.SgmlElement;
-import com.aific.finances.util.SgmlWithHeader;
+import com.aific.finances.util.EpochDays;
+import com.aific.finances.util.ElementReader;
+import com.aific.finances.util.SgmlReader;
+import com.aific.finances.util.XmlElementReader;
 
 
 /**
- * An OFX / QFX file.
+ * An OFX / QFX file, which is read as a stream, so that its size is not
+ * limited by the available memory. Both the SGML format of OFX 1.x and the
+ * XML format of OFX 2.x are supported, telling them apart by the prolog of
+ * the file.
  * 
  * @author Peter Macko
  */
-public class OfxFile {
+public class OfxFile implements TransactionFile {
 	
-	private SgmlWithHeader ofx;
+	private static final long INVALID_AMOUNT = Long.MIN_VALUE;
+	private static final int PROLOG_LENGTH = 64;
+	
+	private static final String[] INSTITUTION_PATH
+			= { "SIGNONMSGSRSV1", "SONRS", "FI", "ORG" };
+	private static final String[] CREDIT_CARD_MESSAGES_PATH
+			= { "CREDITCARDMSGSRSV1" };
+	
+	private static final String[] BANK_ACCOUNT_TYPE_PATH
+			= { "BANKMSGSRSV1", "STMTTRNRS", "STMTRS", "BANKACCTFROM", "ACCTTYPE" };
+	private static final String[] BANK_ACCOUNT_NUMBER_PATH
+			= { "BANKMSGSRSV1", "STMTTRNRS", "STMTRS", "BANKACCTFROM", "ACCTID" };
+	private static final String[] BANK_CURRENCY_PATH
+			= { "BANKMSGSRSV1", "STMTTRNRS", "STMTRS", "CURDEF" };
+	private static final String[] BANK_TRANSACTIONS_PATH
+			= { "BANKMSGSRSV1", "STMTTRNRS", "STMTRS", "BANKTRANLIST" };
+	
+	private static final String[] CREDIT_CARD_ACCOUNT_NUMBER_PATH
+			= { "CREDITCARDMSGSRSV1", "CCSTMTTRNRS", "CCSTMTRS", "CCACCTFROM", "ACCTID" };
+	private static final String[] CREDIT_CARD_CURRENCY_PATH
+			= { "CREDITCARDMSGSRSV1", "CCSTMTTRNRS", "CCSTMTRS", "CURDEF" };
+	private static final String[] CREDIT_CARD_TRANSACTIONS_PATH
+			= { "CREDITCARDMSGSRSV1", "CCSTMTTRNRS", "CCSTMTRS", "BANKTRANLIST" };
+	
+	private File file;
+	private boolean xml;
 	
 	private String institution;
 	private AccountType accountType;
 	private String accountNumber;
 	private String currency;
-	private SgmlElement transactions;
+	private String[] transactionsPath;
 
 	
 	/**
-	 * Create an instance of class OfxFile
+	 * Create an instance of class OfxFile. This reads only the information
+	 * about the account and skips over the transactions, which are then read
+	 * from the file one at a time by {@link #readTransactions(Account, Consumer)}.
 	 * 
 	 * @param file the file
 	 * @throws IOException the I/O exception
 	 * @throws ParseException on parse error
 	 */
 	public OfxFile(File file) throws IOException, ParseException {
-		ofx = SgmlWithHeader.loadFromFile(file);
+		
+		this.file = file;
+		this.xml = isXml(file);
+		
+		
+		// Read the values, taking the first occurrence of each
+		
+		String accountTypeString = null;
+		boolean foundCreditCardMessages = false;
+		String bankAccountNumber = null;
+		String bankCurrency = null;
+		boolean foundBankTransactions = false;
+		String creditCardAccountNumber = null;
+		String creditCardCurrency = null;
+		boolean foundCreditCardTransactions = false;
+		
+		try (ElementReader in = open()) {
+			while (in.next() != ElementReader.Event.END_DOCUMENT) {
+				
+				if (in.getEvent() == ElementReader.Event.START_ELEMENT) {
+					if (in.isAt(CREDIT_CARD_MESSAGES_PATH)) {
+						foundCreditCardMessages = true;
+					}
+					else if (in.isAt(BANK_TRANSACTIONS_PATH)) {
+						foundBankTransactions = true;
+						in.skipElement();
+					}
+					else if (in.isAt(CREDIT_CARD_TRANSACTIONS_PATH)) {
+						foundCreditCardTransactions = true;
+						in.skipElement();
+					}
+					continue;
+				}
+				
+				if (institution == null && in.isAt(INSTITUTION_PATH)) {
+					institution = in.getText();
+				}
+				else if (accountTypeString == null && in.isAt(BANK_ACCOUNT_TYPE_PATH)) {
+					accountTypeString = in.getText();
+				}
+				else if (bankAccountNumber == null && in.isAt(BANK_ACCOUNT_NUMBER_PATH)) {
+					bankAccountNumber = in.getText();
+				}
+				else if (bankCurrency == null && in.isAt(BANK_CURRENCY_PATH)) {
+					bankCurrency = in.getText();
+				}
+				else if (creditCardAccountNumber == null && in.isAt(CREDIT_CARD_ACCOUNT_NUMBER_PATH)) {
+					creditCardAccountNumber = in.getText();
+				}
+				else if (creditCardCurrency == null && in.isAt(CREDIT_CARD_CURRENCY_PATH)) {
+					creditCardCurrency = in.getText();
+				}
+			}
+		}
 		
 		
 		// Get the institution
 		
-		institution = ofx.getSgml().getText("SIGNONMSGSRSV1", "SONRS", "FI", "ORG");
 		if (institution == null || institution.isEmpty()) {
 			throw new ParseException("Cannot determine the financial institution", 0);
 		}
@@ -61,15 +148,13 @@ public class OfxFile {
 		
 		// Get the account type
 		
-		String accountTypeString = ofx.getSgml().getText("BANKMSGSRSV1", "STMTTRNRS", "STMTRS",
-				"BANKACCTFROM", "ACCTTYPE");
 		if ("CHECKING".equalsIgnoreCase(accountTypeString)) {
 			accountType = AccountType.CHECKING_ACCOUNT;
 		}
 		else if ("SAVINGS".equalsIgnoreCase(accountTypeString)) {
 			accountType = AccountType.SAVINGS_ACCOUNT;
 		}
-		else if (accountTypeString == null && ofx.getSgml().get("CREDITCARDMSGSRSV1") != null) {
+		else if (accountTypeString == null && foundCreditCardMessages) {
 			accountType = AccountType.CREDIT_CARD;
 		}
 		else {
@@ -77,58 +162,95 @@ public class OfxFile {
 		}
 		
 		
-		// Get the statement aggregate
+		// Get the values from the statement aggregate
 		
-		SgmlElement statement = null;
+		boolean foundTransactions;
 		
 		switch (accountType) {
 		case CHECKING_ACCOUNT:
 		case SAVINGS_ACCOUNT:
-			statement = ofx.getSgml().get("BANKMSGSRSV1", "STMTTRNRS", "STMTRS");
+			accountNumber = bankAccountNumber;
+			currency = bankCurrency;
+			foundTransactions = foundBankTransactions;
+			transactionsPath = BANK_TRANSACTIONS_PATH;
 			break;
 		case CREDIT_CARD:
-			statement = ofx.getSgml().get("CREDITCARDMSGSRSV1", "CCSTMTTRNRS", "CCSTMTRS");
+			accountNumber = creditCardAccountNumber;
+			currency = creditCardCurrency;
+			foundTransactions = foundCreditCardTransactions;
+			transactionsPath = CREDIT_CARD_TRANSACTIONS_PATH;
 			break;
 		default:
 			throw new ParseException("Unsupported account type", 0);
 		}
-		if (statement == null) {
-			throw new ParseException("Cannot find the statement aggregate", 0);
-		}
 		
+		if (accountNumber == null || accountNumber.isEmpty()) {
+			throw new ParseException("Cannot determine the account number", 0);
+		}
 		
-		// Get the account number
+		if (currency == null || currency.isEmpty()) {
+			throw new ParseException("Cannot determine the currency", 0);
+		}
 		
-		switch (accountType) {
-		case CHECKING_ACCOUNT:
-		case SAVINGS_ACCOUNT:
-			accountNumber = statement.getText("BANKACCTFROM", "ACCTID");
-			break;
-		case CREDIT_CARD:
-			accountNumber = statement.getText("CCACCTFROM", "ACCTID");
-			break;
-		default:
-			throw new ParseException("Unsupported account type", 0);
+		if (!foundTransactions) {
+			throw new ParseException("Cannot read the transactions", 0);
 		}
-		if (accountNumber == null || accountNumber.isEmpty()) {
-			throw new ParseException("Cannot determine the account number", 0);
+	}
+	
+	
+	/**
+	 * Determine whether a file is in the XML format of OFX 2.x, which starts
+	 * with an XML declaration or directly with the OFX processing instruction,
+	 * rather than in the SGML format of OFX 1.x, which starts with a key/value
+	 * header or directly with the root element
+	 * 
+	 * @param file the file
+	 * @return true if the file is in XML
+	 * @throws IOException the I/O exception
+	 */
+	private static boolean isXml(File file) throws IOException {
+		
+		byte[] prolog;
+		try (InputStream in = new FileInputStream(file)) {
+			prolog = in.readNBytes(PROLOG_LENGTH);
 		}
 		
+		int n = prolog.length;
+		int i = 0;
 		
-		// Get the currency
 		
-		currency = statement.getText("CURDEF");
-		if (currency == null || currency.isEmpty()) {
-			throw new ParseException("Cannot determine the currency", 0);
+		// A UTF-16 byte order mark can only be in front of XML
+		
+		if (n >= 2 && ((prolog[0] & 0xff) == 0xfe && (prolog[1] & 0xff) == 0xff
+				|| (prolog[0] & 0xff) == 0xff && (prolog[1] & 0xff) == 0xfe)) {
+			return true;
 		}
 		
 		
-		// Get the transactions
+		// Skip the UTF-8 byte order mark and the whitespace
 		
-		transactions = statement.get("BANKTRANLIST");
-		if (transactions == null) {
-			throw new ParseException("Cannot read the transactions", 0);
+		if (n >= 3 && (prolog[0] & 0xff) == 0xef && (prolog[1] & 0xff) == 0xbb
+				&& (prolog[2] & 0xff) == 0xbf) {
+			i = 3;
+		}
+		while (i < n && (prolog[i] == ' ' || prolog[i] == '\t'
+				|| prolog[i] == '\r' || prolog[i] == '\n')) {
+			i++;
 		}
+		
+		return i + 1 < n && prolog[i] == '<' && prolog[i + 1] == '?';
+	}
+	
+	
+	/**
+	 * Open the file for reading
+	 * 
+	 * @return the reader
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error in the header or the prolog
+	 */
+	private ElementReader open() throws IOException, ParseException {
+		return xml ? XmlElementReader.open(file) : SgmlReader.open(file);
 	}
 
 
@@ -139,9 +261,21 @@ public class OfxFile {
 	 * @return the matched account, or null if none
 	 */
 	public Account matchAccount(Accounts accounts) {
+		return matchAccount(accounts.getAll());
+	}
+
+
+	/**
+	 * Try to match with one of the given accounts
+	 * 
+	 * @param accounts the accounts
+	 * @return the matched account, or null if none
+	 */
+	@Override
+	public Account matchAccount(Collection<Account> accounts) {
 		
 		String numberHash = Account.hashNumber(accountNumber);
-		for (Account a : accounts.getAll()) {
+		for (Account a : accounts) {
 			if (!a.getInstitution().equals(institution)) continue;
 			if (!a.getType().equals(accountType)) continue;
 			if (!a.getNumberHashes().contains(numberHash)) continue;
@@ -159,6 +293,7 @@ public class OfxFile {
 	 * @param accounts the accounts
 	 * @return the account
 	 */
+	@Override
 	public Account getAccount() {
 		String id = UUID.randomUUID().toString();
 		
@@ -179,6 +314,7 @@ public class OfxFile {
 	 * 
 	 * @return the currency
 	 */
+	@Override
 	public String getCurrency() {
 		return currency;
 	}
@@ -189,68 +325,240 @@ public class OfxFile {
 	 * 
 	 * @param account the account to use
 	 * @return the list of transactions
+	 * @throws IOException the I/O exception
 	 * @throws ParseException on parse error
 	 */
-	public List<Transaction> loadTransactions(Account account) throws ParseException {
+	public List<Transaction> loadTransactions(Account account) throws IOException, ParseException {
 		
 		List<Transaction> r = new ArrayList<Transaction>();
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+		readTransactions(account, r::add);
+		return r;
+	}
+	
+	
+	/**
+	 * Read the transactions from the file and pass them to the consumer one
+	 * at a time, as soon as each is read
+	 * 
+	 * @param account the account to use
+	 * @param consumer the consumer of the transactions
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error
+	 */
+	@Override
+	public void readTransactions(Account account, Consumer<Transaction> consumer)
+			throws IOException, ParseException {
+		
+		try (ElementReader in = open()) {
+			
+			// Find the list of the transactions
+			
+			while (true) {
+				if (in.next() == ElementReader.Event.END_DOCUMENT) {
+					throw new ParseException("Cannot read the transactions", 0);
+				}
+				if (in.getEvent() == ElementReader.Event.START_ELEMENT && in.isAt(transactionsPath)) break;
+			}
+			
+			
+			// Read the transactions, each from the values of the children
+			// of its element
+			
+			int depth = in.getDepth();
+			TransactionValues values = null;
+			
+			while (in.next() != ElementReader.Event.END_DOCUMENT) {
+				
+				if (in.getDepth() == depth) break;
+				
+				if (in.getEvent() == ElementReader.Event.START_ELEMENT) {
+					if (in.getDepth() == depth + 1 && "STMTTRN".equals(in.getTag())) {
+						values = new TransactionValues();
+					}
+				}
+				else if (in.getDepth() == depth + 2) {
+					if (values != null) values.read(in);
+				}
+				else if (in.getDepth() == depth + 1 && values != null) {
+					consumer.accept(values.toTransaction(account));
+					values = null;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Parse a date in the format "yyyyMMdd", ignoring the time that may
+	 * follow it. As with a lenient {@link java.text.SimpleDateFormat}, the
+	 * months and the days out of range roll over.
+	 * 
+	 * @param str the date
+	 * @return the epoch day, or {@link EpochDays#NONE} if the date is not valid
+	 */
+	private static int parseDay(CharSequence str) {
+		
+		if (str.length() < 8) return EpochDays.NONE;
+		
+		int year = parseDigits(str, 0, 4);
+		int month = parseDigits(str, 4, 6);
+		int day = parseDigits(str, 6, 8);
+		if (year < 0 || month < 0 || day < 0) return EpochDays.NONE;
+		
+		return (int) LocalDate.of(year, 1, 1).plusMonths(month - 1).plusDays(day - 1).toEpochDay();
+	}
+	
+	
+	/**
+	 * Parse an amount with one or two decimal places
+	 * 
+	 * @param str the amount, optionally with a sign
+	 * @return the signed amount as cents, or {@link #INVALID_AMOUNT} if the
+	 *         amount is not valid
+	 */
+	private static long parseCents(CharSequence str) {
+		
+		int length = str.length();
+		if (length == 0) return INVALID_AMOUNT;
+		
+		char first = str.charAt(0);
+		boolean negative = first == '-';
+		if (!negative && first != '+' && !Character.isDigit(first)) return INVALID_AMOUNT;
+		
+		int point;
+		if (length > 3 && str.charAt(length - 3) == '.') {
+			point = length - 3;
+		}
+		else if (length > 2 && str.charAt(length - 2) == '.') {
+			point = length - 2;
+		}
+		else {
+			return INVALID_AMOUNT;
+		}
 		
-		for (SgmlElement e : transactions.getChildren()) {
-			if (!"STMTTRN".equals(e.getTag())) continue;
+		long cents = 0;
+		for (int i = Character.isDigit(first) ? 0 : 1; i < length; i++) {
+			if (i == point) continue;
+			char c = str.charAt(i);
+			if (c < '0' || c > '9') return INVALID_AMOUNT;
+			cents = 10 * cents + (c - '0');
+			if (cents > -(long) Integer.MIN_VALUE) return INVALID_AMOUNT;
+		}
+		if (point == length - 2) cents *= 10;
+		
+		if (negative) cents = -cents;
+		return cents < Integer.MIN_VALUE || cents > Integer.MAX_VALUE ? INVALID_AMOUNT : cents;
+	}
+	
+	
+	/**
+	 * Parse a number that consists only of digits
+	 * 
+	 * @param str the string
+	 * @param start the start of the number
+	 * @param end the end of the number
+	 * @return the number, or -1 if there is a character other than a digit
+	 */
+	private static int parseDigits(CharSequence str, int start, int end) {
+		
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			n = 10 * n + (c - '0');
+		}
+		
+		return n;
+	}
+	
+	
+	/**
+	 * The values of the children of a transaction element, taking the first
+	 * occurrence of each. Only the values that are needed are decoded, and
+	 * the date and the amount are parsed right away from the raw text.
+	 */
+	private static class TransactionValues {
+		
+		private boolean foundDate = false;
+		private int day = EpochDays.NONE;
+		private boolean foundAmount = false;
+		private long cents = INVALID_AMOUNT;
+		private String amount = null;
+		private String name = null;
+		private String memo = null;
+		private String fitId = null;
+		private String correctFitId = null;
+		
+		
+		/**
+		 * Read the value of the element that was just closed
+		 * 
+		 * @param in the reader
+		 */
+		void read(ElementReader in) {
+			
+			switch (in.getTag()) {
+			case "DTPOSTED":
+				if (!foundDate) day = parseDay(in.getRawText());
+				foundDate = true;
+				break;
+			case "TRNAMT":
+				if (!foundAmount) {
+					cents = parseCents(in.getRawText());
+					if (cents == INVALID_AMOUNT) amount = in.getText();
+				}
+				foundAmount = true;
+				break;
+			case "NAME":
+				if (name == null) name = in.getText();
+				break;
+			case "MEMO":
+				if (memo == null) memo = in.getText();
+				break;
+			case "FITID":
+				if (fitId == null) fitId = in.getText();
+				break;
+			case "CORRECTFITID":
+				if (correctFitId == null) correctFitId = in.getText();
+				break;
+			}
+		}
+		
+		
+		/**
+		 * Create a transaction
+		 * 
+		 * @param account the account to use
+		 * @return the transaction
+		 * @throws ParseException on parse error
+		 */
+		Transaction toTransaction(Account account) throws ParseException {
 			
-			String strDatePosted = e.getText("DTPOSTED");
-			if (strDatePosted == null || strDatePosted.isEmpty()) {
+			if (day == EpochDays.NONE) {
 				throw new ParseException("Cannot determine the date of a transaction", 0);
 			}
-			Date date = dateFormat.parse(strDatePosted.substring(0, 8));
 			
-			String name = e.getText("NAME");
-			String memo = e.getText("MEMO");
 			if (name == null || name.isEmpty()) {
 				throw new ParseException("Cannot determine the transaction name", 0);
 			}
 			String description = name;
 			if (memo != null && memo.startsWith(description)) description = memo;
 			
-			String strAmount = e.getText("TRNAMT");
-			boolean positive = strAmount.startsWith("+") || Character.isDigit(strAmount.charAt(0));
-			boolean negative = strAmount.startsWith("-");
-			if (strAmount == null || strAmount.isEmpty() || (!positive && !negative)) {
-				throw new ParseException("Cannot determine the transaction amount from \""
-					+ strAmount +"\"", 0);
-			}
-
-			String strWhole, strCents;
-			if (strAmount.length() > 3 && strAmount.charAt(strAmount.length() - 3) == '.') {
-				strWhole = strAmount.substring(0, strAmount.length() - 3);
-				strCents = strAmount.substring(strAmount.length() - 2); 
-			}
-			else if (strAmount.length() > 2 && strAmount.charAt(strAmount.length() - 2) == '.') {
-				strWhole = strAmount.substring(0, strAmount.length() - 2);
-				strCents = strAmount.substring(strAmount.length() - 1) + "0";
-			}
-			else {
+			if (cents == INVALID_AMOUNT) {
 				throw new ParseException("Cannot determine the transaction amount from \""
-						+ strAmount +"\"", 0);
+					+ amount +"\"", 0);
 			}
-			int cents = Integer.parseInt(strWhole + strCents);
 			
-			String fitId = e.getText("FITID");
 			if (name == null || name.isEmpty()) {
 				throw new ParseException("Cannot determine the transaction ID", 0);
 			}
 			String id = account.getId() + ":" + fitId;
 			
-			String correctFidId = e.getText("CORRECTFITID");
-			if (correctFidId != null && !fitId.equals(correctFidId)) {
+			if (correctFitId != null && !fitId.equals(correctFitId)) {
 				throw new ParseException("We currently don't support CORRECTFITID", 0);
 			}
 			
-			Transaction t = new Transaction(account, id, date, description, "", cents);
-			r.add(t);
+			return new Transaction(account, id, day, description, "", (int) cents);
 		}
-		
-		return r;
 	}
 }
@@ -0,0 +1,56 @@
+package com.aific.finances.io;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import com.aific.finances.Account;
+import com.aific.finances.Transaction;
+
+
+/**
+ * A file with the transactions of one account, such as an OFX or a CSV
+ * statement, from which the transactions are imported
+ *
+ * @author Peter Macko
+ */
+public interface TransactionFile {
+
+	/**
+	 * Try to match with one of the given accounts
+	 *
+	 * @param accounts the accounts
+	 * @return the matched account, or null if none
+	 */
+	public Account matchAccount(Collection<Account> accounts);
+
+
+	/**
+	 * Create an account from the provided information
+	 *
+	 * @return the account
+	 */
+	public Account getAccount();
+
+
+	/**
+	 * Get the currency
+	 *
+	 * @return the currency
+	 */
+	public String getCurrency();
+
+
+	/**
+	 * Read the transactions from the file and pass them to the consumer one
+	 * at a time, as soon as each is read
+	 *
+	 * @param account the account to use
+	 * @param consumer the consumer of the transactions
+	 * @throws IOException the I/O exception
+	 * @throws ParseException on parse error
+	 */
+	public void readTransactions(Account account, Consumer<Transaction> consumer)
+			throws IOException, ParseException;
+}
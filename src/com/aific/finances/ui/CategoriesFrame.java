@@ -8,13 +8,17 @@ import java.awt.event.WindowEvent;
 import java.util.UUID;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JToolBar;
 import javax.swing.WindowConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
@@ -36,7 +40,6 @@ public class CategoriesFrame extends JFrame {
 	private static CategoriesFrame instance = null;
 	private static final String TITLE = "Categories and Rules";
 	
-	@SuppressWarnings("unused")
 	private Document document;
 	private boolean modified;
 	
@@ -47,6 +50,14 @@ public class CategoriesFrame extends JFrame {
 	private JButton newDetectorButton;
 	private DetectorsTable detectorsTable;
 	
+	private JPanel performancePanel;
+	private JButton profileButton;
+	private JButton resetStatisticsButton;
+	private JCheckBox profilingCheckBox;
+	private RulePerformanceTable performanceTable;
+	
+	private JTabbedPane tabbedPane;
+	
 	private Handler handler;
 
 	
@@ -95,6 +106,36 @@ public class CategoriesFrame extends JFrame {
 		detectorsPanel.add(new JScrollPane(detectorsTable), BorderLayout.CENTER);
 		
 		
+		// Rule performance
+		
+		performancePanel = new JPanel(new BorderLayout());
+		performanceTable = new RulePerformanceTable(document.getCategories());
+		
+		tools = new JToolBar();
+		tools.setFloatable(false);
+		
+		profileButton = new JButton("Profile All Transactions");
+		profileButton.addActionListener(handler);
+		tools.add(profileButton);
+		
+		resetStatisticsButton = new JButton("Reset");
+		resetStatisticsButton.addActionListener(handler);
+		tools.add(resetStatisticsButton);
+		
+		profilingCheckBox = new JCheckBox("Profile Detection",
+				document.getCategories().isProfilingEnabled());
+		profilingCheckBox.addActionListener(handler);
+		tools.add(profilingCheckBox);
+		
+		performancePanel.add(tools, BorderLayout.NORTH);
+		performancePanel.add(new JScrollPane(performanceTable), BorderLayout.CENTER);
+		
+		tabbedPane = new JTabbedPane();
+		tabbedPane.addTab("Rules", detectorsPanel);
+		tabbedPane.addTab("Rule Performance", performancePanel);
+		tabbedPane.addChangeListener(handler);
+		
+		
 		// Select the first category
 		
 		categoriesTable.setRowSelectionInterval(0, 0);
@@ -103,7 +144,7 @@ public class CategoriesFrame extends JFrame {
 		// The split pane
 		
 		JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, true,
-				categoriesPane, detectorsPanel);
+				categoriesPane, tabbedPane);
 		
 		int w = 0;
 		for (int i = 0; i < categoriesTable.getColumnModel().getColumnCount(); i++) {
@@ -212,7 +253,8 @@ public class CategoriesFrame extends JFrame {
 	/**
 	 * The event handler
 	 */
-	 private class Handler extends WindowAdapter implements ListSelectionListener, ActionListener {
+	 private class Handler extends WindowAdapter implements ListSelectionListener, ActionListener,
+	 		ChangeListener {
 
 		/**
 		 * The event for window closing
@@ -273,6 +315,34 @@ public class CategoriesFrame extends JFrame {
 				d.setDescription("");	// Update the matching detector
 				MainFrame.getInstance().setModified();
 			}
+			
+			if (e.getSource() == profileButton) {
+				document.getCategories().profileDetectors(document.getTransactions());
+				performanceTable.refresh();
+			}
+			
+			if (e.getSource() == resetStatisticsButton) {
+				document.getCategories().resetStatistics();
+				performanceTable.refresh();
+			}
+			
+			if (e.getSource() == profilingCheckBox) {
+				document.getCategories().setProfilingEnabled(profilingCheckBox.isSelected());
+			}
+		}
+
+
+		/**
+		 * The event for a change of the selected tab
+		 * 
+		 * @param e the event
+		 */
+		@Override
+		public void stateChanged(ChangeEvent e) {
+			
+			if (e.getSource() == tabbedPane && tabbedPane.getSelectedComponent() == performancePanel) {
+				performanceTable.refresh();
+			}
 		}
 	 }
 }
@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.awt.Component;
 import java.util.Collection;
 
+import javax.swing.JComponent;
 import javax.swing.JOptionPane;
 import javax.swing.RowFilter;
 import javax.swing.table.TableCellRenderer;
@@ -61,6 +62,7 @@ public class DetectorsTable extends JBetterTable<CategoryDetector> {
 						try {
 							object.setPattern(value);
 							DetectorsTable.this.documentFrame.setModified();
+							warnIfGuarded(object);
 						}
 						catch (Exception e) {
 							JOptionPane.showMessageDialog(DetectorsTable.this.getParent(),
@@ -188,6 +190,7 @@ public class DetectorsTable extends JBetterTable<CategoryDetector> {
 						try {
 							object.setMatchingPattern(value);
 							DetectorsTable.this.documentFrame.setModified();
+							warnIfGuarded(object);
 						}
 						catch (Exception e) {
 							JOptionPane.showMessageDialog(DetectorsTable.this.getParent(),
@@ -295,7 +298,10 @@ public class DetectorsTable extends JBetterTable<CategoryDetector> {
 		
 		if (c.getBackground() != getSelectionBackground()) {
 			CategoryDetector d = model.getRow(convertRowIndexToModel(row));
-			if (d.isSameAsBuiltin()) {
+			if (d.isDisabled()) {
+				c.setForeground(Color.RED);
+			}
+			else if (d.isSameAsBuiltin()) {
 				c.setForeground(Color.GRAY);
 			}
 			else {
@@ -303,8 +309,31 @@ public class DetectorsTable extends JBetterTable<CategoryDetector> {
 			}
 		}
 		
+		if (c instanceof JComponent) {
+			CategoryDetector d = model.getRow(convertRowIndexToModel(row));
+			((JComponent) c).setToolTipText(d.getDisabledReason());
+		}
+		
 		return c;
 	}
+	
+	
+	/**
+	 * Warn the user if a pattern of a detector can take a very long time to
+	 * match, after it was edited
+	 * 
+	 * @param detector the detector
+	 */
+	private void warnIfGuarded(CategoryDetector detector) {
+		
+		if (detector.isGuarded()) {
+			JOptionPane.showMessageDialog(getParent(),
+					"This rule has a pattern that can take a very long time to match, such as one\n"
+					+ "that repeats a group with a repetition or that has adjacent repetitions\n"
+					+ "of the same characters. The rule will be disabled if it takes too long.",
+					"Warning", JOptionPane.WARNING_MESSAGE);
+		}
+	}
 
 	
 	/**
@@ -0,0 +1,344 @@
+package com.aific.finances.ui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import com.aific.finances.Account;
+import com.aific.finances.Document;
+import com.aific.finances.Transaction;
+import com.aific.finances.TransactionImport;
+import com.aific.finances.io.CsvFile;
+import com.aific.finances.io.OfxFile;
+import com.aific.finances.io.TransactionFile;
+import com.aific.finances.util.Utils;
+
+
+/**
+ * The import of transactions from one or more files in the background. The
+ * files are read in parallel, first just for their accounts, which the user
+ * may need to confirm, and then for their transactions, whose categories are
+ * then detected in the background as well. Only adding the transactions to
+ * the document as one batch and applying the detected categories is left to
+ * the event dispatch thread. A progress monitor shows the progress until the
+ * commit finishes, and canceling it before the commit leaves the document
+ * unchanged.
+ *
+ * @author Peter Macko
+ */
+public class ImportWorker extends SwingWorker<TransactionImport, String> {
+
+	private static final String TITLE = "Import Transactions";
+
+	private JFrame frame;
+	private File[] files;
+	private TransactionImport transactionImport;
+	private List<Account> documentAccounts;
+
+	private AtomicInteger steps;
+	private ProgressMonitor monitor;
+	private Timer cancelTimer;
+
+
+	/**
+	 * Create an instance of {@link ImportWorker}
+	 *
+	 * @param frame the parent frame
+	 * @param document the document to import to
+	 * @param files the files to import, in order
+	 */
+	public ImportWorker(JFrame frame, Document document, File[] files) {
+
+		this.frame = frame;
+		this.files = files;
+		this.transactionImport = new TransactionImport(document);
+		this.documentAccounts = null;
+
+		this.steps = new AtomicInteger();
+		this.monitor = null;
+		this.cancelTimer = null;
+	}
+
+
+	/**
+	 * Show the progress monitor and start the import. This must be called
+	 * from the event dispatch thread, which is also where the accounts of
+	 * the document are copied for matching them in the background.
+	 */
+	public void start() {
+
+		documentAccounts = new ArrayList<Account>(transactionImport.getDocument().getAccounts().getAll());
+
+		monitor = new ProgressMonitor(frame, "Importing " + files.length
+				+ (files.length == 1 ? " file" : " files"), "", 0, 100);
+
+		addPropertyChangeListener(e -> {
+			if ("progress".equals(e.getPropertyName())) monitor.setProgress(getProgress());
+		});
+
+		cancelTimer = new Timer(100, e -> {
+			if (monitor.isCanceled()) cancel(true);
+		});
+		cancelTimer.start();
+
+		execute();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see javax.swing.SwingWorker#doInBackground()
+	 */
+	@Override
+	protected TransactionImport doInBackground() throws Exception {
+
+		for (File f : files) {
+			String extension = Utils.getExtension(f);
+			if (extension == null || !isSupported(extension)) {
+				throw new Exception("Unsupported file type: " + f.getName());
+			}
+		}
+
+		int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			// Read the accounts from all files at once
+
+			List<Future<TransactionFile>> headers = new ArrayList<Future<TransactionFile>>();
+			for (File f : files) {
+				headers.add(executor.submit(() -> {
+					TransactionFile tf = open(f);
+					step(f);
+					return tf;
+				}));
+			}
+
+
+			// Match them with the accounts in the document, asking the user
+			// to confirm the new accounts in the order of the files
+
+			TransactionFile[] transactionFiles = new TransactionFile[files.length];
+			Account[] accounts = new Account[files.length];
+
+			for (int i = 0; i < files.length; i++) {
+				TransactionFile tf = transactionFiles[i] = await(headers.get(i));
+				if (!tf.getCurrency().equals("USD")) {
+					throw new Exception("The only currency we currently support is USD");
+				}
+
+				Account a = tf.matchAccount(documentAccounts);
+				if (a == null) a = tf.matchAccount(transactionImport.getNewAccounts());
+				if (a == null) {
+					a = tf.getAccount();
+					if (!confirmNewAccount(a)) return null;
+					transactionImport.addAccount(a);
+				}
+				accounts[i] = a;
+			}
+
+
+			// Read the transactions from all files at once
+
+			List<Future<?>> reads = new ArrayList<Future<?>>();
+			for (int i = 0; i < files.length; i++) {
+				int index = i;
+				reads.add(executor.submit(() -> {
+					List<Transaction> l = new ArrayList<Transaction>();
+					transactionFiles[index].readTransactions(accounts[index], t -> {
+						if (isCancelled()) throw new CancellationException();
+						l.add(t);
+					});
+					transactionImport.add(index, l);
+					step(files[index]);
+					return null;
+				}));
+			}
+
+			for (Future<?> f : reads) await(f);
+
+
+			// Find the new transactions and detect their categories, so that
+			// the commit has only the results left to apply
+
+			publish("Detecting the categories");
+			transactionImport.prepare(this::isCancelled);
+			setProgress(100);
+
+			return transactionImport;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see javax.swing.SwingWorker#process(java.util.List)
+	 */
+	@Override
+	protected void process(List<String> notes) {
+		monitor.setNote(notes.get(notes.size() - 1));
+	}
+
+
+	/* (non-Javadoc)
+	 * @see javax.swing.SwingWorker#done()
+	 */
+	@Override
+	protected void done() {
+
+		cancelTimer.stop();
+
+		if (isCancelled()) {
+			monitor.close();
+			return;
+		}
+
+		try {
+			TransactionImport result = get();
+			if (result == null) return;
+
+			// Skip the import if another document was opened in the meantime
+
+			MainFrame mainFrame = MainFrame.getInstance();
+			if (mainFrame.getDocument() != result.getDocument()) return;
+
+			mainFrame.getTransactionTable().setVisible(false);
+			result.commit();
+			mainFrame.getTransactionTable().adjustColumns();
+			mainFrame.getTransactionTable().setVisible(true);
+			mainFrame.setModified();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			showError(e.getCause());
+		}
+		catch (RuntimeException e) {
+			showError(e);
+		}
+		finally {
+			monitor.close();
+		}
+	}
+
+
+	/**
+	 * Show an error message
+	 *
+	 * @param e the exception that caused the import to fail
+	 */
+	private void showError(Throwable e) {
+
+		String m = e.getMessage();
+		if (m == null || "".equals(m.trim())) {
+			m = e.getClass().getCanonicalName();
+		}
+
+		JOptionPane.showMessageDialog(frame, m, "Failed", JOptionPane.ERROR_MESSAGE);
+
+		e.printStackTrace(System.err);
+	}
+
+
+	/**
+	 * Determine whether a file extension is of a supported file type
+	 *
+	 * @param extension the extension
+	 * @return true if it is an OFX / QFX or a CSV file
+	 */
+	private static boolean isSupported(String extension) {
+		switch (extension.toLowerCase()) {
+		case "ofx":
+		case "qfx":
+		case "csv":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+
+	/**
+	 * Open a file for the import, reading the information about its account
+	 *
+	 * @param file the file, which must have a supported extension
+	 * @return the file with the transactions
+	 * @throws Exception on I/O or parse error
+	 */
+	private static TransactionFile open(File file) throws Exception {
+		if ("csv".equalsIgnoreCase(Utils.getExtension(file))) {
+			return new CsvFile(file);
+		}
+		else {
+			return new OfxFile(file);
+		}
+	}
+
+
+	/**
+	 * Record the completion of one of the two steps of reading a file
+	 *
+	 * @param file the file
+	 */
+	private void step(File file) {
+		setProgress(Math.min(100, 100 * steps.incrementAndGet() / (2 * files.length + 1)));
+		publish(file.getName());
+	}
+
+
+	/**
+	 * Ask the user whether to add a new account
+	 *
+	 * @param account the account
+	 * @return true if the user confirmed it
+	 * @throws Exception if interrupted or if the dialog failed
+	 */
+	private boolean confirmNewAccount(Account account) throws Exception {
+
+		int[] answer = new int[1];
+		SwingUtilities.invokeAndWait(() -> {
+			answer[0] = JOptionPane.showConfirmDialog(frame,
+					"Account \"" + account.getName() + "\" is not yet in the document. Add it?",
+					TITLE, JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+		});
+
+		return answer[0] == JOptionPane.YES_OPTION;
+	}
+
+
+	/**
+	 * Wait for a task and get its result
+	 *
+	 * @param <T> the type of the result
+	 * @param future the future of the task
+	 * @return the result
+	 * @throws Exception the exception thrown by the task, or if interrupted
+	 */
+	private static <T> T await(Future<T> future) throws Exception {
+
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw e;
+		}
+	}
+}
@@ -328,7 +328,18 @@ public class MainFrame extends JFrame implements Runnable {
 	 */
 	public void save() {
 		if (document.getFile() == null) throw new IllegalStateException("The document must be set");
-		save(document.getFile());
+
+		try {
+			document.save();
+			setModified(false);
+			setTitle();
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	
@@ -484,8 +495,9 @@ public class MainFrame extends JFrame implements Runnable {
 			
 			boolean ok = false;
 			if (!months.isEmpty()) {
+				int day = t.getEpochDay();
 				for (Month m : months) {
-					if (m.contains(t.getDate())) {
+					if (m.contains(day)) {
 						ok = true;
 						break;
 					}
@@ -6,20 +6,19 @@ import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.io.File;
-import java.util.Collection;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
-import com.aific.finances.Account;
-import com.aific.finances.Accounts;
 import com.aific.finances.Document;
-import com.aific.finances.Transaction;
-import com.aific.finances.io.OfxFile;
 import com.aific.finances.util.Utils;
 
 
@@ -39,6 +38,7 @@ public class MainMenu implements ActionListener {
 	private JMenuItem fileOpenMenuItem;
 	private JMenuItem fileSaveMenuItem;
 	private JMenuItem fileSaveAsMenuItem;
+	private JCheckBoxMenuItem fileSaveIncrementallyMenuItem;
 	private JMenuItem fileImportMenuItem;
 	private JMenuItem fileExportCsvMenuItem;
 	private JMenuItem fileQuitMenuItem;
@@ -83,6 +83,27 @@ public class MainMenu implements ActionListener {
 		fileSaveAsMenuItem.addActionListener(this);
 		fileMenu.add(fileSaveAsMenuItem);
 
+		fileSaveIncrementallyMenuItem = new JCheckBoxMenuItem("Save Incrementally");
+		fileSaveIncrementallyMenuItem.addActionListener(this);
+		fileMenu.add(fileSaveIncrementallyMenuItem);
+		
+		fileMenu.addMenuListener(new MenuListener() {
+			
+			@Override
+			public void menuSelected(MenuEvent e) {
+				fileSaveIncrementallyMenuItem.setSelected(
+						MainFrame.getInstance().getDocument().isSavingIncrementally());
+			}
+			
+			@Override
+			public void menuDeselected(MenuEvent e) {
+			}
+			
+			@Override
+			public void menuCanceled(MenuEvent e) {
+			}
+		});
+
 		fileMenu.addSeparator();
 
 		fileImportMenuItem = new JMenuItem("Import Transactions...", KeyEvent.VK_I);
@@ -215,53 +236,26 @@ public class MainMenu implements ActionListener {
 			}
 				
 			
+			if (e.getSource() == fileSaveIncrementallyMenuItem) {
+				MainFrame.getInstance().getDocument().setSavingIncrementally(
+						fileSaveIncrementallyMenuItem.isSelected());
+			}
+				
+			
 			if (e.getSource() == fileImportMenuItem) {
 				
 				File[] files = FileChoosers.chooseTransactionsImportFiles(frame, "Import Transactions");
 				if (files == null || files.length == 0) return;
 				
-				Accounts accounts = MainFrame.getInstance().getDocument().getAccounts();
-				Collection<Transaction> transactions = null;
+				fileImportMenuItem.setEnabled(false);
 				
-				for (File f : files) {
-					String extension = Utils.getExtension(f).toLowerCase();
-					switch (extension) {
-					case "ofx":
-					case "qfx": {
-						OfxFile ofx = new OfxFile(f);
-						if (!ofx.getCurrency().equals("USD")) {
-							throw new Exception("The only currency we currently support is USD");
-						}
-						Account a = ofx.matchAccount(accounts);
-						if (a == null) {
-							a = ofx.getAccount();
-							if (JOptionPane.showConfirmDialog(MainFrame.getInstance(),
-									"Account \"" + a.getName() + "\" is not yet in the document. Add it?",
-									"Import Transactions",
-									 JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE)
-									!= JOptionPane.YES_OPTION) return;
-							accounts.add(a);
-						}
-						transactions = ofx.loadTransactions(a);
-						break;
-					}
-					default:
-						throw new Exception("Unsupported file type");
-					}
-					
-					if (transactions == null) {
-						throw new Exception("Internal error");
+				ImportWorker worker = new ImportWorker(frame, MainFrame.getInstance().getDocument(), files);
+				worker.addPropertyChangeListener(event -> {
+					if (event.getNewValue() == SwingWorker.StateValue.DONE) {
+						fileImportMenuItem.setEnabled(true);
 					}
-					
-					MainFrame.getInstance().getDocument().getCategories().detectCategoriesAll(transactions,
-							MainFrame.getInstance().getTransactionTable().getTransactions());
-					
-					MainFrame.getInstance().getTransactionTable().setVisible(false);
-					MainFrame.getInstance().getTransactionTable().getTransactions().addAll(transactions);
-					MainFrame.getInstance().getTransactionTable().adjustColumns();
-					MainFrame.getInstance().getTransactionTable().setVisible(true);
-					MainFrame.getInstance().setModified();
-				}
+				});
+				worker.start();
 			}
 			
 			
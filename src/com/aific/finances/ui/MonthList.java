@@ -16,9 +16,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +39,7 @@ import com.aific.finances.Document;
 import com.aific.finances.Transaction;
 import com.aific.finances.TransactionList;
 import com.aific.finances.TransactionListListener;
+import com.aific.finances.util.Month;
 import com.aific.finances.util.Utils;
 
 
@@ -53,7 +52,7 @@ import com.aific.finances.util.Utils;
 public class MonthList extends JList {
 
 	private DefaultListModel<MonthElement> model;
-	private HashSet<MonthElement> elementSet;
+	private HashMap<Month, MonthElement> elementMap;
 	
 	private Handler handler;
 	private MouseListener mouseHandler;
@@ -83,7 +82,7 @@ public class MonthList extends JList {
 		this.model = (DefaultListModel<MonthElement>) getModel();
 		this.model.addElement(new SummaryMonthElement());
 		
-		elementSet = new HashSet<MonthElement>();
+		elementMap = new HashMap<Month, MonthElement>();
 		scroll = null;
 		
 		
@@ -200,12 +199,26 @@ public class MonthList extends JList {
 		transactions.addTransactionListListener(handler);
 
 		model.clear();
-		elementSet.clear();
+		elementMap.clear();
 		model.addElement(new SummaryMonthElement());
 		handler.transactionsDataChanged(transactions);
 
-		if (transactions.size() > 0) {
-			handler.transactionsAdded(transactions, 0, transactions.size() - 1);
+		
+		// Create the months from the first to the last transaction, and add
+		// the transactions of each month using the date index of the list
+		
+		Transaction first = transactions.getFirstByDate();
+		Transaction last = transactions.getLastByDate();
+		if (first != null) {
+			for (Month m = first.getMonth(); m.compareTo(last.getMonth()) <= 0; m = m.getNext()) {
+				MonthElement x = new MonthElement(m.getMonth(), m.getYear());
+				elementMap.put(m, x);
+				model.insertElementAt(x, model.size() - 1);
+				
+				synchronized (this) {
+					for (Transaction t : transactions.getByDate(m)) x.add(t);
+				}
+			}
 		}
 		
 		if (scroll != null) {
@@ -315,23 +328,16 @@ public class MonthList extends JList {
 				
 				// Find the corresponding month
 				
-				MonthElement x = null;
-				for (MonthElement e : elementSet) {
-					if (e.accepts(t)) {
-						x = e;
-						break;
-					}
-				}
+				MonthElement x = elementMap.get(t.getMonth());
 				
 				
 				// Create and add the month if it does not exist, making sure that there
 				// is a continuous series of months with no gaps
 				
 				if (x == null) {
-					Calendar c = Calendar.getInstance();
-					c.setTime(t.getDate());
-					x = new MonthElement(c.get(Calendar.MONTH), c.get(Calendar.YEAR));
-					elementSet.add(x);
+					Month month = t.getMonth();
+					x = new MonthElement(month.getMonth(), month.getYear());
+					elementMap.put(month, x);
 					
 					if (model.size() <= 1) {
 						model.insertElementAt(x, 0);
@@ -349,7 +355,7 @@ public class MonthList extends JList {
 								}
 								if (x.getMonth() == m && x.getYear() == y) break;
 								MonthElement z = new MonthElement(m, y);
-								elementSet.add(z);
+								elementMap.put(z.getPeriod(), z);
 								model.insertElementAt(z, 0);
 							}
 							model.insertElementAt(x, 0);
@@ -364,7 +370,7 @@ public class MonthList extends JList {
 								}
 								if (x.getMonth() == m && x.getYear() == y) break;
 								MonthElement z = new MonthElement(m, y);
-								elementSet.add(z);
+								elementMap.put(z.getPeriod(), z);
 								model.insertElementAt(z, model.size()-1);
 							}
 							model.insertElementAt(x, model.size()-1);
@@ -496,8 +502,7 @@ public class MonthList extends JList {
 		private int month;
 		private int year;
 		
-		private Date first;
-		private Date last;
+		private Month period;
 		
 		private List<Transaction> transactions;
 		private HashSet<Transaction> transactionSet;
@@ -517,16 +522,7 @@ public class MonthList extends JList {
 			this.transactions = new ArrayList<Transaction>();
 			this.transactionSet = new HashSet<Transaction>();
 			
-			Calendar c = Calendar.getInstance();
-			c.clear();
-			c.set(year, month, c.getActualMinimum(Calendar.DAY_OF_MONTH), 0, 0, 0);
-			first = c.getTime();
-			
-			c.set(year, month, c.getActualMaximum(Calendar.DAY_OF_MONTH),
-					c.getActualMaximum(Calendar.HOUR_OF_DAY),
-					c.getActualMaximum(Calendar.MINUTE),
-					c.getActualMaximum(Calendar.SECOND));
-			last = c.getTime();
+			this.period = Month.ofOrdinal(year * 12 + month);
 			
 			amountByCategory = new HashMap<Category, Integer>();
 		}
@@ -539,8 +535,7 @@ public class MonthList extends JList {
 		 * @return true if it falls into this date range
 		 */
 		public boolean accepts(Transaction t) {
-			return t.getDate().compareTo(first) >= 0
-					&& t.getDate().compareTo(last) <= 0;
+			return period.contains(t.getEpochDay());
 		}
 		
 		
@@ -711,6 +706,16 @@ public class MonthList extends JList {
 		public int getYear() {
 			return year;
 		}
+
+
+		/**
+		 * Get the month as a time period
+		 * 
+		 * @return the month
+		 */
+		public Month getPeriod() {
+			return period;
+		}
 	}
 	
 	
@@ -735,14 +740,14 @@ public class MonthList extends JList {
 		 */
 		public int getAmount(Category category) {
 			
-			if (elementSet.isEmpty()) return 0;
+			if (elementMap.isEmpty()) return 0;
 			
 			int sum = 0;
-			for (MonthElement e : elementSet) {
+			for (MonthElement e : elementMap.values()) {
 				sum += e.getAmount(category);
 			}
 			
-			return sum / elementSet.size();
+			return sum / elementMap.size();
 		}
 		
 		
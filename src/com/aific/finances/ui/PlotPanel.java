@@ -9,11 +9,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -44,6 +44,7 @@ import com.aific.finances.plot.ChartSeries;
 import com.aific.finances.plot.CollectionChartDataSource;
 import com.aific.finances.plot.LineChartRenderer;
 import com.aific.finances.plot.StackedBarChartRenderer;
+import com.aific.finances.util.EpochDays;
 import com.aific.finances.util.Month;
 import com.aific.finances.util.TimePeriod;
 import com.aific.finances.util.Week;
@@ -392,13 +393,16 @@ public class PlotPanel extends JPanel {
 		// Set the X axis
 
 		TransactionList transactions = document.getTransactions();
-		Function<Date, TimePeriod> dateToTimePeriod = null;
+		Function<Transaction, TimePeriod> transactionToTimePeriod = null;
+		IntFunction<TimePeriod> dayToTimePeriod = null;
 		switch ((PlotTimeUnit) plotTimeUnitCombo.getSelectedItem()) {
 		case MONTH:
-			dateToTimePeriod = d -> new Month(d);
+			transactionToTimePeriod = t -> t.getMonth();
+			dayToTimePeriod = d -> Month.ofOrdinal(Month.ordinalOf(d));
 			break;
 		case WEEK:
-			dateToTimePeriod = d -> new Week(d);
+			transactionToTimePeriod = t -> t.getWeek();
+			dayToTimePeriod = d -> Week.ofOrdinal(Week.ordinalOf(d));
 			break;
 		default:
 			break;
@@ -406,20 +410,17 @@ public class PlotPanel extends JPanel {
 
 		TimePeriod xMin;
 		TimePeriod xMax;
-		if (transactions.isEmpty() || dateToTimePeriod == null) {
-			xMin = xMax = new Month(new Date());
+		if (transactions.isEmpty() || transactionToTimePeriod == null) {
+			xMin = xMax = Month.ofOrdinal(Month.ordinalOf(EpochDays.today()));
 			chart.setCategoryValues(null);
 			dataSource.setCategoryFunction(t -> t.getMonth());
 			netDataSource.setCategoryFunction(t -> t.getMonth());
 		}
 		else {
-			xMin = dateToTimePeriod.apply(transactions.get(0).getDate());
-			xMax = dateToTimePeriod.apply(transactions.get(0).getDate());
-			for (Transaction t : transactions) {
-				TimePeriod p = dateToTimePeriod.apply(t.getDate());
-				if (p.compareTo(xMin) < 0) xMin = p; 
-				if (p.compareTo(xMax) > 0) xMax = p; 
-			}
+			Transaction first = transactions.getFirstByDate();
+			Transaction last = transactions.getLastByDate();
+			xMin = dayToTimePeriod.apply(first == null ? EpochDays.today() : first.getEpochDay());
+			xMax = dayToTimePeriod.apply(last == null ? EpochDays.today() : last.getEpochDay());
 			
 			int length = xMin.countUntil(xMax);
 			plotFromSlider.setMinimum(0);
@@ -435,9 +436,8 @@ public class PlotPanel extends JPanel {
 				l.add(p);
 			}
 			chart.setCategoryValues(l);
-			final Function<Date, TimePeriod> fn = dateToTimePeriod;
-			dataSource.setCategoryFunction(t -> fn.apply(t.getDate()));
-			netDataSource.setCategoryFunction(t -> fn.apply(t.getDate()));
+			dataSource.setCategoryFunction(transactionToTimePeriod);
+			netDataSource.setCategoryFunction(transactionToTimePeriod);
 		}
 		
 		final TimePeriod minPeriod = xMin;
@@ -549,7 +549,7 @@ public class PlotPanel extends JPanel {
 		}
 		
 		pointVisibilityFunction = pointVisibilityFunction.and(t -> {
-			return minPeriod.containsUntil(maxPeriod, t.getDate());
+			return minPeriod.containsUntil(maxPeriod, t.getEpochDay());
 		});
 		
 		dataSource.setValueFunction(valueFunction);
@@ -0,0 +1,141 @@
+package com.aific.finances.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+import com.aific.finances.Categories;
+import com.aific.finances.Category;
+import com.aific.finances.CategoryDetector;
+import com.aific.finances.util.Accessor;
+import com.aific.finances.util.JBetterTable;
+
+
+/**
+ * A table of the profiling statistics of the category detectors
+ *
+ * @author Peter Macko
+ */
+@SuppressWarnings("serial")
+public class RulePerformanceTable extends JBetterTable<CategoryDetector> {
+
+	private Categories categories;
+	private TableColumn<CategoryDetector> totalColumn;
+
+
+	/**
+	 * Create an instance of class RulePerformanceTable
+	 *
+	 * @param categories the categories
+	 */
+	public RulePerformanceTable(Categories categories) {
+
+		this.categories = categories;
+
+		addColumn(new TableColumn<CategoryDetector>("Category", String.class, false,
+				new Accessor<CategoryDetector, String>() {
+
+					@Override
+					public String get(CategoryDetector object) {
+						return object.getCategory().getName();
+					}
+				}));
+
+		addColumn(new TableColumn<CategoryDetector>("Pattern", String.class, false,
+				new Accessor<CategoryDetector, String>() {
+
+					@Override
+					public String get(CategoryDetector object) {
+						return object.getPattern();
+					}
+				}));
+
+		addColumn(new TableColumn<CategoryDetector>("Evaluations", Long.class, false,
+				new Accessor<CategoryDetector, Long>() {
+
+					@Override
+					public Long get(CategoryDetector object) {
+						return object.getStatistics().getEvaluations();
+					}
+				}));
+
+		addColumn(new TableColumn<CategoryDetector>("Matches", Long.class, false,
+				new Accessor<CategoryDetector, Long>() {
+
+					@Override
+					public Long get(CategoryDetector object) {
+						return object.getStatistics().getMatches();
+					}
+				}));
+
+		addColumn(new TableColumn<CategoryDetector>("Hit Rate (%)", Double.class, false,
+				new Accessor<CategoryDetector, Double>() {
+
+					@Override
+					public Double get(CategoryDetector object) {
+						return Math.round(object.getStatistics().getHitRate() * 1000) / 10.0;
+					}
+				}));
+
+		addColumn(totalColumn = new TableColumn<CategoryDetector>("Total (ms)", Double.class, false,
+				new Accessor<CategoryDetector, Double>() {
+
+					@Override
+					public Double get(CategoryDetector object) {
+						return object.getStatistics().getNanoseconds() / 1000000.0;
+					}
+				}));
+
+		addColumn(new TableColumn<CategoryDetector>("Average (\u00b5s)", Double.class, false,
+				new Accessor<CategoryDetector, Double>() {
+
+					@Override
+					public Double get(CategoryDetector object) {
+						return object.getStatistics().getAverageNanoseconds() / 1000.0;
+					}
+				}));
+
+
+		// Define the contents and sort by the total time
+
+		refresh();
+
+		List<RowSorter.SortKey> sortKeys = new ArrayList<RowSorter.SortKey>();
+		sortKeys.add(new RowSorter.SortKey(totalColumn.getIndex(), SortOrder.DESCENDING));
+		getRowSorter().setSortKeys(sortKeys);
+
+		adjustColumns();
+	}
+
+
+	/**
+	 * Get the categories
+	 *
+	 * @return the categories
+	 */
+	public Categories getCategories() {
+		return categories;
+	}
+
+
+	/**
+	 * Reload the detectors, including the matching detectors of the BALANCED
+	 * categories, and their statistics
+	 */
+	public void refresh() {
+
+		if (isEditing()) getCellEditor().stopCellEditing();
+
+		ArrayList<CategoryDetector> l = new ArrayList<CategoryDetector>();
+		for (Category c : categories.getCategories()) l.addAll(c.getDetectors());
+
+		synchronized (this) {
+			getModifiableList().clear();
+			getModifiableList().addAll(l);
+		}
+
+		model.fireTableDataChanged();
+	}
+}
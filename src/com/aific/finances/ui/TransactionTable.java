@@ -9,11 +9,13 @@ import java.util.List;
 
 import javax.swing.AbstractCellEditor;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.RowSorter;
 import javax.swing.SortOrder;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
 
@@ -252,6 +254,24 @@ public class TransactionTable extends JSharedListTable<Transaction> {
 		public void categoriesDataChanged(Categories list) {
 			model.fireTableDataChanged();
 		}
+		
+		
+		/**
+		 * A detector was disabled, because its pattern took too long to match
+		 * 
+		 * @param list the category list that triggered this event
+		 * @param detector the detector
+		 */
+		@Override
+		public void categoryDetectorDisabled(Categories list, CategoryDetector detector) {
+			
+			SwingUtilities.invokeLater(() -> {
+				JOptionPane.showMessageDialog(TransactionTable.this.getTopLevelAncestor(),
+						"The rule for " + detector + " was disabled: "
+						+ detector.getDisabledReason() + ". Please simplify its pattern.",
+						"Warning", JOptionPane.WARNING_MESSAGE);
+			});
+		}
 	}
 
 
@@ -0,0 +1,241 @@
+package com.aific.finances.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+
+/**
+ * A streaming reader of CSV content as specified by RFC 4180, which returns
+ * one record at a time, so that it never needs to hold the whole content in
+ * memory. The fields are separated by commas and the records by CRLF, LF, or
+ * CR. A field in double quotes can contain commas, line breaks, and double
+ * quotes, which are then escaped by doubling them; each line break within
+ * such a field is read as LF. Empty lines and a byte order mark at the start
+ * of the content are skipped.
+ *
+ * @author Peter Macko
+ */
+public class CsvReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private Reader in;
+
+	private char[] buffer;
+	private int position;
+	private int limit;
+	private long offset;
+	private boolean started;
+
+	private int line;
+	private int recordLine;
+
+	private ArrayList<String> fields;
+	private StringBuilder field;
+
+
+	/**
+	 * Create an instance of {@link CsvReader}
+	 *
+	 * @param in the reader of the content, which is closed when this reader
+	 *           is closed
+	 */
+	public CsvReader(Reader in) {
+
+		this.in = in;
+
+		this.buffer = new char[BUFFER_SIZE];
+		this.position = 0;
+		this.limit = 0;
+		this.offset = 0;
+		this.started = false;
+
+		this.line = 1;
+		this.recordLine = 0;
+
+		this.fields = new ArrayList<String>();
+		this.field = new StringBuilder();
+	}
+
+
+	/**
+	 * Open a file for reading
+	 *
+	 * @param file the file
+	 * @param charset the charset of the file
+	 * @return the reader
+	 * @throws IOException on I/O error
+	 */
+	public static CsvReader open(File file, Charset charset) throws IOException {
+		return new CsvReader(new InputStreamReader(new FileInputStream(file), charset));
+	}
+
+
+	/**
+	 * Get the line on which the record that was just read started
+	 *
+	 * @return the line number, starting with 1, or 0 if no record was read
+	 */
+	public int getLine() {
+		return recordLine;
+	}
+
+
+	/**
+	 * Read the next record
+	 *
+	 * @return the fields of the record, or null at the end of the content
+	 * @throws IOException on I/O error
+	 * @throws ParseException on parse error
+	 */
+	public String[] next() throws IOException, ParseException {
+
+		if (!started) {
+			started = true;
+			if (peek() == '\uFEFF') position++;
+		}
+
+
+		// Skip the empty lines
+
+		int c;
+		while ((c = peek()) == '\r' || c == '\n') readLineBreak();
+		if (c < 0) return null;
+
+		recordLine = line;
+		fields.clear();
+
+
+		// Read the fields up to the end of the line that is not quoted
+
+		while (true) {
+
+			field.setLength(0);
+
+			if (peek() == '"') {
+
+				int start = getOffset();
+				position++;
+
+				while (true) {
+					c = peek();
+					if (c < 0) {
+						throw new ParseException("No closing quote for the field that starts on line "
+								+ recordLine, start);
+					}
+					if (c == '"') {
+						position++;
+						if (peek() != '"') break;
+					}
+					if (c == '\r' || c == '\n') {
+						readLineBreak();
+						field.append('\n');
+						continue;
+					}
+					field.append((char) c);
+					position++;
+				}
+
+				c = peek();
+				if (c >= 0 && c != ',' && c != '\r' && c != '\n') {
+					throw new ParseException("Unexpected character after a quoted field on line "
+							+ line, getOffset());
+				}
+			}
+			else {
+
+				while ((c = peek()) >= 0 && c != ',' && c != '\r' && c != '\n') {
+					if (c == '"') {
+						throw new ParseException("Unexpected quote within a field on line "
+								+ line, getOffset());
+					}
+					field.append((char) c);
+					position++;
+				}
+			}
+
+			fields.add(field.toString());
+
+			if (c == ',') {
+				position++;
+				continue;
+			}
+
+			if (c >= 0) readLineBreak();
+			break;
+		}
+
+		return fields.toArray(new String[fields.size()]);
+	}
+
+
+	/**
+	 * Close the reader
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+
+	/**
+	 * Get the offset of the next character for error reporting
+	 *
+	 * @return the offset in characters from the start of the content
+	 */
+	private int getOffset() {
+		return (int) Math.min(offset + position, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Skip a line break, which is either CRLF, LF, or CR
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void readLineBreak() throws IOException {
+
+		if (peek() == '\r') {
+			position++;
+			if (peek() == '\n') position++;
+		}
+		else {
+			position++;
+		}
+
+		line++;
+	}
+
+
+	/**
+	 * Get the next character without consuming it, filling the buffer if
+	 * necessary
+	 *
+	 * @return the character, or -1 at the end of the content
+	 * @throws IOException on I/O error
+	 */
+	private int peek() throws IOException {
+
+		if (position < limit) return buffer[position];
+
+		offset += limit;
+		position = 0;
+		limit = 0;
+
+		int n;
+		while ((n = in.read(buffer)) == 0);
+		if (n < 0) return -1;
+
+		limit = n;
+		return buffer[0];
+	}
+}
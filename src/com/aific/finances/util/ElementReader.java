@@ -0,0 +1,114 @@
+package com.aific.finances.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+
+
+/**
+ * A streaming pull parser that reports the elements of a document one at a
+ * time, together with the text of each element when it is closed, so that
+ * the same code can read both SGML and XML documents (e.g. OFX 1.x and 2.x).
+ *
+ * @author Peter Macko
+ */
+public interface ElementReader extends Closeable {
+
+	/**
+	 * The parser event
+	 */
+	public enum Event {
+
+		/**
+		 * The start of an element
+		 */
+		START_ELEMENT,
+
+		/**
+		 * The end of an element, either explicit or implicit
+		 */
+		END_ELEMENT,
+
+		/**
+		 * The end of the document
+		 */
+		END_DOCUMENT
+	}
+
+
+	/**
+	 * Get the current event
+	 *
+	 * @return the event, or null if {@link #next()} was not yet called
+	 */
+	public Event getEvent();
+
+
+	/**
+	 * Get the tag of the element that was just opened or closed
+	 *
+	 * @return the tag, or null at the end of the document
+	 */
+	public String getTag();
+
+
+	/**
+	 * Get the text of the element that was just closed, without the
+	 * surrounding whitespace and with each line break and the whitespace
+	 * after it replaced by a single space
+	 *
+	 * @return the text, which is empty if the element has no text, or null
+	 *         if the current event is not {@link Event#END_ELEMENT}
+	 */
+	public String getText();
+
+
+	/**
+	 * Get the text of the element that was just closed without necessarily
+	 * creating a string or decoding it. This is the same as the text if the
+	 * text is in ASCII, such as for the numbers and the dates.
+	 *
+	 * @return the raw text, which is valid only until the next event, or null
+	 *         if the current event is not {@link Event#END_ELEMENT}
+	 */
+	public CharSequence getRawText();
+
+
+	/**
+	 * Get the depth of the element that was just opened or closed
+	 *
+	 * @return the depth, which is 1 for the root element
+	 */
+	public int getDepth();
+
+
+	/**
+	 * Determine whether the element that was just opened or closed is at the
+	 * given path
+	 *
+	 * @param path the tags of the elements under the root, ending with the
+	 *             current element, or no tags for the root itself
+	 * @return true if the element is at the path
+	 */
+	public boolean isAt(String... path);
+
+
+	/**
+	 * Advance to the next event
+	 *
+	 * @return the event
+	 * @throws IOException on I/O error
+	 * @throws ParseException on parse error
+	 */
+	public Event next() throws IOException, ParseException;
+
+
+	/**
+	 * Skip the rest of the element that was just opened, so that the next
+	 * event is the one after its end
+	 *
+	 * @throws IOException on I/O error
+	 * @throws ParseException on parse error
+	 */
+	public void skipElement() throws IOException, ParseException;
+}
@@ -0,0 +1,103 @@
+package com.aific.finances.util;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.WeekFields;
+import java.util.Calendar;
+import java.util.Date;
+
+
+/**
+ * Conversions between dates and epoch days, which are the numbers of days
+ * since January 1, 1970. The dates are interpreted in the default time zone
+ * as of the start, so that the conversions in both directions always agree,
+ * and the weeks follow the rules of the default locale, as in
+ * {@link Calendar}.
+ *
+ * @author Peter Macko
+ */
+public final class EpochDays {
+
+	/**
+	 * The epoch day that stands for a missing date
+	 */
+	public static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * The definition of the weeks
+	 */
+	public static final WeekFields WEEK_FIELDS;
+
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+
+	static {
+		Calendar c = Calendar.getInstance();
+		WEEK_FIELDS = WeekFields.of(DayOfWeek.SUNDAY.plus(c.getFirstDayOfWeek() - Calendar.SUNDAY),
+				c.getMinimalDaysInFirstWeek());
+	}
+
+
+	/**
+	 * This is a static class and cannot be instantiated
+	 */
+	private EpochDays() {
+	}
+
+
+	/**
+	 * Convert a date to an epoch day
+	 *
+	 * @param date the date, or null
+	 * @return the epoch day, or {@link #NONE} if the date is null
+	 */
+	public static int fromDate(Date date) {
+		if (date == null) return NONE;
+		return (int) date.toInstant().atZone(ZONE).toLocalDate().toEpochDay();
+	}
+
+
+	/**
+	 * Get the epoch day of today
+	 *
+	 * @return the epoch day
+	 */
+	public static int today() {
+		return (int) LocalDate.now(ZONE).toEpochDay();
+	}
+
+
+	/**
+	 * Convert an epoch day to the time of the start of the day
+	 *
+	 * @param day the epoch day
+	 * @return the time in milliseconds since the epoch
+	 */
+	public static long toTime(int day) {
+		return LocalDate.ofEpochDay(day).atStartOfDay(ZONE).toInstant().toEpochMilli();
+	}
+
+
+	/**
+	 * Convert an epoch day to a new date at the start of the day
+	 *
+	 * @param day the epoch day, or {@link #NONE}
+	 * @return the date, or null if the day is {@link #NONE}
+	 */
+	public static Date toDate(int day) {
+		if (day == NONE) return null;
+		return Date.from(Instant.ofEpochMilli(toTime(day)));
+	}
+
+
+	/**
+	 * Convert an epoch day to a local date
+	 *
+	 * @param day the epoch day
+	 * @return the local date
+	 */
+	public static LocalDate toLocalDate(int day) {
+		return LocalDate.ofEpochDay(day);
+	}
+}
@@ -0,0 +1,577 @@
+package com.aific.finances.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+
+/**
+ * A compiled regular expression that is protected against catastrophic
+ * backtracking. Every match is limited by a budget of steps, counted as the
+ * accesses to the characters of the input, and exceeding the budget throws a
+ * {@link BudgetExceededException}, since even patterns without any suspicious
+ * construct can take polynomial time of a high degree, e.g.
+ * <code>.*A.*A.*A.*A.*B</code>. The patterns that the category detection
+ * matches using an automaton never get here, so the budget does not slow
+ * down the common case.
+ * <p>
+ * When the pattern is compiled, it is also analyzed for the constructs that
+ * make the backtracking matcher of Java likely to run out of the budget, such
+ * as a repeated group that itself contains a repetition or an alternation,
+ * e.g. <code>(a+)+</code> or <code>(a|ab)*</code>, or adjacent unbounded
+ * repetitions of overlapping characters, e.g. <code>a*a*</code>, so that the
+ * user can be warned.
+ *
+ * @author Peter Macko
+ */
+public class GuardedPattern {
+
+	/**
+	 * The default number of character accesses allowed for one match
+	 */
+	public static final long DEFAULT_BUDGET = 1000000;
+
+	private static final int NON_ASCII = 128;
+
+	private String regex;
+	private Pattern pattern;
+	private boolean guarded;
+	private long budget;
+
+
+	/**
+	 * Compile a pattern with the default budget
+	 *
+	 * @param regex the regular expression
+	 * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+	 */
+	public GuardedPattern(String regex) {
+		this(regex, DEFAULT_BUDGET);
+	}
+
+
+	/**
+	 * Compile a pattern
+	 *
+	 * @param regex the regular expression
+	 * @param budget the number of character accesses allowed for one match
+	 * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+	 */
+	public GuardedPattern(String regex, long budget) {
+
+		if (budget <= 0) throw new IllegalArgumentException("The budget must be positive");
+
+		this.regex = regex;
+		this.pattern = Pattern.compile(regex);
+		this.guarded = isPotentiallyCatastrophic(regex);
+		this.budget = budget;
+	}
+
+
+	/**
+	 * Get the regular expression
+	 *
+	 * @return the regular expression
+	 */
+	public String getRegex() {
+		return regex;
+	}
+
+
+	/**
+	 * Get the compiled pattern
+	 *
+	 * @return the pattern
+	 */
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+
+	/**
+	 * Determine whether the pattern contains a construct that can take a very
+	 * long time to match, so that it is likely to run out of its budget
+	 *
+	 * @return true if the pattern is potentially catastrophic
+	 */
+	public boolean isGuarded() {
+		return guarded;
+	}
+
+
+	/**
+	 * Determine whether the entire input matches the pattern
+	 *
+	 * @param input the input
+	 * @return true if it matches
+	 * @throws BudgetExceededException if the match did not finish within the budget
+	 */
+	public boolean matches(CharSequence input) {
+		return pattern.matcher(new BudgetedCharSequence(input, budget)).matches();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return regex;
+	}
+
+
+	/**
+	 * Determine whether a pattern contains a construct that can make the
+	 * backtracking matcher take a very long time: a group repeated more than
+	 * once that contains a repeated element or an alternation, unless the
+	 * repetition of the group is possessive or the group is atomic, which can
+	 * take exponential time; or two adjacent elements that are repeated
+	 * without bound and that can match the same character, unless the
+	 * repetition is possessive, which can split the input between them in
+	 * many ways. This is conservative: some of the patterns that it reports
+	 * may be harmless.
+	 *
+	 * @param regex the regular expression
+	 * @return true if the pattern is potentially catastrophic
+	 */
+	public static boolean isPotentiallyCatastrophic(String regex) {
+
+		// For each open group, whether it contains a repetition or an alternation
+
+		ArrayList<boolean[]> groups = new ArrayList<boolean[]>();
+		boolean[] top = new boolean[2];
+		boolean[] closed = null;
+
+		// The characters of the preceding element if it was repeated without bound
+
+		BitSet previous = null;
+
+		int n = regex.length();
+		int i = 0;
+		while (i < n) {
+			char c = regex.charAt(i);
+			boolean[] current = groups.isEmpty() ? top : groups.get(groups.size() - 1);
+			boolean[] atom = null;
+			BitSet chars = null;
+
+			switch (c) {
+
+			case '\\':
+				if (i + 1 < n && regex.charAt(i + 1) == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					if (end > i + 2) chars = charSet(regex.charAt(end - 1));
+					i = end < 0 ? n : end + 2;
+				}
+				else if (i + 2 < n && (regex.charAt(i + 1) == 'p' || regex.charAt(i + 1) == 'P')
+						&& regex.charAt(i + 2) == '{') {
+					int end = regex.indexOf('}', i + 2);
+					chars = anyChar();
+					i = end < 0 ? n : end + 1;
+				}
+				else {
+					if (i + 1 < n) chars = escapeChars(regex.charAt(i + 1));
+					i += 2;
+				}
+				break;
+
+			case '[':
+				int classEnd = skipClass(regex, i);
+				chars = classChars(regex, i, classEnd);
+				i = classEnd;
+				break;
+
+			case '.':
+				chars = anyChar();
+				i++;
+				break;
+
+			case '^':
+			case '$':
+				i++;
+				break;
+
+			case '(':
+				boolean[] g = new boolean[2];
+				g[1] = regex.startsWith("(?>", i);
+				groups.add(g);
+				previous = null;
+				i++;
+				continue;
+
+			case ')':
+				if (!groups.isEmpty()) {
+					atom = groups.remove(groups.size() - 1);
+					boolean[] outer = groups.isEmpty() ? top : groups.get(groups.size() - 1);
+					if (atom[0] && !atom[1]) outer[0] = true;
+				}
+				i++;
+				break;
+
+			case '|':
+				current[0] = true;
+				previous = null;
+				i++;
+				continue;
+
+			default:
+				chars = charSet(c);
+				i++;
+			}
+
+			closed = atom;
+
+
+			// A quantifier after the atom
+
+			BitSet unbounded = null;
+
+			if (i < n && "*+?{".indexOf(regex.charAt(i)) >= 0) {
+				int[] q = quantifier(regex, i);
+				if (q == null) {
+					previous = null;
+					i++;
+					continue;
+				}
+				i = q[0];
+
+				boolean repeated = q[1] > 1;
+				boolean possessive = q[2] != 0;
+				current = groups.isEmpty() ? top : groups.get(groups.size() - 1);
+
+				if (repeated) {
+					if (closed != null && closed[0] && !closed[1] && !possessive) return true;
+					current[0] = true;
+				}
+
+				if (q[3] != 0 && !possessive) unbounded = chars;
+			}
+
+			if (unbounded != null && previous != null && previous.intersects(unbounded)) return true;
+			previous = unbounded;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Get the set of all characters, in which the non-ASCII characters are
+	 * represented by a single element
+	 *
+	 * @return the set
+	 */
+	private static BitSet anyChar() {
+		BitSet b = new BitSet(NON_ASCII + 1);
+		b.set(0, NON_ASCII + 1);
+		return b;
+	}
+
+
+	/**
+	 * Get the set of a single character
+	 *
+	 * @param c the character
+	 * @return the set
+	 */
+	private static BitSet charSet(char c) {
+		BitSet b = new BitSet(NON_ASCII + 1);
+		b.set(Math.min(c, NON_ASCII));
+		return b;
+	}
+
+
+	/**
+	 * Get the set of the characters matched by an escape sequence. Anything
+	 * that is not recognized matches any character.
+	 *
+	 * @param c the character after the backslash
+	 * @return the set, or null if the escape sequence does not match a character
+	 */
+	private static BitSet escapeChars(char c) {
+
+		BitSet b = new BitSet(NON_ASCII + 1);
+
+		switch (c) {
+		case 'd':
+		case 'D':
+			b.set('0', '9' + 1);
+			break;
+		case 'w':
+		case 'W':
+			b.set('0', '9' + 1);
+			b.set('A', 'Z' + 1);
+			b.set('a', 'z' + 1);
+			b.set('_');
+			break;
+		case 's':
+		case 'S':
+			for (char w : " \t\n\u000B\f\r".toCharArray()) b.set(w);
+			break;
+		case 't':
+			return charSet('\t');
+		case 'n':
+			return charSet('\n');
+		case 'r':
+			return charSet('\r');
+		case 'f':
+			return charSet('\f');
+		case 'b':
+		case 'B':
+		case 'A':
+		case 'G':
+		case 'z':
+		case 'Z':
+			return null;
+		default:
+			return Character.isLetterOrDigit(c) ? anyChar() : charSet(c);
+		}
+
+		if (Character.isUpperCase(c)) b.flip(0, NON_ASCII + 1);
+		return b;
+	}
+
+
+	/**
+	 * Get the set of the characters matched by a character class. Only the
+	 * simple classes that consist of characters, ranges, and escape sequences
+	 * are analyzed; anything else matches any character.
+	 *
+	 * @param regex the regular expression
+	 * @param start the position of the opening bracket
+	 * @param end the position after the class
+	 * @return the set
+	 */
+	private static BitSet classChars(String regex, int start, int end) {
+
+		BitSet b = new BitSet(NON_ASCII + 1);
+
+		int p = start + 1;
+		boolean negated = p < end && regex.charAt(p) == '^';
+		if (negated) p++;
+
+		boolean first = true;
+		while (p < end - 1) {
+			char c = regex.charAt(p);
+
+			if (c == '[' || (c == '&' && p + 1 < end && regex.charAt(p + 1) == '&')
+					|| (c == ']' && !first)) {
+				return anyChar();
+			}
+			first = false;
+
+			if (c == '\\') {
+				if (p + 1 >= end - 1) return anyChar();
+				BitSet e = escapeChars(regex.charAt(p + 1));
+				if (e == null) return anyChar();
+				b.or(e);
+				p += 2;
+				continue;
+			}
+
+			if (p + 2 < end - 1 && regex.charAt(p + 1) == '-' && regex.charAt(p + 2) != '\\') {
+				char to = regex.charAt(p + 2);
+				for (int x = c; x <= to; x++) b.set(Math.min(x, NON_ASCII));
+				p += 3;
+				continue;
+			}
+
+			b.set(Math.min(c, NON_ASCII));
+			p++;
+		}
+
+		if (negated) b.flip(0, NON_ASCII + 1);
+		return b;
+	}
+
+
+	/**
+	 * Parse a quantifier
+	 *
+	 * @param regex the regular expression
+	 * @param i the position of the quantifier
+	 * @return the position after the quantifier, its maximum number of
+	 *         repetitions (capped at 2), 1 if it is possessive or 0
+	 *         otherwise, and 1 if the number of repetitions is unbounded or
+	 *         0 otherwise; or null if it is not a valid quantifier
+	 */
+	private static int[] quantifier(String regex, int i) {
+
+		int n = regex.length();
+		char q = regex.charAt(i);
+		int max;
+		int p;
+
+		if (q == '{') {
+			int end = regex.indexOf('}', i);
+			if (end < 0) return null;
+			String bounds = regex.substring(i + 1, end);
+			int comma = bounds.indexOf(',');
+			try {
+				if (comma < 0) {
+					max = Integer.parseInt(bounds.trim());
+				}
+				else {
+					String upper = bounds.substring(comma + 1).trim();
+					max = upper.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(upper);
+				}
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+			p = end + 1;
+		}
+		else {
+			max = q == '?' ? 1 : Integer.MAX_VALUE;
+			p = i + 1;
+		}
+
+		int possessive = 0;
+		if (p < n && regex.charAt(p) == '+') {
+			possessive = 1;
+			p++;
+		}
+		else if (p < n && regex.charAt(p) == '?') {
+			p++;
+		}
+
+		return new int[] { p, Math.min(max, 2), possessive, max == Integer.MAX_VALUE ? 1 : 0 };
+	}
+
+
+	/**
+	 * Skip a character class
+	 *
+	 * @param regex the regular expression
+	 * @param i the position of the opening bracket
+	 * @return the position after the class, or the length of the expression
+	 *         if it is not closed
+	 */
+	private static int skipClass(String regex, int i) {
+
+		int n = regex.length();
+		int depth = 0;
+		int p = i;
+
+		while (p < n) {
+			char c = regex.charAt(p);
+			if (c == '\\') {
+				if (p + 1 < n && regex.charAt(p + 1) == 'Q') {
+					int end = regex.indexOf("\\E", p + 2);
+					if (end < 0) return n;
+					p = end + 2;
+					continue;
+				}
+				p += 2;
+				continue;
+			}
+
+			if (c == '[') {
+				depth++;
+				p++;
+				// A closing bracket right after the opening one (or after ^) is a literal
+				if (p < n && regex.charAt(p) == '^') p++;
+				if (p < n && regex.charAt(p) == ']') p++;
+				continue;
+			}
+
+			p++;
+			if (c == ']' && --depth == 0) return p;
+		}
+
+		return n;
+	}
+
+
+	/**
+	 * The exception thrown when a match does not finish within its budget
+	 */
+	public static class BudgetExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+
+		/**
+		 * Create an instance of {@link BudgetExceededException}
+		 *
+		 * @param budget the budget that was exceeded
+		 */
+		BudgetExceededException(long budget) {
+			super("The regular expression did not finish matching within " + budget + " steps");
+		}
+	}
+
+
+	/**
+	 * A character sequence that counts the accesses to its characters and
+	 * throws an exception when they exceed the budget
+	 */
+	private static class BudgetedCharSequence implements CharSequence {
+
+		private CharSequence input;
+		private long budget;
+		private long[] remaining;
+
+
+		/**
+		 * Create an instance of {@link BudgetedCharSequence}
+		 *
+		 * @param input the input
+		 * @param budget the budget
+		 */
+		BudgetedCharSequence(CharSequence input, long budget) {
+			this(input, budget, new long[] { budget });
+		}
+
+
+		/**
+		 * Create an instance of {@link BudgetedCharSequence} that shares the
+		 * remaining budget with another one
+		 *
+		 * @param input the input
+		 * @param budget the total budget
+		 * @param remaining the shared remaining budget
+		 */
+		private BudgetedCharSequence(CharSequence input, long budget, long[] remaining) {
+			this.input = input;
+			this.budget = budget;
+			this.remaining = remaining;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#charAt(int)
+		 */
+		@Override
+		public char charAt(int index) {
+			if (--remaining[0] < 0) throw new BudgetExceededException(budget);
+			return input.charAt(index);
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#length()
+		 */
+		@Override
+		public int length() {
+			return input.length();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#subSequence(int, int)
+		 */
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new BudgetedCharSequence(input.subSequence(start, end), budget, remaining);
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#toString()
+		 */
+		@Override
+		public String toString() {
+			return input.toString();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.aific.finances.util;
+
+import java.util.ArrayList;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * A {@link XMLStreamWriter} that indents the nested elements and writes
+ * elements without any content as empty elements, producing the same layout
+ * as an indenting {@link javax.xml.transform.Transformer}.
+ *
+ * @author Peter Macko
+ */
+public class IndentingXMLStreamWriter implements XMLStreamWriter {
+
+	private static final String INDENT = "    ";
+
+	private XMLStreamWriter out;
+
+	private int depth;
+	private boolean hasChildElements;
+	private ArrayList<Boolean> hasChildElementsStack;
+
+	private String pendingElement;
+	private ArrayList<String> pendingAttributes;
+
+
+	/**
+	 * Create an instance of {@link IndentingXMLStreamWriter}
+	 *
+	 * @param out the underlying writer
+	 */
+	public IndentingXMLStreamWriter(XMLStreamWriter out) {
+
+		this.out = out;
+
+		this.depth = 0;
+		this.hasChildElements = false;
+		this.hasChildElementsStack = new ArrayList<Boolean>();
+
+		this.pendingElement = null;
+		this.pendingAttributes = new ArrayList<String>();
+	}
+
+
+	/**
+	 * Write the pending start element, if any
+	 *
+	 * @throws XMLStreamException on error
+	 */
+	private void flushPending() throws XMLStreamException {
+
+		if (pendingElement == null) return;
+
+		out.writeStartElement(pendingElement);
+		for (int i = 0; i < pendingAttributes.size(); i += 2) {
+			out.writeAttribute(pendingAttributes.get(i), pendingAttributes.get(i + 1));
+		}
+
+		pendingElement = null;
+		pendingAttributes.clear();
+	}
+
+
+	/**
+	 * Write the line break and the indentation before a child element
+	 *
+	 * @throws XMLStreamException on error
+	 */
+	private void indent() throws XMLStreamException {
+
+		flushPending();
+
+		StringBuilder sb = new StringBuilder(1 + depth * INDENT.length());
+		sb.append('\n');
+		for (int i = 0; i < depth; i++) sb.append(INDENT);
+		out.writeCharacters(sb.toString());
+	}
+
+
+	@Override
+	public void writeStartElement(String localName) throws XMLStreamException {
+
+		indent();
+
+		hasChildElementsStack.add(true);
+		hasChildElements = false;
+		depth++;
+
+		pendingElement = localName;
+	}
+
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeStartElement(String prefix, String localName, String namespaceURI)
+			throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeEmptyElement(String localName) throws XMLStreamException {
+		writeStartElement(localName);
+		writeEndElement();
+	}
+
+
+	@Override
+	public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeEmptyElement(String prefix, String localName, String namespaceURI)
+			throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+
+		depth--;
+
+		if (pendingElement != null) {
+			out.writeEmptyElement(pendingElement);
+			for (int i = 0; i < pendingAttributes.size(); i += 2) {
+				out.writeAttribute(pendingAttributes.get(i), pendingAttributes.get(i + 1));
+			}
+			pendingElement = null;
+			pendingAttributes.clear();
+		}
+		else {
+			if (hasChildElements) indent();
+			out.writeEndElement();
+		}
+
+		hasChildElements = hasChildElementsStack.remove(hasChildElementsStack.size() - 1);
+	}
+
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		flushPending();
+		out.writeCharacters("\n");
+		out.writeEndDocument();
+	}
+
+
+	@Override
+	public void close() throws XMLStreamException {
+		out.close();
+	}
+
+
+	@Override
+	public void flush() throws XMLStreamException {
+		out.flush();
+	}
+
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+
+		if (pendingElement == null) {
+			out.writeAttribute(localName, value);
+		}
+		else {
+			pendingAttributes.add(localName);
+			pendingAttributes.add(value);
+		}
+	}
+
+
+	@Override
+	public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+			throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeAttribute(String namespaceURI, String localName, String value)
+			throws XMLStreamException {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+		flushPending();
+		out.writeNamespace(prefix, namespaceURI);
+	}
+
+
+	@Override
+	public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+		flushPending();
+		out.writeDefaultNamespace(namespaceURI);
+	}
+
+
+	@Override
+	public void writeComment(String data) throws XMLStreamException {
+		indent();
+		out.writeComment(data);
+	}
+
+
+	@Override
+	public void writeProcessingInstruction(String target) throws XMLStreamException {
+		flushPending();
+		out.writeProcessingInstruction(target);
+	}
+
+
+	@Override
+	public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+		flushPending();
+		out.writeProcessingInstruction(target, data);
+	}
+
+
+	@Override
+	public void writeCData(String data) throws XMLStreamException {
+		flushPending();
+		out.writeCData(data);
+	}
+
+
+	@Override
+	public void writeDTD(String dtd) throws XMLStreamException {
+		out.writeDTD(dtd);
+	}
+
+
+	@Override
+	public void writeEntityRef(String name) throws XMLStreamException {
+		flushPending();
+		out.writeEntityRef(name);
+	}
+
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		out.writeStartDocument();
+	}
+
+
+	@Override
+	public void writeStartDocument(String version) throws XMLStreamException {
+		out.writeStartDocument(version);
+	}
+
+
+	@Override
+	public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+		out.writeStartDocument(encoding, version);
+	}
+
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		if (text == null || text.isEmpty()) return;
+		flushPending();
+		out.writeCharacters(text);
+	}
+
+
+	@Override
+	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+		if (len == 0) return;
+		flushPending();
+		out.writeCharacters(text, start, len);
+	}
+
+
+	@Override
+	public String getPrefix(String uri) throws XMLStreamException {
+		return out.getPrefix(uri);
+	}
+
+
+	@Override
+	public void setPrefix(String prefix, String uri) throws XMLStreamException {
+		out.setPrefix(prefix, uri);
+	}
+
+
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException {
+		out.setDefaultNamespace(uri);
+	}
+
+
+	@Override
+	public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+		out.setNamespaceContext(context);
+	}
+
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return out.getNamespaceContext();
+	}
+
+
+	@Override
+	public Object getProperty(String name) throws IllegalArgumentException {
+		return out.getProperty(name);
+	}
+}
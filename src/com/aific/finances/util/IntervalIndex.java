@@ -0,0 +1,206 @@
+package com.aific.finances.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * An index over closed integer intervals that finds all intervals containing
+ * a given value. The endpoints of the intervals split the integers into
+ * elementary segments, each of which is precomputed with the set of the
+ * intervals that cover it, so that a lookup is a binary search. Unbounded
+ * intervals are kept in a separate bucket that is a part of every result.
+ * <p>
+ * The segments are rebuilt lazily on the next lookup after a change. The
+ * index is thread-safe.
+ *
+ * @author Peter Macko
+ */
+public class IntervalIndex {
+
+	private ArrayList<int[]> intervals;
+	private BitSet unbounded;
+
+	private volatile Segments segments;
+
+
+	/**
+	 * Create an empty instance of {@link IntervalIndex}
+	 */
+	public IntervalIndex() {
+
+		this.intervals = new ArrayList<int[]>();
+		this.unbounded = new BitSet();
+
+		this.segments = null;
+	}
+
+
+	/**
+	 * Add or replace the interval at the given index
+	 *
+	 * @param index the index of the interval
+	 * @param min the inclusive lower bound
+	 * @param max the inclusive upper bound
+	 */
+	public synchronized void put(int index, int min, int max) {
+
+		if (min > max) throw new IllegalArgumentException("The lower bound is greater than the upper bound");
+
+		while (intervals.size() <= index) intervals.add(null);
+
+		intervals.set(index, new int[] { min, max });
+		unbounded.clear(index);
+		segments = null;
+	}
+
+
+	/**
+	 * Add or replace an unbounded interval, which contains all values, at the given index
+	 *
+	 * @param index the index of the interval
+	 */
+	public synchronized void putUnbounded(int index) {
+
+		if (index < intervals.size()) intervals.set(index, null);
+
+		unbounded.set(index);
+		segments = null;
+	}
+
+
+	/**
+	 * Remove the interval at the given index
+	 *
+	 * @param index the index of the interval
+	 */
+	public synchronized void remove(int index) {
+
+		if (index < intervals.size()) intervals.set(index, null);
+
+		unbounded.clear(index);
+		segments = null;
+	}
+
+
+	/**
+	 * Find the intervals that contain the given value
+	 *
+	 * @param value the value
+	 * @return the indexes of the intervals that contain the value, including
+	 *         the unbounded intervals
+	 */
+	public BitSet containing(int value) {
+
+		Segments s = getSegments();
+		int k = s.find(value);
+
+		return (BitSet) (k < 0 ? s.unbounded : s.covers[k]).clone();
+	}
+
+
+	/**
+	 * Get the elementary segment that contains the given value. All values
+	 * in the same segment are contained in exactly the same intervals.
+	 *
+	 * @param value the value
+	 * @return the index of the segment, or -1 for the values below all intervals
+	 */
+	public int segmentOf(int value) {
+		return getSegments().find(value);
+	}
+
+
+	/**
+	 * Get the segments, computing them if necessary
+	 *
+	 * @return the segments
+	 */
+	private Segments getSegments() {
+
+		Segments s = segments;
+		if (s == null) {
+			synchronized (this) {
+				if (segments == null) segments = new Segments(intervals, unbounded);
+				s = segments;
+			}
+		}
+
+		return s;
+	}
+
+
+	/**
+	 * The elementary segments between the endpoints of the intervals
+	 */
+	private static class Segments {
+
+		int[] starts;
+		BitSet[] covers;
+		BitSet unbounded;
+
+
+		/**
+		 * Compute the segments
+		 *
+		 * @param intervals the bounded intervals indexed by the interval indexes, with nulls for none
+		 * @param unbounded the indexes of the unbounded intervals
+		 */
+		Segments(ArrayList<int[]> intervals, BitSet unbounded) {
+
+			this.unbounded = (BitSet) unbounded.clone();
+
+
+			// The segments start at the lower bounds and right after the upper bounds
+
+			long[] points = new long[2 * intervals.size()];
+			int n = 0;
+			for (int[] interval : intervals) {
+				if (interval == null) continue;
+				points[n++] = interval[0];
+				points[n++] = interval[1] + 1l;
+			}
+
+			long[] sorted = Arrays.copyOf(points, n);
+			Arrays.sort(sorted);
+
+			int distinct = 0;
+			for (int i = 0; i < n; i++) {
+				if (sorted[i] > Integer.MAX_VALUE) break;
+				if (distinct == 0 || sorted[distinct - 1] != sorted[i]) sorted[distinct++] = sorted[i];
+			}
+
+			starts = new int[distinct];
+			for (int i = 0; i < distinct; i++) starts[i] = (int) sorted[i];
+
+
+			// Cover the segments by each interval
+
+			covers = new BitSet[distinct];
+			for (int k = 0; k < distinct; k++) covers[k] = (BitSet) unbounded.clone();
+
+			for (int index = 0; index < intervals.size(); index++) {
+				int[] interval = intervals.get(index);
+				if (interval == null) continue;
+
+				int first = Arrays.binarySearch(starts, interval[0]);
+				for (int k = first; k < distinct && starts[k] <= interval[1]; k++) {
+					covers[k].set(index);
+				}
+			}
+		}
+
+
+		/**
+		 * Find the segment that contains the given value
+		 *
+		 * @param value the value
+		 * @return the index of the segment, or -1 for the values before the first segment
+		 */
+		int find(int value) {
+			int k = Arrays.binarySearch(starts, value);
+			return k < 0 ? -k - 2 : k;
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package com.aific.finances.util;
 
-import java.util.Calendar;
+import java.time.LocalDate;
 import java.util.Date;
 
 
@@ -9,8 +9,14 @@ import java.util.Date;
  */
 public class Month extends TimePeriod {
 
-	private int month;
-	private int year;
+	// The shared instances of the months of the years 1900 through 2199,
+	// indexed by their ordinals, so that looking up the month of a day does
+	// not need to allocate
+	private static final int CACHE_FIRST = 1900 * 12;
+	private static final Month[] CACHE = new Month[300 * 12];
+
+	private final int month;
+	private final int year;
 
 	
 	/**
@@ -21,19 +27,7 @@ public class Month extends TimePeriod {
 	 */
 	public Month(int month, int year)
 	{
-		this.month = month;
-		this.year = year;
-		
-		Calendar c = Calendar.getInstance();
-		c.clear();
-		c.set(year, month, c.getActualMinimum(Calendar.DAY_OF_MONTH), 0, 0, 0);
-		first = c.getTime();
-		
-		c.set(year, month, c.getActualMaximum(Calendar.DAY_OF_MONTH),
-				c.getActualMaximum(Calendar.HOUR_OF_DAY),
-				c.getActualMaximum(Calendar.MINUTE),
-				c.getActualMaximum(Calendar.SECOND));
-		last = c.getTime();
+		this(LocalDate.of(year, 1, 1).plusMonths(month));
 	}
 	
 	
@@ -44,21 +38,56 @@ public class Month extends TimePeriod {
 	 */
 	public Month(Date date)
 	{
-		Calendar c = Calendar.getInstance();
-		c.setTime(date);
-		
-		month = c.get(Calendar.MONTH);
-		year  = c.get(Calendar.YEAR);
+		this(EpochDays.toLocalDate(EpochDays.fromDate(date)).withDayOfMonth(1));
+	}
+	
+	
+	/**
+	 * Create a new instance of {@link Month}
+	 * 
+	 * @param first the first day of the month
+	 */
+	private Month(LocalDate first)
+	{
+		super((int) first.toEpochDay(), (int) first.plusMonths(1).toEpochDay() - 1);
 		
-		c.clear();
-		c.set(year, month, c.getActualMinimum(Calendar.DAY_OF_MONTH), 0, 0, 0);
-		first = c.getTime();
+		month = first.getMonthValue() - 1;
+		year  = first.getYear();
+	}
+	
+	
+	/**
+	 * Get the month with the given ordinal
+	 * 
+	 * @param ordinal the ordinal, as in {@link #getOrdinal()}
+	 * @return the month
+	 */
+	public static Month ofOrdinal(int ordinal)
+	{
+		int i = ordinal - CACHE_FIRST;
+		if (i < 0 || i >= CACHE.length) {
+			return new Month(Math.floorMod(ordinal, 12), Math.floorDiv(ordinal, 12));
+		}
 		
-		c.set(year, month, c.getActualMaximum(Calendar.DAY_OF_MONTH),
-				c.getActualMaximum(Calendar.HOUR_OF_DAY),
-				c.getActualMaximum(Calendar.MINUTE),
-				c.getActualMaximum(Calendar.SECOND));
-		last = c.getTime();
+		Month m = CACHE[i];
+		if (m == null) {
+			m = new Month(Math.floorMod(ordinal, 12), Math.floorDiv(ordinal, 12));
+			CACHE[i] = m;
+		}
+		return m;
+	}
+	
+	
+	/**
+	 * Get the ordinal of the month that contains the given day
+	 * 
+	 * @param day the epoch day
+	 * @return the ordinal, as in {@link #getOrdinal()}
+	 */
+	public static int ordinalOf(int day)
+	{
+		LocalDate d = EpochDays.toLocalDate(day);
+		return d.getYear() * 12 + d.getMonthValue() - 1;
 	}
 	
 	
@@ -70,13 +99,7 @@ public class Month extends TimePeriod {
 	@Override
 	public Month getNext()
 	{
-		int m = month + 1;
-		int y = year;
-		if (m > Calendar.getInstance().getActualMaximum(Calendar.MONTH)) {
-			m = Calendar.getInstance().getActualMinimum(Calendar.MONTH);
-			y++;
-		}
-		return new Month(m, y);
+		return ofOrdinal(getOrdinal() + 1);
 	}
 
 
@@ -100,6 +123,18 @@ public class Month extends TimePeriod {
 	{
 		return year;
 	}
+
+
+	/**
+	 * Get the ordinal of the month, which is the number of months since the
+	 * start of the year 0
+	 * 
+	 * @return the ordinal
+	 */
+	public int getOrdinal()
+	{
+		return year * 12 + month;
+	}
 	
 
 	/* (non-Javadoc)
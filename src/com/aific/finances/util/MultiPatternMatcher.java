@@ -0,0 +1,1057 @@
+package com.aific.finances.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+
+/**
+ * A matcher that tests a string against many regular expressions in a single
+ * pass. The patterns are compiled into nondeterministic automata, and their
+ * union is turned into a deterministic automaton lazily, one state at a time,
+ * as the strings are matched.
+ * <p>
+ * Each pattern is matched against the entire string, just like using
+ * {@link java.util.regex.Matcher#matches()}. Only the subset of the
+ * {@link java.util.regex.Pattern} syntax that the automaton can express with
+ * exactly the same meaning is supported: literals, escapes, character
+ * classes, the dot, groups, alternation, and greedy or reluctant quantifiers,
+ * with ^ and $ allowed only at the very start and the very end of the pattern.
+ * Patterns that use any other construct are rejected, and the caller must
+ * match them separately.
+ * <p>
+ * The matcher is thread-safe.
+ *
+ * @author Peter Macko
+ */
+public class MultiPatternMatcher {
+
+	private static final int MAX_REPETITIONS = 100;
+	private static final int MAX_PATTERN_STATES = 10000;
+	private static final int MAX_DFA_STATES = 10000;
+
+	private static final int[] DOT = complement(new int[] { '\n', '\n', '\r', '\r',
+			'\u0085', '\u0085', '\u2028', '\u2029' });
+	private static final int[] DIGITS = { '0', '9' };
+	private static final int[] SPACES = { '\t', '\r', ' ', ' ' };
+	private static final int[] WORD_CHARS = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+
+	private ArrayList<String> patterns;
+	private ArrayList<Nfa> nfas;
+
+	private volatile Automaton automaton;
+
+
+	/**
+	 * Create an empty instance of {@link MultiPatternMatcher}
+	 */
+	public MultiPatternMatcher() {
+
+		this.patterns = new ArrayList<String>();
+		this.nfas = new ArrayList<Nfa>();
+
+		this.automaton = null;
+	}
+
+
+	/**
+	 * Create a copy of this matcher that is not affected by the later changes
+	 * to this matcher. The compiled patterns and the combined automaton, if it
+	 * was already built, are shared, since they never change once built.
+	 *
+	 * @return the copy
+	 */
+	public synchronized MultiPatternMatcher copy() {
+
+		MultiPatternMatcher m = new MultiPatternMatcher();
+		m.patterns.addAll(patterns);
+		m.nfas.addAll(nfas);
+		m.automaton = automaton;
+
+		return m;
+	}
+
+
+	/**
+	 * Determine whether a pattern can be expressed by the automaton
+	 *
+	 * @param pattern the regular expression pattern
+	 * @return true if it is supported
+	 */
+	public static boolean isSupported(String pattern) {
+		return compile(pattern, 0) != null;
+	}
+
+
+	/**
+	 * Add or replace the pattern at the given index. Only the given pattern
+	 * is compiled; the combined automaton is rebuilt lazily on the next match.
+	 *
+	 * @param index the index of the pattern
+	 * @param pattern the regular expression pattern
+	 * @return true if the pattern is supported, false if the automaton cannot
+	 *         express it and the pattern is not going to be matched
+	 */
+	public synchronized boolean put(int index, String pattern) {
+
+		while (patterns.size() <= index) {
+			patterns.add(null);
+			nfas.add(null);
+		}
+
+		if (pattern.equals(patterns.get(index))) {
+			return nfas.get(index) != null;
+		}
+
+		Nfa nfa = compile(pattern, index);
+
+		patterns.set(index, pattern);
+		nfas.set(index, nfa);
+		automaton = null;
+
+		return nfa != null;
+	}
+
+
+	/**
+	 * Remove the pattern at the given index
+	 *
+	 * @param index the index of the pattern
+	 */
+	public synchronized void remove(int index) {
+
+		if (index >= patterns.size() || patterns.get(index) == null) return;
+
+		patterns.set(index, null);
+		nfas.set(index, null);
+		automaton = null;
+	}
+
+
+	/**
+	 * Determine whether the pattern at the given index is matched by this matcher
+	 *
+	 * @param index the index of the pattern
+	 * @return true if the pattern is present and supported
+	 */
+	public synchronized boolean isMatched(int index) {
+		return index < nfas.size() && nfas.get(index) != null;
+	}
+
+
+	/**
+	 * Match a string against all supported patterns
+	 *
+	 * @param s the string
+	 * @return the indexes of the supported patterns that match the entire string,
+	 *         or null if the string cannot be matched by the automaton (because it
+	 *         contains supplementary characters), in which case the caller needs
+	 *         to match the patterns separately
+	 */
+	public BitSet match(CharSequence s) {
+
+		Automaton a = automaton;
+		if (a == null) {
+			synchronized (this) {
+				if (automaton == null) automaton = new Automaton(nfas);
+				a = automaton;
+			}
+		}
+
+		DfaState state = a.start;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isSurrogate(c)) return null;
+
+			DfaState next = c < state.ascii.length ? state.ascii[c] : null;
+			if (next == null) next = a.step(state, c);
+
+			state = next;
+			if (state.nfaStates.length == 0) break;
+		}
+
+		return (BitSet) state.accepts.clone();
+	}
+
+
+	/**
+	 * Compile a pattern into a nondeterministic automaton
+	 *
+	 * @param pattern the pattern
+	 * @param index the index of the pattern
+	 * @return the automaton, or null if the pattern is not supported
+	 */
+	private static Nfa compile(String pattern, int index) {
+
+		try {
+			Node root = new Parser(pattern).parse();
+
+			Nfa nfa = new Nfa(index);
+			int accept = nfa.addState(null, -1);
+			nfa.accept = accept;
+			nfa.start = nfa.compile(root, accept);
+			return nfa;
+		}
+		catch (UnsupportedPatternException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Compute the union of two sets of character ranges
+	 *
+	 * @param a the first set, as an array of inclusive lower and upper bounds
+	 * @param b the second set
+	 * @return the union
+	 */
+	private static int[] union(int[] a, int[] b) {
+
+		int[] all = new int[a.length + b.length];
+		System.arraycopy(a, 0, all, 0, a.length);
+		System.arraycopy(b, 0, all, a.length, b.length);
+
+		Integer[] order = new Integer[all.length / 2];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (x, y) -> Integer.compare(all[2 * x], all[2 * y]));
+
+		int[] r = new int[all.length];
+		int n = 0;
+		for (int i : order) {
+			int lo = all[2 * i];
+			int hi = all[2 * i + 1];
+			if (n > 0 && lo <= r[n - 1] + 1) {
+				r[n - 1] = Math.max(r[n - 1], hi);
+			}
+			else {
+				r[n++] = lo;
+				r[n++] = hi;
+			}
+		}
+
+		return Arrays.copyOf(r, n);
+	}
+
+
+	/**
+	 * Compute the complement of a set of character ranges
+	 *
+	 * @param a the set, as an array of sorted, disjoint inclusive lower and upper bounds
+	 * @return the complement
+	 */
+	private static int[] complement(int[] a) {
+
+		int[] r = new int[a.length + 2];
+		int n = 0;
+		int lo = 0;
+		for (int i = 0; i < a.length; i += 2) {
+			if (a[i] > lo) {
+				r[n++] = lo;
+				r[n++] = a[i] - 1;
+			}
+			lo = a[i + 1] + 1;
+		}
+		if (lo <= Character.MAX_VALUE) {
+			r[n++] = lo;
+			r[n++] = Character.MAX_VALUE;
+		}
+
+		return Arrays.copyOf(r, n);
+	}
+
+
+	/**
+	 * Determine whether a set of character ranges contains the given character
+	 *
+	 * @param ranges the set
+	 * @param c the character
+	 * @return true if it contains the character
+	 */
+	private static boolean contains(int[] ranges, char c) {
+
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (c < ranges[i]) return false;
+			if (c <= ranges[i + 1]) return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * The pattern uses a construct that the automaton cannot express
+	 */
+	private static class UnsupportedPatternException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+
+	/**
+	 * A node of the syntax tree of a pattern
+	 */
+	private static class Node {
+
+		static final int EMPTY = 0;
+		static final int SET = 1;
+		static final int CONCAT = 2;
+		static final int ALTERNATION = 3;
+		static final int REPEAT = 4;
+
+		int kind;
+		int[] ranges;
+		ArrayList<Node> children;
+		int min;
+		int max;
+
+
+		/**
+		 * Create an instance of {@link Node}
+		 *
+		 * @param kind the kind of the node
+		 */
+		Node(int kind) {
+			this.kind = kind;
+			this.children = new ArrayList<Node>();
+		}
+
+
+		/**
+		 * Create a node that matches a single character from a set
+		 *
+		 * @param ranges the set of characters
+		 * @return the node
+		 */
+		static Node set(int[] ranges) {
+			Node n = new Node(SET);
+			n.ranges = ranges;
+			return n;
+		}
+	}
+
+
+	/**
+	 * A recursive descent parser of the supported subset of the pattern syntax
+	 */
+	private static class Parser {
+
+		private String p;
+		private int pos;
+
+
+		/**
+		 * Create an instance of {@link Parser}
+		 *
+		 * @param pattern the pattern
+		 */
+		Parser(String pattern) {
+			this.p = pattern;
+			this.pos = 0;
+		}
+
+
+		/**
+		 * Parse the pattern
+		 *
+		 * @return the root of the syntax tree
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		Node parse() throws UnsupportedPatternException {
+
+			Node n = alternation();
+			if (pos != p.length()) throw new UnsupportedPatternException();
+			return n;
+		}
+
+
+		/**
+		 * Parse an alternation
+		 *
+		 * @return the node
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private Node alternation() throws UnsupportedPatternException {
+
+			Node n = new Node(Node.ALTERNATION);
+			n.children.add(concatenation());
+			while (pos < p.length() && p.charAt(pos) == '|') {
+				pos++;
+				n.children.add(concatenation());
+			}
+
+			return n.children.size() == 1 ? n.children.get(0) : n;
+		}
+
+
+		/**
+		 * Parse a concatenation
+		 *
+		 * @return the node
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private Node concatenation() throws UnsupportedPatternException {
+
+			Node n = new Node(Node.CONCAT);
+			while (pos < p.length() && p.charAt(pos) != '|' && p.charAt(pos) != ')') {
+				n.children.add(repetition());
+			}
+
+			return n.children.size() == 1 ? n.children.get(0) : n;
+		}
+
+
+		/**
+		 * Parse an atom followed by an optional quantifier
+		 *
+		 * @return the node
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private Node repetition() throws UnsupportedPatternException {
+
+			Node atom = atom();
+			if (pos >= p.length()) return atom;
+
+			int min;
+			int max;
+			switch (p.charAt(pos)) {
+			case '*': min = 0; max = -1; pos++; break;
+			case '+': min = 1; max = -1; pos++; break;
+			case '?': min = 0; max = 1; pos++; break;
+			case '{':
+				pos++;
+				min = number();
+				max = min;
+				if (pos < p.length() && p.charAt(pos) == ',') {
+					pos++;
+					max = pos < p.length() && p.charAt(pos) == '}' ? -1 : number();
+				}
+				if (pos >= p.length() || p.charAt(pos) != '}') throw new UnsupportedPatternException();
+				pos++;
+				if (min > MAX_REPETITIONS || max > MAX_REPETITIONS || (max >= 0 && max < min)) {
+					throw new UnsupportedPatternException();
+				}
+				break;
+			default:
+				return atom;
+			}
+
+			// Reluctant quantifiers do not change whether the entire string
+			// matches, but possessive quantifiers do
+
+			if (pos < p.length() && p.charAt(pos) == '?') {
+				pos++;
+			}
+			else if (pos < p.length() && p.charAt(pos) == '+') {
+				throw new UnsupportedPatternException();
+			}
+
+			Node n = new Node(Node.REPEAT);
+			n.children.add(atom);
+			n.min = min;
+			n.max = max;
+			return n;
+		}
+
+
+		/**
+		 * Parse a decimal number
+		 *
+		 * @return the number
+		 * @throws UnsupportedPatternException if there is no number
+		 */
+		private int number() throws UnsupportedPatternException {
+
+			int start = pos;
+			while (pos < p.length() && pos - start < 9 && Character.isDigit(p.charAt(pos))) pos++;
+			if (pos == start || (pos < p.length() && Character.isDigit(p.charAt(pos)))) {
+				throw new UnsupportedPatternException();
+			}
+
+			return Integer.parseInt(p.substring(start, pos));
+		}
+
+
+		/**
+		 * Parse an atom
+		 *
+		 * @return the node
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private Node atom() throws UnsupportedPatternException {
+
+			char c = p.charAt(pos++);
+			switch (c) {
+
+			case '(':
+				if (pos < p.length() && p.charAt(pos) == '?') {
+					pos++;
+					if (pos < p.length() && p.charAt(pos) == ':') {
+						pos++;
+					}
+					else if (pos + 1 < p.length() && p.charAt(pos) == '<'
+							&& Character.isLetter(p.charAt(pos + 1))) {
+						pos++;
+						while (pos < p.length() && Character.isLetterOrDigit(p.charAt(pos))) pos++;
+						if (pos >= p.length() || p.charAt(pos) != '>') throw new UnsupportedPatternException();
+						pos++;
+					}
+					else {
+						throw new UnsupportedPatternException();
+					}
+				}
+				Node n = alternation();
+				if (pos >= p.length() || p.charAt(pos) != ')') throw new UnsupportedPatternException();
+				pos++;
+				return n;
+
+			case '[':
+				return Node.set(characterClass());
+
+			case '.':
+				return Node.set(DOT);
+
+			case '\\':
+				return escape();
+
+			case '^':
+				// Matches only at the start of the string
+				if (pos == 1) return new Node(Node.EMPTY);
+				throw new UnsupportedPatternException();
+
+			case '$':
+				// Matches only at the end of the string
+				if (pos == p.length()) return new Node(Node.EMPTY);
+				throw new UnsupportedPatternException();
+
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw new UnsupportedPatternException();
+
+			default:
+				if (Character.isSurrogate(c)) throw new UnsupportedPatternException();
+				return Node.set(new int[] { c, c });
+			}
+		}
+
+
+		/**
+		 * Parse an escape sequence outside of a character class
+		 *
+		 * @return the node
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private Node escape() throws UnsupportedPatternException {
+
+			if (pos < p.length() && p.charAt(pos) == 'Q') {
+				pos++;
+				int end = p.indexOf("\\E", pos);
+				if (end < 0) end = p.length();
+
+				Node n = new Node(Node.CONCAT);
+				for (int i = pos; i < end; i++) {
+					char c = p.charAt(i);
+					if (Character.isSurrogate(c)) throw new UnsupportedPatternException();
+					n.children.add(Node.set(new int[] { c, c }));
+				}
+
+				pos = Math.min(end + 2, p.length());
+
+				// A quantifier after a quotation applies only to its last character
+				if (pos < p.length() && "*+?{".indexOf(p.charAt(pos)) >= 0) {
+					throw new UnsupportedPatternException();
+				}
+				return n;
+			}
+
+			return Node.set(escapedSet());
+		}
+
+
+		/**
+		 * Parse an escape sequence that stands for a character or a predefined
+		 * character class
+		 *
+		 * @return the set of characters
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private int[] escapedSet() throws UnsupportedPatternException {
+
+			if (pos >= p.length()) throw new UnsupportedPatternException();
+			char c = p.charAt(pos++);
+
+			switch (c) {
+			case 'd': return DIGITS;
+			case 'D': return complement(DIGITS);
+			case 's': return SPACES;
+			case 'S': return complement(SPACES);
+			case 'w': return WORD_CHARS;
+			case 'W': return complement(WORD_CHARS);
+			case 't': return new int[] { '\t', '\t' };
+			case 'n': return new int[] { '\n', '\n' };
+			case 'r': return new int[] { '\r', '\r' };
+			case 'f': return new int[] { '\f', '\f' };
+			case 'a': return new int[] { '\u0007', '\u0007' };
+			case 'e': return new int[] { '\u001B', '\u001B' };
+			case 'x': return hex(2);
+			case 'u': return hex(4);
+			default:
+				if (Character.isLetterOrDigit(c) || Character.isSurrogate(c)) {
+					throw new UnsupportedPatternException();
+				}
+				return new int[] { c, c };
+			}
+		}
+
+
+		/**
+		 * Parse a hexadecimal character code
+		 *
+		 * @param digits the number of digits
+		 * @return the set with the character
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private int[] hex(int digits) throws UnsupportedPatternException {
+
+			if (pos + digits > p.length()) throw new UnsupportedPatternException();
+
+			int c = 0;
+			for (int i = 0; i < digits; i++) {
+				int d = Character.digit(p.charAt(pos++), 16);
+				if (d < 0) throw new UnsupportedPatternException();
+				c = c * 16 + d;
+			}
+
+			if (Character.isSurrogate((char) c)) throw new UnsupportedPatternException();
+			return new int[] { c, c };
+		}
+
+
+		/**
+		 * Parse a character class, starting just after the opening bracket
+		 *
+		 * @return the set of characters
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private int[] characterClass() throws UnsupportedPatternException {
+
+			boolean negated = false;
+			if (pos < p.length() && p.charAt(pos) == '^') {
+				negated = true;
+				pos++;
+			}
+
+			if (pos < p.length() && p.charAt(pos) == ']') throw new UnsupportedPatternException();
+
+			int[] set = new int[0];
+			while (true) {
+				if (pos >= p.length()) throw new UnsupportedPatternException();
+
+				char c = p.charAt(pos);
+				if (c == ']') {
+					pos++;
+					break;
+				}
+				if (c == '[' || (c == '&' && pos + 1 < p.length() && p.charAt(pos + 1) == '&')) {
+					throw new UnsupportedPatternException();
+				}
+
+				int[] lo = classCharacter();
+				boolean single = lo.length == 2 && lo[0] == lo[1];
+				if ((!single || lo[0] == '-') && pos + 1 < p.length()
+						&& p.charAt(pos) == '-' && p.charAt(pos + 1) != ']') {
+					throw new UnsupportedPatternException();
+				}
+				if (single && pos + 1 < p.length()
+						&& p.charAt(pos) == '-' && p.charAt(pos + 1) != ']') {
+					pos++;
+					int[] hi = classCharacter();
+					if (hi.length != 2 || hi[0] != hi[1] || hi[0] < lo[0]) {
+						throw new UnsupportedPatternException();
+					}
+					if (pos + 1 < p.length() && p.charAt(pos) == '-' && p.charAt(pos + 1) != ']') {
+						throw new UnsupportedPatternException();
+					}
+					set = union(set, new int[] { lo[0], hi[0] });
+				}
+				else {
+					set = union(set, lo);
+				}
+			}
+
+			return negated ? complement(set) : set;
+		}
+
+
+		/**
+		 * Parse a single character or an escape sequence in a character class
+		 *
+		 * @return the set of characters
+		 * @throws UnsupportedPatternException if the pattern is not supported
+		 */
+		private int[] classCharacter() throws UnsupportedPatternException {
+
+			char c = p.charAt(pos++);
+			if (c == '\\') {
+				if (pos < p.length() && p.charAt(pos) == 'Q') throw new UnsupportedPatternException();
+				return escapedSet();
+			}
+
+			if (Character.isSurrogate(c)) throw new UnsupportedPatternException();
+			return new int[] { c, c };
+		}
+	}
+
+
+	/**
+	 * A nondeterministic automaton for a single pattern. Each state either
+	 * consumes a character from a set and moves to the next state, or it has
+	 * only epsilon transitions.
+	 */
+	private static class Nfa {
+
+		int index;
+		int start;
+		int accept;
+
+		ArrayList<int[]> ranges;
+		ArrayList<Integer> next;
+		ArrayList<int[]> epsilons;
+
+
+		/**
+		 * Create an empty instance of {@link Nfa}
+		 *
+		 * @param index the index of the pattern
+		 */
+		Nfa(int index) {
+
+			this.index = index;
+
+			this.ranges = new ArrayList<int[]>();
+			this.next = new ArrayList<Integer>();
+			this.epsilons = new ArrayList<int[]>();
+		}
+
+
+		/**
+		 * Get the number of states
+		 *
+		 * @return the number of states
+		 */
+		int size() {
+			return ranges.size();
+		}
+
+
+		/**
+		 * Add a state
+		 *
+		 * @param r the set of characters that the state consumes, or null for an epsilon state
+		 * @param n the next state after consuming a character, or -1 if none
+		 * @return the new state
+		 */
+		int addState(int[] r, int n) {
+
+			ranges.add(r);
+			next.add(n);
+			epsilons.add(new int[0]);
+
+			return ranges.size() - 1;
+		}
+
+
+		/**
+		 * Compile a node so that a match of the node continues at the given state
+		 *
+		 * @param node the node
+		 * @param to the state that follows the node
+		 * @return the start state of the node
+		 * @throws UnsupportedPatternException if the automaton would be too large
+		 */
+		int compile(Node node, int to) throws UnsupportedPatternException {
+
+			if (size() > MAX_PATTERN_STATES) throw new UnsupportedPatternException();
+
+			switch (node.kind) {
+
+			case Node.EMPTY:
+				return to;
+
+			case Node.SET:
+				return addState(node.ranges, to);
+
+			case Node.CONCAT:
+				int s = to;
+				for (int i = node.children.size() - 1; i >= 0; i--) {
+					s = compile(node.children.get(i), s);
+				}
+				return s;
+
+			case Node.ALTERNATION:
+				int[] e = new int[node.children.size()];
+				for (int i = 0; i < e.length; i++) {
+					e[i] = compile(node.children.get(i), to);
+				}
+				int a = addState(null, -1);
+				epsilons.set(a, e);
+				return a;
+
+			case Node.REPEAT:
+				Node child = node.children.get(0);
+				int cur = to;
+				if (node.max < 0) {
+					int loop = addState(null, -1);
+					epsilons.set(loop, new int[] { compile(child, loop), to });
+					cur = loop;
+				}
+				else {
+					for (int i = node.min; i < node.max; i++) {
+						int optional = addState(null, -1);
+						epsilons.set(optional, new int[] { compile(child, cur), to });
+						cur = optional;
+					}
+				}
+				for (int i = 0; i < node.min; i++) {
+					cur = compile(child, cur);
+				}
+				return cur;
+
+			default:
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+
+	/**
+	 * A state of the lazily built deterministic automaton, which corresponds
+	 * to a set of states of the combined nondeterministic automaton
+	 */
+	private static class DfaState {
+
+		final int[] nfaStates;
+		final BitSet accepts;
+		final DfaState[] ascii;
+		final HashMap<Character, DfaState> other;
+
+
+		/**
+		 * Create an instance of {@link DfaState}
+		 *
+		 * @param nfaStates the sorted states of the nondeterministic automaton
+		 * @param accepts the indexes of the patterns that match if the string ends here
+		 */
+		DfaState(int[] nfaStates, BitSet accepts) {
+			this.nfaStates = nfaStates;
+			this.accepts = accepts;
+			this.ascii = new DfaState[128];
+			this.other = new HashMap<Character, DfaState>();
+		}
+	}
+
+
+	/**
+	 * The combined automaton for all patterns
+	 */
+	private static class Automaton {
+
+		private int[][] ranges;
+		private int[] next;
+		private int[][] epsilons;
+		private int[] accepts;
+
+		private int[] starts;
+		private volatile DfaState start;
+		private HashMap<IntArrayKey, DfaState> states;
+
+		private int[] marks;
+		private int mark;
+
+
+		/**
+		 * Combine the automata for the individual patterns
+		 *
+		 * @param nfas the automata, with nulls for the missing or unsupported patterns
+		 */
+		Automaton(ArrayList<Nfa> nfas) {
+
+			int size = 0;
+			int count = 0;
+			for (Nfa nfa : nfas) {
+				if (nfa == null) continue;
+				size += nfa.size();
+				count++;
+			}
+
+			ranges = new int[size][];
+			next = new int[size];
+			epsilons = new int[size][];
+			accepts = new int[size];
+			starts = new int[count];
+
+			int offset = 0;
+			count = 0;
+			for (Nfa nfa : nfas) {
+				if (nfa == null) continue;
+				for (int i = 0; i < nfa.size(); i++) {
+					ranges[offset + i] = nfa.ranges.get(i);
+					next[offset + i] = nfa.next.get(i) + offset;
+					int[] e = nfa.epsilons.get(i).clone();
+					for (int j = 0; j < e.length; j++) e[j] += offset;
+					epsilons[offset + i] = e;
+					accepts[offset + i] = i == nfa.accept ? nfa.index : -1;
+				}
+				starts[count++] = nfa.start + offset;
+				offset += nfa.size();
+			}
+
+			marks = new int[size];
+			mark = 0;
+
+			reset();
+		}
+
+
+		/**
+		 * Discard all states of the deterministic automaton
+		 */
+		private void reset() {
+			states = new HashMap<IntArrayKey, DfaState>();
+			start = state(closure(starts, starts.length));
+		}
+
+
+		/**
+		 * Compute the state of the deterministic automaton after consuming a character
+		 *
+		 * @param state the current state
+		 * @param c the character
+		 * @return the next state
+		 */
+		synchronized DfaState step(DfaState state, char c) {
+
+			DfaState n = c < state.ascii.length ? state.ascii[c] : state.other.get(c);
+			if (n != null) return n;
+
+			if (states.size() >= MAX_DFA_STATES) reset();
+
+			int[] targets = new int[state.nfaStates.length];
+			int count = 0;
+			for (int s : state.nfaStates) {
+				if (ranges[s] != null && contains(ranges[s], c)) {
+					targets[count++] = next[s];
+				}
+			}
+
+			n = state(closure(targets, count));
+			if (c < state.ascii.length) {
+				state.ascii[c] = n;
+			}
+			else {
+				state.other.put(c, n);
+			}
+
+			return n;
+		}
+
+
+		/**
+		 * Compute the epsilon closure of a set of states, keeping only the states
+		 * that consume characters or accept
+		 *
+		 * @param from the states
+		 * @param count the number of states
+		 * @return the sorted closure
+		 */
+		private int[] closure(int[] from, int count) {
+
+			mark++;
+
+			int[] stack = new int[ranges.length];
+			int top = 0;
+			for (int i = 0; i < count; i++) {
+				if (marks[from[i]] != mark) {
+					marks[from[i]] = mark;
+					stack[top++] = from[i];
+				}
+			}
+
+			int[] result = new int[ranges.length];
+			int n = 0;
+			while (top > 0) {
+				int s = stack[--top];
+				if (ranges[s] != null || accepts[s] >= 0) result[n++] = s;
+				for (int e : epsilons[s]) {
+					if (marks[e] != mark) {
+						marks[e] = mark;
+						stack[top++] = e;
+					}
+				}
+			}
+
+			int[] r = Arrays.copyOf(result, n);
+			Arrays.sort(r);
+			return r;
+		}
+
+
+		/**
+		 * Get the state of the deterministic automaton for a set of states,
+		 * creating it if necessary
+		 *
+		 * @param nfaStates the sorted states of the nondeterministic automaton
+		 * @return the state
+		 */
+		private DfaState state(int[] nfaStates) {
+
+			IntArrayKey key = new IntArrayKey(nfaStates);
+			DfaState state = states.get(key);
+			if (state != null) return state;
+
+			BitSet b = new BitSet();
+			for (int s : nfaStates) {
+				if (accepts[s] >= 0) b.set(accepts[s]);
+			}
+
+			state = new DfaState(nfaStates, b);
+			states.put(key, state);
+			return state;
+		}
+	}
+
+
+	/**
+	 * An array of integers usable as a hash map key
+	 */
+	private static class IntArrayKey {
+
+		private final int[] a;
+		private final int hash;
+
+
+		/**
+		 * Create an instance of {@link IntArrayKey}
+		 *
+		 * @param a the array
+		 */
+		IntArrayKey(int[] a) {
+			this.a = a;
+			this.hash = Arrays.hashCode(a);
+		}
+
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IntArrayKey && Arrays.equals(a, ((IntArrayKey) obj).a);
+		}
+	}
+}
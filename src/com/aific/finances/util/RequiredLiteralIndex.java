@@ -0,0 +1,569 @@
+package com.aific.finances.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * An index that quickly rules out the regular expressions that cannot match
+ * a string. For each pattern, the index extracts a literal substring that
+ * every matching string must contain, such as "AMAZON" for ".*AMAZON.*", and
+ * it scans the strings for all of these literals at once using an
+ * Aho-Corasick automaton. Only the patterns whose literals occur in a string,
+ * and the patterns without a required literal, need to be matched against it.
+ * <p>
+ * The literals are extracted conservatively from the top-level sequence of
+ * the pattern; patterns with a top-level alternation or with inline flags
+ * that change the meaning of the literals do not have a required literal.
+ * <p>
+ * The index is thread-safe.
+ *
+ * @author Peter Macko
+ */
+public class RequiredLiteralIndex {
+
+	private ArrayList<String> literals;
+	private BitSet unfiltered;
+
+	private volatile Scanner scanner;
+
+
+	/**
+	 * Create an empty instance of {@link RequiredLiteralIndex}
+	 */
+	public RequiredLiteralIndex() {
+
+		this.literals = new ArrayList<String>();
+		this.unfiltered = new BitSet();
+
+		this.scanner = null;
+	}
+
+
+	/**
+	 * Create a copy of this index that is not affected by the later changes
+	 * to this index. The scanner, if it was already built, is shared, since
+	 * it never changes once built.
+	 *
+	 * @return the copy
+	 */
+	public synchronized RequiredLiteralIndex copy() {
+
+		RequiredLiteralIndex r = new RequiredLiteralIndex();
+		r.literals.addAll(literals);
+		r.unfiltered.or(unfiltered);
+		r.scanner = scanner;
+
+		return r;
+	}
+
+
+	/**
+	 * Add or replace the pattern at the given index. The scanner is rebuilt
+	 * lazily on the next lookup.
+	 *
+	 * @param index the index of the pattern
+	 * @param pattern the regular expression pattern
+	 * @return true if the pattern has a required literal, false if it is
+	 *         always going to be reported as a candidate
+	 */
+	public synchronized boolean put(int index, String pattern) {
+
+		while (literals.size() <= index) literals.add(null);
+
+		String literal = requiredLiteral(pattern);
+		if (literal == null) {
+			unfiltered.set(index);
+		}
+		else {
+			unfiltered.clear(index);
+		}
+
+		if (literal == null ? literals.get(index) != null : !literal.equals(literals.get(index))) {
+			literals.set(index, literal);
+			scanner = null;
+		}
+
+		return literal != null;
+	}
+
+
+	/**
+	 * Remove the pattern at the given index
+	 *
+	 * @param index the index of the pattern
+	 */
+	public synchronized void remove(int index) {
+
+		unfiltered.clear(index);
+
+		if (index < literals.size() && literals.get(index) != null) {
+			literals.set(index, null);
+			scanner = null;
+		}
+	}
+
+
+	/**
+	 * Determine whether the pattern at the given index has a required literal
+	 *
+	 * @param index the index of the pattern
+	 * @return true if the pattern is present and has a required literal
+	 */
+	public synchronized boolean isFiltered(int index) {
+		return index < literals.size() && literals.get(index) != null;
+	}
+
+
+	/**
+	 * Find the patterns that can possibly match a string
+	 *
+	 * @param s the string
+	 * @return the indexes of the patterns whose required literals occur
+	 *         in the string, together with the patterns without one
+	 */
+	public BitSet candidates(CharSequence s) {
+
+		Scanner sc = scanner;
+		if (sc == null) {
+			synchronized (this) {
+				if (scanner == null) scanner = new Scanner(literals, unfiltered);
+				sc = scanner;
+			}
+		}
+
+		BitSet result = (BitSet) sc.unfiltered.clone();
+		if (sc.labels.length == 1) return result;
+
+		int node = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+
+			int next;
+			while ((next = sc.next(node, c)) < 0 && node != 0) node = sc.fail[node];
+			node = next < 0 ? 0 : next;
+
+			for (int index : sc.outputs[node]) result.set(index);
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Extract a literal substring that must occur in every string that the
+	 * entire pattern matches. The literal is the longest run of literal
+	 * characters in the top-level sequence of the pattern.
+	 *
+	 * @param pattern the regular expression pattern
+	 * @return the literal, or null if none can be determined
+	 */
+	public static String requiredLiteral(String pattern) {
+
+		String best = "";
+		StringBuilder run = new StringBuilder();
+
+		int n = pattern.length();
+		int i = 0;
+		while (i < n) {
+			char c = pattern.charAt(i);
+			String atom = null;
+
+			switch (c) {
+
+			case '\\':
+				if (i + 1 >= n) return null;
+				char e = pattern.charAt(i + 1);
+				if (e == 'Q') {
+					int end = pattern.indexOf("\\E", i + 2);
+					if (end < 0) end = n;
+					atom = pattern.substring(i + 2, end);
+					i = Math.min(end + 2, n);
+				}
+				else {
+					int[] parsed = escape(pattern, i);
+					if (parsed == null) return null;
+					if (parsed[1] >= 0) atom = String.valueOf((char) parsed[1]);
+					i = parsed[0];
+				}
+				break;
+
+			case '[':
+				i = skipClass(pattern, i);
+				if (i < 0) return null;
+				break;
+
+			case '(':
+				if (isFlagGroup(pattern, i)) return null;
+				i = skipGroup(pattern, i);
+				if (i < 0) return null;
+				break;
+
+			case '.':
+			case '^':
+			case '$':
+				i++;
+				break;
+
+			case '|':
+			case ')':
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				return null;
+
+			default:
+				atom = String.valueOf(c);
+				i++;
+			}
+
+
+			// A quantifier applies only to the last character of the atom, so
+			// the run of required characters ends with it, or before it if it
+			// can be repeated zero times
+
+			boolean quantified = i < n && "*+?{".indexOf(pattern.charAt(i)) >= 0;
+			if (quantified) {
+				int[] q = quantifier(pattern, i);
+				if (q == null || (atom != null && atom.isEmpty())) return null;
+				i = q[0];
+
+				if (atom != null) run.append(atom, 0, q[1] > 0 ? atom.length() : atom.length() - 1);
+			}
+			else if (atom != null) {
+				run.append(atom);
+			}
+
+			if (atom == null || quantified) {
+				if (run.length() > best.length()) best = run.toString();
+				run.setLength(0);
+			}
+		}
+
+		if (run.length() > best.length()) best = run.toString();
+		return best.isEmpty() ? null : best;
+	}
+
+
+	/**
+	 * Parse an escape sequence outside of a character class
+	 *
+	 * @param pattern the pattern
+	 * @param i the position of the backslash
+	 * @return the position after the escape and the literal character that it
+	 *         stands for, or -1 if it does not stand for a single character;
+	 *         or null if the escape is not understood
+	 */
+	private static int[] escape(String pattern, int i) {
+
+		int n = pattern.length();
+		char e = pattern.charAt(i + 1);
+		int p = i + 2;
+
+		switch (e) {
+		case 't': return new int[] { p, '\t' };
+		case 'n': return new int[] { p, '\n' };
+		case 'r': return new int[] { p, '\r' };
+		case 'f': return new int[] { p, '\f' };
+		case 'a': return new int[] { p, '\u0007' };
+		case 'e': return new int[] { p, '\u001B' };
+
+		case 'x':
+		case 'u':
+			if (p < n && pattern.charAt(p) == '{') {
+				int end = pattern.indexOf('}', p);
+				return end < 0 ? null : new int[] { end + 1, -1 };
+			}
+			int digits = e == 'x' ? 2 : 4;
+			if (p + digits > n) return null;
+			try {
+				return new int[] { p + digits, Integer.parseInt(pattern.substring(p, p + digits), 16) };
+			}
+			catch (NumberFormatException ex) {
+				return null;
+			}
+
+		case 'p':
+		case 'P':
+		case 'N':
+			if (p < n && pattern.charAt(p) == '{') {
+				int end = pattern.indexOf('}', p);
+				return end < 0 ? null : new int[] { end + 1, -1 };
+			}
+			return new int[] { Math.min(p + 1, n), -1 };
+
+		case 'k':
+			int end = pattern.indexOf('>', p);
+			return end < 0 ? null : new int[] { end + 1, -1 };
+
+		case 'c':
+			return new int[] { Math.min(p + 1, n), -1 };
+
+		default:
+			if (Character.isLetterOrDigit(e)) {
+				// Predefined classes, boundaries, back-references, and octal escapes
+				while (Character.isDigit(e) && p < n && Character.isDigit(pattern.charAt(p))) p++;
+				return new int[] { p, -1 };
+			}
+			return new int[] { p, e };
+		}
+	}
+
+
+	/**
+	 * Parse a quantifier
+	 *
+	 * @param pattern the pattern
+	 * @param i the position of the quantifier
+	 * @return the position after the quantifier and its minimum number of
+	 *         repetitions, or null if it is not understood
+	 */
+	private static int[] quantifier(String pattern, int i) {
+
+		int n = pattern.length();
+		char q = pattern.charAt(i);
+		int min;
+		int p;
+
+		if (q == '{') {
+			int end = pattern.indexOf('}', i);
+			if (end < 0) return null;
+			String bounds = pattern.substring(i + 1, end);
+			int comma = bounds.indexOf(',');
+			try {
+				min = Integer.parseInt((comma < 0 ? bounds : bounds.substring(0, comma)).trim());
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+			p = end + 1;
+		}
+		else {
+			min = q == '+' ? 1 : 0;
+			p = i + 1;
+		}
+
+		if (p < n && (pattern.charAt(p) == '?' || pattern.charAt(p) == '+')) p++;
+		return new int[] { p, min };
+	}
+
+
+	/**
+	 * Skip a character class
+	 *
+	 * @param pattern the pattern
+	 * @param i the position of the opening bracket
+	 * @return the position after the class, or -1 if it is not closed
+	 */
+	private static int skipClass(String pattern, int i) {
+
+		int n = pattern.length();
+		int depth = 0;
+		int p = i;
+
+		while (p < n) {
+			char c = pattern.charAt(p);
+			if (c == '\\') {
+				if (p + 1 < n && pattern.charAt(p + 1) == 'Q') {
+					int end = pattern.indexOf("\\E", p + 2);
+					if (end < 0) return -1;
+					p = end + 2;
+					continue;
+				}
+				p += 2;
+				continue;
+			}
+
+			if (c == '[') {
+				depth++;
+				p++;
+				// A closing bracket right after the opening one (or after ^) is a literal
+				if (p < n && pattern.charAt(p) == '^') p++;
+				if (p < n && pattern.charAt(p) == ']') p++;
+				continue;
+			}
+
+			p++;
+			if (c == ']' && --depth == 0) return p;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Skip a group, including the nested groups and classes
+	 *
+	 * @param pattern the pattern
+	 * @param i the position of the opening parenthesis
+	 * @return the position after the group, or -1 if it is not closed
+	 */
+	private static int skipGroup(String pattern, int i) {
+
+		int n = pattern.length();
+		int depth = 0;
+		int p = i;
+
+		while (p < n) {
+			char c = pattern.charAt(p);
+			if (c == '\\') {
+				if (p + 1 < n && pattern.charAt(p + 1) == 'Q') {
+					int end = pattern.indexOf("\\E", p + 2);
+					if (end < 0) return -1;
+					p = end + 2;
+					continue;
+				}
+				p += 2;
+				continue;
+			}
+
+			if (c == '[') {
+				p = skipClass(pattern, p);
+				if (p < 0) return -1;
+				continue;
+			}
+
+			p++;
+			if (c == '(') depth++;
+			if (c == ')' && --depth == 0) return p;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Determine whether a group consists only of inline flags, such as (?i),
+	 * which change the meaning of the rest of the pattern
+	 *
+	 * @param pattern the pattern
+	 * @param i the position of the opening parenthesis
+	 * @return true if it is a group of flags
+	 */
+	private static boolean isFlagGroup(String pattern, int i) {
+
+		int n = pattern.length();
+		if (i + 1 >= n || pattern.charAt(i + 1) != '?') return false;
+
+		int p = i + 2;
+		while (p < n && (Character.isLetter(pattern.charAt(p)) || pattern.charAt(p) == '-')) p++;
+		return p > i + 2 && p < n && pattern.charAt(p) == ')';
+	}
+
+
+	/**
+	 * The Aho-Corasick automaton over the required literals
+	 */
+	private static class Scanner {
+
+		char[][] labels;
+		int[][] targets;
+		int[] fail;
+		int[][] outputs;
+		BitSet unfiltered;
+
+
+		/**
+		 * Build the automaton
+		 *
+		 * @param literals the literals indexed by the pattern indexes, with nulls for no literal
+		 * @param unfiltered the indexes of the patterns without a required literal
+		 */
+		Scanner(ArrayList<String> literals, BitSet unfiltered) {
+
+			this.unfiltered = (BitSet) unfiltered.clone();
+
+
+			// Build the trie
+
+			ArrayList<HashMap<Character, Integer>> children = new ArrayList<HashMap<Character, Integer>>();
+			ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+			children.add(new HashMap<Character, Integer>());
+			out.add(new ArrayList<Integer>());
+
+			for (int index = 0; index < literals.size(); index++) {
+				String literal = literals.get(index);
+				if (literal == null) continue;
+
+				int node = 0;
+				for (int i = 0; i < literal.length(); i++) {
+					Integer next = children.get(node).get(literal.charAt(i));
+					if (next == null) {
+						next = children.size();
+						children.add(new HashMap<Character, Integer>());
+						out.add(new ArrayList<Integer>());
+						children.get(node).put(literal.charAt(i), next);
+					}
+					node = next;
+				}
+				out.get(node).add(index);
+			}
+
+			int count = children.size();
+			labels = new char[count][];
+			targets = new int[count][];
+			fail = new int[count];
+			outputs = new int[count][];
+
+			for (int node = 0; node < count; node++) {
+				HashMap<Character, Integer> m = children.get(node);
+				labels[node] = new char[m.size()];
+				targets[node] = new int[m.size()];
+				int k = 0;
+				for (Map.Entry<Character, Integer> e : m.entrySet()) labels[node][k++] = e.getKey();
+				Arrays.sort(labels[node]);
+				for (k = 0; k < labels[node].length; k++) targets[node][k] = m.get(labels[node][k]);
+			}
+
+
+			// Compute the failure links breadth-first, merging the outputs of
+			// the longest proper suffixes into each node
+
+			ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+			for (int child : targets[0]) {
+				fail[child] = 0;
+				queue.add(child);
+			}
+
+			while (!queue.isEmpty()) {
+				int node = queue.poll();
+				for (int k = 0; k < labels[node].length; k++) {
+					char c = labels[node][k];
+					int child = targets[node][k];
+
+					int f = fail[node];
+					int next;
+					while ((next = next(f, c)) < 0 && f != 0) f = fail[f];
+					fail[child] = next < 0 || next == child ? 0 : next;
+
+					out.get(child).addAll(out.get(fail[child]));
+					queue.add(child);
+				}
+			}
+
+			for (int node = 0; node < count; node++) {
+				ArrayList<Integer> l = out.get(node);
+				outputs[node] = new int[l.size()];
+				for (int k = 0; k < l.size(); k++) outputs[node][k] = l.get(k);
+			}
+		}
+
+
+		/**
+		 * Follow the trie edge from a node
+		 *
+		 * @param node the node
+		 * @param c the character
+		 * @return the target node, or -1 if there is no such edge
+		 */
+		int next(int node, char c) {
+			int k = Arrays.binarySearch(labels[node], c);
+			return k < 0 ? -1 : targets[node][k];
+		}
+	}
+}
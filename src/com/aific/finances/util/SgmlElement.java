@@ -1,9 +1,10 @@
 package com.aific.finances.util;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
 
@@ -95,199 +96,64 @@ public class SgmlElement {
 	
 	
 	/**
-	 * Parser helper: Extract the tag.
+	 * Parse
 	 * 
 	 * @param str the content to parse
-	 * @param p the start position of the tag
-	 * @param closing if this is a closing tag
-	 * @return the tag name
+	 * @param start the start position
+	 * @return the parsed element
 	 * @throws ParseException on parse error
 	 */
-	private static String extractTag(String str, int p, boolean closing)
+	public static SgmlElement parse(String str, int start)
 		throws ParseException {
 		
-		int e = str.indexOf('>', p);
-		if (e < 0) {
-			throw new ParseException("No '>' for the tag", p);
-		}
-		
-		if (closing && (p >= str.length() || str.charAt(p + 1) != '/')) {
-			throw new ParseException("Expected '/'", p + 1);
-		}
-		
-		String tag = str.substring(p + (closing ? 2 : 1), e).trim();
-		
-		if (tag.startsWith("/")) {
-			throw new ParseException("Unexpected '/' within a tag", p + 1);
+		if (str == null) {
+			throw new NullPointerException("str is null");
 		}
 		
-		int x = tag.indexOf('<');
-		if (x >= 0) {
-			throw new ParseException("Unexpected '<' within a tag", p + 1 + x);
+		if (start < 0 || start >= str.length()) {
+			throw new IllegalArgumentException("Invalid start");
 		}
 		
-		x = tag.indexOf(' ');
-		if (x >= 0) {
-			throw new ParseException("Unexpected ' ' within a tag", p + 1 + x);
+		byte[] content = str.substring(start).getBytes(StandardCharsets.UTF_8);
+		try (SgmlReader in = new SgmlReader(ByteBuffer.wrap(content), StandardCharsets.UTF_8, false)) {
+			return read(in);
 		}
-		
-		return tag;
 	}
 	
 	
 	/**
-	 * Parse
+	 * Read the rest of the document from a reader and build its tree
 	 * 
-	 * @param str the content to parse
-	 * @param start the start position
-	 * @return the parsed element
+	 * @param in the reader
+	 * @return the root element
 	 * @throws ParseException on parse error
 	 */
-	public static SgmlElement parse(String str, int start)
+	public static SgmlElement read(SgmlReader in)
 		throws ParseException {
 		
-		if (str == null) {
-			throw new NullPointerException("str is null");
-		}
-		
-		if (start < 0 || start >= str.length()) {
-			throw new IllegalArgumentException("Invalid start");
-		}
-		
-		int p = start;
-		int length = str.length();
-		
 		SgmlElement root = null;
-		LinkedList<SgmlElement> stack = new LinkedList<SgmlElement>();
+		ArrayList<SgmlElement> stack = new ArrayList<SgmlElement>();
 		
-		
-		while (true) {
-			
-			
-			// Skip whitespace to reach the next piece of content
-			
-			while (p < length && Character.isWhitespace(str.charAt(p))) p++;
-			
-			if (p >= length) {
-				if (root == null) {
-					throw new ParseException("Did not find the opening tag", p);
-				}
-				if (!stack.isEmpty()) {
-					throw new ParseException("Did not find a closing tag", p);
-				}
-				return root;
-			}
-
+		while (in.next() != SgmlReader.Event.END_DOCUMENT) {
 			
-			// Depending on whether this is a tag
-
-			if (str.charAt(p) == '<') {
-				
-				if (p + 1 == length) {
-					throw new ParseException("Unexpected end of input", p + 1);
-				}
-				
-				if (str.charAt(p + 1) != '/') {
-					
-					// Close all text tags
-					
-					while (!stack.isEmpty()) {
-						if (stack.peek().getText().isEmpty()) {
-							break;
-						}
-						else {
-							stack.pop();
-						}
-					}
-					
-					
-					// If this is an opening tag, add it to the stack
-					
-					String tag = extractTag(str, p, false /* closing */);
-					SgmlElement element = new SgmlElement(tag);
-					if (root == null) {
-						root = element;
-					}
-					else {
-						if (stack.isEmpty()) {
-							throw new ParseException("Unexpected second root tag", p);
-						}
-					}
-					if (!stack.isEmpty()) {
-						stack.peek().children.add(element);
-						stack.peek().map.putIfAbsent(element.getTag(), element);
-					}
-					stack.push(element);
-					
-					p = str.indexOf('>', p) + 1;
+			if (in.getEvent() == SgmlReader.Event.START_ELEMENT) {
+				SgmlElement element = new SgmlElement(in.getTag());
+				if (stack.isEmpty()) {
+					root = element;
 				}
 				else {
-					
-					// If this is a closing tag, then figure out what to close
-					
-					String tag = extractTag(str, p, true /* closing */);
-					boolean found = false;
-					
-					while (!stack.isEmpty()) {
-						if (stack.pop().getTag().equals(tag)) {
-							found = true;
-							break;
-						}
-					}
-					if (!found) {
-						throw new ParseException("Cannot find the corresponding opening tag", p);
-					}
-					
-					p = str.indexOf('>', p) + 1;
+					SgmlElement parent = stack.get(stack.size() - 1);
+					parent.children.add(element);
+					parent.map.putIfAbsent(element.getTag(), element);
 				}
-
+				stack.add(element);
 			}
 			else {
-				
-				if (root == null) {
-					throw new ParseException("Expected '<'", p);
-				}
-				
-				
-				// Start going through the context
-				
-				StringBuilder b = new StringBuilder();
-				boolean ignoring = false;
-				for ( ; p < length; p++) {
-					char c = str.charAt(p);
-					if (c == '<') break;
-					
-					if (c == '>') {
-						throw new ParseException("Unexpected '>'", p);
-					}
-					
-					if (c == '\n' || c == '\r') {
-						ignoring = true;
-					}
-					
-					if (Character.isWhitespace(c)) {
-						if (!ignoring) b.append(c); 
-					}
-					else {
-						if (ignoring) {
-							ignoring = false;
-							b.append(' ');
-						}
-						b.append(c);
-					}
-				}
-				
-				String text = b.toString();
-				if (!text.isEmpty()) {
-					SgmlElement inner = stack.peek();
-					if (!inner.text.isEmpty()) {
-						// Should this be an error?
-					}
-					inner.text += text;
-					inner.text = inner.text.trim();
-				}
+				stack.remove(stack.size() - 1).text = in.getText();
 			}
 		}
+		
+		return root;
 	}
 	
 	
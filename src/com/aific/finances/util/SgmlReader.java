@@ -0,0 +1,858 @@
+package com.aific.finances.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A streaming pull parser of SGML content, optionally preceded by a
+ * key/value header (e.g. an OFX file). The parser scans the raw bytes of the
+ * content, such as of a memory-mapped file, and reports the elements one at a
+ * time, so that it never needs to hold the whole document or its tree in
+ * memory. The text of an element is decoded only when it is requested, using
+ * the charset declared in the header.
+ * <p>
+ * As in SGML, the elements with text do not need to be closed: such an
+ * element is closed by the next opening tag, and a closing tag also closes
+ * all elements opened after the corresponding opening tag. The text of an
+ * element is available when it is closed.
+ * <p>
+ * The charset must encode the ASCII characters as single bytes with the same
+ * values, so that the markup can be found without decoding; this is the case
+ * for all charsets used in OFX 1.x. Only the ASCII whitespace is treated as
+ * whitespace. The predefined entities of XML and the numeric character
+ * references in the text are decoded, as in OFX 2.x.
+ *
+ * @author Peter Macko
+ */
+public class SgmlReader implements ElementReader {
+
+	private static final String ASCII_CHARACTERS;
+	private static final int TAG_CACHE_SIZE = 256;
+
+	static {
+		StringBuilder b = new StringBuilder("\t\n\r");
+		for (char c = ' '; c < 0x7f; c++) b.append(c);
+		ASCII_CHARACTERS = b.toString();
+	}
+
+
+	private ByteBuffer content;
+	private Charset charset;
+	private Map<String, String> header;
+
+	private int position;
+	private int limit;
+
+	private String[] tags;
+	private int[] textStarts;
+	private int[] textEnds;
+	private byte[][] textCopies;
+	private int depth;
+	private boolean foundRoot;
+
+	private Event event;
+	private String tag;
+	private int textStart;
+	private int textEnd;
+	private byte[] textCopy;
+	private String text;
+	private String closingTag;
+
+	private String[] tagCache;
+	private byte[] scratch;
+	private RawText rawText;
+
+
+	/**
+	 * Create an instance of {@link SgmlReader}
+	 *
+	 * @param content the content, from its position to its limit, which the
+	 *                parser must not share with code that modifies it
+	 * @param charset the charset of the content, which the header can
+	 *                override
+	 * @param withHeader true if the content is preceded by a key/value header
+	 * @throws ParseException on parse error in the header
+	 */
+	public SgmlReader(ByteBuffer content, Charset charset, boolean withHeader) throws ParseException {
+
+		if (!isAsciiCompatible(charset)) {
+			throw new IllegalArgumentException("Unsupported charset " + charset);
+		}
+
+		this.content = content.slice();
+		this.charset = charset;
+
+		this.position = 0;
+		this.limit = this.content.limit();
+
+		this.tags = new String[16];
+		this.textStarts = new int[16];
+		this.textEnds = new int[16];
+		this.textCopies = new byte[16][];
+		this.depth = 0;
+		this.foundRoot = false;
+
+		this.event = null;
+		this.tag = null;
+		this.text = null;
+		this.textCopy = null;
+		this.closingTag = null;
+
+		this.tagCache = new String[TAG_CACHE_SIZE];
+		this.scratch = new byte[256];
+		this.rawText = new RawText();
+
+
+		// Skip the UTF-8 byte order mark
+
+		if (limit >= 3 && this.content.get(0) == (byte) 0xef && this.content.get(1) == (byte) 0xbb
+				&& this.content.get(2) == (byte) 0xbf) {
+			this.charset = StandardCharsets.UTF_8;
+			position = 3;
+		}
+
+		if (withHeader) {
+			this.header = Collections.unmodifiableMap(readHeader());
+			this.charset = headerCharset(header, this.charset);
+		}
+		else {
+			this.header = Collections.<String, String>emptyMap();
+		}
+	}
+
+
+	/**
+	 * Open a file with a header, such as an OFX file, by mapping it to memory
+	 *
+	 * @param file the file
+	 * @return the reader
+	 * @throws IOException on I/O error
+	 * @throws ParseException on parse error in the header
+	 */
+	public static SgmlReader open(File file) throws IOException, ParseException {
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("The file is too large: " + file);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		return new SgmlReader(buffer, Charset.defaultCharset(), true);
+	}
+
+
+	/**
+	 * Get the header
+	 *
+	 * @return the header, which is empty if the content does not have a header
+	 */
+	public Map<String, String> getHeader() {
+		return header;
+	}
+
+
+	/**
+	 * Get the charset used to decode the text
+	 *
+	 * @return the charset
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+
+	/**
+	 * Get the current event
+	 *
+	 * @return the event, or null if {@link #next()} was not yet called
+	 */
+	@Override
+	public Event getEvent() {
+		return event;
+	}
+
+
+	/**
+	 * Get the tag of the element that was just opened or closed
+	 *
+	 * @return the tag, or null at the end of the document
+	 */
+	@Override
+	public String getTag() {
+		return tag;
+	}
+
+
+	/**
+	 * Get the text of the element that was just closed, decoding it and its
+	 * character references on the first call
+	 *
+	 * @return the text, which is empty if the element has no text, or null
+	 *         if the current event is not {@link Event#END_ELEMENT}
+	 */
+	@Override
+	public String getText() {
+
+		if (event != Event.END_ELEMENT) return null;
+
+		if (text == null) {
+			if (textCopy != null) {
+				text = new String(textCopy, charset);
+			}
+			else if (textStart == textEnd) {
+				text = "";
+			}
+			else {
+				int length = textEnd - textStart;
+				scratch = ensureCapacity(scratch, length);
+				content.get(textStart, scratch, 0, length);
+				text = new String(scratch, 0, length, charset);
+			}
+			if (text.indexOf('&') >= 0) text = decodeReferences(text);
+		}
+
+		return text;
+	}
+
+
+	/**
+	 * Get the raw text of the element that was just closed without decoding
+	 * it, with each byte as one character. This is the same as the text if
+	 * the text is in ASCII without character references, such as for the
+	 * numbers and the dates.
+	 *
+	 * @return the raw text, which is valid only until the next event, or null
+	 *         if the current event is not {@link Event#END_ELEMENT}
+	 */
+	@Override
+	public CharSequence getRawText() {
+		return event == Event.END_ELEMENT ? rawText : null;
+	}
+
+
+	/**
+	 * Get the depth of the element that was just opened or closed
+	 *
+	 * @return the depth, which is 1 for the root element
+	 */
+	@Override
+	public int getDepth() {
+		return event == Event.END_ELEMENT ? depth + 1 : depth;
+	}
+
+
+	/**
+	 * Determine whether the element that was just opened or closed is at the
+	 * given path
+	 *
+	 * @param path the tags of the elements under the root, ending with the
+	 *             current element, or no tags for the root itself
+	 * @return true if the element is at the path
+	 */
+	@Override
+	public boolean isAt(String... path) {
+
+		if (tag == null || getDepth() != path.length + 1) return false;
+
+		// The closed element is still in the stack, just past its top
+
+		for (int i = 0; i < path.length; i++) {
+			if (!tags[i + 1].equals(path[i])) return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Advance to the next event
+	 *
+	 * @return the event
+	 * @throws ParseException on parse error
+	 */
+	@Override
+	public Event next() throws ParseException {
+
+		// Continue closing the elements up to the one in the closing tag
+
+		if (closingTag != null) {
+			if (closingTag.equals(tags[depth - 1])) closingTag = null;
+			return endElement();
+		}
+
+
+		while (true) {
+
+			// Skip whitespace to reach the next piece of content
+
+			int c;
+			while ((c = peek()) >= 0 && isWhitespace(c)) position++;
+
+			if (c < 0) {
+				if (!foundRoot) {
+					throw new ParseException("Did not find the opening tag", position);
+				}
+				if (depth > 0) {
+					throw new ParseException("Did not find a closing tag", position);
+				}
+				event = Event.END_DOCUMENT;
+				tag = null;
+				text = null;
+				return event;
+			}
+
+
+			// Depending on whether this is a tag
+
+			if (c == '<') {
+
+				int start = position;
+				position++;
+				c = peek();
+				if (c < 0) {
+					throw new ParseException("Unexpected end of input", position);
+				}
+
+				if (c != '/') {
+
+					// Close all text tags, one at a time, before the new element
+
+					if (depth > 0 && hasText(depth - 1)) {
+						position = start;
+						return endElement();
+					}
+
+
+					// If this is an opening tag, add it to the stack
+
+					String t = readTag(start);
+					if (foundRoot && depth == 0) {
+						throw new ParseException("Unexpected second root tag", start);
+					}
+					foundRoot = true;
+
+					if (depth == tags.length) {
+						tags = Arrays.copyOf(tags, 2 * depth);
+						textStarts = Arrays.copyOf(textStarts, 2 * depth);
+						textEnds = Arrays.copyOf(textEnds, 2 * depth);
+						textCopies = Arrays.copyOf(textCopies, 2 * depth);
+					}
+					tags[depth] = t;
+					textStarts[depth] = 0;
+					textEnds[depth] = 0;
+					textCopies[depth] = null;
+					depth++;
+
+					event = Event.START_ELEMENT;
+					tag = t;
+					text = null;
+					return event;
+				}
+				else {
+
+					// If this is a closing tag, then figure out what to close
+
+					position++;
+					String t = readTag(start);
+
+					int i = depth - 1;
+					while (i >= 0 && !tags[i].equals(t)) i--;
+					if (i < 0) {
+						throw new ParseException("Cannot find the corresponding opening tag", start);
+					}
+
+					if (i < depth - 1) closingTag = t;
+					return endElement();
+				}
+			}
+			else {
+
+				if (!foundRoot) {
+					throw new ParseException("Expected '<'", position);
+				}
+				if (depth == 0) {
+					throw new ParseException("Unexpected text after the root element", position);
+				}
+
+				readText();
+			}
+		}
+	}
+
+
+	/**
+	 * Skip the rest of the element that was just opened, so that the next
+	 * event is the one after its end
+	 *
+	 * @throws ParseException on parse error
+	 */
+	@Override
+	public void skipElement() throws ParseException {
+
+		if (event != Event.START_ELEMENT) {
+			throw new IllegalStateException("Not at the start of an element");
+		}
+
+		int d = depth;
+		while (next() != Event.END_DOCUMENT) {
+			if (event == Event.END_ELEMENT && depth < d) return;
+		}
+	}
+
+
+	/**
+	 * Release the content. The memory of a mapped file is unmapped only when
+	 * the buffer is garbage collected.
+	 */
+	@Override
+	public void close() {
+		content = null;
+		limit = 0;
+	}
+
+
+	/**
+	 * Close the element at the top of the stack
+	 *
+	 * @return the event
+	 */
+	private Event endElement() {
+
+		depth--;
+
+		event = Event.END_ELEMENT;
+		tag = tags[depth];
+		textStart = textStarts[depth];
+		textEnd = textEnds[depth];
+		textCopy = textCopies[depth];
+		text = null;
+		textCopies[depth] = null;
+		return event;
+	}
+
+
+	/**
+	 * Determine whether an element in the stack has text
+	 *
+	 * @param level the level of the element in the stack
+	 * @return true if it has text
+	 */
+	private boolean hasText(int level) {
+		return textCopies[level] != null || textStarts[level] < textEnds[level];
+	}
+
+
+	/**
+	 * Read a piece of text up to the next tag, replacing each line break and
+	 * the whitespace around it by a single space, and append it to the text
+	 * of the element at the top of the stack
+	 *
+	 * @throws ParseException on parse error
+	 */
+	private void readText() throws ParseException {
+
+		int level = depth - 1;
+		int start = position;
+		boolean lineBreak = false;
+
+		int c;
+		while ((c = peek()) >= 0 && c != '<') {
+			if (c == '>') {
+				throw new ParseException("Unexpected '>'", position);
+			}
+			if (c == '\n' || c == '\r') lineBreak = true;
+			position++;
+		}
+
+
+		// In the common case, the text is just a part of the content
+
+		if (!lineBreak && !hasText(level)) {
+			int end = position;
+			while (start < end && (content.get(start) & 0xff) <= ' ') start++;
+			while (end > start && (content.get(end - 1) & 0xff) <= ' ') end--;
+			textStarts[level] = start;
+			textEnds[level] = end;
+			return;
+		}
+
+
+		// Otherwise build it in the scratch buffer, in which the line breaks
+		// can only make it shorter
+
+		int length = 0;
+		if (textCopies[level] != null) {
+			length = textCopies[level].length;
+			scratch = ensureCapacity(scratch, length + position - start);
+			System.arraycopy(textCopies[level], 0, scratch, 0, length);
+		}
+		else {
+			length = textEnds[level] - textStarts[level];
+			scratch = ensureCapacity(scratch, length + position - start);
+			content.get(textStarts[level], scratch, 0, length);
+		}
+
+		boolean ignoring = false;
+		for (int i = start; i < position; i++) {
+
+			c = content.get(i) & 0xff;
+			if (c == '\n' || c == '\r') {
+				ignoring = true;
+			}
+
+			if (isWhitespace(c)) {
+				if (!ignoring) scratch[length++] = (byte) c;
+			}
+			else {
+				if (ignoring) {
+					ignoring = false;
+					scratch[length++] = ' ';
+				}
+				scratch[length++] = (byte) c;
+			}
+		}
+
+		int from = 0;
+		while (from < length && (scratch[from] & 0xff) <= ' ') from++;
+		while (length > from && (scratch[length - 1] & 0xff) <= ' ') length--;
+
+		textCopies[level] = from < length ? Arrays.copyOfRange(scratch, from, length) : null;
+		textStarts[level] = 0;
+		textEnds[level] = 0;
+	}
+
+
+	/**
+	 * Read a tag up to and including the closing '&gt;'
+	 *
+	 * @param start the offset of the '&lt;' for error reporting
+	 * @return the tag
+	 * @throws ParseException on parse error
+	 */
+	private String readTag(int start) throws ParseException {
+
+		int from = position;
+		int c;
+		while ((c = peek()) != '>') {
+			if (c < 0) {
+				throw new ParseException("No '>' for the tag", start);
+			}
+			if (c == '<') {
+				throw new ParseException("Unexpected '<' within a tag", position);
+			}
+			position++;
+		}
+
+		int to = position;
+		position++;
+
+		while (from < to && (content.get(from) & 0xff) <= ' ') from++;
+		while (to > from && (content.get(to - 1) & 0xff) <= ' ') to--;
+
+		if (from < to && content.get(from) == '/') {
+			throw new ParseException("Unexpected '/' within a tag", start + 1);
+		}
+
+		for (int i = from; i < to; i++) {
+			if (content.get(i) == ' ') {
+				throw new ParseException("Unexpected ' ' within a tag", start + 1);
+			}
+		}
+
+		return toTag(from, to);
+	}
+
+
+	/**
+	 * Get the tag in a part of the content, reusing the string of the same
+	 * tag read before if possible
+	 *
+	 * @param from the start of the tag
+	 * @param to the end of the tag
+	 * @return the tag
+	 */
+	private String toTag(int from, int to) {
+
+		int h = 0;
+		for (int i = from; i < to; i++) h = 31 * h + content.get(i);
+		int slot = (h ^ (h >>> 16)) & (TAG_CACHE_SIZE - 1);
+
+		String t = tagCache[slot];
+		if (t != null && t.length() == to - from) {
+			int i = 0;
+			while (i < t.length() && t.charAt(i) == (content.get(from + i) & 0xff)) i++;
+			if (i == t.length()) return t;
+		}
+
+		byte[] b = new byte[to - from];
+		content.get(from, b);
+		t = new String(b, charset);
+		tagCache[slot] = t;
+		return t;
+	}
+
+
+	/**
+	 * Read the header, which consists of the "key:value" lines before the
+	 * first blank line or the first line that starts with '&lt;', whichever
+	 * comes first
+	 *
+	 * @return the header
+	 * @throws ParseException on parse error
+	 */
+	private HashMap<String, String> readHeader() throws ParseException {
+
+		HashMap<String, String> header = new HashMap<String, String>();
+		boolean foundHeader = false;
+
+		while (true) {
+
+			// Read the line
+
+			int start = position;
+			int c;
+			while ((c = peek()) >= 0 && c != '\n' && c != '\r') position++;
+
+			byte[] b = new byte[position - start];
+			content.get(start, b);
+			String l = new String(b, StandardCharsets.ISO_8859_1);
+
+			if (l.trim().isEmpty()) {
+				if (c < 0 || foundHeader) break;
+			}
+			else if (l.trim().startsWith("<")) {
+				position = start;
+				break;
+			}
+			else {
+				foundHeader = true;
+				int separator = l.indexOf(':');
+				if (separator < 0) {
+					throw new ParseException("A header line without ':'", start);
+				}
+				String k = l.substring(0, separator).trim();
+				String v = l.substring(separator + 1).trim();
+				header.put(k, v);
+			}
+
+			if (c < 0) break;
+
+
+			// Skip the line break
+
+			position++;
+			if (c == '\r' && peek() == '\n') position++;
+		}
+
+		return header;
+	}
+
+
+	/**
+	 * Determine the charset declared by the OFX header keys ENCODING and
+	 * CHARSET
+	 *
+	 * @param header the header
+	 * @param defaultCharset the charset if the header does not declare one
+	 * @return the charset
+	 */
+	private static Charset headerCharset(Map<String, String> header, Charset defaultCharset) {
+
+		String encoding = header.get("ENCODING");
+		String name = header.get("CHARSET");
+
+		if ("UTF-8".equalsIgnoreCase(encoding) || "UNICODE".equalsIgnoreCase(encoding)) {
+			return StandardCharsets.UTF_8;
+		}
+		if (name == null || name.isEmpty()) {
+			return "USASCII".equalsIgnoreCase(encoding) ? StandardCharsets.US_ASCII : defaultCharset;
+		}
+
+		// Code pages are usually given just by their numbers, and bytes
+		// outside of ASCII are common even without a declared charset
+
+		if (name.equalsIgnoreCase("NONE")) {
+			name = "windows-1252";
+		}
+		else if (name.equalsIgnoreCase("8859-1")) {
+			name = "ISO-8859-1";
+		}
+		else if (name.chars().allMatch(Character::isDigit)) {
+			name = (name.startsWith("125") ? "windows-" : "IBM") + name;
+		}
+
+		try {
+			Charset charset = Charset.forName(name);
+			return isAsciiCompatible(charset) ? charset : defaultCharset;
+		}
+		catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			return defaultCharset;
+		}
+	}
+
+
+	/**
+	 * Determine whether a charset encodes the ASCII characters as single
+	 * bytes with the same values
+	 *
+	 * @param charset the charset
+	 * @return true if it does
+	 */
+	private static boolean isAsciiCompatible(Charset charset) {
+		return charset.canEncode() && Arrays.equals(ASCII_CHARACTERS.getBytes(charset),
+				ASCII_CHARACTERS.getBytes(StandardCharsets.US_ASCII));
+	}
+
+
+	/**
+	 * Determine whether a byte is an ASCII whitespace character
+	 *
+	 * @param c the unsigned value of the byte
+	 * @return true if it is whitespace
+	 */
+	private static boolean isWhitespace(int c) {
+		return c < 0x80 && Character.isWhitespace(c);
+	}
+
+
+	/**
+	 * Decode the predefined entities of XML and the numeric character
+	 * references in a text, keeping the invalid or unknown references as
+	 * they are
+	 *
+	 * @param text the text
+	 * @return the decoded text
+	 */
+	private static String decodeReferences(String text) {
+
+		StringBuilder b = new StringBuilder(text.length());
+		int i = 0;
+		while (i < text.length()) {
+
+			char c = text.charAt(i);
+			int end = c == '&' ? text.indexOf(';', i + 1) : -1;
+			if (end < 0) {
+				b.append(c);
+				i++;
+				continue;
+			}
+
+			String name = text.substring(i + 1, end);
+			int codePoint = -1;
+			switch (name) {
+			case "amp": codePoint = '&'; break;
+			case "lt": codePoint = '<'; break;
+			case "gt": codePoint = '>'; break;
+			case "quot": codePoint = '"'; break;
+			case "apos": codePoint = '\''; break;
+			default:
+				if (name.startsWith("#")) {
+					int radix = name.startsWith("#x") || name.startsWith("#X") ? 16 : 10;
+					String digits = name.substring(radix == 16 ? 2 : 1);
+					if (!digits.isEmpty() && digits.length() <= 7
+							&& digits.chars().allMatch(d -> Character.digit(d, radix) >= 0)) {
+						int v = Integer.parseInt(digits, radix);
+						if (Character.isValidCodePoint(v)) codePoint = v;
+					}
+				}
+			}
+
+			if (codePoint < 0) {
+				b.append(c);
+				i++;
+			}
+			else {
+				b.appendCodePoint(codePoint);
+				i = end + 1;
+			}
+		}
+
+		return b.toString();
+	}
+
+
+	/**
+	 * Ensure that an array has at least the given capacity
+	 *
+	 * @param array the array
+	 * @param capacity the capacity
+	 * @return the array, or its larger copy
+	 */
+	private static byte[] ensureCapacity(byte[] array, int capacity) {
+		return array.length >= capacity ? array
+				: Arrays.copyOf(array, Math.max(capacity, 2 * array.length));
+	}
+
+
+	/**
+	 * Peek at the next byte
+	 *
+	 * @return the unsigned value of the byte, or -1 at the end of the input
+	 */
+	private int peek() {
+		return position < limit ? content.get(position) & 0xff : -1;
+	}
+
+
+	/**
+	 * The raw text of the element that was just closed
+	 */
+	private class RawText implements CharSequence {
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#length()
+		 */
+		@Override
+		public int length() {
+			return textCopy != null ? textCopy.length : textEnd - textStart;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#charAt(int)
+		 */
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException(index);
+			}
+			return (char) ((textCopy != null ? textCopy[index] : content.get(textStart + index)) & 0xff);
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#subSequence(int, int)
+		 */
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			char[] c = new char[length()];
+			for (int i = 0; i < c.length; i++) c[i] = charAt(i);
+			return new String(c);
+		}
+	}
+}
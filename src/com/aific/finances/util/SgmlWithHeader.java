@@ -1,17 +1,14 @@
 package com.aific.finances.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 
 /**
- * A SGML document with a key/value header (e.g. an OCX file).
+ * A SGML document with a key/value header (e.g. an OCX file), loaded in full.
+ * Use {@link SgmlReader} to read large files without building the tree.
  * 
  * @author Peter Macko
  */
@@ -59,45 +56,13 @@ public class SgmlWithHeader {
 	public static SgmlWithHeader loadFromFile(File file)
 		throws IOException, ParseException {
 		
-		StringBuilder contentBuilder = new StringBuilder();
-		HashMap<String, String> header = new HashMap<String, String>();
+		SgmlWithHeader document = new SgmlWithHeader();
 		
-		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
-			
-	        String l;
-	        boolean inContent = false;
-	        boolean foundHeader = false;
-	        while ((l = in.readLine()) != null) {
-	        	
-	        	if (!inContent) {
-		        	if (l.trim().isEmpty()) {
-		        		if (foundHeader) inContent = true;
-		        	}
-		        	else if (l.trim().startsWith("<")) {
-		        		inContent = true;
-		        		contentBuilder.append(l).append("\n");
-		        	}
-		        	else {
-		        		foundHeader = true;
-		        		int separator = l.indexOf(':');
-		        		if (separator < 0) {
-		        			throw new ParseException("A header line without ':'", 0);
-		        		}
-		        		String k = l.substring(0, separator).trim();
-		        		String v = l.substring(separator + 1).trim();
-		        		header.put(k, v);
-		        	}
-	        	}
-	        	else {
-	        		contentBuilder.append(l).append("\n");
-	        	}
-	        }
+		try (SgmlReader in = SgmlReader.open(file)) {
+			document.header = in.getHeader();
+			document.sgml = SgmlElement.read(in);
 		}
 		
-		SgmlWithHeader document = new SgmlWithHeader();
-		document.header = Collections.unmodifiableMap(header);
-		document.sgml = SgmlElement.parse(contentBuilder.toString(), 0);
-		
 		return document;
 	}
 }
@@ -0,0 +1,106 @@
+package com.aific.finances.util;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Helpers for reading and writing XML using streaming (StAX) readers and writers.
+ *
+ * @author Peter Macko
+ */
+public class StaxUtils {
+
+
+	/**
+	 * Prevent instantiation of this utility class
+	 */
+	private StaxUtils() {
+	}
+
+
+	/**
+	 * Check that the reader is positioned at the start of the given element
+	 *
+	 * @param in the XML stream reader
+	 * @param name the expected element name
+	 * @throws IllegalArgumentException if the reader is not at the start of the element
+	 */
+	public static void requireStartElement(XMLStreamReader in, String name) {
+
+		if (in.getEventType() != XMLStreamConstants.START_ELEMENT
+				|| !in.getLocalName().equals(name)) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+
+	/**
+	 * Get the value of an attribute of the current element
+	 *
+	 * @param in the XML stream reader
+	 * @param name the attribute name
+	 * @return the value, or an empty string if the attribute is not present
+	 */
+	public static String getAttribute(XMLStreamReader in, String name) {
+		String s = in.getAttributeValue(null, name);
+		return s == null ? "" : s;
+	}
+
+
+	/**
+	 * Advance to the start of the next child element of the current element,
+	 * skipping whitespace and comments. If there are no more children, the
+	 * reader is left at the end of the parent element.
+	 *
+	 * @param in the XML stream reader
+	 * @return true if the reader is at the start of a child element, false
+	 *         if it reached the end of the parent element
+	 * @throws XMLStreamException on error
+	 */
+	public static boolean nextChildElement(XMLStreamReader in) throws XMLStreamException {
+		return in.nextTag() == XMLStreamConstants.START_ELEMENT;
+	}
+
+
+	/**
+	 * Skip the current element together with all of its contents, leaving
+	 * the reader at its end
+	 *
+	 * @param in the XML stream reader
+	 * @throws XMLStreamException on error
+	 */
+	public static void skipElement(XMLStreamReader in) throws XMLStreamException {
+
+		int depth = 1;
+		while (depth > 0) {
+			switch (in.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			}
+		}
+	}
+
+
+	/**
+	 * Write an element that contains just text
+	 *
+	 * @param out the XML stream writer
+	 * @param name the element name
+	 * @param text the text
+	 * @throws XMLStreamException on error
+	 */
+	public static void writeTextElement(XMLStreamWriter out, String name, String text)
+			throws XMLStreamException {
+
+		out.writeStartElement(name);
+		if (text != null) out.writeCharacters(text);
+		out.writeEndElement();
+	}
+}
@@ -4,20 +4,47 @@ import java.util.Date;
 
 
 /**
- * A time period
+ * A time period, which is a range of days. The days are represented as
+ * epoch days, as in {@link EpochDays}, and the instances are immutable.
  */
 public abstract class TimePeriod implements Comparable<TimePeriod> {
 
-	protected Date first;
-	protected Date last;	// inclusive
+	private final int firstDay;
+	private final int lastDay;	// inclusive
 	
 	
 	/**
-	 * Create a new instance of the class. The overriding instances must
-	 * initialize the instance variables
+	 * Create a new instance of the class
+	 * 
+	 * @param firstDay the epoch day of the first day
+	 * @param lastDay the epoch day of the last day (inclusive)
+	 */
+	protected TimePeriod(int firstDay, int lastDay)
+	{
+		this.firstDay = firstDay;
+		this.lastDay = lastDay;
+	}
+	
+	
+	/**
+	 * Get the first day
+	 * 
+	 * @return the epoch day of the first day
 	 */
-	protected TimePeriod()
+	public int getFirstDay()
 	{
+		return firstDay;
+	}
+	
+	
+	/**
+	 * Get the last day
+	 * 
+	 * @return the epoch day of the last day (inclusive)
+	 */
+	public int getLastDay()
+	{
+		return lastDay;
 	}
 	
 	
@@ -53,8 +80,19 @@ public abstract class TimePeriod implements Comparable<TimePeriod> {
 	 */
 	public boolean contains(Date date)
 	{
-		return date.compareTo(first) >= 0
-				&& date.compareTo(last) <= 0;
+		return contains(EpochDays.fromDate(date));
+	}
+	
+	
+	/**
+	 * Determine if the given day falls within this date range
+	 * 
+	 * @param day the epoch day
+	 * @return true if it falls into this date range
+	 */
+	public boolean contains(int day)
+	{
+		return day >= firstDay && day <= lastDay;
 	}
 	
 	
@@ -68,8 +106,21 @@ public abstract class TimePeriod implements Comparable<TimePeriod> {
 	 */
 	public boolean containsUntil(TimePeriod end, Date date)
 	{
-		return date.compareTo(first) >= 0
-				&& date.compareTo(end.last) <= 0;
+		return containsUntil(end, EpochDays.fromDate(date));
+	}
+	
+	
+	/**
+	 * Determine if the given day falls within this date range until the end
+	 * of the other range
+	 * 
+	 * @param end the final time period (inclusive)
+	 * @param day the epoch day
+	 * @return true if it falls into this date range
+	 */
+	public boolean containsUntil(TimePeriod end, int day)
+	{
+		return day >= firstDay && day <= end.lastDay;
 	}
 	
 	
@@ -98,10 +149,10 @@ public abstract class TimePeriod implements Comparable<TimePeriod> {
 	@Override
 	public int compareTo(TimePeriod other)
 	{
-		int r = first.compareTo(other.first);
+		int r = Integer.compare(firstDay, other.firstDay);
 		if (r != 0) return r;
 		
-		r = last.compareTo(other.last);
+		r = Integer.compare(lastDay, other.lastDay);
 		return -r;	// Longer durations go first
 	}
 
@@ -114,8 +165,8 @@ public abstract class TimePeriod implements Comparable<TimePeriod> {
 	{
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((first == null) ? 0 : first.hashCode());
-		result = prime * result + ((last == null) ? 0 : last.hashCode());
+		result = prime * result + firstDay;
+		result = prime * result + lastDay;
 		return result;
 	}
 
@@ -136,20 +187,6 @@ public abstract class TimePeriod implements Comparable<TimePeriod> {
 			return false;
 		}
 		TimePeriod other = (TimePeriod) obj;
-		if (first == null) {
-			if (other.first != null) {
-				return false;
-			}
-		} else if (!first.equals(other.first)) {
-			return false;
-		}
-		if (last == null) {
-			if (other.last != null) {
-				return false;
-			}
-		} else if (!last.equals(other.last)) {
-			return false;
-		}
-		return true;
+		return firstDay == other.firstDay && lastDay == other.lastDay;
 	}
 }
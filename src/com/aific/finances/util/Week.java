@@ -1,38 +1,44 @@
 package com.aific.finances.util;
 
-import java.util.Calendar;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
 import java.util.Date;
 
 
 /**
- * A week
+ * A week. The weeks start on the first day of the week of the default
+ * locale, and they are numbered within their week-based years, as in
+ * {@link java.util.Calendar}.
  */
 public class Week extends TimePeriod {
 
-	private int week;
-	private int year;
+	// The epoch day of a day that starts a week, from which the ordinals
+	// are counted
+	private static final int FIRST_DAY_OF_WEEK = (int) LocalDate.ofEpochDay(0)
+			.with(TemporalAdjusters.previousOrSame(EpochDays.WEEK_FIELDS.getFirstDayOfWeek()))
+			.toEpochDay();
+
+	// The shared instances of the weeks of the years 1900 through 2199,
+	// indexed by their ordinals, so that looking up the week of a day does
+	// not need to allocate
+	private static final int CACHE_FIRST = ordinalOf((int) LocalDate.of(1900, 1, 1).toEpochDay());
+	private static final Week[] CACHE = new Week[300 * 53];
+
+	private final int week;
+	private final int year;
 
 	
 	/**
 	 * Create a new instance of {@link Week}
 	 * 
-	 * @param week the month
-	 * @param year the year
+	 * @param week the week of the week-based year
+	 * @param year the week-based year
 	 */
 	public Week(int week, int year)
 	{
-		this.week = week;
-		this.year = year;
-		
-		Calendar c = Calendar.getInstance();
-		c.clear();
-		c.set(Calendar.YEAR, year);
-		c.set(Calendar.WEEK_OF_YEAR, week);
-		first = c.getTime();
-
-		c.add(Calendar.WEEK_OF_YEAR, 1);
-		c.add(Calendar.MILLISECOND, -1);
-		last = c.getTime();
+		this((int) LocalDate.of(year, 1, EpochDays.WEEK_FIELDS.getMinimalDaysInFirstWeek())
+				.with(TemporalAdjusters.previousOrSame(EpochDays.WEEK_FIELDS.getFirstDayOfWeek()))
+				.toEpochDay() + 7 * (week - 1));
 	}
 	
 	
@@ -43,20 +49,56 @@ public class Week extends TimePeriod {
 	 */
 	public Week(Date date)
 	{
-		Calendar c = Calendar.getInstance();
-		c.setTime(date);
+		this(FIRST_DAY_OF_WEEK + 7 * ordinalOf(EpochDays.fromDate(date)));
+	}
+	
+	
+	/**
+	 * Create a new instance of {@link Week}
+	 * 
+	 * @param firstDay the epoch day of the first day of the week
+	 */
+	private Week(int firstDay)
+	{
+		super(firstDay, firstDay + 6);
 		
-		week = c.get(Calendar.WEEK_OF_YEAR);
-		year = c.get(Calendar.YEAR);
+		LocalDate d = EpochDays.toLocalDate(firstDay);
+		week = d.get(EpochDays.WEEK_FIELDS.weekOfWeekBasedYear());
+		year = d.get(EpochDays.WEEK_FIELDS.weekBasedYear());
+	}
+	
+	
+	/**
+	 * Get the week with the given ordinal
+	 * 
+	 * @param ordinal the ordinal, as in {@link #getOrdinal()}
+	 * @return the week
+	 */
+	public static Week ofOrdinal(int ordinal)
+	{
+		int i = ordinal - CACHE_FIRST;
+		if (i < 0 || i >= CACHE.length) {
+			return new Week(FIRST_DAY_OF_WEEK + 7 * ordinal);
+		}
 		
-		c.clear();
-		c.set(Calendar.YEAR, year);
-		c.set(Calendar.WEEK_OF_YEAR, week);
-		first = c.getTime();
-
-		c.add(Calendar.WEEK_OF_YEAR, 1);
-		c.add(Calendar.MILLISECOND, -1);
-		last = c.getTime();
+		Week w = CACHE[i];
+		if (w == null) {
+			w = new Week(FIRST_DAY_OF_WEEK + 7 * ordinal);
+			CACHE[i] = w;
+		}
+		return w;
+	}
+	
+	
+	/**
+	 * Get the ordinal of the week that contains the given day
+	 * 
+	 * @param day the epoch day
+	 * @return the ordinal, as in {@link #getOrdinal()}
+	 */
+	public static int ordinalOf(int day)
+	{
+		return Math.floorDiv(day - FIRST_DAY_OF_WEEK, 7);
 	}
 	
 	
@@ -68,19 +110,14 @@ public class Week extends TimePeriod {
 	@Override
 	public Week getNext()
 	{
-		Calendar c = Calendar.getInstance();
-		c.clear();
-		c.set(Calendar.YEAR, year);
-		c.set(Calendar.WEEK_OF_YEAR, week);
-		c.add(Calendar.WEEK_OF_YEAR, 1);
-		return new Week(c.getTime());
+		return ofOrdinal(getOrdinal() + 1);
 	}
 
 
 	/**
 	 * Get the week of the year
 	 * 
-	 * @return the week of the year
+	 * @return the week of the week-based year
 	 */
 	public int getWeekOfYear()
 	{
@@ -91,12 +128,24 @@ public class Week extends TimePeriod {
 	/**
 	 * Get the year
 	 * 
-	 * @return the year
+	 * @return the week-based year
 	 */
 	public int getYear()
 	{
 		return year;
 	}
+
+
+	/**
+	 * Get the ordinal of the week, which is the number of weeks since the
+	 * week that contains the epoch
+	 * 
+	 * @return the ordinal
+	 */
+	public int getOrdinal()
+	{
+		return ordinalOf(getFirstDay());
+	}
 	
 
 	/* (non-Javadoc)
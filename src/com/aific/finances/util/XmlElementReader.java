@@ -0,0 +1,360 @@
+package com.aific.finances.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * A streaming pull parser of XML content (e.g. an OFX 2.x file) on top of a
+ * StAX reader, which reports the elements the same way as {@link SgmlReader},
+ * so that the code that reads a document does not depend on its format. The
+ * content is read as a stream, so that only the text of the elements that
+ * are currently open is held in memory. The charset is determined by the
+ * XML declaration.
+ * <p>
+ * The text of an element consists of all character data directly within it,
+ * normalized the same way as by {@link SgmlReader}. The processing
+ * instructions and the comments are skipped, and the DTDs are not supported.
+ *
+ * @author Peter Macko
+ */
+public class XmlElementReader implements ElementReader {
+
+	private InputStream stream;
+	private XMLStreamReader in;
+
+	private String[] tags;
+	private StringBuilder[] texts;
+	private int depth;
+
+	private Event event;
+	private String tag;
+	private String text;
+
+
+	/**
+	 * Create an instance of {@link XmlElementReader}
+	 *
+	 * @param stream the input stream, which is closed when the reader is
+	 *               closed
+	 * @throws ParseException on parse error in the prolog
+	 */
+	public XmlElementReader(InputStream stream) throws ParseException {
+
+		this.stream = stream;
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try {
+			this.in = factory.createXMLStreamReader(stream);
+		}
+		catch (XMLStreamException e) {
+			throw toParseException(e);
+		}
+
+		this.tags = new String[16];
+		this.texts = new StringBuilder[16];
+		this.depth = 0;
+
+		this.event = null;
+		this.tag = null;
+		this.text = null;
+	}
+
+
+	/**
+	 * Open a file for reading
+	 *
+	 * @param file the file
+	 * @return the reader
+	 * @throws IOException on I/O error
+	 * @throws ParseException on parse error in the prolog
+	 */
+	public static XmlElementReader open(File file) throws IOException, ParseException {
+
+		InputStream stream = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return new XmlElementReader(stream);
+		}
+		catch (ParseException | RuntimeException e) {
+			stream.close();
+			throw e;
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#getEvent()
+	 */
+	@Override
+	public Event getEvent() {
+		return event;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#getTag()
+	 */
+	@Override
+	public String getTag() {
+		return tag;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#getText()
+	 */
+	@Override
+	public String getText() {
+
+		if (event != Event.END_ELEMENT) return null;
+
+		if (text == null) text = texts[depth].toString();
+		return text;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#getRawText()
+	 */
+	@Override
+	public CharSequence getRawText() {
+		return event == Event.END_ELEMENT ? texts[depth] : null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#getDepth()
+	 */
+	@Override
+	public int getDepth() {
+		return event == Event.END_ELEMENT ? depth + 1 : depth;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#isAt(java.lang.String[])
+	 */
+	@Override
+	public boolean isAt(String... path) {
+
+		if (tag == null || getDepth() != path.length + 1) return false;
+
+		// The closed element is still in the stack, just past its top
+
+		for (int i = 0; i < path.length; i++) {
+			if (!tags[i + 1].equals(path[i])) return false;
+		}
+
+		return true;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#next()
+	 */
+	@Override
+	public Event next() throws IOException, ParseException {
+
+		if (event == Event.END_DOCUMENT) return event;
+
+		try {
+			while (true) {
+				switch (in.next()) {
+
+				case XMLStreamConstants.START_ELEMENT:
+
+					if (depth == tags.length) {
+						tags = Arrays.copyOf(tags, 2 * depth);
+						texts = Arrays.copyOf(texts, 2 * depth);
+					}
+					tags[depth] = in.getLocalName();
+					if (texts[depth] == null) {
+						texts[depth] = new StringBuilder();
+					}
+					else {
+						texts[depth].setLength(0);
+					}
+					depth++;
+
+					event = Event.START_ELEMENT;
+					tag = tags[depth - 1];
+					text = null;
+					return event;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+
+					// Append to the text of the innermost element, ignoring
+					// the whitespace around the root element
+
+					if (depth > 0) {
+						texts[depth - 1].append(in.getTextCharacters(),
+								in.getTextStart(), in.getTextLength());
+					}
+					break;
+
+				case XMLStreamConstants.END_ELEMENT:
+
+					depth--;
+					normalize(texts[depth]);
+
+					event = Event.END_ELEMENT;
+					tag = tags[depth];
+					text = null;
+					return event;
+
+				case XMLStreamConstants.END_DOCUMENT:
+
+					event = Event.END_DOCUMENT;
+					tag = null;
+					text = null;
+					return event;
+
+				default:
+					break;
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw toParseException(e);
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see com.aific.finances.util.ElementReader#skipElement()
+	 */
+	@Override
+	public void skipElement() throws IOException, ParseException {
+
+		if (event != Event.START_ELEMENT) {
+			throw new IllegalStateException("Not at the start of an element");
+		}
+
+		int d = depth;
+		while (next() != Event.END_DOCUMENT) {
+			if (event == Event.END_ELEMENT && depth < d) return;
+		}
+	}
+
+
+	/**
+	 * Close the reader and the underlying stream
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			in.close();
+		}
+		catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+
+	/**
+	 * Normalize the text of an element in place the same way as
+	 * {@link SgmlReader}: drop each line break and the whitespace after it,
+	 * put a single space in place of them before the next character, and
+	 * trim the result
+	 *
+	 * @param b the text
+	 */
+	private static void normalize(StringBuilder b) {
+
+		int n = b.length();
+		if (n == 0) return;
+
+
+		// In the common case, there is nothing to do
+
+		boolean lineBreak = false;
+		for (int i = 0; i < n && !lineBreak; i++) {
+			char c = b.charAt(i);
+			if (c == '\n' || c == '\r') lineBreak = true;
+		}
+
+		if (!lineBreak && b.charAt(0) > ' ' && b.charAt(n - 1) > ' ') return;
+
+
+		// Otherwise rewrite it in place, in which it can only get shorter
+
+		int length = 0;
+		boolean ignoring = false;
+		for (int i = 0; i < n; i++) {
+
+			char c = b.charAt(i);
+			if (c == '\n' || c == '\r') {
+				ignoring = true;
+			}
+
+			if (isWhitespace(c)) {
+				if (!ignoring) b.setCharAt(length++, c);
+			}
+			else {
+				if (ignoring) {
+					ignoring = false;
+					b.setCharAt(length++, ' ');
+				}
+				b.setCharAt(length++, c);
+			}
+		}
+
+		int from = 0;
+		while (from < length && b.charAt(from) <= ' ') from++;
+		while (length > from && b.charAt(length - 1) <= ' ') length--;
+
+		b.setLength(length);
+		b.delete(0, from);
+	}
+
+
+	/**
+	 * Determine whether a character is an ASCII whitespace character
+	 *
+	 * @param c the character
+	 * @return true if it is whitespace
+	 */
+	private static boolean isWhitespace(char c) {
+		return c < 0x80 && Character.isWhitespace(c);
+	}
+
+
+	/**
+	 * Convert a StAX exception to a parse exception
+	 *
+	 * @param e the exception
+	 * @return the parse exception
+	 */
+	private static ParseException toParseException(XMLStreamException e) {
+
+		Location location = e.getLocation();
+		int offset = location == null ? 0 : Math.max(0, location.getCharacterOffset());
+
+		ParseException r = new ParseException(e.getMessage(), offset);
+		r.initCause(e);
+		return r;
+	}
+}